@@ -42,6 +42,10 @@ public class AuthCodes
     /** A code indicating that the server is not available at the moment. */
     public static const SERVER_UNAVAILABLE :String = "m.server_unavailable";
 
+    /** A code indicating that the server is too busy authenticating other clients to
+     * authenticate this one at the moment. */
+    public static const SERVER_BUSY :String = "m.server_busy";
+
     /** A code indicating that we failed to connect to the server on a port and are trying the next
      * port in the list. */
     public static const TRYING_NEXT_PORT :String = "m.trying_next_port";
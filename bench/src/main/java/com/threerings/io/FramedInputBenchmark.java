@@ -0,0 +1,138 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.nio.conman.BufferPool;
+import com.threerings.presents.server.net.PooledFramedInputStream;
+
+/**
+ * Measures {@link FramedInputStream#readFrame} reading frames from a non-blocking loopback
+ * socket, as a connection does when its socket becomes readable, with both the standard stream
+ * and the pooled variant used when <code>presents.net.pooledReadBuffers</code> is enabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class FramedInputBenchmark
+{
+    /** The number of payload bytes in each frame. */
+    @Param({ "64", "1024", "16384" })
+    public int frameSize;
+
+    /** Whether to read via a {@link PooledFramedInputStream}. */
+    @Param({ "false", "true" })
+    public boolean pooled;
+
+    @Setup
+    public void setUp ()
+        throws IOException
+    {
+        InetAddress loopback = InetAddress.getByName(null);
+        _server = ServerSocketChannel.open();
+        _server.socket().bind(new InetSocketAddress(loopback, 0));
+        _writer = SocketChannel.open(
+            new InetSocketAddress(loopback, _server.socket().getLocalPort()));
+        _writer.configureBlocking(false);
+        _reader = _server.accept();
+        _reader.configureBlocking(false);
+
+        // use the same pool configuration as the connection manager
+        _fin = pooled ? new PooledFramedInputStream(
+            new BufferPool(128, 64 * 1024, 4 * 1024 * 1024)) : new FramedInputStream();
+        _data = new byte[frameSize];
+
+        // frame up a batch of messages, which we'll write out again and again
+        FramingOutputStream fout = new FramingOutputStream();
+        ByteBuffer batch = ByteBuffer.allocate(FRAMES_PER_BATCH * (frameSize + 4));
+        for (int ii = 0; ii < FRAMES_PER_BATCH; ii++) {
+            fout.resetFrame();
+            fout.write(_data, 0, frameSize);
+            batch.put(fout.frameAndReturnBuffer());
+        }
+        batch.flip();
+        _batch = batch;
+    }
+
+    @TearDown
+    public void tearDown ()
+        throws IOException
+    {
+        _writer.close();
+        _reader.close();
+        _server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES_PER_BATCH)
+    public int readFrames ()
+        throws IOException
+    {
+        // write out as much of the batch as the socket will take, read whatever frames have
+        // arrived and repeat until we've read the entire batch
+        int frames = 0, read = 0;
+        _batch.rewind();
+        while (frames < FRAMES_PER_BATCH) {
+            if (_batch.hasRemaining()) {
+                _writer.write(_batch);
+            }
+            while (frames < FRAMES_PER_BATCH && _fin.readFrame(_reader)) {
+                read += _fin.read(_data, 0, _fin.available());
+                frames++;
+            }
+        }
+        return read;
+    }
+
+    protected ServerSocketChannel _server;
+    protected SocketChannel _writer, _reader;
+    protected FramedInputStream _fin;
+    protected ByteBuffer _batch;
+    protected byte[] _data;
+
+    /** The number of frames written and read by each benchmark invocation. */
+    protected static final int FRAMES_PER_BATCH = 16;
+}
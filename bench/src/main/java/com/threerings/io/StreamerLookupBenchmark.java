@@ -0,0 +1,106 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the shared {@link Streamer} lookups made by every stream (and by field marshaller
+ * setup) for classes that have already been seen, both by a single thread and by as many threads
+ * as there are processors, which contend for the shared tables as the conmgr, dobj and invoker
+ * threads do on a busy server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class StreamerLookupBenchmark
+{
+    @Setup
+    public void setUp ()
+        throws Exception
+    {
+        // make sure every class has been resolved before we start measuring
+        for (Class<?> clazz : CLASSES) {
+            lookup(clazz);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean uncontended ()
+        throws Exception
+    {
+        return lookup(next());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean contended ()
+        throws Exception
+    {
+        return lookup(next());
+    }
+
+    /**
+     * Performs the lookups made when writing a class mapping for the supplied class.
+     */
+    protected static boolean lookup (Class<?> clazz)
+        throws Exception
+    {
+        return Streamer.getCollectionClass(clazz) == null && Streamer.isStreamable(clazz) &&
+            Streamer.getStreamer(clazz) != null;
+    }
+
+    protected Class<?> next ()
+    {
+        if (++_index == CLASSES.length) {
+            _index = 0;
+        }
+        return CLASSES[_index];
+    }
+
+    protected int _index;
+
+    protected static final Class<?>[] CLASSES = {
+        StreamableTest.Widget.class, StreamableTest.Wocket.class, StreamableTest.Wicket.class,
+        String.class, Integer.class, int[].class, Date.class, ArrayList.class, HashMap.class,
+        StreamableTest.Wocket[].class,
+    };
+}
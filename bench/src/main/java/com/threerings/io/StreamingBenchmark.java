@@ -0,0 +1,131 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.dobj.MessageEvent;
+import com.threerings.presents.net.EventNotification;
+import com.threerings.presents.server.net.EventBroadcastBenchmark.OccupantInfo;
+
+/**
+ * Measures writing representative streamable objects to, and reading them back from, long-lived
+ * object streams which have already exchanged the objects' class mappings, as is the case for an
+ * established client connection. Each object is measured with reflective streamers and with
+ * generated {@link FieldStreamer}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class StreamingBenchmark
+{
+    /** The object to be streamed. */
+    @Param({ "widget", "wicket", "wocket", "event", "dset" })
+    public String object;
+
+    /** Whether or not to stream via generated field streamers. Each configuration runs in its own
+     * JVM, so this determines how every streamer in the fork is created. */
+    @Param({ "false", "true" })
+    public boolean generated;
+
+    @Setup
+    public void setUp ()
+        throws IOException, ClassNotFoundException
+    {
+        FieldStreamer._generate = generated;
+        _object = createObject(object);
+
+        // stream the object once so that both sides establish their class mappings; subsequent
+        // writes are smaller than this one, so our buffer will not be replaced
+        _oout = new ObjectOutputStream(_bout);
+        _oout.writeObject(_object);
+        _oout.flush();
+        _oin = new ObjectInputStream(new ByteBufferInputStream(_bout.flip()));
+        _oin.readObject();
+    }
+
+    @Benchmark
+    public ByteBufferOutputStream write ()
+        throws IOException
+    {
+        _bout.reset();
+        _oout.writeObject(_object);
+        _oout.flush();
+        return _bout;
+    }
+
+    @Benchmark
+    public Object roundTrip ()
+        throws IOException, ClassNotFoundException
+    {
+        _bout.reset();
+        _oout.writeObject(_object);
+        _oout.flush();
+        _bout.flip();
+        return _oin.readObject();
+    }
+
+    protected static Object createObject (String type)
+    {
+        if (type.equals("widget")) {
+            return new StreamableTest.Widget();
+        } else if (type.equals("wicket")) {
+            return new StreamableTest.Wicket();
+        } else if (type.equals("wocket")) {
+            return new StreamableTest.Wocket();
+        } else if (type.equals("event")) {
+            return new EventNotification(new MessageEvent(42, "chat", new Object[] {
+                new Name("speaker"), "Hello, everyone in the room!", (byte)0 }));
+        } else if (type.equals("dset")) {
+            OccupantInfo[] infos = new OccupantInfo[50];
+            for (int ii = 0; ii < infos.length; ii++) {
+                infos[ii] = new OccupantInfo(ii);
+            }
+            return new DSet<OccupantInfo>(infos);
+        }
+        throw new IllegalArgumentException("Unknown object type: " + type);
+    }
+
+    protected ByteBufferOutputStream _bout = new ByteBufferOutputStream();
+    protected ObjectOutputStream _oout;
+    protected ObjectInputStream _oin;
+    protected Object _object;
+}
@@ -0,0 +1,141 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.dobj;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.presents.server.net.EventBroadcastBenchmark.OccupantInfo;
+
+/**
+ * Measures looking up, adding and removing entries in {@link DSet}s of various sizes, backed by a
+ * sorted array (the default) or {@link DSet#newHashedDSet hashed}. Lookups and modifications use
+ * random keys, so that insertions and removals land throughout the set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DSetBenchmark
+{
+    /** The number of entries in the set. */
+    @Param({ "10", "100", "1000", "10000", "100000" })
+    public int size;
+
+    /** Whether the set is hashed. */
+    @Param({ "false", "true" })
+    public boolean hashed;
+
+    @Setup
+    public void setUp ()
+    {
+        // the set contains the even keys; we add and remove odd ones
+        OccupantInfo[] infos = new OccupantInfo[size];
+        for (int ii = 0; ii < size; ii++) {
+            infos[ii] = new OccupantInfo(ii*2);
+        }
+        _set = new BenchSet(infos);
+        if (hashed) {
+            _set.rehash();
+        }
+        _extras = new OccupantInfo[KEYS];
+        _keys = new Integer[KEYS];
+        Random rando = new Random(size);
+        for (int ii = 0; ii < KEYS; ii++) {
+            int key = rando.nextInt(size);
+            _keys[ii] = key*2;
+            _extras[ii] = new OccupantInfo(key*2 + 1);
+        }
+    }
+
+    @Benchmark
+    public OccupantInfo get ()
+    {
+        return _set.get(_keys[next()]);
+    }
+
+    @Benchmark
+    public OccupantInfo addRemove ()
+    {
+        OccupantInfo extra = _extras[next()];
+        _set.add(extra);
+        return _set.removeKey(extra.getKey());
+    }
+
+    @Benchmark
+    public OccupantInfo update ()
+    {
+        return _set.update(_set.get(_keys[next()]));
+    }
+
+    @Benchmark
+    public int iterate ()
+    {
+        int sum = 0;
+        for (OccupantInfo info : _set) {
+            sum += info.bodyOid;
+        }
+        return sum;
+    }
+
+    protected final int next ()
+    {
+        return (_index = (_index + 1) & (KEYS - 1));
+    }
+
+    /** A set that doesn't complain about being large, as we make large sets on purpose. */
+    protected static class BenchSet extends DSet<OccupantInfo>
+    {
+        public BenchSet (OccupantInfo[] source)
+        {
+            super(source);
+        }
+
+        @Override
+        protected int getWarningSize ()
+        {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    protected BenchSet _set;
+    protected OccupantInfo[] _extras;
+    protected Integer[] _keys;
+    protected int _index;
+
+    /** The number of random keys we cycle through (must be a power of two). */
+    protected static final int KEYS = 1024;
+}
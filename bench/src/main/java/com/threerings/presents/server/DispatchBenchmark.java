@@ -0,0 +1,140 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.ObjectAccessException;
+import com.threerings.presents.dobj.ProxySubscriber;
+
+/**
+ * Measures the distributed object manager dispatching attribute changes to an object with a
+ * varying number of listeners and proxy subscribers (which is how client subscriptions are
+ * represented). The benchmark thread acts as the dobj thread, processing each event either
+ * directly or after posting it through the event queue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    /** The number of listeners on the target object. */
+    @Param({ "1", "10", "100" })
+    public int listeners;
+
+    /** The number of proxy subscribers to the target object. */
+    @Param({ "0", "10", "100" })
+    public int proxies;
+
+    @Setup
+    public void setUp ()
+    {
+        _omgr = new PresentsDObjectMgr(new ReportManager());
+        _object = _omgr.registerObject(new TestObject());
+        for (int ii = 0; ii < listeners; ii++) {
+            _object.addListener(new CountingListener());
+        }
+        for (int ii = 0; ii < proxies; ii++) {
+            _object.addSubscriber(new CountingProxy());
+        }
+    }
+
+    @Benchmark
+    public int dispatch ()
+    {
+        _omgr.processUnit(new AttributeChangedEvent(_object.getOid(), TestObject.FOO, ++_value));
+        return _object.foo;
+    }
+
+    @Benchmark
+    public int postAndDispatch ()
+    {
+        _omgr.postEvent(new AttributeChangedEvent(_object.getOid(), TestObject.FOO, ++_value));
+        _omgr.processUnit(_omgr._evqueue.get());
+        return _object.foo;
+    }
+
+    /** Stands in for a server entity listening to the object. */
+    protected static class CountingListener implements AttributeChangeListener
+    {
+        public int count;
+
+        // from interface AttributeChangeListener
+        public void attributeChanged (AttributeChangedEvent event)
+        {
+            count++;
+        }
+    }
+
+    /** Stands in for a client session subscribed to the object. */
+    protected static class CountingProxy implements ProxySubscriber
+    {
+        public int count;
+
+        // from interface ProxySubscriber
+        public void objectAvailable (DObject object)
+        {
+        }
+
+        // from interface ProxySubscriber
+        public void requestFailed (int oid, ObjectAccessException cause)
+        {
+        }
+
+        // from interface ProxySubscriber
+        public void eventReceived (DEvent event)
+        {
+            count++;
+        }
+
+        // from interface ProxySubscriber
+        public ClientObject getClientObject ()
+        {
+            return null;
+        }
+    }
+
+    protected PresentsDObjectMgr _omgr;
+    protected TestObject _object;
+    protected int _value;
+}
@@ -0,0 +1,131 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+
+/**
+ * Measures the rate at which units can be funneled through the distributed object manager when
+ * the connection manager and invoker threads are all posting to it at once, as happens on a busy
+ * server: the conmgr posts events from incoming client messages and the invokers post the
+ * runnables that deliver their results. The dobj thread runs throughout, checking that it is the
+ * dispatch thread as often as the real event processing code does. Posting threads wait while
+ * the event queue is backed up, so the throughput reported is that at which units are processed
+ * while the queue is under contention.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class EventPostBenchmark
+{
+    @Setup
+    public void setUp ()
+    {
+        _omgr = new PresentsDObjectMgr(new ReportManager());
+        _target = _omgr.registerObject(new TestObject());
+        _target.addListener(new AttributeChangeListener() {
+            public void attributeChanged (AttributeChangedEvent event) {
+                _unit.run();
+            }
+        });
+        _dobj = new Thread("dobj") {
+            @Override public void run () {
+                _omgr.run();
+            }
+        };
+        _dobj.start();
+    }
+
+    @TearDown
+    public void tearDown ()
+        throws InterruptedException
+    {
+        _omgr.harshShutdown();
+        _dobj.join();
+    }
+
+    @Benchmark
+    @Group("post")
+    @GroupThreads(1)
+    public void conmgr ()
+    {
+        awaitBacklog();
+        _target.setFoo(++_value);
+    }
+
+    @Benchmark
+    @Group("post")
+    @GroupThreads(2)
+    public void invokers ()
+    {
+        awaitBacklog();
+        _omgr.postRunnable(_unit);
+    }
+
+    /**
+     * Waits until the dobj thread has processed all but a few of the units already posted.
+     */
+    protected void awaitBacklog ()
+    {
+        while (_omgr._evqueue.size() > MAX_BACKLOG) {
+            Thread.yield();
+        }
+    }
+
+    protected PresentsDObjectMgr _omgr;
+    protected TestObject _target;
+    protected Thread _dobj;
+
+    /** The value most recently set by the conmgr thread (which alone modifies it). */
+    protected int _value;
+
+    /** The unit posted by the invoker threads and run for each event posted by the conmgr. */
+    protected Runnable _unit = new Runnable() {
+        public void run () {
+            _omgr.requireEventThread();
+        }
+    };
+
+    /** The number of units that may be waiting on the event queue before posting threads wait. */
+    protected static final int MAX_BACKLOG = 1000;
+}
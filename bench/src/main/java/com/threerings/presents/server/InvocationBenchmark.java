@@ -0,0 +1,140 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+import com.threerings.presents.client.InvocationService;
+import com.threerings.presents.client.TestService;
+import com.threerings.presents.data.InvocationMarshaller;
+import com.threerings.presents.data.TestClientObject;
+import com.threerings.presents.data.TestMarshaller;
+
+/**
+ * Measures {@link InvocationManager#dispatchRequest} delivering requests to a registered provider,
+ * both for a request whose provider responds to its listener (in which case the response event
+ * is also processed) and for one that does not respond at all. Each is measured with reflective
+ * dispatch and with a {@link ProviderDispatcher} generated for the provider.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class InvocationBenchmark
+{
+    /** Whether the provider's requests are dispatched by a generated dispatcher. */
+    @Param({ "false", "true" })
+    public boolean generated;
+
+    @Setup
+    public void setUp ()
+    {
+        ProviderDispatcher._generate = generated;
+        _omgr = new PresentsDObjectMgr(new ReportManager());
+        _invmgr = new InvocationManager(_omgr);
+        _clobj = _omgr.registerObject(new TestClientObject());
+        _invCode = _invmgr.registerProvider(new BenchProvider(), TestMarshaller.class).
+            getInvocationCode();
+        // drain any events generated during registration
+        drainQueue();
+    }
+
+    @Benchmark
+    public int respond ()
+    {
+        TestMarshaller.TestFuncMarshaller listener = new TestMarshaller.TestFuncMarshaller();
+        _invmgr.dispatchRequest(_clobj.getOid(), _invCode, TestMarshaller.TEST,
+                                new Object[] { "hello", 42, _list, listener }, null);
+        return drainQueue();
+    }
+
+    @Benchmark
+    public int noResponse ()
+    {
+        Object[] args = { new InvocationMarshaller.ConfirmMarshaller() };
+        _invmgr.dispatchRequest(
+            _clobj.getOid(), _invCode, TestMarshaller.GIVE_ME_THE_POWER, args, null);
+        return _calls;
+    }
+
+    /**
+     * Processes any events that are waiting on the dobj queue, returning the number processed.
+     */
+    protected int drainQueue ()
+    {
+        int count = 0;
+        for (Object unit; (unit = _omgr._evqueue.getNonBlocking()) != null; count++) {
+            _omgr.processUnit(unit);
+        }
+        return count;
+    }
+
+    /** A provider that does as little as possible. */
+    protected class BenchProvider implements TestProvider
+    {
+        // from interface TestProvider
+        public void getTestOid (TestClientObject caller, TestService.TestOidListener listener)
+        {
+            listener.gotTestOid(caller.getOid());
+        }
+
+        // from interface TestProvider
+        public void giveMeThePower (
+            TestClientObject caller, InvocationService.ConfirmListener listener)
+        {
+            ((InvocationMarshaller.ListenerMarshaller)listener).setNoResponse();
+            _calls++;
+        }
+
+        // from interface TestProvider
+        public void test (TestClientObject caller, String one, int two, List<Integer> three,
+                          TestService.TestFuncListener listener)
+        {
+            listener.testSucceeded(one, two);
+            _calls++;
+        }
+    }
+
+    protected PresentsDObjectMgr _omgr;
+    protected InvocationManager _invmgr;
+    protected TestClientObject _clobj;
+    protected int _invCode;
+    protected int _calls;
+    protected List<Integer> _list = Lists.newArrayList(1, 2, 3);
+}
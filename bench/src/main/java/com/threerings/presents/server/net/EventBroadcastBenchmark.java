@@ -0,0 +1,181 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.threerings.io.FramingOutputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.PreparedObject;
+import com.threerings.io.SimpleStreamableObject;
+import com.threerings.util.Name;
+
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.dobj.EntryAddedEvent;
+import com.threerings.presents.dobj.MessageEvent;
+import com.threerings.presents.net.EventNotification;
+
+/**
+ * Measures flattening an event for delivery to every subscriber of an object, both by streaming
+ * the event separately for each connection and by streaming it once and writing the {@link
+ * PreparedObject} to each connection (as {@link PresentsConnectionManager#postMessage} does).
+ * Each simulated connection has its own object output stream which has already seen the event's
+ * classes and interns, as would be the case for long-lived connections.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class EventBroadcastBenchmark
+{
+    /** A representative set entry, streamed via reflection. */
+    public static class OccupantInfo extends SimpleStreamableObject
+        implements DSet.Entry
+    {
+        public int bodyOid;
+        public Name username;
+        public byte status;
+        public long joined;
+        public String[] tags;
+        public int[] scores;
+
+        public OccupantInfo (int bodyOid)
+        {
+            this.bodyOid = bodyOid;
+            this.username = new Name("occupant" + bodyOid);
+            this.joined = System.currentTimeMillis();
+            this.tags = new String[] { "member", "moderator" };
+            this.scores = new int[] { bodyOid, 17, 42, 99 };
+        }
+
+        public OccupantInfo ()
+        {
+        }
+
+        // from interface DSet.Entry
+        public Comparable<?> getKey ()
+        {
+            return bodyOid;
+        }
+    }
+
+    /** The kind of event broadcast: a chat message, an occupant being added to a place, or a
+     * place's entire occupant set being replaced. */
+    @Param({ "chat", "added", "replaced" })
+    public String event;
+
+    /** The number of subscribers to which each event is delivered. */
+    @Param({ "1", "10", "100", "1000" })
+    public int occupants;
+
+    /** Whether each event is prepared once and written to every connection in that form. */
+    @Param({ "false", "true" })
+    public boolean prepared;
+
+    @Setup
+    public void setUp ()
+        throws IOException
+    {
+        _oouts = new ObjectOutputStream[occupants];
+        for (int ii = 0; ii < occupants; ii++) {
+            _oouts[ii] = new ObjectOutputStream(_framer);
+            flatten(_oouts[ii], createEvent(), null);
+        }
+    }
+
+    @Benchmark
+    public int broadcast ()
+        throws IOException
+    {
+        DEvent event = createEvent();
+        // like the connection manager, we don't prepare events with only one recipient
+        PreparedObject prep = (prepared && _oouts.length > 1) ?
+            PreparedObject.prepare(new EventNotification(event)) : null;
+        int bytes = 0;
+        for (ObjectOutputStream oout : _oouts) {
+            bytes += flatten(oout, event, prep);
+        }
+        return bytes;
+    }
+
+    /**
+     * Mirrors the work done by {@link PresentsConnectionManager#postMessage} for each recipient,
+     * returning the size of the resulting frame.
+     */
+    protected int flatten (ObjectOutputStream oout, DEvent event, PreparedObject prep)
+        throws IOException
+    {
+        _framer.resetFrame();
+        if (prep != null) {
+            prep.writeTo(oout);
+        } else {
+            oout.writeObject(new EventNotification(event));
+        }
+        oout.flush();
+        ByteBuffer buffer = _framer.frameAndReturnBuffer();
+        _data.clear();
+        _data.put(buffer);
+        return _data.position();
+    }
+
+    /**
+     * Creates an event resembling one of those commonly delivered to a place object.
+     */
+    protected DEvent createEvent ()
+    {
+        if (event.equals("added")) {
+            return new EntryAddedEvent<OccupantInfo>(
+                42, "occupantInfo", new OccupantInfo(_count++));
+        } else if (event.equals("replaced")) {
+            OccupantInfo[] infos = new OccupantInfo[50];
+            for (int ii = 0; ii < infos.length; ii++) {
+                infos[ii] = new OccupantInfo(_count++);
+            }
+            return new AttributeChangedEvent(42, "occupantInfo", new DSet<OccupantInfo>(infos));
+        }
+        return new MessageEvent(42, "chat", new Object[] {
+            new Name("speaker" + (_count++ % 100)), "Hello, everyone in the room!", (byte)0 });
+    }
+
+    protected FramingOutputStream _framer = new FramingOutputStream();
+    protected ByteBuffer _data = ByteBuffer.allocate(64 * 1024);
+    protected ObjectOutputStream[] _oouts;
+    protected int _count;
+}
@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -43,6 +44,7 @@ import com.threerings.util.Name;
 import com.threerings.presents.annotation.AnyThread;
 import com.threerings.presents.client.InvocationService;
 import com.threerings.presents.data.ClientObject;
+import com.threerings.presents.dobj.DSet;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
 import com.threerings.presents.server.PresentsDObjectMgr;
@@ -305,11 +307,20 @@ public abstract class ChatChannelManager
         // currently on the node in question
         final Map<String,int[]> partMap = Maps.newHashMap();
         for (NodeObject nodeobj : _peerMan.getNodeObjects()) {
+            DSet.Index<Integer, ClientInfo> index = getBodyIdIndex(nodeobj.nodeName);
             ArrayIntSet nodeBodyIds = new ArrayIntSet();
-            for (ClientInfo clinfo : nodeobj.clients) {
-                int bodyId = getBodyId(((CrowdClientInfo)clinfo).visibleName);
-                if (info.participants.contains(bodyId)) {
-                    nodeBodyIds.add(bodyId);
+            if (info.participants.size() < nodeobj.clients.size()) {
+                for (int bodyId : info.participants) {
+                    if (index.containsKey(nodeobj.clients, bodyId)) {
+                        nodeBodyIds.add(bodyId);
+                    }
+                }
+            } else {
+                for (ClientInfo clinfo : nodeobj.clients) {
+                    int bodyId = getBodyId(((CrowdClientInfo)clinfo).visibleName);
+                    if (info.participants.contains(bodyId)) {
+                        nodeBodyIds.add(bodyId);
+                    }
                 }
             }
             partMap.put(nodeobj.nodeName, nodeBodyIds.toIntArray());
@@ -325,6 +336,32 @@ public abstract class ChatChannelManager
         }
     }
 
+    /**
+     * Returns the index that maps body ids to the client infos of the named node, creating it if
+     * necessary.
+     */
+    protected DSet.Index<Integer, ClientInfo> getBodyIdIndex (String nodeName)
+    {
+        DSet.Index<Integer, ClientInfo> index = _bodyIdIndexes.get(nodeName);
+        if (index == null) {
+            if (_peerObserver == null) {
+                // drop a node's index when it goes away so that we don't hang onto its clients
+                _peerMan.addPeerObserver(_peerObserver = new PeerManager.PeerObserver() {
+                    public void disconnectedFromPeer (String peerName) {
+                        _bodyIdIndexes.remove(peerName);
+                    }
+                });
+            }
+            _bodyIdIndexes.put(nodeName, index = new DSet.Index<Integer, ClientInfo>(
+                new Function<ClientInfo, Integer>() {
+                    public Integer apply (ClientInfo clinfo) {
+                        return getBodyId(((CrowdClientInfo)clinfo).visibleName);
+                    }
+                }));
+        }
+        return index;
+    }
+
     /**
      * Delivers the supplied chat channel message to the specified bodies.
      */
@@ -435,6 +472,12 @@ public abstract class ChatChannelManager
         public long lastMessage;
     }
 
+    /** Indexes the client infos of each node by body id, for speak dispatch. */
+    protected Map<String,DSet.Index<Integer,ClientInfo>> _bodyIdIndexes = Maps.newHashMap();
+
+    /** Clears out the index of each peer node that disconnects, once we have any indexes. */
+    protected PeerManager.PeerObserver _peerObserver;
+
     /** Contains pending messages for all channels currently being resolved. */
     protected Map<ChatChannel,List<UserMessage>> _resolving = Maps.newHashMap();
 
@@ -22,6 +22,7 @@
 package com.threerings.crowd.data;
 
 import com.threerings.io.SimpleStreamableObject;
+import com.threerings.io.StreamDeltas;
 
 import com.threerings.util.Name;
 
@@ -38,8 +39,10 @@ import com.threerings.presents.dobj.DSet;
  *
  * <p> Note also that this class implements {@link Cloneable} which means that if derived classes
  * add non-primitive attributes, they are responsible for adding the code to clone those attributes
- * when a clone is requested.
+ * when a clone is requested. Updated records are streamed as {@link StreamDeltas deltas} from
+ * the records they replace, which relies on those attributes not being shared between clones.
  */
+@StreamDeltas
 public class OccupantInfo extends SimpleStreamableObject
     implements DSet.Entry, Cloneable
 {
@@ -22,6 +22,9 @@
 package com.threerings.crowd.data;
 
 import javax.annotation.Generated;
+
+import com.google.common.base.Function;
+
 import com.threerings.util.Name;
 
 import com.threerings.presents.dobj.DObject;
@@ -136,11 +139,7 @@ public class PlaceObject extends DObject
     public OccupantInfo getOccupantInfo (Name username)
     {
         try {
-            for (OccupantInfo info : occupantInfo) {
-                if (info.username.equals(username)) {
-                    return info;
-                }
-            }
+            return _occInfoByName.get(occupantInfo, username);
         } catch (Throwable t) {
             log.warning("PlaceObject.getOccupantInfo choked.", t);
         }
@@ -252,4 +251,12 @@ public class PlaceObject extends DObject
         this.speakService = value;
     }
     // AUTO-GENERATED: METHODS END
+
+    /** Indexes our occupant info records by username. */
+    protected transient DSet.Index<Name, OccupantInfo> _occInfoByName =
+        new DSet.Index<Name, OccupantInfo>(new Function<OccupantInfo, Name>() {
+            public Name apply (OccupantInfo info) {
+                return info.username;
+            }
+        });
 }
@@ -29,6 +29,7 @@ import com.threerings.presents.dobj.RootDObjectManager;
 import com.threerings.presents.server.ClientManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
+import com.threerings.presents.server.PresentsDObjectMgr;
 import com.threerings.presents.server.PresentsSession;
 
 import com.threerings.crowd.client.LocationService;
@@ -38,6 +39,7 @@ import com.threerings.crowd.data.LocationCodes;
 import com.threerings.crowd.data.LocationMarshaller;
 import com.threerings.crowd.data.Place;
 import com.threerings.crowd.data.PlaceConfig;
+import com.threerings.crowd.data.PlaceObject;
 
 import static com.threerings.crowd.Log.log;
 
@@ -54,24 +56,45 @@ public class LocationManager
     }
 
     // from interface LocationProvider
-    public void moveTo (ClientObject caller, int placeOid, LocationService.MoveListener listener)
+    public void moveTo (ClientObject caller, final int placeOid,
+                        final LocationService.MoveListener listener)
         throws InvocationException
     {
         // do the move and send the response
-        BodyObject body = _locator.forClient(caller);
-        listener.moveSucceeded(moveTo(body, placeOid));
+        final BodyObject body = _locator.forClient(caller);
+        final PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards == null) {
+            listener.moveSucceeded(moveTo(body, placeOid));
+            return;
+        }
+
+        // if we're sharded, the move is made on the thread of the place being entered, so we hop
+        // over to the body's thread, hand the body over to the place's thread and finish up there
+        shards.postRunnable(body, new Runnable() {
+            public void run () {
+                PlaceManager pmgr = _plreg.getPlaceManager(placeOid);
+                PlaceObject plobj = (pmgr == null) ? null : pmgr.getPlaceObject();
+                shards.transferShard(body, plobj, new Runnable() {
+                    public void run () {
+                        finishMove(body, placeOid, listener);
+                    }
+                });
+            }
+        });
     }
 
     // from interface LocationProvider
     public void leavePlace (ClientObject caller)
     {
         BodyObject body = _locator.forClient(caller);
-        leaveOccupiedPlace(body);
+        leaveAndRehome(body);
     }
 
     /**
      * Moves the specified body from whatever location they currently occupy to the location
-     * identified by the supplied place oid.
+     * identified by the supplied place oid. If the dobjmgr is sharded, this must be called on the
+     * thread that processes the events of the place being entered, with the body already handed
+     * over to that thread (see {@link PresentsDObjectMgr#transferShard}).
      *
      * @return the config object for the new location.
      *
@@ -88,6 +111,11 @@ public class LocationManager
                      "placeOid", placeOid);
             throw new InvocationException(NO_SUCH_PLACE);
         }
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards != null) {
+            shards.requireEventThread(pmgr.getPlaceObject());
+            shards.requireEventThread(source);
+        }
 
         // if they're already in the location they're asking to move to, just give them the config
         // because we don't need to update anything in distributed object world
@@ -142,10 +170,18 @@ public class LocationManager
 
     /**
      * Removes the specified body from the place object they currently occupy. Does nothing if the
-     * body is not currently in a place.
+     * body is not currently in a place. If the dobjmgr is sharded and this is not called on the
+     * body's thread, the body is removed on its own thread, after which it is handed back to the
+     * main dobjmgr thread.
      */
     public void leaveOccupiedPlace (BodyObject source)
     {
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards != null && !shards.isDispatchThread(source)) {
+            leaveAndRehome(source);
+            return;
+        }
+
         Place oldloc = source.location;
         if (oldloc == null) {
             return; // nothing to do if they weren't previously in some location
@@ -159,7 +195,7 @@ public class LocationManager
         }
 
         // tell the place manager that they're on the way out
-        pmgr.bodyWillLeave(source);
+        bodyWillLeave(pmgr, source);
 
         // clear out their location
         source.didLeavePlace(pmgr.getPlaceObject());
@@ -173,15 +209,111 @@ public class LocationManager
      * or not they are cooperating.  If they choose to ignore the forced move request, they will
      * remain in limbo, unable to do much of anything.
      */
-    public void moveBody (BodyObject source, Place place)
+    public void moveBody (final BodyObject source, final Place place)
     {
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards != null && !shards.isDispatchThread(source)) {
+            shards.postRunnable(source, new Runnable() {
+                public void run () {
+                    moveBody(source, place);
+                }
+            });
+            return;
+        }
+
         // first remove them from their old place
-        leaveOccupiedPlace(source);
+        leaveAndRehome(source);
 
         // then send a forced move notification to the body's client
         LocationSender.forcedMove(source.getClientObject(), place.placeOid);
     }
 
+    /**
+     * Completes a move requested by a client, on the thread of the place being entered, and
+     * reports the outcome to the client.
+     */
+    protected void finishMove (BodyObject body, int placeOid,
+                               LocationService.MoveListener listener)
+    {
+        try {
+            listener.moveSucceeded(moveTo(body, placeOid));
+        } catch (InvocationException ie) {
+            listener.requestFailed(ie.getMessage());
+        } catch (RuntimeException re) {
+            log.warning("Move failed", "who", body.who(), "placeOid", placeOid, re);
+            listener.requestFailed(E_INTERNAL_ERROR);
+        } finally {
+            // if the move failed, send the body back to where it came from
+            rehomeBody(body);
+        }
+    }
+
+    /**
+     * Removes the specified body from the place they occupy via {@link #leaveOccupiedPlace} and
+     * then, if the dobjmgr is sharded, hands them back to the main dobjmgr thread. If the dobjmgr
+     * is sharded and this is not called on the body's thread, this is all done on that thread.
+     */
+    protected void leaveAndRehome (final BodyObject source)
+    {
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards != null && !shards.isDispatchThread(source)) {
+            shards.postRunnable(source, new Runnable() {
+                public void run () {
+                    leaveAndRehome(source);
+                }
+            });
+            return;
+        }
+        leaveOccupiedPlace(source);
+        rehomeBody(source);
+    }
+
+    /**
+     * Lets the place manager know that the supplied body is on the way out, on the thread that
+     * processes the events of its place (which is only a different thread if the dobjmgr is
+     * sharded).
+     */
+    protected void bodyWillLeave (final PlaceManager pmgr, final BodyObject body)
+    {
+        PlaceObject plobj = pmgr.getPlaceObject();
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards == null || shards.isDispatchThread(plobj)) {
+            pmgr.bodyWillLeave(body);
+        } else {
+            shards.postRunnable(plobj, new Runnable() {
+                public void run () {
+                    pmgr.bodyWillLeave(body);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands the supplied body over to the thread that processes the events of the place it
+     * occupies, or to the main dobjmgr thread if it occupies no place. This must be called on the
+     * body's thread and does nothing if the dobjmgr is not sharded.
+     */
+    protected void rehomeBody (BodyObject body)
+    {
+        PresentsDObjectMgr shards = getShardedOMgr();
+        if (shards == null) {
+            return;
+        }
+        PlaceManager pmgr = (body.location == null) ? null :
+            _plreg.getPlaceManager(body.location.placeOid);
+        shards.assignShard(body, (pmgr == null) ? null : pmgr.getPlaceObject());
+    }
+
+    /**
+     * Returns our dobjmgr if it is sharded, or null if it is not (in which case everything happens
+     * on its one dispatch thread).
+     */
+    protected PresentsDObjectMgr getShardedOMgr ()
+    {
+        return (_omgr instanceof PresentsDObjectMgr && ((PresentsDObjectMgr)_omgr).isSharded()) ?
+            (PresentsDObjectMgr)_omgr : null;
+    }
+
     @Inject protected RootDObjectManager _omgr;
     @Inject protected BodyLocator _locator;
     @Inject protected ClientManager _clmgr;
@@ -259,8 +259,11 @@ public class PlaceManager
      */
     public void startup (PlaceObject plobj)
     {
-        // keep track of this
+        // keep track of this, and associate any services we registered before now with it
         _plobj = plobj;
+        for (InvocationMarshaller<?> marsh : _marshallers) {
+            _invmgr.setServiceObject(marsh, plobj);
+        }
 
         // we usually want to create and register a speaker service instance that clients can use
         // to speak in this place
@@ -589,7 +592,7 @@ public class PlaceManager
         InvocationProvider prov, Class<T> mclass)
     {
         T marsh = _invmgr.registerProvider(prov, mclass);
-        _marshallers.add(marsh);
+        noteMarshaller(marsh);
         return marsh;
     }
 
@@ -600,10 +603,22 @@ public class PlaceManager
     protected <T extends InvocationMarshaller<?>> T addDispatcher (InvocationDispatcher<T> disp)
     {
         T marsh = _invmgr.registerDispatcher(disp);
-        _marshallers.add(marsh);
+        noteMarshaller(marsh);
         return marsh;
     }
 
+    /**
+     * Notes a marshaller registered by this manager, and associates its service with our place
+     * object so that requests are dispatched on our place's thread if the dobjmgr is sharded.
+     */
+    protected void noteMarshaller (InvocationMarshaller<?> marsh)
+    {
+        _marshallers.add(marsh);
+        if (_plobj != null) {
+            _invmgr.setServiceObject(marsh, _plobj);
+        }
+    }
+
     /**
      * Called when a body object enters this place.
      */
@@ -718,7 +733,8 @@ public class PlaceManager
         // queue up a shutdown interval, unless we've already got one.
         long idlePeriod = idleUnloadPeriod();
         if (idlePeriod > 0L && _shutdownInterval == null) {
-            (_shutdownInterval = _omgr.newInterval(new Runnable() {
+            // this must run on our place's thread, wherever we happen to be running now
+            (_shutdownInterval = _registry.newInterval(_plobj, new Runnable() {
                 public void run () {
                     log.debug("Unloading idle place '" + where() + "'.");
                     shutdown();
@@ -24,17 +24,21 @@ package com.threerings.crowd.server;
 import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.collect.Lists;
+
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
 
 import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
+import com.samskivert.util.Interval;
 import com.samskivert.util.Lifecycle;
 
 import com.threerings.presents.dobj.RootDObjectManager;
 import com.threerings.presents.server.InvocationException;
 import com.threerings.presents.server.InvocationManager;
+import com.threerings.presents.server.PresentsDObjectMgr;
 
 import com.threerings.crowd.data.PlaceConfig;
 import com.threerings.crowd.data.PlaceObject;
@@ -71,7 +75,20 @@ public class PlaceRegistry
      */
     public PlaceManager getPlaceManager (int placeOid)
     {
-        return _pmgrs.get(placeOid);
+        synchronized (_pmgrs) {
+            return _pmgrs.get(placeOid);
+        }
+    }
+
+    /**
+     * Creates an interval that runs the supplied action on the thread that processes the events of
+     * the supplied place, wherever it is scheduled. That is only a different thread from the one
+     * that creates the interval if the dobjmgr is sharded.
+     */
+    public Interval newInterval (PlaceObject plobj, Runnable action)
+    {
+        return (_omgr instanceof PresentsDObjectMgr) ?
+            ((PresentsDObjectMgr)_omgr).newInterval(plobj, action) : _omgr.newInterval(action);
     }
 
     /**
@@ -131,7 +148,7 @@ public class PlaceRegistry
      */
     public Iterator<PlaceObject> enumeratePlaces ()
     {
-        final Iterator<PlaceManager> itr = _pmgrs.values().iterator();
+        final Iterator<PlaceManager> itr = enumeratePlaceManagers();
         return new Iterator<PlaceObject>() {
             public boolean hasNext () {
                 return itr.hasNext();
@@ -152,7 +169,10 @@ public class PlaceRegistry
      */
     public Iterator<PlaceManager> enumeratePlaceManagers ()
     {
-        return _pmgrs.values().iterator();
+        // places may come and go on other threads if the dobjmgr is sharded
+        synchronized (_pmgrs) {
+            return Lists.newArrayList(_pmgrs.values()).iterator();
+        }
     }
 
     // from interface Lifecycle.ShutdownComponent
@@ -212,7 +232,9 @@ public class PlaceRegistry
         _omgr.registerObject(plobj);
 
         // stick the manager into our table
-        _pmgrs.put(plobj.getOid(), pmgr);
+        synchronized (_pmgrs) {
+            _pmgrs.put(plobj.getOid(), pmgr);
+        }
 
         // start the place manager up with the newly created place object
         try {
@@ -225,6 +247,12 @@ public class PlaceRegistry
             log.warning("Error starting place manager", "obj", plobj, "pmgr", pmgr, e);
         }
 
+        // now that the place has started up on our thread, hand it over to a shard if we're
+        // sharding; anything it queued up on our thread during startup will follow it
+        if (_omgr instanceof PresentsDObjectMgr) {
+            ((PresentsDObjectMgr)_omgr).assignShard(plobj);
+        }
+
         return pmgr;
     }
 
@@ -257,7 +285,11 @@ public class PlaceRegistry
     {
         int ploid = pmgr.getPlaceObject().getOid();
         // remove it from the table
-        if (_pmgrs.remove(ploid) == null) {
+        PlaceManager omgr;
+        synchronized (_pmgrs) {
+            omgr = _pmgrs.remove(ploid);
+        }
+        if (omgr == null) {
             log.warning("Requested to unmap unmapped place manager", "pmgr", pmgr);
 
 //         } else {
@@ -278,6 +310,7 @@ public class PlaceRegistry
     /** Used to look body objects up by name. */
     @Inject protected BodyLocator _locator;
 
-    /** A mapping from place object id to place manager. */
+    /** A mapping from place object id to place manager. This may be accessed from any of the
+     * dobjmgr's threads if it is sharded, so we synchronize on it. */
     protected IntMap<PlaceManager> _pmgrs = IntMaps.newHashIntMap();
 }
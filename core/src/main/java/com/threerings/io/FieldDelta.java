@@ -0,0 +1,76 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+/**
+ * The changed fields of an object, as read by {@link ObjectInputStream#readDelta}. The object
+ * that was written is recreated by applying the delta to the reader's copy of the earlier
+ * instance from which the delta was computed.
+ */
+public class FieldDelta
+{
+    /**
+     * Returns the class of the object described by this delta.
+     */
+    public Class<?> getObjectClass ()
+    {
+        return _object.getClass();
+    }
+
+    /**
+     * Recreates the object that was written by filling in its unchanged fields from the supplied
+     * base, which must be of the same class.
+     */
+    public Object apply (Object base)
+    {
+        if (base.getClass() != _object.getClass()) {
+            throw new IllegalArgumentException(
+                "Delta applied to wrong class [class=" + _object.getClass().getName() +
+                ", base=" + base.getClass().getName() + "]");
+        }
+        _streamer.copyFields(base, _object, ~_mask);
+        return _object;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return "[class=" + _object.getClass().getName() + ", mask=" +
+            Long.toHexString(_mask) + "]";
+    }
+
+    protected FieldDelta (Streamer.ClassStreamer streamer, Object object, long mask)
+    {
+        _streamer = streamer;
+        _object = object;
+        _mask = mask;
+    }
+
+    /** The streamer for our object's class. */
+    protected Streamer.ClassStreamer _streamer;
+
+    /** The object, with only its changed fields populated until we are applied. */
+    protected Object _object;
+
+    /** A mask with a bit set for each of the changed fields. */
+    protected long _mask;
+}
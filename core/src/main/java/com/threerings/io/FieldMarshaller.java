@@ -109,6 +109,16 @@ public abstract class FieldMarshaller
             }
         }
 
+        // use the field's custom marshaller if it has one
+        StreamWith custom = field.getAnnotation(StreamWith.class);
+        if (custom != null) {
+            try {
+                return custom.value().newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to create custom marshaller for " + field, e);
+            }
+        }
+
         Class<?> ftype = field.getType();
 
         // use the intern marshaller for pooled strings
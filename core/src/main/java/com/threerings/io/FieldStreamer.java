@@ -0,0 +1,183 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.lang.reflect.Field;
+
+import java.io.IOException;
+
+import static com.threerings.NaryaLog.log;
+
+/**
+ * Reads and writes all of the streamed fields of a particular {@link Streamable} class in one
+ * go. Subclasses are generated at runtime by {@link StreamerGenerator} (when generation is enabled
+ * and ASM is available), and access the fields of the streamed class directly rather than via
+ * reflection. Any field that cannot be accessed directly by generated code (because it is not
+ * public, for example) is streamed by its reflective {@link FieldMarshaller} as usual. The
+ * resulting stream is identical to that written by the reflective {@link Streamer}.
+ */
+public abstract class FieldStreamer
+{
+    /**
+     * Creates a field streamer for the supplied class, or returns null if generated streamers are
+     * disabled or one cannot be generated for the class in question.
+     *
+     * @param fields the fields to be streamed, in order.
+     * @param marshallers the reflective marshallers for said fields.
+     */
+    public static FieldStreamer create (
+        Class<?> target, Field[] fields, FieldMarshaller[] marshallers)
+    {
+        if (!_generate || FieldMarshaller.useFieldAccessors()) {
+            return null;
+        }
+        try {
+            return StreamerGenerator.generate(target, fields, marshallers);
+        } catch (NoClassDefFoundError ncdfe) {
+            log.warning("Generated streamers require ASM; using reflective streamers.");
+            _generate = false;
+            return null;
+        }
+    }
+
+    /**
+     * Writes the streamed fields of the supplied object to the specified stream.
+     */
+    public abstract void writeFields (Object object, ObjectOutputStream out)
+        throws IOException;
+
+    /**
+     * Reads the streamed fields of the supplied object from the specified stream.
+     */
+    public abstract void readFields (Object object, ObjectInputStream in)
+        throws IOException;
+
+    /**
+     * Creates a new instance of our target class via its public zero-argument constructor, or
+     * returns null if it has no such constructor.
+     */
+    public abstract Object newInstance ();
+
+    /**
+     * Called by the generator to configure a newly created streamer.
+     */
+    protected void init (Class<?> target, Field[] fields, FieldMarshaller[] marshallers)
+    {
+        _target = target;
+        _fields = fields;
+        _marshallers = marshallers;
+    }
+
+    /**
+     * Writes the specified field using its reflective marshaller.
+     */
+    protected final void writeField (int index, Object object, ObjectOutputStream out)
+        throws Exception
+    {
+        _marshallers[index].writeField(_fields[index], object, out);
+    }
+
+    /**
+     * Reads the specified field using its reflective marshaller.
+     */
+    protected final void readField (int index, Object object, ObjectInputStream in)
+        throws Exception
+    {
+        _marshallers[index].readField(_fields[index], object, in);
+    }
+
+    /**
+     * Writes the value of a field that is streamed by a basic {@link Streamer}, in the same
+     * manner as {@link FieldMarshaller.StreamerMarshaller}.
+     */
+    protected final void writeStreamed (int index, Object value, ObjectOutputStream out)
+        throws IOException
+    {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            ((FieldMarshaller.StreamerMarshaller)_marshallers[index])._streamer.writeObject(
+                value, out, true);
+        }
+    }
+
+    /**
+     * Reads the value of a field that is streamed by a basic {@link Streamer}, in the same manner
+     * as {@link FieldMarshaller.StreamerMarshaller}.
+     */
+    protected final Object readStreamed (int index, ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Streamer streamer = ((FieldMarshaller.StreamerMarshaller)_marshallers[index])._streamer;
+        Object value = streamer.createObject(in);
+        streamer.readObject(value, in, true);
+        return value;
+    }
+
+    /**
+     * Notes that the stream ended before the specified field could be read.
+     */
+    protected final void missingField (int index)
+    {
+        log.info("Streamed instance missing field (probably newly added)",
+                 "class", _target.getName(), "field", _fields[index].getName());
+    }
+
+    /**
+     * Creates the exception to be thrown when writing the specified field fails.
+     */
+    protected final IOException writeFailure (int index, Exception cause)
+    {
+        String errmsg = "Failure writing streamable field [class=" + _target.getName() +
+            ", field=" + _fields[index].getName() + "]";
+        return (IOException) new IOException(errmsg).initCause(cause);
+    }
+
+    /**
+     * Creates the exception to be thrown when reading the specified field fails.
+     */
+    protected final IOException readFailure (int index, Exception cause)
+    {
+        String errmsg = "Failure reading streamable field [class=" + _target.getName() +
+            ", field=" + _fields[index].getName() + ", error=" + cause + "]";
+        return (IOException) new IOException(errmsg).initCause(cause);
+    }
+
+    /** The class whose fields we stream. */
+    protected Class<?> _target;
+
+    /** The fields that we stream, in order. */
+    protected Field[] _fields;
+
+    /** The reflective marshallers for said fields. */
+    protected FieldMarshaller[] _marshallers;
+
+    /** Whether we generate field streamers, enabled via the
+     * <code>com.threerings.io.generateStreamers</code> system property. Cleared if we discover
+     * that ASM is not available. */
+    protected static boolean _generate =
+        Boolean.getBoolean("com.threerings.io.generateStreamers");
+}
@@ -28,6 +28,9 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
 /**
  * The framed input stream reads input that was framed by a framing output
  * stream. Framing in this case simply means writing the length of the
@@ -60,7 +63,26 @@ public class FramedInputStream extends InputStream
      */
     public FramedInputStream ()
     {
-        _buffer = ByteBuffer.allocate(INITIAL_BUFFER_CAPACITY);
+        this(ByteBuffer.allocate(INITIAL_BUFFER_CAPACITY));
+    }
+
+    /**
+     * Creates a new framed input stream which will start out reading into the supplied buffer.
+     */
+    protected FramedInputStream (ByteBuffer buffer)
+    {
+        _buffer = buffer;
+    }
+
+    /**
+     * Configures this stream to accept frames that were compressed by {@link
+     * FramingOutputStream#compressAndReturnBuffer}, which are transparently inflated as they are
+     * read. This should only be enabled when the other end of the connection has agreed to send
+     * compressed frames, otherwise such frames are not recognized.
+     */
+    public void setAcceptCompressed (boolean accept)
+    {
+        _acceptCompressed = accept;
     }
 
     /**
@@ -80,6 +102,7 @@ public class FramedInputStream extends InputStream
         throws IOException
     {
         // flush data from any previous frame from the buffer
+        _inflated = null;
         if (_buffer.limit() == _length) {
             // this will remove the old frame's bytes from the buffer,
             // shift our old data to the start of the buffer, position the
@@ -130,8 +153,9 @@ public class FramedInputStream extends InputStream
 
             // otherwise, we've filled up our buffer as a result of this
             // read, expand it and try reading some more
-            ByteBuffer newbuf = ByteBuffer.allocate(_buffer.capacity() << 1);
+            ByteBuffer newbuf = allocateBuffer(_buffer.capacity() << 1);
             newbuf.put((ByteBuffer)_buffer.flip());
+            releaseBuffer(_buffer);
             _buffer = newbuf;
 
             // don't let things grow without bounds
@@ -142,6 +166,24 @@ public class FramedInputStream extends InputStream
         return checkForCompleteFrame();
     }
 
+    /**
+     * Allocates a buffer with the specified capacity, into which the contents of our current
+     * buffer will be copied when it is not large enough to hold the frame being read.
+     */
+    protected ByteBuffer allocateBuffer (int capacity)
+    {
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Called when we are done with a buffer that was previously obtained from {@link
+     * #allocateBuffer}. The default implementation simply lets it be garbage collected.
+     */
+    protected void releaseBuffer (ByteBuffer buffer)
+    {
+        // nothing doing
+    }
+
     /**
      * Decodes and returns the length of the current frame from the buffer
      * if possible. Returns -1 otherwise.
@@ -162,6 +204,10 @@ public class FramedInputStream extends InputStream
         length += (_buffer.get() & 0xFF);
         _buffer.position(_have);
 
+        _compressed = _acceptCompressed && (length & FramingOutputStream.COMPRESSED_FLAG) != 0;
+        if (_compressed) {
+            length &= ~FramingOutputStream.COMPRESSED_FLAG;
+        }
         return length;
     }
 
@@ -171,6 +217,7 @@ public class FramedInputStream extends InputStream
      * to deliver that frame via our {@link InputStream} interface.
      */
     protected final boolean checkForCompleteFrame ()
+        throws IOException
     {
         if (_length == -1 || _have < _length) {
             return false;
@@ -179,9 +226,73 @@ public class FramedInputStream extends InputStream
         // prepare the buffer such that this frame can be read
         _buffer.position(HEADER_SIZE);
         _buffer.limit(_length);
+        if (_compressed) {
+            inflateFrame();
+        }
         return true;
     }
 
+    /**
+     * Inflates the compressed frame in our buffer, and prepares to deliver the inflated data via
+     * our {@link InputStream} interface.
+     */
+    protected void inflateFrame ()
+        throws IOException
+    {
+        int size = _buffer.getInt();
+        if (size < 0 || size > MAX_INFLATED_SIZE) {
+            throw new IOException("Invalid compressed frame size: " + size);
+        }
+        int zsize = _buffer.remaining();
+        if (_zbytes == null || _zbytes.length < zsize) {
+            _zbytes = new byte[zsize];
+        }
+        _buffer.get(_zbytes, 0, zsize);
+
+        // we leave room for a header at the start of our inflated data so that reset() works
+        int limit = HEADER_SIZE + size;
+        if (_inflateBuffer == null || _inflateBuffer.capacity() < limit) {
+            _inflateBuffer = ByteBuffer.allocate(Math.max(limit, INITIAL_BUFFER_CAPACITY));
+        }
+        if (_inflater == null) {
+            _inflater = new Inflater();
+        } else {
+            _inflater.reset();
+        }
+        _inflater.setInput(_zbytes, 0, zsize);
+
+        byte[] data = _inflateBuffer.array();
+        int offset = _inflateBuffer.arrayOffset(), have = HEADER_SIZE;
+        try {
+            while (have < limit) {
+                int got = _inflater.inflate(data, offset + have, limit - have);
+                if (got == 0 && (_inflater.finished() || _inflater.needsInput())) {
+                    break;
+                }
+                have += got;
+            }
+        } catch (DataFormatException dfe) {
+            throw (IOException)new IOException("Corrupt compressed frame.").initCause(dfe);
+        }
+        if (have < limit) {
+            throw new IOException("Truncated compressed frame [want=" + size +
+                                  ", got=" + (have - HEADER_SIZE) + "].");
+        }
+
+        _inflateBuffer.limit(limit);
+        _inflateBuffer.position(HEADER_SIZE);
+        _inflated = _inflateBuffer;
+    }
+
+    /**
+     * Returns the buffer from which the current frame's data is read: our inflated data if the
+     * frame was compressed, our buffer otherwise.
+     */
+    protected final ByteBuffer getFrameBuffer ()
+    {
+        return (_inflated == null) ? _buffer : _inflated;
+    }
+
     /**
      * Reads the next byte of data from this input stream. The value byte
      * is returned as an <code>int</code> in the range <code>0</code> to
@@ -196,7 +307,8 @@ public class FramedInputStream extends InputStream
     @Override
     public int read ()
     {
-        return (_buffer.remaining() > 0) ? (_buffer.get() & 0xFF) : -1;
+        ByteBuffer buffer = getFrameBuffer();
+        return (buffer.remaining() > 0) ? (buffer.get() & 0xFF) : -1;
     }
 
     /**
@@ -234,11 +346,12 @@ public class FramedInputStream extends InputStream
 
         // trim the amount to be read to what is available; if they wanted
         // bytes and we have none, return -1 to indicate EOF
-        if ((len = Math.min(len, _buffer.remaining())) == 0) {
+        ByteBuffer buffer = getFrameBuffer();
+        if ((len = Math.min(len, buffer.remaining())) == 0) {
             return -1;
         }
 
-        _buffer.get(b, off, len);
+        buffer.get(b, off, len);
         return len;
     }
 
@@ -270,7 +383,7 @@ public class FramedInputStream extends InputStream
     @Override
     public int available ()
     {
-        return _buffer.remaining();
+        return getFrameBuffer().remaining();
     }
 
     /**
@@ -299,7 +412,7 @@ public class FramedInputStream extends InputStream
     public void reset ()
     {
         // position our buffer at the beginning of the frame data
-        _buffer.position(HEADER_SIZE);
+        getFrameBuffer().position(HEADER_SIZE);
     }
 
     /** The buffer in which we maintain our frame data. */
@@ -312,6 +425,24 @@ public class FramedInputStream extends InputStream
      * may comprise more than one frame. */
     protected int _have = 0;
 
+    /** Whether we accept compressed frames. */
+    protected boolean _acceptCompressed;
+
+    /** Whether the current frame is compressed. */
+    protected boolean _compressed;
+
+    /** The inflated data of the current frame, if it was compressed, or null. */
+    protected ByteBuffer _inflated;
+
+    /** The buffer into which we inflate compressed frames, reused from frame to frame. */
+    protected ByteBuffer _inflateBuffer;
+
+    /** Holds the compressed data of a frame while we inflate it. */
+    protected byte[] _zbytes;
+
+    /** Used to inflate compressed frames. */
+    protected Inflater _inflater;
+
     /** The size of the frame header (a 32-bit integer). */
     protected static final int HEADER_SIZE = 4;
 
@@ -320,4 +451,7 @@ public class FramedInputStream extends InputStream
 
     /** No need to get out of hand. */
     protected static final int MAX_BUFFER_CAPACITY = 512 * 1024;
+
+    /** The largest frame we're willing to inflate a compressed frame into. */
+    protected static final int MAX_INFLATED_SIZE = 16 * 1024 * 1024;
 }
@@ -23,6 +23,8 @@ package com.threerings.io;
 
 import java.nio.ByteBuffer;
 
+import java.util.zip.Deflater;
+
 /**
  * The framing output stream accumulates output into a byte array just
  * like the byte array output stream, but can then be instructed to send
@@ -78,6 +80,52 @@ public class FramingOutputStream extends ByteBufferOutputStream
         return _buffer;
     }
 
+    /**
+     * Like {@link #frameAndReturnBuffer}, but deflates the contents of the frame and marks it as
+     * compressed in the frame header. Compressed frames can only be read by a {@link
+     * FramedInputStream} that has been configured to {@link FramedInputStream#setAcceptCompressed
+     * accept them}. Each frame is compressed independently of those before it, so frames may be
+     * sent in any order. If compression would not make the frame smaller, it is framed normally.
+     * This should be followed by a call to {@link #resetFrame} when the frame has been written.
+     */
+    public ByteBuffer compressAndReturnBuffer ()
+    {
+        int size = _buffer.position() - HEADER_PAD.length;
+        // the compressed data must be smaller than the data plus our uncompressed size prefix
+        int maxsize = size - COMPRESSED_HEADER_SIZE + HEADER_PAD.length;
+        if (maxsize <= 0) {
+            return frameAndReturnBuffer();
+        }
+        if (_zbuffer == null || _zbuffer.capacity() < _buffer.position()) {
+            _zbuffer = ByteBuffer.allocate(_buffer.position());
+        }
+        if (_deflater == null) {
+            _deflater = new Deflater(Deflater.BEST_SPEED);
+        } else {
+            _deflater.reset();
+        }
+        _deflater.setInput(_buffer.array(), _buffer.arrayOffset() + HEADER_PAD.length, size);
+        _deflater.finish();
+
+        byte[] zdata = _zbuffer.array();
+        int zoff = _zbuffer.arrayOffset() + COMPRESSED_HEADER_SIZE;
+        int zsize = 0;
+        while (!_deflater.finished() && zsize < maxsize) {
+            zsize += _deflater.deflate(zdata, zoff + zsize, maxsize - zsize);
+        }
+        if (!_deflater.finished()) {
+            return frameAndReturnBuffer();
+        }
+
+        int count = COMPRESSED_HEADER_SIZE + zsize;
+        _zbuffer.clear();
+        _zbuffer.putInt(count | COMPRESSED_FLAG);
+        _zbuffer.putInt(size);
+        _zbuffer.position(0);
+        _zbuffer.limit(count);
+        return _zbuffer;
+    }
+
     /**
      * Resets our internal buffer and prepares to write a new frame.
      */
@@ -87,6 +135,18 @@ public class FramingOutputStream extends ByteBufferOutputStream
         _buffer.put(HEADER_PAD);
     }
 
+    /** Used to compress frames, if requested. */
+    protected Deflater _deflater;
+
+    /** The buffer into which we compress frames. */
+    protected ByteBuffer _zbuffer;
+
+    /** Set in the frame length to indicate that the frame contents are compressed. */
+    protected static final int COMPRESSED_FLAG = 1 << 31;
+
+    /** A compressed frame is prefixed by its (compressed) length and its uncompressed size. */
+    protected static final int COMPRESSED_HEADER_SIZE = 8;
+
     /** We pad the beginning of our buffer so that we can write the frame
      * length when the time comes. */
     protected static final byte[] HEADER_PAD = new byte[4];
@@ -74,6 +74,62 @@ public class ObjectInputStream extends DataInputStream
         _translations.put(oldname, newname);
     }
 
+    /**
+     * Configures whether distributed object events read from this stream identify the fields
+     * they modify by index rather than by name.
+     *
+     * @see ObjectOutputStream#setFieldIndices
+     */
+    public void setFieldIndices (boolean fieldIndices)
+    {
+        _fieldIndices = fieldIndices;
+    }
+
+    /**
+     * Returns true if fields may be identified by index when reading from this stream.
+     */
+    public boolean getFieldIndices ()
+    {
+        return _fieldIndices;
+    }
+
+    /**
+     * Configures whether objects may be read from this stream as deltas.
+     *
+     * @see ObjectOutputStream#setDeltas
+     */
+    public void setDeltas (boolean deltas)
+    {
+        _deltas = deltas;
+    }
+
+    /**
+     * Returns true if objects may be read from this stream as deltas.
+     */
+    public boolean getDeltas ()
+    {
+        return _deltas;
+    }
+
+    /**
+     * Reads the changed fields of an object written with {@link ObjectOutputStream#writeDelta}.
+     * The returned delta must be {@link FieldDelta#apply applied} to the reader's copy of the
+     * object from which the delta was computed.
+     */
+    public FieldDelta readDelta ()
+        throws IOException, ClassNotFoundException
+    {
+        ClassMapping cmap = readClassMapping();
+        if (cmap == null || !cmap.streamer.supportsDeltas()) {
+            throw new IOException("Read delta for unsupported class [cmap=" + cmap + "]");
+        }
+        Streamer.ClassStreamer streamer = (Streamer.ClassStreamer)cmap.streamer;
+        long mask = readLong();
+        Object object = streamer.createObject(this);
+        streamer.readFields(object, mask, this);
+        return new FieldDelta(streamer, object, mask);
+    }
+
     /**
      * Reads a {@link Streamable} instance or one of the supported object types from the input
      * stream.
@@ -354,6 +410,12 @@ public class ObjectInputStream extends DataInputStream
     /** An optional set of class name translations to use when unserializing objects. */
     protected Map<String, String> _translations;
 
+    /** Whether fields may be identified by index rather than name. */
+    protected boolean _fieldIndices;
+
+    /** Whether objects may be read as deltas. */
+    protected boolean _deltas;
+
     /** Used to activate verbose debug logging. */
     protected static final boolean STREAM_DEBUG = false;
 }
@@ -42,6 +42,21 @@ import static com.threerings.NaryaLog.log;
  */
 public class ObjectOutputStream extends DataOutputStream
 {
+    /**
+     * Supplies the prepared forms of objects as they are written to a stream.
+     *
+     * @see #setPreparer
+     */
+    public interface Preparer
+    {
+        /**
+         * Returns the prepared form of the supplied object to be written to the supplied stream
+         * (with the stream's settings as of that moment), or null to stream the object normally.
+         */
+        PreparedObject getPrepared (Object object, ObjectOutputStream out)
+            throws IOException;
+    }
+
     /**
      * Constructs an object output stream which will write its data to the supplied target stream.
      */
@@ -50,6 +65,15 @@ public class ObjectOutputStream extends DataOutputStream
         super(target);
     }
 
+    /**
+     * Redirects this stream's output to the supplied target, retaining its class mappings and
+     * settings. Anything buffered for the previous target should be flushed first.
+     */
+    public void setTarget (OutputStream target)
+    {
+        out = target;
+    }
+
     /**
      * Configures this object output stream with a mapping from a classname to a streamed name.
      */
@@ -61,6 +85,114 @@ public class ObjectOutputStream extends DataOutputStream
         _translations.put(className, streamedName);
     }
 
+    /**
+     * Configures whether distributed object events written to this stream may identify the fields
+     * they modify by index rather than by name. The stream from which the data is read must be
+     * configured identically at the same point in the stream.
+     */
+    public void setFieldIndices (boolean fieldIndices)
+    {
+        _fieldIndices = fieldIndices;
+    }
+
+    /**
+     * Returns true if fields may be identified by index when writing to this stream.
+     *
+     * @see #setFieldIndices
+     */
+    public boolean getFieldIndices ()
+    {
+        return _fieldIndices;
+    }
+
+    /**
+     * Returns the number of class and intern mappings that have been created on this stream. If
+     * writing an object creates no new mappings, the reader can safely be denied that object
+     * without losing track of the mappings used by those that follow it.
+     */
+    public int getMappingCount ()
+    {
+        return (_nextClassCode - 1) + (_nextInternCode - 1);
+    }
+
+    /**
+     * Configures whether objects may be written to this stream as the differences between them
+     * and an earlier instance (see {@link #writeDelta}). The stream from which the data is read
+     * must be configured identically at the same point in the stream.
+     */
+    public void setDeltas (boolean deltas)
+    {
+        _deltas = deltas;
+    }
+
+    /**
+     * Returns true if objects may be written to this stream as deltas.
+     *
+     * @see #setDeltas
+     */
+    public boolean getDeltas ()
+    {
+        return _deltas;
+    }
+
+    /**
+     * Returns the number of objects that have been {@link #writeDelta written as deltas} to this
+     * stream, including those in the {@link PreparedObject prepared} objects written to it. If
+     * writing an object writes no deltas, the reader need not have received the objects before it
+     * in order to read it.
+     */
+    public int getDeltaCount ()
+    {
+        return _deltaCount;
+    }
+
+    /**
+     * Returns true if the supplied object may be {@link #writeDelta written as a delta} from
+     * <code>base</code>, which is the case if this stream {@link #setDeltas allows deltas}, the
+     * objects are distinct instances of the same class and that class is marked with {@link
+     * StreamDeltas}.
+     */
+    public boolean canWriteDelta (Object base, Object object)
+        throws IOException
+    {
+        return _deltas && base != null && object != null && base != object &&
+            base.getClass() == object.getClass() &&
+            Streamer.getStreamer(object.getClass()).supportsDeltas();
+    }
+
+    /**
+     * Writes the supplied object as the differences between it and <code>base</code>, an earlier
+     * instance of the same class which the reader already has. This may only be called if {@link
+     * #canWriteDelta} returns true for the objects in question. The reader must read the data with
+     * {@link ObjectInputStream#readDelta} and then {@link FieldDelta#apply apply} it to its copy
+     * of the base.
+     */
+    public void writeDelta (Object base, Object object)
+        throws IOException
+    {
+        if (!canWriteDelta(base, object)) {
+            throw new IllegalArgumentException("Cannot write delta [base=" + base +
+                ", object=" + object + ", deltas=" + _deltas + "]");
+        }
+        Streamer.ClassStreamer streamer =
+            (Streamer.ClassStreamer)Streamer.getStreamer(object.getClass());
+        long mask = streamer.diffFields(base, object);
+        writeClassMapping(object.getClass());
+        writeLong(mask);
+        streamer.writeFields(object, mask, this);
+        _deltaCount++;
+    }
+
+    /**
+     * Supplies a preparer that is asked for the {@link PreparedObject prepared} form of each
+     * object as it is encountered, which is written in place of streaming the object anew. The
+     * caller must clear it (by passing null) once the objects in question have been written.
+     */
+    public void setPreparer (Preparer preparer)
+    {
+        _preparer = preparer;
+    }
+
     /**
      * Writes a {@link Streamable} instance or one of the support object types to the output
      * stream.
@@ -74,6 +206,15 @@ public class ObjectOutputStream extends DataOutputStream
             return;
         }
 
+        // if the object has already been prepared, write its prepared form
+        if (_preparer != null) {
+            PreparedObject prepared = _preparer.getPrepared(object, this);
+            if (prepared != null) {
+                prepared.writeTo(this);
+                return;
+            }
+        }
+
         // otherwise, write the class mapping, then the bare object
         Class<?> sclass = Streamer.getStreamerClass(object);
         ClassMapping cmap = writeClassMapping(sclass);
@@ -342,4 +483,16 @@ public class ObjectOutputStream extends DataOutputStream
 
     /** An optional set of class name translations to use when serializing objects. */
     protected Map<String, String> _translations;
+
+    /** Whether fields may be identified by index rather than name. */
+    protected boolean _fieldIndices;
+
+    /** Whether objects may be written as deltas. */
+    protected boolean _deltas;
+
+    /** The number of objects written as deltas. */
+    protected int _deltaCount;
+
+    /** Supplies the prepared forms of the objects we write, if any. */
+    protected Preparer _preparer;
 }
@@ -0,0 +1,202 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.util.List;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * An object that has been flattened once in a form that can subsequently be written to any
+ * number of {@link ObjectOutputStream}s. The class and intern codes used by an object output
+ * stream depend on what has previously been written to that stream, so a prepared object records
+ * the positions at which those codes appear and fills them in from the target stream's mappings
+ * when it is written. The bytes that result are identical to those that would have been produced
+ * by calling {@link ObjectOutputStream#writeObject} on the target stream, but the (comparatively
+ * expensive) work of streaming the object's fields is only done once.
+ *
+ * <p> The object must not be modified between the time it is prepared and the time the prepared
+ * data is written, or the recipients will receive stale data.
+ */
+public class PreparedObject
+{
+    /**
+     * Flattens the supplied object into a prepared object.
+     */
+    public static PreparedObject prepare (Object object)
+        throws IOException
+    {
+        return prepare(object, false);
+    }
+
+    /**
+     * Flattens the supplied object into a prepared object that will be written to streams with
+     * the specified {@link ObjectOutputStream#setFieldIndices field indices} setting.
+     */
+    public static PreparedObject prepare (Object object, boolean fieldIndices)
+        throws IOException
+    {
+        return prepare(object, fieldIndices, false);
+    }
+
+    /**
+     * Flattens the supplied object into a prepared object that will be written to streams with
+     * the specified {@link ObjectOutputStream#setFieldIndices field indices} and {@link
+     * ObjectOutputStream#setDeltas deltas} settings.
+     */
+    public static PreparedObject prepare (Object object, boolean fieldIndices, boolean deltas)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        Recorder rout = new Recorder(bout);
+        rout.setFieldIndices(fieldIndices);
+        rout.setDeltas(deltas);
+        rout.writeObject(object);
+        rout.flush();
+        return new PreparedObject(
+            bout.toByteArray(), rout.offsets, rout.mappings, rout.getDeltaCount());
+    }
+
+    /**
+     * Writes this prepared object to the supplied stream, creating class and intern mappings in
+     * that stream as needed.
+     */
+    public void writeTo (ObjectOutputStream out)
+        throws IOException
+    {
+        int pos = 0;
+        for (int ii = 0; ii < _offsets.length; ii++) {
+            int offset = _offsets[ii];
+            if (offset > pos) {
+                out.write(_data, pos, offset - pos);
+            }
+            Object mapping = _mappings[ii];
+            if (mapping instanceof Class<?>) {
+                out.writeClassMapping((Class<?>)mapping);
+            } else {
+                out.writeIntern((String)mapping);
+            }
+            pos = offset;
+        }
+        if (_data.length > pos) {
+            out.write(_data, pos, _data.length - pos);
+        }
+        out._deltaCount += _deltaCount;
+    }
+
+    /**
+     * Returns the number of stream-independent bytes in this prepared object (the size of the
+     * object on the wire, less its class and intern mappings).
+     */
+    public int size ()
+    {
+        return _data.length;
+    }
+
+    protected PreparedObject (
+        byte[] data, List<Integer> offsets, List<Object> mappings, int deltaCount)
+    {
+        _data = data;
+        _deltaCount = deltaCount;
+        _offsets = new int[offsets.size()];
+        for (int ii = 0; ii < _offsets.length; ii++) {
+            _offsets[ii] = offsets.get(ii);
+        }
+        _mappings = mappings.toArray();
+    }
+
+    /**
+     * Streams an object normally, except that class and intern mappings are noted rather than
+     * written.
+     */
+    protected static class Recorder extends ObjectOutputStream
+    {
+        /** The positions at which mappings are to be inserted. */
+        public List<Integer> offsets = Lists.newArrayList();
+
+        /** The classes and interns to be mapped at each position. */
+        public List<Object> mappings = Lists.newArrayList();
+
+        public Recorder (ByteArrayOutputStream bout)
+        {
+            super(bout);
+            _bout = bout;
+        }
+
+        @Override
+        public void writeIntern (String value)
+            throws IOException
+        {
+            // null is written as a plain zero regardless of the target stream's mappings
+            if (value == null) {
+                writeShort(0);
+            } else {
+                noteMapping(value);
+            }
+        }
+
+        @Override
+        protected ClassMapping writeClassMapping (Class<?> sclass)
+            throws IOException
+        {
+            if (_classmap == null) {
+                _classmap = Maps.newHashMap();
+            }
+            ClassMapping cmap = _classmap.get(sclass);
+            if (cmap == null) {
+                // resolve collection classes just as the target stream will
+                Class<?> collClass = Streamer.getCollectionClass(sclass);
+                Class<?> mclass = (collClass == null) ? sclass : collClass;
+                cmap = new ClassMapping((short)0, mclass, Streamer.getStreamer(mclass));
+                _classmap.put(sclass, cmap);
+            }
+            noteMapping(sclass);
+            return cmap;
+        }
+
+        protected void noteMapping (Object mapping)
+            throws IOException
+        {
+            flush();
+            offsets.add(_bout.size());
+            mappings.add(mapping);
+        }
+
+        protected ByteArrayOutputStream _bout;
+    }
+
+    /** The stream-independent portions of the flattened object. */
+    protected byte[] _data;
+
+    /** The offsets into {@link #_data} at which mappings are to be written. */
+    protected int[] _offsets;
+
+    /** The class or intern to be mapped at each offset. */
+    protected Object[] _mappings;
+
+    /** The number of objects written as deltas in our data. */
+    protected int _deltaCount;
+}
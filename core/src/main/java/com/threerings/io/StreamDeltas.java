@@ -0,0 +1,47 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that a changed instance of the annotated streamable class may be streamed as the
+ * differences between it and a previous instance that the recipient already has, rather than in
+ * full. See {@link ObjectOutputStream#writeDelta}.
+ *
+ * <p> Primitive fields are compared by value and all other fields by identity, so a field that
+ * refers to a different instance is streamed even if that instance is equal to the previous one.
+ * An instance must not share mutable field values with the previous instance and then modify
+ * them: a new instance should be created (and its fields replaced) for each change. Classes with
+ * custom <code>readObject</code> or <code>writeObject</code> methods, or with more than 64
+ * streamed fields, are always streamed in full.
+ */
+@Target({ ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+@Inherited
+public @interface StreamDeltas
+{
+}
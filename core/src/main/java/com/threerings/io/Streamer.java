@@ -65,25 +65,20 @@ public abstract class Streamer
     /**
      * Returns true if the supplied target class can be streamed using a streamer.
      */
-    public synchronized static boolean isStreamable (Class<?> target)
+    public static boolean isStreamable (Class<?> target)
     {
-        // if we have not yet initialized ourselves, do so now
-        maybeInit();
-
-        // if we already have a streamer, or it's an enum, it's good
-        if (_streamers.containsKey(target) || target.isEnum()) {
+        // if we already have a streamer, it's good
+        if (getStreamers().containsKey(target)) {
             return true;
         }
 
-        // arrays are streamable, let's check the component type
-        if (target.isArray()) {
-            return isStreamable(target.getComponentType());
+        // otherwise check (and remember) whether it's streamable
+        Boolean streamable = _streamable.get(target);
+        if (streamable == null) {
+            streamable = checkStreamable(target);
+            _streamable.put(target, streamable);
         }
-
-        // otherwise it must be Streamable, or an Iterable or Map
-        return Streamable.class.isAssignableFrom(target) ||
-            Iterable.class.isAssignableFrom(target) ||
-            Map.class.isAssignableFrom(target);
+        return streamable;
     }
 
     /**
@@ -103,16 +98,12 @@ public abstract class Streamer
      */
     public static Class<?> getCollectionClass (Class<?> clazz)
     {
-        if (Streamable.class.isAssignableFrom(clazz)) {
-            // the class is natively streamable, let's ignore it
-            return null;
-        }
-        for (Class<?> collClass : BasicStreamers.CollectionStreamer.SPECIFICITY_ORDER) {
-            if (collClass.isAssignableFrom(clazz)) {
-                return collClass;
-            }
+        Class<?> collClass = _collectionClasses.get(clazz);
+        if (collClass == null) {
+            collClass = findCollectionClass(clazz);
+            _collectionClasses.put(clazz, (collClass == null) ? NOT_A_COLLECTION : collClass);
         }
-        return null;
+        return (collClass == NOT_A_COLLECTION) ? null : collClass;
     }
 
     /**
@@ -127,49 +118,12 @@ public abstract class Streamer
      * {@link Streamable} and is not one of the basic object types (@see {@link
      * ObjectOutputStream}).
      */
-    public synchronized static Streamer getStreamer (final Class<?> target)
+    public static Streamer getStreamer (Class<?> target)
         throws IOException
     {
-        // if we have not yet initialized ourselves, do so now
-        maybeInit();
-
-        Streamer stream = _streamers.get(target);
-        if (stream == null) {
-            // Get or create a streamer for the class, and cache it.
-            // First, see if it's a collection type...
-            Class<?> collClass = getCollectionClass(target);
-            if (collClass != null) {
-                stream = getStreamer(collClass);
-
-            // otherwise make sure it's a streamable class
-            } else if (!isStreamable(target)) {
-                throw new IOException(
-                    "Requested to stream invalid class '" + target.getName() + "'");
-
-            } else {
-                // create a new streamer for the class
-                if (ObjectInputStream.STREAM_DEBUG) {
-                    log.info("Creating a streamer for '" + target.getName() + "'.");
-                }
-
-                // create our streamer in a privileged block so that it can introspect on the to be
-                // streamed class
-                try {
-                    stream = AccessController.doPrivileged(
-                        new PrivilegedExceptionAction<Streamer>() {
-                            public Streamer run () throws IOException {
-                                return create(target);
-                            }
-                        });
-                } catch (PrivilegedActionException pae) {
-                    throw (IOException) pae.getCause();
-                }
-            }
-
-            // cache the streamer by the class type
-            _streamers.put(target, stream);
-        }
-        return stream;
+        // the vast majority of lookups are for classes we've already seen, and need no lock
+        Streamer stream = getStreamers().get(target);
+        return (stream != null) ? stream : createStreamer(target);
     }
 
     /**
@@ -200,6 +154,17 @@ public abstract class Streamer
     public abstract void readObject (Object object, ObjectInputStream in, boolean useReader)
         throws IOException, ClassNotFoundException;
 
+    /**
+     * Returns true if changed instances of our class may be streamed as the differences between
+     * them and a previous instance, via {@link ObjectOutputStream#writeDelta}.
+     *
+     * @see StreamDeltas
+     */
+    public boolean supportsDeltas ()
+    {
+        return false;
+    }
+
     @Override
     public final String toString ()
     {
@@ -222,6 +187,93 @@ public abstract class Streamer
     {
     }
 
+    /**
+     * Returns true if the supplied class is an enum, a {@link Streamable}, an {@link Iterable}, a
+     * {@link Map} or an array of such.
+     */
+    protected static boolean checkStreamable (Class<?> target)
+    {
+        if (target.isEnum()) {
+            return true;
+        }
+
+        // arrays are streamable, let's check the component type
+        if (target.isArray()) {
+            return isStreamable(target.getComponentType());
+        }
+
+        // otherwise it must be Streamable, or an Iterable or Map
+        return Streamable.class.isAssignableFrom(target) ||
+            Iterable.class.isAssignableFrom(target) ||
+            Map.class.isAssignableFrom(target);
+    }
+
+    /**
+     * Determines the result of {@link #getCollectionClass} for the supplied class.
+     */
+    protected static Class<?> findCollectionClass (Class<?> clazz)
+    {
+        if (Streamable.class.isAssignableFrom(clazz)) {
+            // the class is natively streamable, let's ignore it
+            return null;
+        }
+        for (Class<?> collClass : BasicStreamers.CollectionStreamer.SPECIFICITY_ORDER) {
+            if (collClass.isAssignableFrom(clazz)) {
+                return collClass;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates and caches a streamer for a class that we've not seen before. Creation is
+     * serialized so that each class gets only one streamer.
+     */
+    protected synchronized static Streamer createStreamer (final Class<?> target)
+        throws IOException
+    {
+        // another thread may have beaten us to it
+        Streamer stream = getStreamers().get(target);
+        if (stream != null) {
+            return stream;
+        }
+
+        // Get or create a streamer for the class, and cache it.
+        // First, see if it's a collection type...
+        Class<?> collClass = getCollectionClass(target);
+        if (collClass != null) {
+            stream = getStreamer(collClass);
+
+        // otherwise make sure it's a streamable class
+        } else if (!isStreamable(target)) {
+            throw new IOException(
+                "Requested to stream invalid class '" + target.getName() + "'");
+
+        } else {
+            // create a new streamer for the class
+            if (ObjectInputStream.STREAM_DEBUG) {
+                log.info("Creating a streamer for '" + target.getName() + "'.");
+            }
+
+            // create our streamer in a privileged block so that it can introspect on the to be
+            // streamed class
+            try {
+                stream = AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<Streamer>() {
+                        public Streamer run () throws IOException {
+                            return create(target);
+                        }
+                    });
+            } catch (PrivilegedActionException pae) {
+                throw (IOException) pae.getCause();
+            }
+        }
+
+        // cache the streamer by the class type
+        _streamers.put(target, stream);
+        return stream;
+    }
+
     /**
      * Create the appropriate Streamer for a newly-seen class.
      */
@@ -326,12 +378,25 @@ public abstract class Streamer
             _target = target;
             initConstructor();
             _marshallers = createMarshallers();
+            _deltas = (_fields != null) && (_fields.length <= Long.SIZE) &&
+                target.isAnnotationPresent(StreamDeltas.class);
+        }
+
+        @Override
+        public boolean supportsDeltas ()
+        {
+            return _deltas;
         }
 
         @Override
         public void writeObject (Object object, ObjectOutputStream out, boolean useWriter)
             throws IOException
         {
+            if (_fstreamer != null) {
+                _fstreamer.writeFields(object, out);
+                return;
+            }
+
             int fcount = _fields.length;
             for (int ii = 0; ii < fcount; ii++) {
                 Field field = _fields[ii];
@@ -358,7 +423,8 @@ public abstract class Streamer
                 if (ObjectInputStream.STREAM_DEBUG) {
                     log.info(in.hashCode() + ": Creating object '" + _target.getName() + "'.");
                 }
-                return _ctor.newInstance(_ctorArgs);
+                Object object = (_fstreamer == null) ? null : newInstance();
+                return (object != null) ? object : _ctor.newInstance(_ctorArgs);
 
             } catch (InvocationTargetException ite) {
                 String errmsg = "Error instantiating object [type=" + _target.getName() + "]";
@@ -378,6 +444,11 @@ public abstract class Streamer
         public void readObject (Object object, ObjectInputStream in, boolean useReader)
             throws IOException, ClassNotFoundException
         {
+            if (_fstreamer != null) {
+                _fstreamer.readFields(object, in);
+                return;
+            }
+
             int fcount = _fields.length;
             for (int ii = 0; ii < fcount; ii++) {
                 Field field = _fields[ii];
@@ -407,6 +478,130 @@ public abstract class Streamer
             }
         }
 
+        /**
+         * Returns a mask with a bit set for each of our fields whose value differs between the
+         * supplied instances. Primitive fields are compared by value and all others by identity.
+         */
+        protected long diffFields (Object base, Object object)
+            throws IOException
+        {
+            long mask = 0L;
+            for (int ii = 0; ii < _fields.length; ii++) {
+                try {
+                    if (!sameValue(_fields[ii], base, object)) {
+                        mask |= (1L << ii);
+                    }
+                } catch (IllegalAccessException iae) {
+                    String errmsg = "Failure comparing streamable field [class=" +
+                        _target.getName() + ", field=" + _fields[ii].getName() + "]";
+                    throw (IOException) new IOException(errmsg).initCause(iae);
+                }
+            }
+            return mask;
+        }
+
+        /**
+         * Returns true if the supplied field holds the same value in both instances, without
+         * boxing primitive values.
+         */
+        protected static boolean sameValue (Field field, Object base, Object object)
+            throws IllegalAccessException
+        {
+            Class<?> type = field.getType();
+            if (!type.isPrimitive()) {
+                return field.get(base) == field.get(object);
+            } else if (type == Integer.TYPE) {
+                return field.getInt(base) == field.getInt(object);
+            } else if (type == Boolean.TYPE) {
+                return field.getBoolean(base) == field.getBoolean(object);
+            } else if (type == Byte.TYPE) {
+                return field.getByte(base) == field.getByte(object);
+            } else if (type == Short.TYPE) {
+                return field.getShort(base) == field.getShort(object);
+            } else if (type == Character.TYPE) {
+                return field.getChar(base) == field.getChar(object);
+            } else if (type == Long.TYPE) {
+                return field.getLong(base) == field.getLong(object);
+            } else if (type == Float.TYPE) {
+                // compare bits so that NaN matches itself and 0.0 doesn't match -0.0
+                return Float.floatToIntBits(field.getFloat(base)) ==
+                    Float.floatToIntBits(field.getFloat(object));
+            } else {
+                return Double.doubleToLongBits(field.getDouble(base)) ==
+                    Double.doubleToLongBits(field.getDouble(object));
+            }
+        }
+
+        /**
+         * Writes those of our fields of the supplied object that are selected by the mask.
+         */
+        protected void writeFields (Object object, long mask, ObjectOutputStream out)
+            throws IOException
+        {
+            for (int ii = 0; ii < _fields.length; ii++) {
+                if ((mask & (1L << ii)) == 0) {
+                    continue;
+                }
+                try {
+                    _marshallers[ii].writeField(_fields[ii], object, out);
+                } catch (Exception e) {
+                    String errmsg = "Failure writing streamable field [class=" + _target.getName() +
+                        ", field=" + _fields[ii].getName() + "]";
+                    throw (IOException) new IOException(errmsg).initCause(e);
+                }
+            }
+        }
+
+        /**
+         * Reads those of our fields of the supplied object that are selected by the mask.
+         */
+        protected void readFields (Object object, long mask, ObjectInputStream in)
+            throws IOException
+        {
+            for (int ii = 0; ii < _fields.length; ii++) {
+                if ((mask & (1L << ii)) == 0) {
+                    continue;
+                }
+                try {
+                    _marshallers[ii].readField(_fields[ii], object, in);
+                } catch (Exception e) {
+                    String errmsg = "Failure reading streamable field [class=" + _target.getName() +
+                        ", field=" + _fields[ii].getName() + ", error=" + e + "]";
+                    throw (IOException) new IOException(errmsg).initCause(e);
+                }
+            }
+        }
+
+        /**
+         * Copies those of our fields that are selected by the mask from one instance to another.
+         */
+        protected void copyFields (Object from, Object to, long mask)
+        {
+            for (int ii = 0; ii < _fields.length; ii++) {
+                if ((mask & (1L << ii)) != 0) {
+                    try {
+                        _fields[ii].set(to, _fields[ii].get(from));
+                    } catch (IllegalAccessException iae) {
+                        throw new RuntimeException(iae);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Creates an instance via our generated streamer, or returns null if it cannot.
+         */
+        protected Object newInstance ()
+            throws IOException
+        {
+            try {
+                return _fstreamer.newInstance();
+            } catch (RuntimeException re) {
+                String errmsg = "Error instantiating object [type=" + _target.getName() + "]";
+                throw (IOException) new IOException(errmsg).initCause(re);
+            }
+        }
+
         /**
          * Locates the appropriate constructor for creating instances.
          */
@@ -483,6 +678,9 @@ public abstract class Streamer
                              _fields[ii].getName() + ".");
                 }
             }
+
+            // if enabled, generate a streamer that accesses our fields without reflection
+            _fstreamer = FieldStreamer.create(_target, _fields, marshallers);
             return marshallers;
         }
 
@@ -508,6 +706,12 @@ public abstract class Streamer
 
         /** Field marshallers for each field that will be read or written in our objects. */
         protected FieldMarshaller[] _marshallers;
+
+        /** Streams all of our fields without reflection, or null if we use our marshallers. */
+        protected FieldStreamer _fstreamer;
+
+        /** Whether our instances may be streamed as deltas. */
+        protected boolean _deltas;
     } // end: static class ClassStreamer
 
     /**
@@ -523,6 +727,13 @@ public abstract class Streamer
             _writer = writer;
         }
 
+        @Override
+        public boolean supportsDeltas ()
+        {
+            // deltas stream the raw fields, which would bypass our reader and writer
+            return (_reader == null) && (_writer == null) && super.supportsDeltas();
+        }
+
         @Override
         public void writeObject (Object object, ObjectOutputStream out, boolean useWriter)
             throws IOException
@@ -966,17 +1177,36 @@ public abstract class Streamer
     } // end: static class IntOrdEnumStreamer
 
     /**
-     * Initializes static state if necessary.
+     * Returns our streamer mapping, initializing it if necessary.
      */
-    protected synchronized static void maybeInit ()
+    protected static Map<Class<?>, Streamer> getStreamers ()
     {
-        if (_streamers == null) {
-            _streamers = Maps.newHashMap(BasicStreamers.BSTREAMERS);
+        Map<Class<?>, Streamer> streamers = _streamers;
+        if (streamers == null) {
+            synchronized (Streamer.class) {
+                if (_streamers == null) {
+                    Map<Class<?>, Streamer> map = Maps.newConcurrentMap();
+                    map.putAll(BasicStreamers.BSTREAMERS);
+                    _streamers = map;
+                }
+                streamers = _streamers;
+            }
         }
+        return streamers;
     }
 
-    /** Contains the mapping from class names to configured streamer instances. */
-    protected static Map<Class<?>, Streamer> _streamers;
+    /** Contains the mapping from class names to configured streamer instances. This is read
+     * without locking, and only modified while holding the class lock. */
+    protected static volatile Map<Class<?>, Streamer> _streamers;
+
+    /** Caches the results of {@link #isStreamable} for classes without streamers. */
+    protected static final Map<Class<?>, Boolean> _streamable = Maps.newConcurrentMap();
+
+    /** Caches the results of {@link #getCollectionClass}. */
+    protected static final Map<Class<?>, Class<?>> _collectionClasses = Maps.newConcurrentMap();
+
+    /** Stands in for a null result in {@link #_collectionClasses}. */
+    protected static final Class<?> NOT_A_COLLECTION = Void.TYPE;
 
     /** Should we sort fields in streamable classes? */
     protected static final boolean SORT_FIELDS =
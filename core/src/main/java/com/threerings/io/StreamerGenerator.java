@@ -0,0 +1,505 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import java.io.IOException;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import static com.threerings.NaryaLog.log;
+
+/**
+ * Generates {@link FieldStreamer} subclasses which read and write the fields of a {@link
+ * Streamable} class with straight-line bytecode, mirroring exactly what the reflective {@link
+ * FieldMarshaller} for each field would do. Generated classes are defined in a class loader that
+ * delegates to the streamed class's loader, so they can directly access only public, non-final
+ * fields (of public types, declared by public classes); all other fields are streamed via their
+ * reflective marshallers.
+ *
+ * <p> This class references ASM and must only be loaded if ASM is available, which is handled by
+ * {@link FieldStreamer#create}.
+ */
+class StreamerGenerator
+    implements Opcodes
+{
+    /**
+     * Generates, loads and initializes a field streamer for the supplied class. Returns null if
+     * the class is not suitable for a generated streamer, or if generation fails.
+     */
+    public static FieldStreamer generate (
+        Class<?> target, Field[] fields, FieldMarshaller[] marshallers)
+    {
+        // our generated code can't reference non-public classes, and we don't generate streamers
+        // for classes loaded by the bootstrap loader
+        ClassLoader parent = target.getClassLoader();
+        if (!Modifier.isPublic(target.getModifiers()) || parent == null) {
+            return null;
+        }
+
+        String name = target.getName() + "$$FieldStreamer";
+        try {
+            StreamerGenerator gen = new StreamerGenerator(target, fields, marshallers);
+            Class<?> sclass = getLoader(parent).define(name, gen.generate(name.replace('.', '/')));
+            FieldStreamer streamer = (FieldStreamer)sclass.newInstance();
+            streamer.init(target, fields, marshallers);
+            if (ObjectInputStream.STREAM_DEBUG) {
+                log.info("Generated field streamer", "class", target.getName(),
+                         "direct", gen._direct, "fields", fields.length);
+            }
+            return streamer;
+
+        } catch (Throwable t) {
+            log.warning("Failed to generate field streamer, using reflection",
+                        "class", target.getName(), t);
+            return null;
+        }
+    }
+
+    protected StreamerGenerator (Class<?> target, Field[] fields, FieldMarshaller[] marshallers)
+    {
+        _target = Type.getInternalName(target);
+        _fields = fields;
+        _kinds = new int[fields.length];
+        for (int ii = 0; ii < fields.length; ii++) {
+            _kinds[ii] = getKind(fields[ii], marshallers[ii]);
+            if (_kinds[ii] != REFLECT) {
+                _direct++;
+            }
+        }
+
+        // we can construct instances directly if there's a public zero-argument constructor
+        if (!Modifier.isAbstract(target.getModifiers())) {
+            try {
+                Constructor<?> ctor = target.getDeclaredConstructor();
+                _construct = Modifier.isPublic(ctor.getModifiers());
+            } catch (NoSuchMethodException nsme) {
+                // no problem, we'll let the streamer use reflection
+            }
+        }
+    }
+
+    /**
+     * Generates our field streamer class with the specified internal name.
+     */
+    protected byte[] generate (String name)
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        // we generate 1.5 classes so that we need not compute stack map frames
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC,
+                 name, null, FSTREAMER, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, FSTREAMER, "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        generateWriteFields(cw);
+        generateReadFields(cw);
+        generateNewInstance(cw);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates <code>writeFields(Object, ObjectOutputStream)</code>.
+     */
+    protected void generateWriteFields (ClassWriter cw)
+    {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "writeFields",
+            "(" + OBJECT_DESC + OOS_DESC + ")V", null, new String[] { IOEXCEPTION });
+        Label start = new Label(), end = new Label(), handler = new Label();
+        mv.visitCode();
+        mv.visitTryCatchBlock(start, end, handler, EXCEPTION);
+
+        // locals: 0 this, 1 object, 2 out, 3 object cast to target, 4 index of current field
+        pushInt(mv, 0);
+        mv.visitVarInsn(ISTORE, 4);
+        mv.visitLabel(start);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, _target);
+        mv.visitVarInsn(ASTORE, 3);
+
+        for (int ii = 0; ii < _fields.length; ii++) {
+            Field field = _fields[ii];
+            pushInt(mv, ii);
+            mv.visitVarInsn(ISTORE, 4);
+
+            switch (_kinds[ii]) {
+            case PRIMITIVE:
+                mv.visitVarInsn(ALOAD, 2);
+                getField(mv, field);
+                String type = Type.getDescriptor(field.getType());
+                mv.visitMethodInsn(INVOKEVIRTUAL, OOS, "write" + primitiveName(field.getType()),
+                                   "(" + ("BCS".indexOf(type) >= 0 ? "I" : type) + ")V");
+                break;
+
+            case DATE:
+                mv.visitVarInsn(ALOAD, 2);
+                getField(mv, field);
+                mv.visitMethodInsn(INVOKEVIRTUAL, JDATE, "getTime", "()J");
+                mv.visitMethodInsn(INVOKEVIRTUAL, OOS, "writeLong", "(J)V");
+                break;
+
+            case INTERN:
+                mv.visitVarInsn(ALOAD, 2);
+                getField(mv, field);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OOS, "writeIntern", "(" + STRING_DESC + ")V");
+                break;
+
+            case GENERIC:
+                mv.visitVarInsn(ALOAD, 2);
+                getField(mv, field);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OOS, "writeObject", "(" + OBJECT_DESC + ")V");
+                break;
+
+            case STREAMED:
+                mv.visitVarInsn(ALOAD, 0);
+                pushInt(mv, ii);
+                getField(mv, field);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, "writeStreamed",
+                                   "(I" + OBJECT_DESC + OOS_DESC + ")V");
+                break;
+
+            default:
+                mv.visitVarInsn(ALOAD, 0);
+                pushInt(mv, ii);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, "writeField",
+                                   "(I" + OBJECT_DESC + OOS_DESC + ")V");
+                break;
+            }
+        }
+        mv.visitInsn(RETURN);
+        mv.visitLabel(end);
+
+        generateFailureHandler(mv, handler, "writeFailure");
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Generates <code>readFields(Object, ObjectInputStream)</code>.
+     */
+    protected void generateReadFields (ClassWriter cw)
+    {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "readFields",
+            "(" + OBJECT_DESC + OIS_DESC + ")V", null, new String[] { IOEXCEPTION });
+        Label start = new Label(), end = new Label(), handler = new Label();
+        mv.visitCode();
+        mv.visitTryCatchBlock(start, end, handler, EXCEPTION);
+
+        // locals: 0 this, 1 object, 2 in, 3 object cast to target, 4 index of current field
+        pushInt(mv, 0);
+        mv.visitVarInsn(ISTORE, 4);
+        mv.visitLabel(start);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, _target);
+        mv.visitVarInsn(ASTORE, 3);
+
+        for (int ii = 0; ii < _fields.length; ii++) {
+            Field field = _fields[ii];
+            Label read = new Label(), next = new Label();
+            pushInt(mv, ii);
+            mv.visitVarInsn(ISTORE, 4);
+
+            // gracefully deal with objects that have had new fields added to their class
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKEVIRTUAL, OIS, "available", "()I");
+            mv.visitJumpInsn(IFGT, read);
+            mv.visitVarInsn(ALOAD, 0);
+            pushInt(mv, ii);
+            mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, "missingField", "(I)V");
+            mv.visitJumpInsn(GOTO, next);
+            mv.visitLabel(read);
+
+            switch (_kinds[ii]) {
+            case PRIMITIVE:
+                mv.visitVarInsn(ALOAD, 3);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OIS, "read" + primitiveName(field.getType()),
+                                   "()" + Type.getDescriptor(field.getType()));
+                putField(mv, field);
+                break;
+
+            case DATE:
+                mv.visitVarInsn(ALOAD, 3);
+                mv.visitTypeInsn(NEW, JDATE);
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OIS, "readLong", "()J");
+                mv.visitMethodInsn(INVOKESPECIAL, JDATE, "<init>", "(J)V");
+                putField(mv, field);
+                break;
+
+            case INTERN:
+                mv.visitVarInsn(ALOAD, 3);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OIS, "readIntern", "()" + STRING_DESC);
+                putField(mv, field);
+                break;
+
+            case GENERIC:
+                mv.visitVarInsn(ALOAD, 3);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, OIS, "readObject", "()" + OBJECT_DESC);
+                castAndPutField(mv, field);
+                break;
+
+            case STREAMED:
+                mv.visitVarInsn(ALOAD, 3);
+                mv.visitVarInsn(ALOAD, 0);
+                pushInt(mv, ii);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, "readStreamed",
+                                   "(I" + OIS_DESC + ")" + OBJECT_DESC);
+                castAndPutField(mv, field);
+                break;
+
+            default:
+                mv.visitVarInsn(ALOAD, 0);
+                pushInt(mv, ii);
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, "readField",
+                                   "(I" + OBJECT_DESC + OIS_DESC + ")V");
+                break;
+            }
+            mv.visitLabel(next);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitLabel(end);
+
+        generateFailureHandler(mv, handler, "readFailure");
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Generates <code>newInstance()</code>.
+     */
+    protected void generateNewInstance (ClassWriter cw)
+    {
+        MethodVisitor mv = cw.visitMethod(
+            ACC_PUBLIC, "newInstance", "()" + OBJECT_DESC, null, null);
+        mv.visitCode();
+        if (_construct) {
+            mv.visitTypeInsn(NEW, _target);
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESPECIAL, _target, "<init>", "()V");
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Generates an exception handler that wraps the caught exception via the specified
+     * {@link FieldStreamer} method, passing it the index of the field being streamed.
+     */
+    protected void generateFailureHandler (MethodVisitor mv, Label handler, String wrapper)
+    {
+        mv.visitLabel(handler);
+        mv.visitVarInsn(ASTORE, 5);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 4);
+        mv.visitVarInsn(ALOAD, 5);
+        mv.visitMethodInsn(INVOKEVIRTUAL, FSTREAMER, wrapper,
+                           "(IL" + EXCEPTION + ";)L" + IOEXCEPTION + ";");
+        mv.visitInsn(ATHROW);
+    }
+
+    /**
+     * Pushes the value of the specified field of our (cast) target object onto the stack.
+     */
+    protected void getField (MethodVisitor mv, Field field)
+    {
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitFieldInsn(GETFIELD, Type.getInternalName(field.getDeclaringClass()),
+                          field.getName(), Type.getDescriptor(field.getType()));
+    }
+
+    /**
+     * Stores the value on the top of the stack into the specified field of the object beneath it.
+     */
+    protected void putField (MethodVisitor mv, Field field)
+    {
+        mv.visitFieldInsn(PUTFIELD, Type.getInternalName(field.getDeclaringClass()),
+                          field.getName(), Type.getDescriptor(field.getType()));
+    }
+
+    /**
+     * Casts the object on the top of the stack to the type of the specified field and stores it
+     * into said field of the object beneath it.
+     */
+    protected void castAndPutField (MethodVisitor mv, Field field)
+    {
+        if (field.getType() != Object.class) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(field.getType()));
+        }
+        putField(mv, field);
+    }
+
+    /**
+     * Determines how we will stream the supplied field.
+     */
+    protected static int getKind (Field field, FieldMarshaller fm)
+    {
+        // we can only access public, non-final fields of public types declared by public classes
+        int mods = field.getModifiers();
+        Class<?> ftype = field.getType(), etype = ftype;
+        while (etype.isArray()) {
+            etype = etype.getComponentType();
+        }
+        if (!Modifier.isPublic(mods) || Modifier.isFinal(mods) ||
+            !Modifier.isPublic(field.getDeclaringClass().getModifiers()) ||
+            !Modifier.isPublic(etype.getModifiers())) {
+            return REFLECT;
+        }
+
+        // only inline the handling of fields that use our stock marshallers
+        Map<Class<?>, FieldMarshaller> stock = FieldMarshaller._marshallers;
+        if (ftype.isPrimitive()) {
+            return (fm == stock.get(ftype)) ? PRIMITIVE : REFLECT;
+        } else if (fm == FieldMarshaller._internMarshaller) {
+            return INTERN;
+        } else if (fm == stock.get(Streamable.class)) {
+            return GENERIC;
+        } else if (ftype == Date.class && fm == stock.get(Date.class)) {
+            return DATE;
+        } else if (fm instanceof FieldMarshaller.StreamerMarshaller) {
+            return STREAMED;
+        }
+        return REFLECT;
+    }
+
+    /**
+     * Returns the suffix of the data stream methods that read and write the supplied primitive
+     * type, e.g. <code>Int</code> for <code>int</code>.
+     */
+    protected static String primitiveName (Class<?> type)
+    {
+        String name = type.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Pushes the specified integer constant onto the stack.
+     */
+    protected static void pushInt (MethodVisitor mv, int value)
+    {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Returns the loader in which to define streamers for classes loaded by the supplied loader.
+     */
+    protected static synchronized GeneratedClassLoader getLoader (ClassLoader parent)
+    {
+        WeakReference<GeneratedClassLoader> ref = _loaders.get(parent);
+        GeneratedClassLoader loader = (ref == null) ? null : ref.get();
+        if (loader == null) {
+            loader = new GeneratedClassLoader(parent);
+            _loaders.put(parent, new WeakReference<GeneratedClassLoader>(loader));
+        }
+        return loader;
+    }
+
+    /** Defines our generated classes. */
+    protected static class GeneratedClassLoader extends ClassLoader
+    {
+        public GeneratedClassLoader (ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        public synchronized Class<?> define (String name, byte[] data)
+        {
+            // two threads may race to generate a streamer, in which case we use the first
+            Class<?> clazz = findLoadedClass(name);
+            return (clazz != null) ? clazz : defineClass(name, data, 0, data.length);
+        }
+    }
+
+    /** The internal name of the class whose fields we stream. */
+    protected String _target;
+
+    /** The fields we stream. */
+    protected Field[] _fields;
+
+    /** How we stream each of our fields. */
+    protected int[] _kinds;
+
+    /** The number of fields we access directly. */
+    protected int _direct;
+
+    /** Whether we can construct instances of our target class directly. */
+    protected boolean _construct;
+
+    /** Our generated class loaders, mapped by the loader of the classes they stream. The mapping
+     * is weak so that we don't prevent the unloading of either. */
+    protected static Map<ClassLoader, WeakReference<GeneratedClassLoader>> _loaders =
+        new WeakHashMap<ClassLoader, WeakReference<GeneratedClassLoader>>();
+
+    /** Field kinds: streamed by their reflective marshaller, or handled directly. */
+    protected static final int REFLECT = 0, PRIMITIVE = 1, DATE = 2, INTERN = 3, GENERIC = 4,
+        STREAMED = 5;
+
+    protected static final String FSTREAMER = Type.getInternalName(FieldStreamer.class);
+    protected static final String OOS = Type.getInternalName(ObjectOutputStream.class);
+    protected static final String OIS = Type.getInternalName(ObjectInputStream.class);
+    protected static final String JDATE = Type.getInternalName(Date.class);
+    protected static final String EXCEPTION = Type.getInternalName(Exception.class);
+    protected static final String IOEXCEPTION = Type.getInternalName(IOException.class);
+    protected static final String OOS_DESC = Type.getDescriptor(ObjectOutputStream.class);
+    protected static final String OIS_DESC = Type.getDescriptor(ObjectInputStream.class);
+    protected static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+    protected static final String STRING_DESC = Type.getDescriptor(String.class);
+}
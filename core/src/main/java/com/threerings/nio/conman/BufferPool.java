@@ -0,0 +1,159 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.nio.conman;
+
+import java.util.List;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Maintains a pool of direct byte buffers in power-of-two size classes, so that outgoing messages
+ * can be queued up and written to the network without allocating a buffer for every message.
+ * Buffers may be acquired and released on any thread. Requests larger than the largest size class
+ * are satisfied with a freshly allocated heap buffer which is simply dropped when released.
+ */
+public class BufferPool
+{
+    /**
+     * Creates a buffer pool with size classes ranging from <code>minSize</code> to
+     * <code>maxSize</code> (both of which are rounded up to a power of two), each of which will
+     * retain at most <code>maxRetained</code> bytes worth of released buffers.
+     */
+    public BufferPool (int minSize, int maxSize, int maxRetained)
+    {
+        _minShift = shiftFor(minSize);
+        _maxShift = Math.max(_minShift, shiftFor(maxSize));
+        _classes = new SizeClass[_maxShift - _minShift + 1];
+        for (int ii = 0; ii < _classes.length; ii++) {
+            int size = 1 << (_minShift + ii);
+            _classes[ii] = new SizeClass(size, Math.max(1, maxRetained / size));
+        }
+    }
+
+    /**
+     * Returns a cleared buffer with at least the specified capacity, and with its limit set to
+     * <code>size</code>. The buffer should be returned to the pool via {@link #release} when the
+     * caller is done with it.
+     */
+    public ByteBuffer acquire (int size)
+    {
+        int shift = Math.max(_minShift, shiftFor(size));
+        ByteBuffer buffer;
+        if (shift > _maxShift) {
+            synchronized (this) {
+                _oversized++;
+            }
+            buffer = ByteBuffer.allocate(size);
+        } else {
+            buffer = _classes[shift - _minShift].acquire();
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire} to the pool. Buffers that did not originate
+     * from the pool are ignored, so this may be safely called on any buffer. The caller must not
+     * reference the buffer after releasing it.
+     */
+    public void release (ByteBuffer buffer)
+    {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int shift = shiftFor(capacity);
+        if ((1 << shift) == capacity && shift >= _minShift && shift <= _maxShift) {
+            _classes[shift - _minShift].release(buffer);
+        }
+    }
+
+    /**
+     * Returns the total number of buffers that have been allocated by this pool (because no
+     * suitable buffer was available for reuse) since it was created.
+     */
+    public synchronized long getAllocations ()
+    {
+        long allocs = _oversized;
+        for (SizeClass sclass : _classes) {
+            allocs += sclass.getAllocations();
+        }
+        return allocs;
+    }
+
+    /**
+     * Returns the smallest <code>n</code> for which <code>1 << n</code> is at least the
+     * specified size.
+     */
+    protected static int shiftFor (int size)
+    {
+        return (size <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /** Tracks the free buffers of a single size. */
+    protected static class SizeClass
+    {
+        public SizeClass (int size, int maxFree)
+        {
+            _size = size;
+            _maxFree = maxFree;
+        }
+
+        public synchronized ByteBuffer acquire ()
+        {
+            int count = _free.size();
+            if (count > 0) {
+                return _free.remove(count - 1);
+            }
+            _allocs++;
+            return ByteBuffer.allocateDirect(_size);
+        }
+
+        public synchronized void release (ByteBuffer buffer)
+        {
+            if (_free.size() < _maxFree) {
+                buffer.clear();
+                _free.add(buffer);
+            }
+        }
+
+        public synchronized long getAllocations ()
+        {
+            return _allocs;
+        }
+
+        protected int _size, _maxFree;
+        protected List<ByteBuffer> _free = Lists.newArrayList();
+        protected long _allocs;
+    }
+
+    /** The shifts of our smallest and largest size classes. */
+    protected int _minShift, _maxShift;
+
+    /** Our size classes, smallest first. */
+    protected SizeClass[] _classes;
+
+    /** The number of requests we've had to satisfy with unpooled buffers. */
+    protected long _oversized;
+}
@@ -44,6 +44,10 @@ public class ConMgrStats
     /** The overflow queue size. This is a snapshot at the time the stats are requested. */
     public int overQueueSize;
 
+    /** The number of bytes in the overflow queues. This is a snapshot at the time the stats are
+     * requested. */
+    public long overQueueBytes;
+
     /** The number of raw network events (sockets reporting ACCEPT or READY). */
     public long eventCount;
 
@@ -68,6 +72,49 @@ public class ConMgrStats
     /** The number of messages written since the server started up. */
     public long msgsOut;
 
+    /** The number of socket writes since the server started up. Multiple queued messages are
+     * written to a connection with a single write where possible. */
+    public long writes;
+
+    /** The number of droppable messages discarded from overflow queues that grew large. */
+    public long overflowDropped;
+
+    /** The number of messages dropped from overflow queues because they were superseded. */
+    public long overflowCollapsed;
+
+    /** The number of clients disconnected because their overflow queues grew too large. */
+    public int overflowDisconnects;
+
+    /**
+     * Adds the queue sizes and activity counts from the supplied stats (which generally come from
+     * a secondary reactor) to ours.
+     */
+    public void accumulate (ConMgrStats other)
+    {
+        handlerCount += other.handlerCount;
+        deathQueueSize += other.deathQueueSize;
+        outQueueSize += other.outQueueSize;
+        overQueueSize += other.overQueueSize;
+        overQueueBytes += other.overQueueBytes;
+        eventCount += other.eventCount;
+        bytesIn += other.bytesIn;
+        bytesOut += other.bytesOut;
+        msgsIn += other.msgsIn;
+        msgsOut += other.msgsOut;
+        writes += other.writes;
+        overflowDropped += other.overflowDropped;
+        overflowCollapsed += other.overflowCollapsed;
+        overflowDisconnects += other.overflowDisconnects;
+    }
+
+    /**
+     * Returns the average number of messages written per socket write.
+     */
+    public double getMessagesPerWrite ()
+    {
+        return (writes == 0) ? 0 : (double)msgsOut / writes;
+    }
+
     @Override
     public String toString ()
     {
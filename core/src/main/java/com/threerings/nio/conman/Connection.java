@@ -25,9 +25,12 @@ import static com.threerings.NaryaLog.log;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
+import com.samskivert.util.Queue;
+
 /**
  * Implements the net event handler interface to check for delinquency and manages a client
  * connection. Subclasses must handle incoming data in {@link #handleEvent}.
@@ -48,6 +51,7 @@ public abstract class Connection implements NetEventHandler
         throws IOException
     {
         _cmgr = cmgr;
+        _reactor = cmgr;
         _channel = channel;
         _lastEvent = createStamp;
         _connectionId = ++_lastConnectionId;
@@ -61,6 +65,15 @@ public abstract class Connection implements NetEventHandler
         return _connectionId;
     }
 
+    /**
+     * Returns the reactor that performs network I/O for this connection. This is the connection
+     * manager itself unless the connection has been handed off to one of its secondary reactors.
+     */
+    public Reactor getReactor ()
+    {
+        return _reactor;
+    }
+
     /**
      * Returns the non-blocking socket object used to construct this connection.
      */
@@ -88,7 +101,8 @@ public abstract class Connection implements NetEventHandler
 
     /**
      * Closes this connection and unregisters it from the connection manager. This should only be
-     * called from the conmgr thread.
+     * called from the thread of the reactor that manages this connection; other threads should use
+     * {@link ConnectionManager#closeConnection}.
      */
     public void close ()
     {
@@ -190,8 +204,20 @@ public abstract class Connection implements NetEventHandler
     }
 
     protected ConnectionManager _cmgr;
+    protected volatile Reactor _reactor;
     protected SocketChannel _channel;
 
+    /** Framed messages waiting to be written to this connection by its reactor. */
+    protected Queue<ByteBuffer> _outq = Queue.newQueue();
+
+    /** The overflow keys of the messages in {@link #_outq}, in the same order, if our reactor
+     * applies overflow policies. Synchronize on {@link #_outq} when accessing. */
+    protected Queue<Object> _outKeys = Queue.newQueue();
+
+    /** Whether this connection is on its reactor's list of connections with messages to write.
+     * Synchronize on {@link #_outq} when accessing. */
+    protected boolean _outPending;
+
     protected long _lastEvent;
 
     protected int _connectionId;
@@ -21,30 +21,25 @@
 
 package com.threerings.nio.conman;
 
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.NotYetConnectedException;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
 import com.samskivert.util.Lifecycle;
-import com.samskivert.util.LoopingThread;
 import com.samskivert.util.Queue;
 import com.samskivert.util.Tuple;
 
-import com.threerings.nio.SelectorIterable;
-
 import static com.threerings.NaryaLog.log;
 
 /**
@@ -54,9 +49,14 @@ import static com.threerings.NaryaLog.log;
  *
  * ConnectionManager doesn't directly accept TCP connections; it expects
  * {@link ServerSocketChannelAcceptor} or an external entity to do so and call its
- * {@link #handleAcceptedSocket} method
+ * {@link #handleAcceptedSocket} method<p>
+ *
+ * The connection manager is itself a {@link Reactor} and by default performs all network I/O on
+ * its own thread. If configured with <code>presents.net.reactorCount</code>, it also starts that
+ * many secondary reactors and derived classes may hand established connections off to them via
+ * {@link #assignReactor}, spreading the read, decode and write work across multiple threads.
  */
-public abstract class ConnectionManager extends LoopingThread
+public abstract class ConnectionManager extends Reactor
     implements Lifecycle.ShutdownComponent
 {
     /**
@@ -65,10 +65,9 @@ public abstract class ConnectionManager extends LoopingThread
     public ConnectionManager (Lifecycle cycle, long idleTime)
         throws IOException
     {
-        super("ConnectionManager");
+        super("ConnectionManager", idleTime);
         cycle.addComponent(this);
-        _selector = Selector.open();
-        _idleTime = idleTime;
+        _cmgr = this;
     }
 
     /**
@@ -83,35 +82,79 @@ public abstract class ConnectionManager extends LoopingThread
     }
 
     /**
-     * Returns our current runtime statistics. <em>Note:</em> don't call this method <em>too</em>
-     * frequently as it is synchronized and will contend with the network I/O thread.
+     * Returns our current runtime statistics, aggregated across all of our reactors.
+     * <em>Note:</em> don't call this method <em>too</em> frequently as it is synchronized and will
+     * contend with the network I/O threads.
      */
+    @Override
     public synchronized ConMgrStats getStats ()
     {
         // fill in our snapshot values
-        _stats.connectionCount = _connections.size();
-        _stats.handlerCount = _handlers.size();
-        _stats.deathQueueSize = _deathq.size();
-        _stats.outQueueSize = _outq.size();
-        if (_oflowqs.size() > 0) {
-            _stats.overQueueSize = 0;
-            for (OverflowQueue oq : _oflowqs.values()) {
-                _stats.overQueueSize += oq.size();
+        synchronized (_connections) {
+            _stats.connectionCount = _connections.size();
+        }
+        ConMgrStats stats = super.getStats();
+        for (Reactor reactor : _reactors) {
+            stats.accumulate(reactor.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the runtime statistics of each of our secondary reactors, or an empty array if we
+     * are performing all network I/O on our own thread.
+     */
+    public ConMgrStats[] getReactorStats ()
+    {
+        ConMgrStats[] stats = new ConMgrStats[_reactors.size()];
+        for (int ii = 0; ii < stats.length; ii++) {
+            stats[ii] = _reactors.get(ii).getStats();
+        }
+        return stats;
+    }
+
+    /**
+     * Returns descriptions of the (at most) <code>count</code> largest overflow queues across all
+     * of our reactors, largest first. <em>Note:</em> like {@link #getStats}, this contends with
+     * the network I/O threads.
+     */
+    public List<String> getLargestOverflows (int count)
+    {
+        List<Tuple<Long, String>> oflows = Lists.newArrayList();
+        getOverflows(oflows);
+        for (Reactor reactor : _reactors) {
+            reactor.getOverflows(oflows);
+        }
+        Collections.sort(oflows, new Comparator<Tuple<Long, String>>() {
+            public int compare (Tuple<Long, String> o1, Tuple<Long, String> o2) {
+                return o2.left.compareTo(o1.left);
             }
+        });
+        List<String> largest = Lists.newArrayList();
+        for (int ii = 0, ll = Math.min(count, oflows.size()); ii < ll; ii++) {
+            largest.add(oflows.get(ii).right);
         }
-        return _stats.clone();
+        return largest;
     }
 
     /**
-     * Registers <code>ops</code> on <code>chan</code> on this manager's selector and hooks
-     * <code>netEventHandler</code> up to receive events whenever the selection occurs.
+     * Returns the pool from which buffers for outgoing messages should be obtained. Buffers posted
+     * via {@link Reactor#postMessage(Connection,ByteBuffer)} are returned to this pool once they
+     * have been written.
      */
-    public SelectionKey register (SelectableChannel chan, int ops, NetEventHandler netEventHandler)
-        throws IOException
+    public BufferPool getBufferPool ()
+    {
+        return _bufferPool;
+    }
+
+    /**
+     * Returns true if connections should borrow their read buffers from our {@link BufferPool}
+     * only while they have a partially read message, rather than each keeping its own buffer for
+     * its entire lifetime.
+     */
+    public boolean usePooledReadBuffers ()
     {
-        SelectionKey key = chan.register(_selector, ops);
-        _handlers.put(key, netEventHandler);
-        return key;
+        return _pooledReadBuffers;
     }
 
     /**
@@ -125,11 +168,11 @@ public abstract class ConnectionManager extends LoopingThread
     }
 
     /**
-     * Queues a connection up to be closed on the conmgr thread.
+     * Queues a connection up to be closed on the thread of the reactor that manages it.
      */
     public void closeConnection (Connection conn)
     {
-        _deathq.append(conn);
+        conn.getReactor()._deathq.append(conn);
     }
 
     @Override // from LoopingThread
@@ -137,14 +180,19 @@ public abstract class ConnectionManager extends LoopingThread
     {
         super.willStart();
 
-        _selectorSelector = new SelectorIterable(
-            _selector, _selectLoopTime, new SelectorIterable.SelectFailureHandler() {
-            public void handleSelectFailure (Exception e) {
-                log.error("One of our selectors crapped out completely.  " +
-                          "Shutting down the connection manager.", e);
-                shutdown();
+        // start up our secondary reactors, if we have any
+        for (int ii = 0; ii < _reactorCount; ii++) {
+            try {
+                Reactor reactor = new Reactor(this, getName() + "-" + ii);
+                reactor.start();
+                _reactors.add(reactor);
+            } catch (IOException ioe) {
+                log.warning("Failed to create reactor, continuing with fewer.", "index", ii, ioe);
             }
-        });
+        }
+        if (!_reactors.isEmpty()) {
+            log.info("Started network reactors", "count", _reactors.size());
+        }
     }
 
     @Override // from LoopingThread
@@ -160,23 +208,10 @@ public abstract class ConnectionManager extends LoopingThread
         }
 
         // close any connections that have been queued up to die
-        Connection dconn;
-        while ((dconn = _deathq.getNonBlocking()) != null) {
-            // it's possible that we caught an EOF trying to read from this connection even after
-            // it was queued up for death, so let's avoid trying to close it twice
-            if (!dconn.isClosed()) {
-                dconn.close();
-            }
-        }
+        closeDeadConnections();
 
         // close connections that have had no network traffic for too long
-        long idleStamp = iterStamp - _idleTime;
-        for (NetEventHandler handler : _handlers.values()) {
-            if (handler.checkIdle(idleStamp)) {
-                // this will queue the connection for closure on our next tick
-                handler.becameIdle();
-            }
-        }
+        checkIdleConnections(iterStamp);
 
         // send any messages that are waiting on the outgoing overflow and message queues
         sendOutgoingMessages(iterStamp);
@@ -185,7 +220,7 @@ public abstract class ConnectionManager extends LoopingThread
         // isRunning() is true); this is because we stick around until the dobject manager is
         // totally done so that we can send shutdown-related events out to our clients; during
         // those last moments we don't want to accept new connections or read any incoming messages
-        if (super.isRunning()) {
+        if (isReadingIncoming()) {
             handleIncoming(iterStamp);
         }
 
@@ -194,6 +229,15 @@ public abstract class ConnectionManager extends LoopingThread
         }
     }
 
+    /**
+     * Returns true if we (and our secondary reactors) should still be accepting connections and
+     * reading incoming messages, false if we're shutting down and only delivering outgoing messages.
+     */
+    protected boolean isReadingIncoming ()
+    {
+        return super.isRunning();
+    }
+
     protected void handleIncoming (long iterStamp)
     {
         SocketChannel accepted;
@@ -235,185 +279,34 @@ public abstract class ConnectionManager extends LoopingThread
     }
 
     /**
-     * Checks for any network events on our set of sockets and passes those events down to their
-     * associated {@link NetEventHandler}s for processing.
+     * Returns true if we have secondary reactors to which established connections can be handed
+     * via {@link #assignReactor}.
      */
-    protected void processIncomingEvents (long iterStamp)
+    protected boolean haveReactors ()
     {
-        // process those events
-        long bytesIn = 0, msgsIn = 0, eventCount = 0;
-        for (SelectionKey selkey : _selectorSelector) {
-            eventCount++;
-            NetEventHandler handler = null;
-            try {
-                handler = _handlers.get(selkey);
-                if (handler == null) {
-                    log.warning("Received network event for unknown handler",
-                                "key", selkey, "ops", selkey.readyOps());
-                    // request that this key be removed from our selection set, which normally
-                    // happens automatically but for some reason didn't
-                    selkey.cancel();
-                    continue;
-                }
-
-//                 log.info("Got event", "selkey", selkey, "handler", handler);
-
-                int got = handler.handleEvent(iterStamp);
-                if (got != 0) {
-                    bytesIn += got;
-                    // we know that the handlers only report having read bytes when they have a
-                    // whole message, so we can count thusly
-                    msgsIn++;
-                }
-
-            } catch (Exception e) {
-                log.warning("Error processing network data: " + handler + ".", e);
-
-                // if you freak out here, you go straight in the can
-                if (handler != null && handler instanceof Connection) {
-                    closeConnection((Connection)handler);
-                }
-            }
-        }
-
-        synchronized (this) {
-            // update our stats
-            _stats.eventCount += eventCount;
-            _stats.bytesIn += bytesIn;
-            _stats.msgsIn += msgsIn;
-        }
+        return !_reactors.isEmpty();
     }
 
     /**
-     * Writes all queued overflow and normal messages to their respective sockets. Connections that
-     * already have established overflow queues will have their messages appended to their overflow
-     * queue instead so that they are delivered in the proper order.
+     * Removes the supplied connection from our selector and hands it off to one of our secondary
+     * reactors, which will perform all further network I/O for it. This must be called on the
+     * conmgr thread and the connection must not have any outgoing data waiting in an overflow
+     * queue. Does nothing if we have no secondary reactors.
      */
-    protected void sendOutgoingMessages (long iterStamp)
+    protected void assignReactor (Connection conn)
     {
-        // first attempt to send any messages waiting on the overflow queues
-        if (_oflowqs.size() > 0) {
-            // do this on a snapshot as a network failure writing oflow queue messages will result
-            // in the queue being removed from _oflowqs via the connectionFailed() code path
-            for (OverflowQueue oq : _oflowqs.values().toArray(new OverflowQueue[_oflowqs.size()])) {
-                try {
-                    // try writing the messages in this overflow queue
-                    if (oq.writeOverflowMessages(iterStamp)) {
-                        // if they were all written, we can remove it
-                        _oflowqs.remove(oq.conn);
-                    }
-
-                } catch (IOException ioe) {
-                    oq.conn.networkFailure(ioe);
-                }
-            }
-        }
-
-        // then send any new messages
-        Tuple<Connection, byte[]> tup;
-        while ((tup = _outq.getNonBlocking()) != null) {
-            Connection conn = tup.left;
-
-            // if an overflow queue exists for this client, go ahead and slap the message on there
-            // because we can't send it until all other messages in their queue have gone out
-            OverflowQueue oqueue = _oflowqs.get(conn);
-            if (oqueue != null) {
-                int size = oqueue.size();
-                if ((size > 500) && (size % 50 == 0)) {
-                    log.warning("Aiya, big overflow queue for " + conn + "", "size", size,
-                                "bytes", tup.right.length);
-                }
-                oqueue.add(tup.right);
-                continue;
-            }
-
-            // otherwise write the message out to the client directly
-            writeMessage(conn, tup.right, _oflowHandler);
-        }
-    }
-
-    /**
-     * Writes a message out to a connection, passing the buck to the partial write handler if the
-     * entire message could not be written.
-     *
-     * @return true if the message was fully written, false if it was partially written (in which
-     * case the partial message handler will have been invoked).
-     */
-    protected boolean writeMessage (Connection conn, byte[] data, PartialWriteHandler pwh)
-    {
-        // if the connection to which this message is destined is closed, drop the message and move
-        // along quietly; this is perfectly legal, a user can logoff whenever they like, even if we
-        // still have things to tell them; such is life in a fully asynchronous distributed system
-        if (conn.isClosed()) {
-            return true;
-        }
-
-        // if this is an asynchronous close request, queue the connection up for death
-        if (data == ASYNC_CLOSE_REQUEST) {
-            closeConnection(conn);
-            return true;
-        }
-
-        // sanity check the message size
-        if (data.length > 1024 * 1024) {
-            log.warning("Refusing to write very large message", "conn", conn, "size", data.length);
-            return true;
-        }
-
-        // expand our output buffer if needed to accomodate this message
-        if (data.length > _outbuf.capacity()) {
-            // increase the buffer size in large increments
-            int ncapacity = Math.max(_outbuf.capacity() << 1, data.length);
-            log.info("Expanding output buffer size", "nsize", ncapacity);
-            _outbuf = ByteBuffer.allocateDirect(ncapacity);
-        }
-
-        boolean fully = true;
-        try {
-//             log.info("Writing " + data.length + " byte message to " + conn + ".");
-
-            // first copy the data into our "direct" output buffer
-            _outbuf.put(data);
-            _outbuf.flip();
-
-            // if the connection to which we're writing is not yet ready, the whole message is
-            // "leftover", so we pass it to the partial write handler
-            SocketChannel sochan = conn.getChannel();
-            if (sochan.isConnectionPending()) {
-                pwh.handlePartialWrite(conn, _outbuf);
-                return false;
-            }
-
-            // then write the data to the socket
-            int wrote = sochan.write(_outbuf);
-            noteWrite(1, wrote);
-
-            // if we didn't write our entire message, deal with the leftover bytes
-            if (_outbuf.remaining() > 0) {
-                fully = false;
-                pwh.handlePartialWrite(conn, _outbuf);
-            }
-
-        } catch (NotYetConnectedException nyce) {
-            // this should be caught by isConnectionPending() but awesomely it's not
-            pwh.handlePartialWrite(conn, _outbuf);
-            return false;
-
-        } catch (IOException ioe) {
-            conn.networkFailure(ioe); // instruct the connection to deal with its failure
-
-        } finally {
-            _outbuf.clear();
+        if (_reactors.isEmpty()) {
+            return;
         }
 
-        return fully;
-    }
+        // stop listening for events on our selector; the cancelled key is flushed on our next select
+        _handlers.remove(conn.selkey);
+        conn.selkey.cancel();
+        conn.selkey = null;
 
-    /** Called by {@link #writeMessage} and friends when they write data over the network. */
-    protected synchronized void noteWrite (int msgs, int bytes)
-    {
-        _stats.msgsOut += msgs;
-        _stats.bytesOut += bytes;
+        // assign our reactors to connections in round robin order
+        _reactors.get(_nextReactor++ % _reactors.size()).adopt(conn);
+        _nextReactor %= _reactors.size();
     }
 
     /**
@@ -426,34 +319,36 @@ public abstract class ConnectionManager extends LoopingThread
      */
     protected void postAsyncClose (Connection conn)
     {
-        _outq.append(Tuple.newTuple(conn, ASYNC_CLOSE_REQUEST));
+        conn.getReactor().postMessage(conn, ASYNC_CLOSE_REQUEST);
     }
 
     /**
-     * Called by a connection if it experiences a network failure.
+     * Called by a connection if it experiences a network failure. This is called on the thread of
+     * the reactor that manages the connection.
      */
     protected void connectionFailed (Connection conn, IOException ioe)
     {
-        // remove this connection from our mappings (it is automatically removed from the Selector
-        // when the socket is closed)
-        _handlers.remove(conn.selkey);
-        _connections.remove(conn.getConnectionId());
-        _oflowqs.remove(conn);
+        // remove this connection from our mappings
+        conn.getReactor().connectionRemoved(conn);
+        synchronized (_connections) {
+            _connections.remove(conn.getConnectionId());
+        }
         synchronized (this) {
             _stats.disconnects++;
         }
     }
 
     /**
-     * Called by a connection when it discovers that it's closed.
+     * Called by a connection when it discovers that it's closed. This is called on the thread of
+     * the reactor that manages the connection.
      */
     protected void connectionClosed (Connection conn)
     {
-        // remove this connection from our mappings (it is automatically removed from the Selector
-        // when the socket is closed)
-        _handlers.remove(conn.selkey);
-        _connections.remove(conn.getConnectionId());
-        _oflowqs.remove(conn);
+        // remove this connection from our mappings
+        conn.getReactor().connectionRemoved(conn);
+        synchronized (_connections) {
+            _connections.remove(conn.getConnectionId());
+        }
         synchronized (this) {
             _stats.closes++;
         }
@@ -470,11 +365,18 @@ public abstract class ConnectionManager extends LoopingThread
     protected void didShutdown ()
     {
         // take one last crack at the outgoing message queue
-        sendOutgoingMessages(System.currentTimeMillis());
+        super.didShutdown();
 
-        // report if there's anything left on the outgoing message queue
-        if (_outq.size() > 0) {
-            log.warning("Connection Manager failed to deliver " + _outq.size() + " message(s).");
+        // shut down our secondary reactors and wait for them to deliver their final messages
+        for (Reactor reactor : _reactors) {
+            reactor.shutdown();
+        }
+        for (Reactor reactor : _reactors) {
+            try {
+                reactor.join();
+            } catch (InterruptedException ie) {
+                log.warning("Interrupted waiting for reactor to exit", "reactor", reactor);
+            }
         }
 
         // run our on-exit handler if we have one
@@ -487,140 +389,22 @@ public abstract class ConnectionManager extends LoopingThread
         }
     }
 
-    /** Used to handle partial writes in {@link ConnectionManager#writeMessage}. */
-    protected static interface PartialWriteHandler
-    {
-        void handlePartialWrite (Connection conn, ByteBuffer buffer);
-    }
-
-    /**
-     * Used to handle messages for a client whose network buffer has filled up because their
-     * outgoing network buffer has filled up. This can happen if the client receives many messages
-     * in rapid succession or if they receive very large messages or if they become unresponsive
-     * and stop acknowledging network packets sent by the server. We want to accomodate the first
-     * to circumstances and recognize the third as quickly as possible so that we can disconnect
-     * the client and propagate that information up to the higher levels so that further messages
-     * are not queued up for the unresponsive client.
-     */
-    protected class OverflowQueue extends ArrayList<byte[]>
-        implements PartialWriteHandler
-    {
-        /** The connection for which we're managing overflow. */
-        public Connection conn;
-
-        /**
-         * Creates a new overflow queue for the supplied connection and with the supplied initial
-         * partial message.
-         */
-        public OverflowQueue (Connection conn, ByteBuffer message)
-        {
-            this.conn = conn;
-            // set up our initial _partial buffer
-            handlePartialWrite(conn, message);
-        }
-
-        /**
-         * Called each time through the {@link ConnectionManager#iterate} loop, this attempts to
-         * send any remaining partial message and all subsequent messages in the overflow queue.
-         *
-         * @return true if all messages in this queue were successfully sent, false if there
-         * remains data to be sent on the next loop.
-         *
-         * @throws IOException if an error occurs writing data to the connection or if we have been
-         * unable to write any data to the connection for ten seconds.
-         */
-        public boolean writeOverflowMessages (long iterStamp)
-            throws IOException
-        {
-            // write any partial message if we have one
-            if (_partial != null) {
-                // if our outgoing channel is gone or closed, then bail immediately
-                SocketChannel sochan = conn.getChannel();
-                if (sochan == null || (!sochan.isConnected() && !sochan.isConnectionPending())) {
-                    throw new IOException("Connection unavailable for overflow write " + sochan);
-                }
-                if (sochan.isConnectionPending()) {
-                    return false; // not ready to write to this connection yet
-                }
-
-                // write all we can of our partial buffer
-                int wrote = sochan.write(_partial);
-                noteWrite(0, wrote);
-
-                if (_partial.remaining() == 0) {
-                    _partial = null;
-                    _partials++;
-                } else {
-//                     log.info("Still going", "conn", conn, "wrote", wrote,
-//                              "remain", _partial.remaining());
-                    return false;
-                }
-            }
-
-            while (size() > 0) {
-                byte[] data = remove(0);
-                // if any of these messages are partially written, we have to stop and wait for the
-                // next tick
-                _msgs++;
-                if (!writeMessage(conn, data, this)) {
-                    return false;
-                }
-            }
-
-            return true;
-        }
-
-        // documentation inherited
-        public void handlePartialWrite (Connection wconn, ByteBuffer buffer)
-        {
-            // set up our _partial buffer
-            _partial = ByteBuffer.allocateDirect(buffer.remaining());
-            _partial.put(buffer);
-            _partial.flip();
-        }
-
-        @Override
-        public String toString ()
-        {
-            return "[conn=" + conn + ", partials=" + _partials + ", msgs=" + _msgs + "]";
-        }
-
-        /** The remains of a message that was only partially written on its first attempt. */
-        protected ByteBuffer _partial;
-
-        /** A couple of counters. */
-        protected int _msgs, _partials;
-    }
-
-    /** Used to create an overflow queue on the first partial write. */
-    protected PartialWriteHandler _oflowHandler = new PartialWriteHandler() {
-        public void handlePartialWrite (Connection conn, ByteBuffer msgbuf) {
-            // if we couldn't write all the data for this message, we'll need to establish an
-            // overflow queue
-            _oflowqs.put(conn, new OverflowQueue(conn, msgbuf));
-        }
-    };
-
-    protected Selector _selector;
-    protected SelectorIterable _selectorSelector;
-
-    /** Maps selection keys to network event handlers. */
-    protected Map<SelectionKey, NetEventHandler> _handlers = Maps.newHashMap();
-
-    /** Connections mapped by identifier. */
+    /** Connections mapped by identifier. Synchronize on this map when accessing it as connections
+     * are removed from it by our secondary reactors. */
     protected IntMap<Connection> _connections = IntMaps.newHashIntMap();
 
-    protected Queue<Connection> _deathq = Queue.newQueue();
     protected Queue<SocketChannel> _acceptedq = Queue.newQueue();
 
-    protected Queue<Tuple<Connection, byte[]>> _outq = Queue.newQueue();
-
-    protected ByteBuffer _outbuf = ByteBuffer.allocateDirect(64 * 1024);
+    /** Our secondary reactors (empty if we do all I/O on our own thread). */
+    protected List<Reactor> _reactors = Lists.newArrayList();
 
-    protected Map<Connection, OverflowQueue> _oflowqs = Maps.newHashMap();
+    /** The index of the reactor to which we'll assign the next connection. */
+    protected int _nextReactor;
 
-    /** Our current runtime stats. */
-    protected ConMgrStats _stats = new ConMgrStats();
+    /** Supplies the buffers in which outgoing messages are queued (and incoming messages are read,
+     * if pooled read buffers are enabled), shared by all reactors. */
+    protected BufferPool _bufferPool = new BufferPool(
+        MIN_POOLED_BUFFER, MAX_POOLED_BUFFER, MAX_RETAINED_BUFFER_BYTES);
 
     /** Used to periodically report connection manager activity when in debug mode. */
     protected long _lastDebugStamp;
@@ -628,17 +412,15 @@ public abstract class ConnectionManager extends LoopingThread
     /** A runnable to execute when the connection manager thread exits. */
     protected volatile Runnable _onExit;
 
-    /** Duration in milliseconds for which we wait for network events before checking our running
-     * flag to see if we should still be running. We don't want to loop too tightly, but we need to
-     * make sure we don't sit around listening for incoming network events too long when there are
-     * outgoing messages in the queue. */
-    @Inject(optional=true) @Named("presents.net.selectLoopTime")
-    protected int _selectLoopTime = 100;
+    /** The number of secondary reactor threads to run in addition to the connection manager
+     * thread. Zero (the default) means that all network I/O is done on the conmgr thread. */
+    @Inject(optional=true) @Named("presents.net.reactorCount")
+    protected int _reactorCount = 0;
 
-    protected final long _idleTime;
-
-    /** Used to denote asynchronous close requests. */
-    protected static final byte[] ASYNC_CLOSE_REQUEST = new byte[0];
+    /** Whether connections borrow read buffers from our buffer pool only while a partial message
+     * is pending, rather than retaining a (never shrinking) buffer for their entire lifetime. */
+    @Inject(optional=true) @Named("presents.net.pooledReadBuffers")
+    protected boolean _pooledReadBuffers = false;
 
     /** Whether or not debug reporting is activated .*/
     protected static final boolean DEBUG_REPORT = false;
@@ -646,6 +428,13 @@ public abstract class ConnectionManager extends LoopingThread
     /** Report our activity every 30 seconds. */
     protected static final long DEBUG_REPORT_INTERVAL = 30*1000L;
 
+    /** The smallest and largest outgoing message buffers we pool; larger messages get one-off
+     * buffers. */
+    protected static final int MIN_POOLED_BUFFER = 128, MAX_POOLED_BUFFER = 64 * 1024;
+
+    /** The number of bytes of free buffers retained by the pool for each buffer size. */
+    protected static final int MAX_RETAINED_BUFFER_BYTES = 4 * 1024 * 1024;
+
     /** The number of milliseconds beyond the ping interval that we allow a client's network
      * connection to be idle before we forcibly disconnect them. */
     protected static final long LATENCY_GRACE = 30 * 1000L;
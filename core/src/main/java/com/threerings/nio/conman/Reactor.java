@@ -0,0 +1,1228 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.nio.conman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import com.samskivert.util.LoopingThread;
+import com.samskivert.util.Queue;
+import com.samskivert.util.Tuple;
+
+import com.threerings.nio.SelectorIterable;
+
+import static com.threerings.NaryaLog.log;
+
+/**
+ * Performs the network I/O for a set of connections using a single {@link Selector}: it reads
+ * incoming data, writes outgoing messages (managing overflow queues for connections whose socket
+ * buffers have filled up), closes dead connections and checks for idle ones.
+ *
+ * <p> The {@link ConnectionManager} is itself a reactor and drives its own selector from its
+ * thread. It may additionally be configured to run a number of secondary reactors, each on its own
+ * thread with its own selector, among which authenticated connections are distributed. A
+ * connection is pinned to a single reactor for its lifetime, so all reads and writes for that
+ * connection happen on one thread.
+ */
+public class Reactor extends LoopingThread
+{
+    /**
+     * Creates a secondary reactor that performs I/O on behalf of the supplied connection manager.
+     * It must be started before any connections are handed to it via {@link #adopt}.
+     */
+    public Reactor (ConnectionManager cmgr, String name)
+        throws IOException
+    {
+        this(name, cmgr._idleTime);
+        _cmgr = cmgr;
+        _selectLoopTime = cmgr._selectLoopTime;
+        _writeBudget = cmgr._writeBudget;
+        _overflowSoftLimit = cmgr._overflowSoftLimit;
+        _overflowHardLimit = cmgr._overflowHardLimit;
+        _collapseOverflow = cmgr._collapseOverflow;
+        _overflowLanes = cmgr._overflowLanes;
+    }
+
+    /**
+     * Used by the {@link ConnectionManager}, which serves as its own primary reactor.
+     */
+    protected Reactor (String name, long idleTime)
+        throws IOException
+    {
+        super(name);
+        _selector = Selector.open();
+        _idleTime = idleTime;
+    }
+
+    /**
+     * Returns a snapshot of this reactor's runtime statistics. <em>Note:</em> don't call this
+     * method <em>too</em> frequently as it is synchronized and will contend with the network I/O
+     * thread.
+     */
+    public synchronized ConMgrStats getStats ()
+    {
+        // fill in our snapshot values
+        _stats.handlerCount = _handlers.size();
+        _stats.deathQueueSize = _deathq.size();
+        _stats.outQueueSize = _queued.get();
+        if (_oflowqs.size() > 0) {
+            _stats.overQueueSize = 0;
+            _stats.overQueueBytes = 0;
+            for (OverflowQueue oq : _oflowqs.values()) {
+                _stats.overQueueSize += oq.getMessageCount();
+                _stats.overQueueBytes += oq.getBytes();
+            }
+        }
+        return _stats.clone();
+    }
+
+    /**
+     * Adds descriptions of this reactor's overflow queues to the supplied list, keyed on the number
+     * of bytes queued. This is synchronized and will contend with the network I/O thread.
+     */
+    public synchronized void getOverflows (List<Tuple<Long, String>> into)
+    {
+        for (OverflowQueue oq : _oflowqs.values()) {
+            into.add(Tuple.newTuple(oq.getBytes(), oq.toString()));
+        }
+    }
+
+    /**
+     * Returns true if messages posted to this reactor should be supplied with overflow keys (see
+     * {@link #postMessage(Connection,ByteBuffer,Object)}), which is the case if any overflow
+     * policies are configured.
+     */
+    public boolean usesOverflowKeys ()
+    {
+        return _overflowSoftLimit > 0 || _collapseOverflow || _overflowLanes;
+    }
+
+    /**
+     * Returns the overflow key for messages delivered on the specified (non-zero) transport
+     * channel, if this reactor gives each channel its own lane, or {@link #INDEPENDENT} if not.
+     */
+    public Object getLaneKey (int channel)
+    {
+        return _overflowLanes ? LANE_KEYS[(channel - 1) % LANE_KEYS.length] : INDEPENDENT;
+    }
+
+    /**
+     * Returns the overflow key for a message that must be delivered, in order with every other
+     * message if <code>ordered</code> is true or else as {@link #INDEPENDENT}, and after which no
+     * later message may supersede an earlier message with any of the supplied keys.
+     */
+    public static Object getTouchKey (List<Object> keys, boolean ordered)
+    {
+        return new TouchKey(keys, ordered);
+    }
+
+    /**
+     * Registers <code>ops</code> on <code>chan</code> on this reactor's selector and hooks
+     * <code>netEventHandler</code> up to receive events whenever the selection occurs. This must
+     * only be called on the reactor's thread (or before it is started).
+     */
+    public SelectionKey register (SelectableChannel chan, int ops, NetEventHandler netEventHandler)
+        throws IOException
+    {
+        SelectionKey key = chan.register(_selector, ops);
+        _handlers.put(key, netEventHandler);
+        return key;
+    }
+
+    /**
+     * Hands an established connection over to this reactor. The connection must already have been
+     * unregistered from the selector of the reactor that previously managed it and must have no
+     * pending outgoing data there. It will be registered with our selector on our next tick.
+     */
+    public void adopt (Connection conn)
+    {
+        conn._reactor = this;
+        _adoptq.append(conn);
+        _selector.wakeup();
+    }
+
+    @Override // from LoopingThread
+    protected void willStart ()
+    {
+        super.willStart();
+
+        _selectorSelector = new SelectorIterable(
+            _selector, _selectLoopTime, new SelectorIterable.SelectFailureHandler() {
+            public void handleSelectFailure (Exception e) {
+                log.error("One of our selectors crapped out completely.  " +
+                          "Shutting down the connection manager.", e);
+                _cmgr.shutdown();
+            }
+        });
+    }
+
+    @Override // from LoopingThread
+    protected void iterate ()
+    {
+        // this is only used by secondary reactors; the connection manager drives its own loop
+        final long iterStamp = System.currentTimeMillis();
+
+        // register any connections that were handed to us since our last tick
+        Connection conn;
+        while ((conn = _adoptq.getNonBlocking()) != null) {
+            if (conn.isClosed()) {
+                continue; // it died while in transit, no need to do anything
+            }
+            try {
+                conn.selkey = register(conn.getChannel(), SelectionKey.OP_READ, conn);
+            } catch (IOException ioe) {
+                conn.networkFailure(ioe);
+            }
+        }
+
+        closeDeadConnections();
+        checkIdleConnections(iterStamp);
+        sendOutgoingMessages(iterStamp);
+
+        // once our connection manager stops reading incoming messages, so do we, but we keep
+        // delivering outgoing messages until it shuts us down
+        if (_cmgr.isReadingIncoming()) {
+            processIncomingEvents(iterStamp);
+        }
+    }
+
+    /**
+     * Closes any connections that have been queued up to die.
+     */
+    protected void closeDeadConnections ()
+    {
+        Connection dconn;
+        while ((dconn = _deathq.getNonBlocking()) != null) {
+            // it's possible that we caught an EOF trying to read from this connection even after
+            // it was queued up for death, so let's avoid trying to close it twice
+            if (!dconn.isClosed()) {
+                dconn.close();
+            }
+        }
+    }
+
+    /**
+     * Closes connections that have had no network traffic for too long.
+     */
+    protected void checkIdleConnections (long iterStamp)
+    {
+        long idleStamp = iterStamp - _idleTime;
+        for (NetEventHandler handler : _handlers.values()) {
+            if (handler.checkIdle(idleStamp)) {
+                // this will queue the connection for closure on our next tick
+                handler.becameIdle();
+            }
+        }
+    }
+
+    /**
+     * Checks for any network events on our set of sockets and passes those events down to their
+     * associated {@link NetEventHandler}s for processing.
+     */
+    protected void processIncomingEvents (long iterStamp)
+    {
+        // process those events
+        long bytesIn = 0, msgsIn = 0, eventCount = 0;
+        for (SelectionKey selkey : _selectorSelector) {
+            eventCount++;
+            NetEventHandler handler = null;
+            try {
+                handler = _handlers.get(selkey);
+                if (handler == null) {
+                    log.warning("Received network event for unknown handler",
+                                "key", selkey, "ops", selkey.readyOps());
+                    // request that this key be removed from our selection set, which normally
+                    // happens automatically but for some reason didn't
+                    selkey.cancel();
+                    continue;
+                }
+
+//                 log.info("Got event", "selkey", selkey, "handler", handler);
+
+                int got = handler.handleEvent(iterStamp);
+                if (got != 0) {
+                    bytesIn += got;
+                    // we know that the handlers only report having read bytes when they have a
+                    // whole message, so we can count thusly
+                    msgsIn++;
+                }
+
+            } catch (Exception e) {
+                log.warning("Error processing network data: " + handler + ".", e);
+
+                // if you freak out here, you go straight in the can
+                if (handler != null && handler instanceof Connection) {
+                    _deathq.append((Connection)handler);
+                }
+            }
+        }
+
+        synchronized (this) {
+            // update our stats
+            _stats.eventCount += eventCount;
+            _stats.bytesIn += bytesIn;
+            _stats.msgsIn += msgsIn;
+        }
+    }
+
+    /**
+     * Queues up a framed message for delivery to the specified connection, which must be managed
+     * by this reactor. This may be called from any thread.
+     */
+    public void postMessage (Connection conn, byte[] data)
+    {
+        postMessage(conn, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Queues up a framed message for delivery to the specified connection, which must be managed
+     * by this reactor. This may be called from any thread. The buffer should be ready for
+     * draining and ownership of it passes to the reactor, which will return it to the connection
+     * manager's {@link BufferPool} once it has been written.
+     */
+    public void postMessage (Connection conn, ByteBuffer data)
+    {
+        postMessage(conn, data, null);
+    }
+
+    /**
+     * Queues up a framed message for delivery as above, with a key that determines how the message
+     * is treated if it ends up in the connection's overflow queue:
+     *
+     * <ul>
+     * <li> null if it must be delivered and no later message may overtake it.
+     * <li> {@link #INDEPENDENT} if it must be delivered, but later messages on other lanes may
+     * overtake it.
+     * <li> a key from {@link #getLaneKey} if it is to be delivered in order with the other
+     * messages on its lane, ahead of messages on the main lane.
+     * <li> {@link #DROPPABLE} if it may be discarded when the queue grows large.
+     * <li> a key from {@link #getTouchKey} if it is to be treated as null or {@link #INDEPENDENT},
+     * but it must also stop earlier messages with certain keys being superseded by later ones.
+     * <li> any other key if it is superseded by a later message with an equal key.
+     * </ul>
+     *
+     * Only messages keyed with null must be delivered in order with respect to every other message.
+     * Keys are ignored unless {@link #usesOverflowKeys} returns true.
+     */
+    public void postMessage (Connection conn, ByteBuffer data, Object key)
+    {
+        _queued.incrementAndGet();
+        synchronized (conn._outq) {
+            conn._outq.append(data);
+            if (usesOverflowKeys()) {
+                conn._outKeys.append((key == null) ? NO_KEY : key);
+            }
+            if (!conn._outPending) {
+                conn._outPending = true;
+                _pendingq.append(conn);
+            }
+        }
+    }
+
+    /**
+     * Writes all queued overflow and normal messages to their respective sockets. Connections that
+     * already have established overflow queues will have their messages appended to their overflow
+     * queue instead so that they are delivered in the proper order.
+     */
+    protected void sendOutgoingMessages (long iterStamp)
+    {
+        // first attempt to send any messages waiting on the overflow queues
+        if (_oflowqs.size() > 0) {
+            // do this on a snapshot as a network failure writing oflow queue messages will result
+            // in the queue being removed from _oflowqs via the connectionFailed() code path
+            for (OverflowQueue oq : _oflowqs.values().toArray(new OverflowQueue[_oflowqs.size()])) {
+                try {
+                    // try writing the messages in this overflow queue
+                    if (oq.writeOverflowMessages(iterStamp)) {
+                        // if they were all written, we can remove it
+                        _oflowqs.remove(oq.conn);
+                    }
+
+                } catch (IOException ioe) {
+                    oq.conn.networkFailure(ioe);
+                }
+            }
+        }
+
+        // then write out the messages queued up for each connection that has any
+        Connection conn;
+        while ((conn = _pendingq.getNonBlocking()) != null) {
+            synchronized (conn._outq) {
+                conn._outPending = false;
+            }
+            if (flushMessages(conn)) {
+                _deferred.add(conn);
+            }
+        }
+
+        // connections that had more to say than their write budget allowed get another crack on
+        // our next tick, which we arrange to happen without waiting in select()
+        if (_deferred.size() > 0) {
+            for (Connection dconn : _deferred) {
+                markPending(dconn);
+            }
+            _deferred.clear();
+            _selector.wakeup();
+        }
+    }
+
+    /**
+     * Writes the messages queued for the supplied connection, gathering as many of them as its
+     * write budget allows into a single write to its socket. Messages that cannot be written
+     * immediately are moved to an overflow queue.
+     *
+     * @return true if messages remain in the connection's queue because they exceeded its write
+     * budget, false if they were all written or handed to an overflow queue.
+     */
+    protected boolean flushMessages (Connection conn)
+    {
+        // if an overflow queue exists for this client, go ahead and slap the messages on there
+        // because we can't send them until all other messages in their queue have gone out
+        OverflowQueue oqueue = _oflowqs.get(conn);
+        if (oqueue != null) {
+            ByteBuffer data;
+            while ((data = pollQueued(conn)) != null) {
+                _queued.decrementAndGet();
+                int size = oqueue.size();
+                if ((size > 500) && (size % 50 == 0)) {
+                    log.warning("Aiya, big overflow queue for " + conn + "", "size", size,
+                                "bytes", data.remaining());
+                }
+                oqueue.append(data, _polledKey);
+                if (oqueue.exceedsLimit()) {
+                    dropOverflowing(oqueue);
+                    break;
+                }
+            }
+            return false;
+        }
+
+        // if the connection to which these messages are destined is closed, drop them and move
+        // along quietly; this is perfectly legal, a user can logoff whenever they like, even if we
+        // still have things to tell them; such is life in a fully asynchronous distributed system
+        if (conn.isClosed()) {
+            releaseQueued(conn);
+            return false;
+        }
+
+        // gather up as many messages as our budget allows (always at least one), stopping at any
+        // request to close the connection
+        int count = 0, bytes = 0;
+        boolean close = false;
+        ByteBuffer data;
+        while (count < _gather.length && (data = pollQueued(conn)) != null) {
+            if (data == ASYNC_CLOSE_REQUEST) {
+                _queued.decrementAndGet();
+                close = true;
+                break;
+            }
+            int size = data.remaining();
+            if (size > MAX_MESSAGE_SIZE) {
+                log.warning("Refusing to write very large message", "conn", conn, "size", size);
+                _queued.decrementAndGet();
+                releaseBuffer(data);
+                continue;
+            }
+            if (count > 0 && bytes + size > _writeBudget) {
+                unpollQueued(conn, data); // leave it for next time
+                break;
+            }
+            _queued.decrementAndGet();
+            _gatherKeys[count] = _polledKey;
+            _gather[count++] = data;
+            bytes += size;
+        }
+
+        if (count > 0) {
+            writeGathered(conn, count);
+        }
+
+        // if this is an asynchronous close request, queue the connection up for death once the
+        // messages before it have been written
+        if (close) {
+            oqueue = _oflowqs.get(conn);
+            if (oqueue != null) {
+                // this must go through append() so that our overflow keys stay in step
+                oqueue.append(ASYNC_CLOSE_REQUEST, null);
+            } else {
+                _deathq.append(conn);
+            }
+            return false;
+        }
+
+        return !conn.isClosed() && !_oflowqs.containsKey(conn) && !conn._outq.isEmpty();
+    }
+
+    /**
+     * Writes the first <code>count</code> buffers in {@link #_gather} to the supplied connection
+     * in a single call, returning those that were written to the pool and moving any leftovers
+     * to a new overflow queue.
+     */
+    protected void writeGathered (Connection conn, int count)
+    {
+        try {
+            // if the connection to which we're writing is not yet ready, all the messages are
+            // "leftover" and go straight to an overflow queue
+            SocketChannel sochan = conn.getChannel();
+            int written = 0;
+            if (!sochan.isConnectionPending()) {
+                long wrote = (count == 1) ? sochan.write(_gather[0]) :
+                    sochan.write(_gather, 0, count);
+                while (written < count && !_gather[written].hasRemaining()) {
+                    releaseBuffer(_gather[written++]);
+                }
+                noteWrite(written, wrote);
+            }
+
+            // if we didn't write all of our messages, deal with the leftover bytes
+            if (written < count) {
+                OverflowQueue oqueue = new OverflowQueue(conn, _gather[written]);
+                for (int ii = written + 1; ii < count; ii++) {
+                    oqueue.append(_gather[ii], _gatherKeys[ii]);
+                }
+                _oflowqs.put(conn, oqueue);
+            }
+
+        } catch (NotYetConnectedException nyce) {
+            // this should be caught by isConnectionPending() but awesomely it's not
+            OverflowQueue oqueue = new OverflowQueue(conn, _gather[0]);
+            for (int ii = 1; ii < count; ii++) {
+                oqueue.append(_gather[ii], _gatherKeys[ii]);
+            }
+            _oflowqs.put(conn, oqueue);
+
+        } catch (IOException ioe) {
+            for (int ii = 0; ii < count; ii++) {
+                releaseBuffer(_gather[ii]);
+            }
+            conn.networkFailure(ioe); // instruct the connection to deal with its failure
+
+        } finally {
+            Arrays.fill(_gather, 0, count, null);
+            Arrays.fill(_gatherKeys, 0, count, null);
+        }
+    }
+
+    /**
+     * Removes and returns the next message queued for the supplied connection, or returns null if
+     * it has none. The message's overflow key is placed in {@link #_polledKey}.
+     */
+    protected ByteBuffer pollQueued (Connection conn)
+    {
+        if (!usesOverflowKeys()) {
+            return conn._outq.getNonBlocking();
+        }
+        synchronized (conn._outq) {
+            ByteBuffer data = conn._outq.getNonBlocking();
+            if (data == null) {
+                _polledKey = null;
+            } else {
+                Object key = conn._outKeys.getNonBlocking();
+                _polledKey = (key == NO_KEY) ? null : key;
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Returns the message most recently obtained via {@link #pollQueued} to the front of the
+     * supplied connection's queue.
+     */
+    protected void unpollQueued (Connection conn, ByteBuffer data)
+    {
+        synchronized (conn._outq) {
+            conn._outq.prepend(data);
+            if (usesOverflowKeys()) {
+                conn._outKeys.prepend((_polledKey == null) ? NO_KEY : _polledKey);
+            }
+        }
+    }
+
+    /**
+     * Disconnects the client whose overflow queue has exceeded our hard limit.
+     */
+    protected void dropOverflowing (OverflowQueue oqueue)
+    {
+        log.warning("Disconnecting client with excessive overflow", "queue", oqueue);
+        synchronized (this) {
+            _stats.overflowDisconnects++;
+        }
+        // this will remove and release the overflow queue along with anything else queued
+        oqueue.conn.networkFailure(new IOException(
+            "Overflow queue exceeded limit of " + _overflowHardLimit + " bytes"));
+    }
+
+    /**
+     * Adds the supplied connection to our list of connections with messages to write, if it is
+     * not already there.
+     */
+    protected void markPending (Connection conn)
+    {
+        synchronized (conn._outq) {
+            if (!conn._outPending) {
+                conn._outPending = true;
+                _pendingq.append(conn);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the supplied connection has messages waiting to be written.
+     */
+    protected boolean hasQueuedMessages (Connection conn)
+    {
+        return !conn._outq.isEmpty();
+    }
+
+    /**
+     * Moves any messages queued for one connection onto the queue of another that is taking over
+     * its socket. This must be called on this reactor's thread.
+     */
+    protected void transferQueued (Connection from, Connection to)
+    {
+        ByteBuffer data;
+        while ((data = pollQueued(from)) != null) {
+            _queued.decrementAndGet();
+            postMessage(to, data, _polledKey);
+        }
+    }
+
+    /**
+     * Drops all messages queued for the supplied connection, returning their buffers to the pool.
+     */
+    protected void releaseQueued (Connection conn)
+    {
+        ByteBuffer data;
+        while ((data = pollQueued(conn)) != null) {
+            _queued.decrementAndGet();
+            releaseBuffer(data);
+        }
+    }
+
+    /**
+     * Returns a message buffer to our connection manager's pool once we're done with it.
+     */
+    protected void releaseBuffer (ByteBuffer data)
+    {
+        if (data != ASYNC_CLOSE_REQUEST && data != DROPPED_MESSAGE) {
+            _cmgr._bufferPool.release(data);
+        }
+    }
+
+    /** Called after each write to a socket with the number of messages that were completed and
+     * the number of bytes that were written. */
+    protected synchronized void noteWrite (int msgs, long bytes)
+    {
+        _stats.writes++;
+        _stats.msgsOut += msgs;
+        _stats.bytesOut += bytes;
+    }
+
+    /** Called when messages are dropped from an overflow queue, either because they were
+     * droppable and the queue had grown large or because they were superseded. */
+    protected synchronized void noteDropped (int dropped, int collapsed)
+    {
+        _stats.overflowDropped += dropped;
+        _stats.overflowCollapsed += collapsed;
+    }
+
+    /**
+     * Removes all of our mappings for the supplied connection, which has failed or been closed.
+     * This is called on our thread by the connection manager.
+     */
+    protected void connectionRemoved (Connection conn)
+    {
+        // it is automatically removed from the Selector when the socket is closed
+        _handlers.remove(conn.selkey);
+        OverflowQueue oqueue = _oflowqs.remove(conn);
+        if (oqueue != null) {
+            oqueue.releaseBuffers();
+        }
+        releaseQueued(conn);
+    }
+
+    @Override
+    protected void handleIterateFailure (Exception e)
+    {
+        // log the exception
+        log.warning(getName() + ".iterate() uncaught exception.", e);
+    }
+
+    @Override
+    protected void didShutdown ()
+    {
+        // take one last crack at the outgoing message queue
+        sendOutgoingMessages(System.currentTimeMillis());
+
+        // report if there's anything left on the outgoing message queues
+        int queued = _queued.get();
+        if (queued > 0) {
+            log.warning(getName() + " failed to deliver " + queued + " message(s).");
+        }
+    }
+
+    /**
+     * Used to handle messages for a client whose network buffer has filled up because their
+     * outgoing network buffer has filled up. This can happen if the client receives many messages
+     * in rapid succession or if they receive very large messages or if they become unresponsive
+     * and stop acknowledging network packets sent by the server. We want to accomodate the first
+     * to circumstances and recognize the third as quickly as possible so that we can disconnect
+     * the client and propagate that information up to the higher levels so that further messages
+     * are not queued up for the unresponsive client.
+     *
+     * <p> If overflow policies are configured, superseded messages are dropped as later ones are
+     * queued, droppable messages are discarded once the queue exceeds the soft limit, and the
+     * client is disconnected if it exceeds the hard limit. Dropped messages are replaced in the
+     * queue by {@link #DROPPED_MESSAGE}, which is "written" along with the rest.
+     *
+     * <p> If lanes are configured, messages on a lane are written ahead of those on the main queue,
+     * but never ahead of a main queue message that was queued before them and that must be
+     * delivered in order with respect to every other message. Messages are only reordered between
+     * whole frames, so clients need not be aware of lanes.
+     */
+    protected class OverflowQueue extends ArrayList<ByteBuffer>
+    {
+        /** The connection for which we're managing overflow. */
+        public Connection conn;
+
+        /**
+         * Creates a new overflow queue for the supplied connection and with the supplied initial
+         * partial message.
+         */
+        public OverflowQueue (Connection conn, ByteBuffer message)
+        {
+            this.conn = conn;
+            // we simply hang onto the message buffer, whose position marks the unwritten data
+            _partial = message;
+            _bytes = message.remaining();
+        }
+
+        /**
+         * Returns the number of bytes waiting to be written from this queue.
+         */
+        public long getBytes ()
+        {
+            return _bytes;
+        }
+
+        /**
+         * Returns the number of messages waiting to be written from this queue, not including the
+         * partial message.
+         */
+        public int getMessageCount ()
+        {
+            int count = size();
+            if (_lanes != null) {
+                for (Lane lane : _lanes) {
+                    count += lane.msgs.size();
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns true if this queue has grown beyond our hard limit.
+         */
+        public boolean exceedsLimit ()
+        {
+            return _overflowHardLimit > 0 && _bytes > _overflowHardLimit;
+        }
+
+        /**
+         * Adds a message with the supplied overflow key to the end of this queue, applying our
+         * overflow policies.
+         */
+        public void append (ByteBuffer data, Object key)
+        {
+            if (key instanceof TouchKey) {
+                // later messages with the touched keys may no longer supersede earlier ones
+                TouchKey touch = (TouchKey)key;
+                if (_positions != null) {
+                    _positions.keySet().removeAll(touch.keys);
+                }
+                key = touch.ordered ? null : INDEPENDENT;
+            }
+
+            if (key instanceof LaneKey) {
+                appendToLane(((LaneKey)key).index, data);
+                return;
+            }
+
+            int collapsed = 0, dropped = 0;
+            if (key == null) {
+                // messages on lanes that are queued after this one must wait for it
+                _lastBarrier = _removed + size();
+
+            } else if (key == DROPPABLE) {
+                // if we're already over our soft limit, droppable messages go no further
+                if (_overflowSoftLimit > 0 && _bytes > _overflowSoftLimit) {
+                    releaseBuffer(data);
+                    noteDropped(1, 0);
+                    _dropped++;
+                    return;
+                }
+
+            } else if (key != INDEPENDENT && _collapseOverflow) {
+                // drop any earlier message that this one supersedes
+                if (_positions == null) {
+                    _positions = Maps.newHashMap();
+                }
+                Integer opos = _positions.put(key, _removed + size());
+                if (opos != null && opos >= _removed && drop(opos - _removed)) {
+                    collapsed++;
+                }
+            }
+
+            boolean wasOver = (_bytes > _overflowSoftLimit);
+            add(data);
+            _keys.add(key);
+            _bytes += data.remaining();
+
+            // if this message took us over our soft limit, drop droppable messages, oldest first,
+            // until we're back under it
+            if (_overflowSoftLimit > 0 && !wasOver && _bytes > _overflowSoftLimit) {
+                for (int ii = 0, ll = size(); ii < ll && _bytes > _overflowSoftLimit; ii++) {
+                    if (_keys.get(ii) == DROPPABLE && drop(ii)) {
+                        dropped++;
+                    }
+                }
+            }
+
+            if (collapsed > 0 || dropped > 0) {
+                noteDropped(dropped, collapsed);
+                _collapsed += collapsed;
+                _dropped += dropped;
+            }
+        }
+
+        /**
+         * Called each time through the {@link Reactor#iterate} loop, this attempts to send any
+         * remaining partial message and all subsequent messages in the overflow queue. Queued
+         * messages are gathered up and written to the socket with a single call.
+         *
+         * @return true if all messages in this queue were successfully sent, false if there
+         * remains data to be sent on the next loop.
+         *
+         * @throws IOException if an error occurs writing data to the connection or if we have been
+         * unable to write any data to the connection for ten seconds.
+         */
+        public boolean writeOverflowMessages (long iterStamp)
+            throws IOException
+        {
+            // if our outgoing channel is gone or closed, then bail immediately
+            SocketChannel sochan = conn.getChannel();
+            if (sochan == null || (!sochan.isConnected() && !sochan.isConnectionPending())) {
+                throw new IOException("Connection unavailable for overflow write " + sochan);
+            }
+            if (sochan.isConnectionPending()) {
+                return false; // not ready to write to this connection yet
+            }
+
+            while (_partial != null || size() > 0 || _lanes != null) {
+                // gather our partial message, the messages on our lanes that are ready to go, and
+                // as many queued messages as we can (up to any pending close request) into a
+                // single write
+                int count = 0;
+                if (_partial != null) {
+                    _gather[count++] = _partial;
+                }
+                int first = count;
+                if (_lanes != null) {
+                    for (Lane lane : _lanes) {
+                        for (int ii = 0, ll = lane.msgs.size(); ii < ll && count < _gather.length &&
+                                 lane.waits.get(ii) < _removed; ii++) {
+                            _gatherLanes[count] = lane;
+                            _gather[count++] = lane.msgs.get(ii);
+                        }
+                    }
+                }
+                for (int ii = 0, ll = size(); ii < ll && count < _gather.length; ii++) {
+                    ByteBuffer data = get(ii);
+                    if (data == ASYNC_CLOSE_REQUEST) {
+                        break;
+                    }
+                    _gather[count++] = data;
+                }
+
+                // if the next thing in the queue is a close request, queue the connection up for
+                // death
+                if (count == 0) {
+                    remove(0);
+                    _keys.remove(0);
+                    _removed++;
+                    _deathq.append(conn);
+                    continue;
+                }
+
+                long wrote = sochan.write(_gather, 0, count);
+                _bytes -= wrote;
+
+                // release the buffers that were fully written and note any that remain
+                int msgs = 0;
+                if (_partial != null) {
+                    if (_partial.hasRemaining()) {
+                        clearGathered(count);
+                        noteWrite(0, wrote);
+                        return false;
+                    }
+                    releaseBuffer(_partial);
+                    _partial = null;
+                    _partials++;
+                }
+                int written = 0;
+                for (int ii = first; ii < count; ii++) {
+                    ByteBuffer data = _gather[ii];
+                    Lane lane = _gatherLanes[ii];
+                    if (data.hasRemaining()) {
+                        // the first unwritten message becomes our partial message
+                        _partial = data;
+                    } else if (data != DROPPED_MESSAGE) {
+                        releaseBuffer(data);
+                        msgs++;
+                    }
+                    // note its removal from the lane or main queue whence it came
+                    if (lane != null) {
+                        lane.written++;
+                    } else {
+                        written++;
+                    }
+                    if (_partial != null) {
+                        break;
+                    }
+                }
+                clearGathered(count);
+                _msgs += msgs;
+                if (_lanes != null) {
+                    for (Iterator<Lane> iter = _lanes.iterator(); iter.hasNext(); ) {
+                        if (iter.next().clearWritten()) {
+                            iter.remove();
+                        }
+                    }
+                    if (_lanes.isEmpty()) {
+                        _lanes = null;
+                    }
+                }
+                subList(0, written).clear();
+                _keys.subList(0, written).clear();
+                _removed += written;
+                noteWrite(msgs, wrote);
+                if (_partial != null) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Returns all of the buffers held by this queue to the pool. Called when the connection
+         * has gone away.
+         */
+        public void releaseBuffers ()
+        {
+            if (_partial != null) {
+                releaseBuffer(_partial);
+                _partial = null;
+            }
+            for (ByteBuffer data : this) {
+                releaseBuffer(data);
+            }
+            clear();
+            _keys.clear();
+            if (_lanes != null) {
+                for (Lane lane : _lanes) {
+                    for (ByteBuffer data : lane.msgs) {
+                        releaseBuffer(data);
+                    }
+                }
+                _lanes = null;
+            }
+            _bytes = 0;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "[conn=" + conn + ", queued=" + getMessageCount() + ", bytes=" + _bytes +
+                ", partials=" + _partials + ", msgs=" + _msgs + ", dropped=" + _dropped +
+                ", collapsed=" + _collapsed + "]";
+        }
+
+        /**
+         * Adds a message to the end of the specified lane.
+         */
+        protected void appendToLane (int index, ByteBuffer data)
+        {
+            if (_lanes == null) {
+                _lanes = Lists.newArrayList();
+            }
+            Lane lane = null;
+            for (Lane olane : _lanes) {
+                if (olane.index == index) {
+                    lane = olane;
+                    break;
+                }
+            }
+            if (lane == null) {
+                _lanes.add(lane = new Lane(index));
+            }
+            lane.msgs.add(data);
+            lane.waits.add(_lastBarrier);
+            _bytes += data.remaining();
+        }
+
+        /**
+         * Clears out the first <code>count</code> entries of our gather buffers.
+         */
+        protected void clearGathered (int count)
+        {
+            Arrays.fill(_gather, 0, count, null);
+            Arrays.fill(_gatherLanes, 0, count, null);
+        }
+
+        /**
+         * Replaces the message at the specified index with {@link #DROPPED_MESSAGE} and releases
+         * it, returning false if it was already dropped.
+         */
+        protected boolean drop (int index)
+        {
+            ByteBuffer data = get(index);
+            if (data == DROPPED_MESSAGE) {
+                return false;
+            }
+            set(index, DROPPED_MESSAGE);
+            _keys.set(index, null);
+            _bytes -= data.remaining();
+            releaseBuffer(data);
+            return true;
+        }
+
+        /** The remains of a message that was only partially written on its first attempt. */
+        protected ByteBuffer _partial;
+
+        /** The overflow keys of our queued messages, in the same order. */
+        protected List<Object> _keys = Lists.newArrayList();
+
+        /** The position (counting from the first message ever queued) of the most recent message
+         * with each collapsible key, created if needed. */
+        protected Map<Object, Integer> _positions;
+
+        /** The number of messages that have been removed from the front of the queue. */
+        protected int _removed;
+
+        /** The lanes with messages waiting to be written, in the order they were created, or null
+         * if we have none. */
+        protected List<Lane> _lanes;
+
+        /** The position (counting from the first message ever queued) of the most recent message
+         * that must be written before any lane messages queued after it. */
+        protected int _lastBarrier = -1;
+
+        /** The number of bytes waiting to be written, including the partial message. */
+        protected long _bytes;
+
+        /** A few counters. */
+        protected int _msgs, _partials, _dropped, _collapsed;
+    }
+
+    /**
+     * Holds the messages on one of the lanes of an overflow queue.
+     */
+    protected static class Lane
+    {
+        /** The index of this lane. */
+        public final int index;
+
+        /** The messages on this lane. */
+        public List<ByteBuffer> msgs = Lists.newArrayList();
+
+        /** The position in the main queue of the message for which each of our messages must
+         * wait. */
+        public List<Integer> waits = Lists.newArrayList();
+
+        /** The number of our messages written (or become partial) during the current write. */
+        public int written;
+
+        public Lane (int index)
+        {
+            this.index = index;
+        }
+
+        /**
+         * Removes the messages that were written during the current write, returning true if the
+         * lane is then empty.
+         */
+        public boolean clearWritten ()
+        {
+            msgs.subList(0, written).clear();
+            waits.subList(0, written).clear();
+            written = 0;
+            return msgs.isEmpty();
+        }
+    }
+
+    /** Identifies a lane of an overflow queue. */
+    protected static class LaneKey
+    {
+        public final int index;
+
+        public LaneKey (int index)
+        {
+            this.index = index;
+        }
+    }
+
+    /** Identifies a message after which messages with certain keys may no longer supersede one
+     * another. */
+    protected static class TouchKey
+    {
+        public final List<Object> keys;
+        public final boolean ordered;
+
+        public TouchKey (List<Object> keys, boolean ordered)
+        {
+            this.keys = keys;
+            this.ordered = ordered;
+        }
+    }
+
+    /** The connection manager on whose behalf we perform I/O. */
+    protected ConnectionManager _cmgr;
+
+    protected Selector _selector;
+    protected SelectorIterable _selectorSelector;
+
+    /** Maps selection keys to network event handlers. */
+    protected Map<SelectionKey, NetEventHandler> _handlers = Maps.newHashMap();
+
+    protected Queue<Connection> _deathq = Queue.newQueue();
+    protected Queue<Connection> _adoptq = Queue.newQueue();
+
+    /** Connections with messages waiting in their outgoing queues. */
+    protected Queue<Connection> _pendingq = Queue.newQueue();
+
+    /** Connections that exhausted their write budget on the current tick. */
+    protected List<Connection> _deferred = Lists.newArrayList();
+
+    /** The total number of messages waiting in the outgoing queues of our connections. */
+    protected AtomicInteger _queued = new AtomicInteger();
+
+    /** Used to gather up overflow messages for a single write. */
+    protected ByteBuffer[] _gather = new ByteBuffer[MAX_GATHER];
+
+    /** The overflow keys of the messages in {@link #_gather}. */
+    protected Object[] _gatherKeys = new Object[MAX_GATHER];
+
+    /** The lanes whence came the messages in {@link #_gather} when writing overflow. */
+    protected Lane[] _gatherLanes = new Lane[MAX_GATHER];
+
+    /** The overflow key of the message most recently returned by {@link #pollQueued}. */
+    protected Object _polledKey;
+
+    protected Map<Connection, OverflowQueue> _oflowqs = Maps.newHashMap();
+
+    /** Our current runtime stats. */
+    protected ConMgrStats _stats = new ConMgrStats();
+
+    /** Duration in milliseconds for which we wait for network events before checking our running
+     * flag to see if we should still be running. We don't want to loop too tightly, but we need to
+     * make sure we don't sit around listening for incoming network events too long when there are
+     * outgoing messages in the queue. */
+    @Inject(optional=true) @Named("presents.net.selectLoopTime")
+    protected int _selectLoopTime = 100;
+
+    /** The maximum number of bytes of queued messages we write to a single connection each time
+     * through our loop (a single message larger than this will still be written). */
+    @Inject(optional=true) @Named("presents.net.writeBudget")
+    protected int _writeBudget = 64 * 1024;
+
+    /** The number of bytes queued for a slow client beyond which droppable messages are
+     * discarded, or zero to retain them. */
+    @Inject(optional=true) @Named("presents.net.overflowSoftLimit")
+    protected int _overflowSoftLimit = 0;
+
+    /** The number of bytes queued for a slow client beyond which it is disconnected, or zero for
+     * no limit. */
+    @Inject(optional=true) @Named("presents.net.overflowHardLimit")
+    protected int _overflowHardLimit = 0;
+
+    /** Whether messages queued for a slow client are dropped when superseded by a later message
+     * with the same key. */
+    @Inject(optional=true) @Named("presents.net.collapseOverflow")
+    protected boolean _collapseOverflow = false;
+
+    /** Whether messages queued for a slow client on each reliable, ordered transport channel other
+     * than the default are given their own lane, and written ahead of those on the default. */
+    @Inject(optional=true) @Named("presents.net.overflowLanes")
+    protected boolean _overflowLanes = false;
+
+    protected final long _idleTime;
+
+    /** The overflow key of messages that may be discarded if they are queued for a slow client.
+     * See {@link #postMessage(Connection,ByteBuffer,Object)}. */
+    public static final Object DROPPABLE = new Object();
+
+    /** The overflow key of messages that must be delivered, but that may be overtaken by messages
+     * on other lanes. See {@link #postMessage(Connection,ByteBuffer,Object)}. */
+    public static final Object INDEPENDENT = new Object();
+
+    /** Used to denote asynchronous close requests. */
+    protected static final ByteBuffer ASYNC_CLOSE_REQUEST = ByteBuffer.allocate(0);
+
+    /** Takes the place of messages that were dropped from an overflow queue. */
+    protected static final ByteBuffer DROPPED_MESSAGE = ByteBuffer.allocate(0);
+
+    /** Stands in for null in {@link Connection#_outKeys}. */
+    protected static final Object NO_KEY = new Object();
+
+    /** The keys of the lanes of our overflow queues. Channels beyond the number of lanes share
+     * lanes. */
+    protected static final LaneKey[] LANE_KEYS = new LaneKey[16];
+    static {
+        for (int ii = 0; ii < LANE_KEYS.length; ii++) {
+            LANE_KEYS[ii] = new LaneKey(ii);
+        }
+    }
+
+    /** The maximum number of buffers we'll hand to the operating system in one write. */
+    protected static final int MAX_GATHER = 64;
+
+    /** We refuse to write messages larger than this. */
+    protected static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+}
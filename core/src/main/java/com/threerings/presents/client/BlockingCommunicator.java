@@ -680,6 +680,7 @@ public class BlockingCommunicator extends Communicator
             // our messages are framed (preceded by their length), so we use these helper streams
             // to manage the framing
             _fin = new FramedInputStream();
+            _fin.setAcceptCompressed(true);
             _fout = new FramingOutputStream();
 
             // create our object input and output streams
@@ -42,6 +42,7 @@ import com.threerings.presents.dobj.CompoundEvent;
 import com.threerings.presents.dobj.DEvent;
 import com.threerings.presents.dobj.DObject;
 import com.threerings.presents.dobj.DObjectManager;
+import com.threerings.presents.dobj.NamedEvent;
 import com.threerings.presents.dobj.ObjectAccessException;
 import com.threerings.presents.dobj.ObjectDestroyedEvent;
 import com.threerings.presents.dobj.Subscriber;
@@ -288,6 +289,14 @@ public class ClientDObjectMgr
             return;
         }
 
+        // the server may identify the fields affected by events by index rather than by name
+        try {
+            resolveFields(target, event);
+        } catch (IllegalArgumentException iae) {
+            log.warning("Unable to resolve event fields", "event", event, "target", target, iae);
+            return;
+        }
+
         // because we might be acting as a proxy for a remote server, we may need to fiddle with
         // this event before we dispatch it
         _client.convertFromRemote(target, event);
@@ -313,6 +322,21 @@ public class ClientDObjectMgr
         }
     }
 
+    /**
+     * Resolves the names of the fields affected by the supplied event (and any events it
+     * contains) against its target object.
+     */
+    protected void resolveFields (DObject target, DEvent event)
+    {
+        if (event instanceof NamedEvent) {
+            ((NamedEvent)event).resolveField(target);
+        } else if (event instanceof CompoundEvent) {
+            for (DEvent cevent : ((CompoundEvent)event).getEvents()) {
+                resolveFields(target, cevent);
+            }
+        }
+    }
+
     /**
      * Dispatches an event on an already resolved target object.
      *
@@ -40,6 +40,10 @@ public interface AuthCodes
     /** A code indicating that the server is not available at the moment. */
     public static final String SERVER_UNAVAILABLE = "m.server_unavailable";
 
+    /** A code indicating that the server is too busy authenticating other clients to
+     * authenticate this one at the moment. */
+    public static final String SERVER_BUSY = "m.server_busy";
+
     /** A code indicating that we failed to connect to the server on a port and
      * are trying the next port in the list. */
     public static final String TRYING_NEXT_PORT = "m.trying_next_port";
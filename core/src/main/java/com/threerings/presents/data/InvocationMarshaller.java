@@ -23,6 +23,8 @@ package com.threerings.presents.data;
 
 import java.io.IOException;
 
+import com.samskivert.util.StringUtil;
+
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.Streamable;
 
@@ -83,6 +85,17 @@ public class InvocationMarshaller<T extends ClientObject>
             _invId = name;
         }
 
+        /**
+         * Identifies the invocation that this listener is used for by the provider that handles it
+         * and the id of the invoked method. The identifying string is only built if we end up
+         * reporting that we were never responded-to.
+         */
+        public void setInvocationId (Object provider, int methodId)
+        {
+            _invId = provider;
+            _invMethodId = methodId;
+        }
+
         /**
          * Indicates that this listener will not be responded-to, and that this is normal behavior.
          */
@@ -125,7 +138,7 @@ public class InvocationMarshaller<T extends ClientObject>
         {
             try {
                 if (_invId != null && getClass() != ListenerMarshaller.class) {
-                    log.warning("Invocation listener never responded to: " + _invId);
+                    log.warning("Invocation listener never responded to: " + getInvocationId());
                 }
             } finally {
                 super.finalize();
@@ -142,6 +155,15 @@ public class InvocationMarshaller<T extends ClientObject>
                            setTransport(transport));
         }
 
+        /**
+         * Returns the identifier of the invocation for which this listener is used.
+         */
+        protected String getInvocationId ()
+        {
+            return (_invId instanceof String) ? (String)_invId :
+                StringUtil.shortClassName(_invId) + ", methodId=" + _invMethodId;
+        }
+
         /**
          * Performs type casts in a way that works for parameterized types as well as simple types.
          */
@@ -151,8 +173,12 @@ public class InvocationMarshaller<T extends ClientObject>
             return (K)value;
         }
 
-        /** On the server, the id of the invocation method. */
-        protected transient String _invId;
+        /** On the server, the id of the invocation method, or the provider that handles it (in
+         * which case {@link #_invMethodId} identifies the method). */
+        protected transient Object _invId;
+
+        /** On the server, the id of the invoked method if {@link #_invId} is its provider. */
+        protected transient int _invMethodId;
     }
 
     /**
@@ -34,6 +34,43 @@ public class PresentsConMgrStats extends ConMgrStats
      * are requested. */
     public int authQueueSize;
 
+    /** The number of authentication requests rejected because too many were already waiting to be
+     * processed, since the server started up. */
+    public long authsRejected;
+
+    /** The number of outgoing frames that were compressed since the server started up. */
+    public long framesCompressed;
+
+    /** The number of bytes in outgoing frames that we attempted to compress, before and after
+     * compression. Frames that did not shrink are counted as sent uncompressed. */
+    public long compressionBytesIn, compressionBytesOut;
+
+    /** The number of nanoseconds spent compressing outgoing frames. */
+    public long compressionNanos;
+
+    /** The number of outgoing messages that were sent as part of compound messages (such as the
+     * batches of sessions that batch their messages) since the server started up. */
+    public long messagesBatched;
+
+    /** The number of outgoing event notifications that were written in a form prepared for
+     * another subscriber, rather than being streamed anew, since the server started up. */
+    public long eventsPrepared;
+
+    /** The number of secure authentication steps waiting for a crypto thread. This is a snapshot
+     * at the time the stats are requested. */
+    public int cryptoQueueSize;
+
+    /** The number of secure authentication steps completed since the server started up. */
+    public long cryptoTasks;
+
+    /** The total number of nanoseconds between handing said steps off for processing and their
+     * completion. */
+    public long cryptoNanos;
+
+    /** The number of secure authentication steps whose clients were turned away because the
+     * crypto thread pool was saturated. */
+    public long cryptoSaturated;
+
     @Override // from Object
     public PresentsConMgrStats clone ()
     {
@@ -134,7 +134,8 @@ public class AttributeChangedEvent extends NamedEvent
     {
         // if we're not already applied, grab the previous value and apply the attribute change
         if (!alreadyApplied()) {
-            _oldValue = target.getAttribute(_name);
+            Accessor acc = getAccessor(target);
+            _oldValue = acc.get(target);
             Object value = _value;
             if (value != null) {
                 Class<?> vclass = value.getClass();
@@ -147,11 +148,17 @@ public class AttributeChangedEvent extends NamedEvent
                     System.arraycopy(value, 0, clone, 0, length);
                     value = clone;
                 } else if (DSet.class.isAssignableFrom(vclass)) {
-                    value = ((DSet<?>)value).clone();
+                    // a hashed set field stays hashed (see DSet.HashedMarshaller)
+                    DSet<?> set = ((DSet<?>)value).clone();
+                    if (_oldValue instanceof DSet<?> && ((DSet<?>)_oldValue).isHashed() &&
+                            !set.isHashed()) {
+                        set.rehash();
+                    }
+                    value = set;
                 }
             }
             // pass the new value on to the object
-            target.setAttribute(_name, value);
+            acc.set(target, value);
         }
         return true;
     }
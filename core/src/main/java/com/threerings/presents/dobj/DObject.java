@@ -26,19 +26,25 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import com.samskivert.util.ArrayUtil;
 import com.samskivert.util.ListUtil;
 import com.samskivert.util.StringUtil;
+import com.samskivert.util.Tuple;
 
 import com.threerings.io.Streamable;
 
+import com.threerings.presents.annotation.Coalesce;
 import com.threerings.presents.net.Transport;
 
 import static com.threerings.presents.Log.log;
@@ -82,6 +88,11 @@ public class DObject
             Arrays.sort(_accessors);
             _atable.put(getClass(), _accessors);
         }
+        _coalesced = _ctable.get(getClass());
+        if (_coalesced == null) {
+            _coalesced = createCoalesced();
+            _ctable.put(getClass(), _coalesced);
+        }
     }
 
     /**
@@ -697,6 +708,20 @@ public class DObject
         buf.insert(0, "[oid=");
     }
 
+    /**
+     * Don't call this function! It is called by the distributed object manager when it dispatches
+     * a change to one of this object's fields, after which a subsequent change to the field can no
+     * longer be coalesced with it.
+     *
+     * @see Coalesce
+     */
+    public void clearPendingChange (NamedEvent event)
+    {
+        if (_pending != null && !_pending.isEmpty()) {
+            _pending.values().remove(event);
+        }
+    }
+
     /**
      * Begins a transaction on this distributed object. In some situations, it is desirable to
      * cause multiple changes to distributed object fields in one unified operation. Starting a
@@ -821,9 +846,18 @@ public class DObject
     protected void requestAttributeChange (
         String name, Object value, Object oldValue, Transport transport)
     {
+        AttributeChangedEvent event = new AttributeChangedEvent(_oid, name, value);
+        event.setTransport(transport);
+        if (isCoalesced(name)) {
+            // report the value prior to any change that this one supersedes
+            NamedEvent prev = notePendingChange(name, event);
+            if (prev != null) {
+                oldValue = ((AttributeChangedEvent)prev).getOldValue();
+            }
+        }
+
         // dispatch an attribute changed event
-        postEvent(new AttributeChangedEvent(_oid, name, value).
-                  setOldValue(oldValue).setTransport(transport));
+        postEvent(event.setOldValue(oldValue));
     }
 
     /**
@@ -840,9 +874,18 @@ public class DObject
     protected void requestElementUpdate (
         String name, int index, Object value, Object oldValue, Transport transport)
     {
-        // dispatch an attribute changed event
-        postEvent(new ElementUpdatedEvent(_oid, name, value, index).
-                  setOldValue(oldValue).setTransport(transport));
+        ElementUpdatedEvent event = new ElementUpdatedEvent(_oid, name, value, index);
+        event.setTransport(transport);
+        if (isCoalesced(name)) {
+            // report the value prior to any change that this one supersedes
+            NamedEvent prev = notePendingChange(Tuple.newTuple(name, index), event);
+            if (prev != null) {
+                oldValue = ((ElementUpdatedEvent)prev).getOldValue();
+            }
+        }
+
+        // dispatch an element updated event
+        postEvent(event.setOldValue(oldValue));
     }
 
     /**
@@ -855,6 +898,7 @@ public class DObject
         if (applyImmediately) {
             list.add(oid);
         }
+        clearPendingChanges(name);
         postEvent(new ObjectAddedEvent(_oid, name, oid).setAlreadyApplied(applyImmediately));
     }
 
@@ -868,6 +912,7 @@ public class DObject
         if (applyImmediately) {
             list.remove(oid);
         }
+        clearPendingChanges(name);
         // dispatch an object removed event
         postEvent(new ObjectRemovedEvent(_oid, name, oid).setAlreadyApplied(applyImmediately));
     }
@@ -875,12 +920,14 @@ public class DObject
     /** @deprecated Regenerate your DObject to remove this warning. */
     @Deprecated protected void requestOidAdd (String name, int oid)
     {
+        clearPendingChanges(name);
         postEvent(new ObjectAddedEvent(_oid, name, oid));
     }
 
     /** @deprecated Regenerate your DObject to remove this warning. */
     @Deprecated protected void requestOidRemove (String name, int oid)
     {
+        clearPendingChanges(name);
         postEvent(new ObjectRemovedEvent(_oid, name, oid));
     }
 
@@ -894,6 +941,7 @@ public class DObject
         if (applyImmediately) {
             set.add(entry);
         }
+        clearPendingChanges(name);
         // dispatch an entry added event
         postEvent(new EntryAddedEvent<T>(_oid, name, entry).setAlreadyApplied(applyImmediately));
     }
@@ -913,6 +961,7 @@ public class DObject
                             new Exception());
             }
         }
+        clearPendingChanges(name);
         // dispatch an entry removed event
         postEvent(new EntryRemovedEvent<T>(_oid, name, key).setOldEntry(oldEntry));
     }
@@ -940,6 +989,7 @@ public class DObject
                             new Exception());
             }
         }
+        clearPendingChanges(name);
         // dispatch an entry updated event
         postEvent(new EntryUpdatedEvent<T>(_oid, name, entry).
                   setOldEntry(oldEntry).setTransport(transport));
@@ -950,11 +1000,115 @@ public class DObject
         return _omgr != null && _omgr.isManager(this);
     }
 
+    /**
+     * Returns true if changes to the specified field should be coalesced. By default, this is true
+     * for fields marked with {@link Coalesce} and for all fields of classes so marked, so long as
+     * the change is being made on the thread that dispatches our events (which is the only thread
+     * on which our pending changes may be tracked).
+     */
+    protected boolean isCoalesced (String name)
+    {
+        return _coalesced.contains(name) && isAuthoritative() &&
+            _omgr instanceof RootDObjectManager &&
+            ((RootDObjectManager)_omgr).isDispatchThread(this);
+    }
+
+    /**
+     * Notes that a change to a coalesced field is about to be posted. If an earlier change to the
+     * same field (or array element) is yet to be dispatched, it is marked as superseded so that
+     * the distributed object manager will drop it, and it is returned. Changes are only coalesced
+     * with changes posted to the same transaction (or outside of any transaction) and delivered
+     * via the same transport, and a change to a whole field never supersedes a change to one of
+     * its elements (or vice versa), as the later change may not have been made against the value
+     * that the earlier change produced.
+     */
+    protected NamedEvent notePendingChange (Object key, NamedEvent change)
+    {
+        if (_pending == null) {
+            _pending = Maps.newHashMap();
+        }
+        if (_pendingTransaction != _tevent) {
+            _pending.clear();
+            _pendingTransaction = _tevent;
+        }
+        NamedEvent prev = _pending.remove(key);
+        clearPendingChanges(change.getName());
+        _pending.put(key, change);
+        if (prev == null || !prev.getTransport().equals(change.getTransport())) {
+            return null;
+        }
+        prev.supersede();
+        return prev;
+    }
+
+    /**
+     * Notes that a change that cannot be coalesced is about to be posted for the specified field.
+     * Later changes to the field must not supersede any change posted before it, as that change
+     * would then be applied to a value that was never delivered.
+     */
+    protected void clearPendingChanges (String name)
+    {
+        if (_pending == null || _pending.isEmpty() || !isCoalesced(name)) {
+            return;
+        }
+        for (Iterator<Object> iter = _pending.keySet().iterator(); iter.hasNext(); ) {
+            Object key = iter.next();
+            if (name.equals(key) ||
+                (key instanceof Tuple<?, ?> && name.equals(((Tuple<?, ?>)key).left))) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the fields whose changes should be coalesced.
+     */
+    protected Set<String> createCoalesced ()
+    {
+        boolean all = getClass().isAnnotationPresent(Coalesce.class);
+        ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (Field field : getClass().getFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) &&
+                (all || field.isAnnotationPresent(Coalesce.class))) {
+                names.add(field.getName());
+            }
+        }
+        return names.build();
+    }
+
     /**
      * Returns the {@link Accessor} for the field with the specified name throws an {@link
      * IllegalArgumentException}.
      */
     protected final Accessor getAccessor (String name)
+    {
+        int index = getFieldIndex(name);
+        if (index < 0) {
+            throw new IllegalArgumentException(
+                "No such field " + getClass().getName() + "." + name);
+        }
+        return _accessors[index];
+    }
+
+    /**
+     * Returns the {@link Accessor} for the field with the specified index (as returned by {@link
+     * #getFieldIndex}) or throws an {@link IllegalArgumentException}.
+     */
+    protected final Accessor getAccessor (int index)
+    {
+        if (index < 0 || index >= _accessors.length) {
+            throw new IllegalArgumentException(
+                "No such field " + getClass().getName() + "#" + index);
+        }
+        return _accessors[index];
+    }
+
+    /**
+     * Returns the index of the field with the specified name, or -1 if this object has no such
+     * field. A field's index is its position in the name-ordered table of this object's fields, so
+     * it is the same for every instance of a class, in every JVM in which that class is loaded.
+     */
+    protected final int getFieldIndex (String name)
     {
         int low = 0, high = _accessors.length-1;
         while (low <= high) {
@@ -966,10 +1120,10 @@ public class DObject
             } else if (cmp > 0) {
                 high = mid - 1;
             } else {
-                return midVal; // key found
+                return mid; // key found
             }
         }
-        throw new IllegalArgumentException("No such field " + getClass().getName() + "." + name);
+        return -1;
     }
 
     /**
@@ -1041,6 +1195,16 @@ public class DObject
     /** Whether or not our nested transaction has been cancelled. */
     protected transient boolean _tcancelled;
 
+    /** The names of our fields whose changes are coalesced. */
+    protected transient Set<String> _coalesced;
+
+    /** Our undispatched changes to coalesced fields, keyed by field name (or name and index).
+     * This is only used on the thread that dispatches our events. */
+    protected transient Map<Object, NamedEvent> _pending;
+
+    /** The transaction in which our pending changes were posted, or null. */
+    protected transient CompoundEvent _pendingTransaction;
+
     /** Indicates whether we want to be destroyed when our last subscriber is removed. */
     protected transient boolean _deathWish = false;
 
@@ -1049,4 +1213,7 @@ public class DObject
 
     /** Maintains a mapping of sorted accessor arrays for each distributed object class. */
     protected static Map<Class<?>, Accessor[]> _atable = Maps.newHashMap();
+
+    /** Maintains a mapping of the coalesced fields of each distributed object class. */
+    protected static ConcurrentMap<Class<?>, Set<String>> _ctable = Maps.newConcurrentMap();
 }
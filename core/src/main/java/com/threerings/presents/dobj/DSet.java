@@ -23,17 +23,26 @@ package com.threerings.presents.dobj;
 
 import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.TreeMap;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+
+import com.google.common.base.Function;
 
 import com.samskivert.util.ArrayUtil;
 
+import com.threerings.io.FieldMarshaller;
 import com.threerings.io.ObjectInputStream;
 import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.StreamWith;
 import com.threerings.io.Streamable;
 
 import static com.threerings.presents.Log.log;
@@ -52,6 +61,19 @@ import static com.threerings.presents.Log.log;
  * removal event to save network bandwidth. Lastly, the object returned by {@link Entry#getKey}
  * must be a {@link Streamable} type.
  *
+ * <p> By default, a set keeps its entries in a sorted array, which is compact and quick for small
+ * sets but makes lookups logarithmic and additions and removals linear in the size of the set.
+ * Sets that will contain many entries can instead be created via {@link #newHashedDSet}, which
+ * keeps its entries in a hash table (for constant time lookups) and a tree (for logarithmic
+ * additions and removals and iteration in key order). The choice of backing is made by the code
+ * that creates a set and is preserved by {@link #clone}, but is not streamed: hashed and unhashed
+ * sets are streamed identically, and sets are unstreamed into the array form unless they are
+ * read into a field annotated with {@link StreamWith}({@link HashedMarshaller}). A hashed field of
+ * a distributed object should be so annotated, so that it is also hashed on the clients and peers
+ * to which the object is sent; attribute changes to such a field then keep it hashed as well. The
+ * keys of entries in a hashed set must implement {@link Object#hashCode} and {@link
+ * Object#equals} consistently with {@link Comparable#compareTo}.
+ *
  * @param <E> the type of entry stored in this set.
  */
 public class DSet<E extends DSet.Entry>
@@ -69,6 +91,129 @@ public class DSet<E extends DSet.Entry>
         Comparable<?> getKey ();
     }
 
+    /**
+     * A secondary index on the entries of a set, mapping a value extracted from each entry (say,
+     * the username of an occupant) to that entry. An index is declared once, typically as a
+     * transient field of the distributed object that contains the set, and attaches itself to
+     * whichever set it is asked to search. While attached, it is kept up to date by the set as
+     * entries are added, updated and removed (whether directly or by the application of entry
+     * events). If it is asked to search a different set (because the set field was replaced),
+     * it detaches from the old set and rebuilds itself from the new one.
+     *
+     * <p> Indexes are never streamed, nor are they carried over to clones of the set to which
+     * they are attached. The extracted values should be unique among the entries of a set; if
+     * two entries share a value, the index will return one of them.
+     *
+     * @param <K> the type of the extracted index key.
+     * @param <E> the type of entry stored in the indexed set.
+     */
+    public static class Index<K, E extends DSet.Entry>
+    {
+        /**
+         * Creates an index which will map the values returned by the supplied function to the
+         * entries from which they were extracted.
+         */
+        public Index (Function<? super E, ? extends K> extractor)
+        {
+            _extractor = extractor;
+        }
+
+        /**
+         * Returns the entry in the supplied set from which the specified value was extracted,
+         * or null if no such entry exists.
+         */
+        public E get (DSet<E> set, K key)
+        {
+            attach(set);
+            return _entries.get(key);
+        }
+
+        /**
+         * Returns true if some entry in the supplied set has the specified extracted value.
+         */
+        public boolean containsKey (DSet<E> set, K key)
+        {
+            attach(set);
+            return _entries.containsKey(key);
+        }
+
+        /**
+         * Attaches this index to the supplied set, if it is not already attached to it.
+         */
+        protected void attach (DSet<E> set)
+        {
+            if (_set == set) {
+                return;
+            }
+            if (_set != null && _set._indexes != null) {
+                _set._indexes.remove(this);
+            }
+            _set = set;
+            _entries = new HashMap<K, E>(Math.max(16, set.size() * 2));
+            for (E entry : set) {
+                entryAdded(entry);
+            }
+            if (set._indexes == null) {
+                set._indexes = new ArrayList<Index<?, E>>(1);
+            }
+            set._indexes.add(this);
+        }
+
+        protected void entryAdded (E entry)
+        {
+            _entries.put(_extractor.apply(entry), entry);
+        }
+
+        protected void entryRemoved (E entry)
+        {
+            K key = _extractor.apply(entry);
+            // only clear the mapping if it's ours, as another entry may have claimed the value
+            E mapped = _entries.get(key);
+            if (mapped != null && DSet.compare(mapped.getKey(), entry.getKey()) == 0) {
+                _entries.remove(key);
+            }
+        }
+
+        /** Extracts our index key from an entry. */
+        protected Function<? super E, ? extends K> _extractor;
+
+        /** The set to which we're attached, if any. */
+        protected DSet<E> _set;
+
+        /** Maps extracted values to the entries of our set. */
+        protected HashMap<K, E> _entries;
+    }
+
+    /**
+     * Streams a set field just as it would otherwise be streamed, but unstreams it into the hashed
+     * form. See the {@link DSet} class documentation.
+     */
+    public static class HashedMarshaller extends FieldMarshaller
+    {
+        public HashedMarshaller ()
+        {
+            super("HashedDSet");
+        }
+
+        @Override
+        public void readField (Field field, Object target, ObjectInputStream in)
+            throws Exception
+        {
+            DSet<?> set = (DSet<?>)in.readObject();
+            if (set != null && !set.isHashed()) {
+                set.rehash();
+            }
+            field.set(target, set);
+        }
+
+        @Override
+        public void writeField (Field field, Object source, ObjectOutputStream out)
+            throws Exception
+        {
+            out.writeObject(field.get(source));
+        }
+    }
+
     /**
      * Creates a new DSet of the appropriate generic type.
      */
@@ -85,6 +230,29 @@ public class DSet<E extends DSet.Entry>
         return new DSet<E>(source);
     }
 
+    /**
+     * Creates a new, empty hashed DSet of the appropriate generic type. See the {@link DSet} class
+     * documentation for further information.
+     */
+    public static <E extends DSet.Entry> DSet<E> newHashedDSet ()
+    {
+        DSet<E> set = new DSet<E>();
+        set.rehash();
+        return set;
+    }
+
+    /**
+     * Creates a new hashed DSet of the appropriate generic type, containing the supplied entries.
+     */
+    public static <E extends DSet.Entry> DSet<E> newHashedDSet (Iterable<? extends E> source)
+    {
+        DSet<E> set = newHashedDSet();
+        for (E e : source) {
+            set.add(e);
+        }
+        return set;
+    }
+
     /**
      * Compares the first comparable to the second. This is useful to avoid type safety warnings
      * when dealing with the keys of {@link DSet.Entry} values.
@@ -194,6 +362,10 @@ public class DSet<E extends DSet.Entry>
      */
     public E get (Comparable<?> key)
     {
+        if (_hashed != null) {
+            return _hashed.get(key);
+        }
+
         // determine where we'll be adding the new element
         int eidx = ArrayUtil.binarySearch(
             _entries, 0, _size, new SimpleEntry<Comparable<?>>(key), ENTRY_COMP);
@@ -220,6 +392,10 @@ public class DSet<E extends DSet.Entry>
      */
     public Iterator<E> iterator ()
     {
+        if (_sorted != null) {
+            return Collections.unmodifiableCollection(_sorted.values()).iterator();
+        }
+
         // the crazy sanity checks
         if (_size < 0 || _size > _entries.length || (_size > 0 && _entries[_size-1] == null)) {
             log.warning("DSet in a bad way", "size", _size, "entries", _entries, new Exception());
@@ -297,6 +473,16 @@ public class DSet<E extends DSet.Entry>
             @SuppressWarnings("unchecked") E[] copy = (E[])new Entry[size()];
             array = copy;
         }
+        if (_sorted != null) {
+            int idx = 0;
+            for (E elem : _sorted.values()) {
+                if (idx == array.length) {
+                    break;
+                }
+                array[idx++] = elem;
+            }
+            return array;
+        }
         System.arraycopy(_entries, 0, array, 0, array.length);
         return array;
     }
@@ -318,6 +504,21 @@ public class DSet<E extends DSet.Entry>
      */
     protected boolean add (E elem)
     {
+        if (_hashed != null) {
+            Comparable<?> key = elem.getKey();
+            if (_hashed.containsKey(key)) {
+                log.warning("Refusing to add duplicate entry", "entry", elem, "set", this,
+                            new Exception());
+                return false;
+            }
+            _hashed.put(key, elem);
+            _sorted.put(key, elem);
+            _size++;
+            _modCount++;
+            noteAdded(elem);
+            return true;
+        }
+
         // determine where we'll be adding the new element
         int eidx = ArrayUtil.binarySearch(_entries, 0, _size, elem, ENTRY_COMP);
 
@@ -355,6 +556,7 @@ public class DSet<E extends DSet.Entry>
         _entries[eidx] = elem;
         _size++;
         _modCount++;
+        noteAdded(elem);
 
         return true;
     }
@@ -386,6 +588,17 @@ public class DSet<E extends DSet.Entry>
             return null;
         }
 
+        if (_hashed != null) {
+            E oldEntry = _hashed.remove(key);
+            if (oldEntry != null) {
+                _sorted.remove(key);
+                _size--;
+                _modCount++;
+                noteRemoved(oldEntry);
+            }
+            return oldEntry;
+        }
+
         // look up this entry's position in our set
         int eidx = ArrayUtil.binarySearch(
             _entries, 0, _size, new SimpleEntry<Comparable<?>>(key), ENTRY_COMP);
@@ -408,6 +621,7 @@ public class DSet<E extends DSet.Entry>
                 _entries[_size] = null;
             }
             _modCount++;
+            noteRemoved(oldEntry);
             return oldEntry;
 
         } else {
@@ -426,6 +640,18 @@ public class DSet<E extends DSet.Entry>
      */
     protected E update (E elem)
     {
+        if (_hashed != null) {
+            Comparable<?> key = elem.getKey();
+            if (!_hashed.containsKey(key)) {
+                return null;
+            }
+            _sorted.put(key, elem);
+            _modCount++;
+            E oldEntry = _hashed.put(key, elem);
+            noteUpdated(oldEntry, elem);
+            return oldEntry;
+        }
+
         // look up this entry's position in our set
         int eidx = ArrayUtil.binarySearch(_entries, 0, _size, elem, ENTRY_COMP);
 
@@ -434,12 +660,76 @@ public class DSet<E extends DSet.Entry>
             E oldEntry = _entries[eidx];
             _entries[eidx] = elem;
             _modCount++;
+            noteUpdated(oldEntry, elem);
             return oldEntry;
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns true if this set is backed by a hash table and tree rather than a sorted array.
+     *
+     * @see #newHashedDSet
+     */
+    public boolean isHashed ()
+    {
+        return (_hashed != null);
+    }
+
+    /**
+     * Switches this set to (or rebuilds) the hashed form, moving the entries from our array.
+     */
+    protected void rehash ()
+    {
+        _hashed = new HashMap<Comparable<?>, E>(Math.max(16, _size * 2));
+        _sorted = new TreeMap<Comparable<?>, E>(KEY_COMP);
+        for (int ii = 0; ii < _size; ii++) {
+            E entry = _entries[ii];
+            _hashed.put(entry.getKey(), entry);
+            _sorted.put(entry.getKey(), entry);
+        }
+        @SuppressWarnings("unchecked") E[] none = (E[])new Entry[0];
+        _entries = none;
+    }
+
+    /**
+     * Informs our indexes that the supplied entry was added to the set.
+     */
+    protected void noteAdded (E elem)
+    {
+        if (_indexes != null) {
+            for (Index<?, E> index : _indexes) {
+                index.entryAdded(elem);
+            }
+        }
+    }
+
+    /**
+     * Informs our indexes that the supplied entry was removed from the set.
+     */
+    protected void noteRemoved (E elem)
+    {
+        if (_indexes != null) {
+            for (Index<?, E> index : _indexes) {
+                index.entryRemoved(elem);
+            }
+        }
+    }
+
+    /**
+     * Informs our indexes that the first entry was replaced in the set by the second.
+     */
+    protected void noteUpdated (E oldElem, E elem)
+    {
+        if (_indexes != null) {
+            for (Index<?, E> index : _indexes) {
+                index.entryRemoved(oldElem);
+                index.entryAdded(elem);
+            }
+        }
+    }
+
     /**
      * Returns the minimum size where we should warn that we're getting a bit large.
      */
@@ -470,6 +760,12 @@ public class DSet<E extends DSet.Entry>
             @SuppressWarnings("unchecked") E[] copy = (E[])new Entry[_entries.length];
             nset._entries = copy;
             System.arraycopy(_entries, 0, nset._entries, 0, _entries.length);
+            if (_hashed != null) {
+                nset._hashed = new HashMap<Comparable<?>, E>(_hashed);
+                nset._sorted = new TreeMap<Comparable<?>, E>(_sorted);
+            }
+            // indexes belong to the set on which they were declared, not to copies of it
+            nset._indexes = null;
             nset._modCount = 0;
             return nset;
         } catch (CloneNotSupportedException cnse) {
@@ -482,7 +778,7 @@ public class DSet<E extends DSet.Entry>
     {
         StringBuilder buf = new StringBuilder("(");
         String prefix = "";
-        for (E elem : _entries) {
+        for (E elem : (_sorted != null) ? _sorted.values() : Arrays.asList(_entries)) {
             if (elem != null) {
                 buf.append(prefix);
                 prefix = ", ";
@@ -498,6 +794,12 @@ public class DSet<E extends DSet.Entry>
         throws IOException
     {
         out.writeInt(_size);
+        if (_sorted != null) {
+            for (E entry : _sorted.values()) {
+                out.writeObject(entry);
+            }
+            return;
+        }
         for (int ii = 0; ii < _size; ii++) {
             out.writeObject(_entries[ii]);
         }
@@ -508,6 +810,9 @@ public class DSet<E extends DSet.Entry>
         throws IOException, ClassNotFoundException
     {
         _size = in.readInt();
+        _hashed = null;
+        _sorted = null;
+        _indexes = null;
         // ensure our capacity is a power of 2 (for consistency)
         int capacity = INITIAL_CAPACITY;
         while (capacity < _size) {
@@ -530,9 +835,25 @@ public class DSet<E extends DSet.Entry>
     /** Used to check for concurrent modification. */
     protected transient int _modCount;
 
+    /** If we're hashed, maps the keys of our entries to the entries (and our array is unused). */
+    protected transient HashMap<Comparable<?>, E> _hashed;
+
+    /** If we're hashed, our entries in key order. */
+    protected transient TreeMap<Comparable<?>, E> _sorted;
+
+    /** The secondary indexes maintained on this set, if any. */
+    protected transient ArrayList<Index<?, E>> _indexes;
+
     /** The default capacity of a set instance. */
     protected static final int INITIAL_CAPACITY = 2;
 
+    /** Used to keep the entries of hashed sets sorted. */
+    protected static Comparator<Comparable<?>> KEY_COMP = new Comparator<Comparable<?>>() {
+        public int compare (Comparable<?> k1, Comparable<?> k2) {
+            return DSet.compare(k1, k2);
+        }
+    };
+
     /** Used for lookups and to keep the set contents sorted on insertions. */
     protected static Comparator<Entry> ENTRY_COMP = new Comparator<Entry>() {
         public int compare (Entry e1, Entry e2) {
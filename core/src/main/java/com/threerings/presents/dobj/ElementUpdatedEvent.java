@@ -22,7 +22,6 @@
 package com.threerings.presents.dobj;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 
 import com.samskivert.util.StringUtil;
 
@@ -142,22 +141,21 @@ public class ElementUpdatedEvent extends NamedEvent
         if (!alreadyApplied()) {
             try {
                 // fetch the array field from the object
-                Field field = target.getClass().getField(_name);
-                Class<?> ftype = field.getType();
+                Object array = getAccessor(target).get(target);
 
                 // sanity check
-                if (!ftype.isArray()) {
+                if (array != null && !array.getClass().isArray()) {
                     String msg = "Requested to set element on non-array field.";
                     throw new Exception(msg);
                 }
 
                 // grab the previous value to provide to interested parties
-                _oldValue = Array.get(field.get(target), _index);
+                _oldValue = Array.get(array, _index);
 
                 // we don't do any magical expansion or any funny business; the array should be big
                 // enough to contain the value being updated or we'll throw an
                 // ArrayIndexOutOfBoundsException
-                Array.set(field.get(target), _index, _value);
+                Array.set(array, _index, _value);
 
             } catch (Exception e) {
                 String msg = "Error updating element [field=" + _name + ", index=" + _index + "]";
@@ -86,7 +86,7 @@ public class EntryAddedEvent<T extends DSet.Entry> extends EntryEvent<T>
         throws ObjectAccessException
     {
         if (!_alreadyApplied) {
-            if (!target.getSet(_name).add(_entry)) {
+            if (!getSet(target).add(_entry)) {
                 return false; // DSet will have already complained
             }
         }
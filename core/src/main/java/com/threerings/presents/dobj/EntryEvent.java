@@ -52,4 +52,13 @@ public abstract class EntryEvent<T extends DSet.Entry> extends NamedEvent
      * Return the <em>old</em> entry, or <code>null</code> if the entry is newly added.
      */
     public abstract T getOldEntry ();
+
+    /**
+     * Returns the set of the supplied target to which this event pertains.
+     */
+    protected DSet<T> getSet (DObject target)
+    {
+        @SuppressWarnings("unchecked") DSet<T> set = (DSet<T>)getAccessor(target).get(target);
+        return set;
+    }
 }
@@ -86,7 +86,7 @@ public class EntryRemovedEvent<T extends DSet.Entry> extends EntryEvent<T>
         throws ObjectAccessException
     {
         if (!alreadyApplied()) {
-            DSet<T> set = target.getSet(_name);
+            DSet<T> set = getSet(target);
             // remove, fetch the previous value for interested callers
             _oldEntry = set.removeKey(_key);
             if (_oldEntry == null) {
@@ -21,8 +21,16 @@
 
 package com.threerings.presents.dobj;
 
+import java.lang.reflect.Field;
+
 import com.samskivert.util.StringUtil;
 
+import com.threerings.io.FieldDelta;
+import com.threerings.io.FieldMarshaller;
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.StreamWith;
+
 import static com.threerings.presents.Log.log;
 
 /**
@@ -36,6 +44,56 @@ import static com.threerings.presents.Log.log;
  */
 public class EntryUpdatedEvent<T extends DSet.Entry> extends EntryEvent<T>
 {
+    /**
+     * Streams the updated entry. If the stream has negotiated {@link ObjectOutputStream#setDeltas
+     * deltas}, the entry's class is marked with {@link com.threerings.io.StreamDeltas} and the
+     * event is delivered reliably, only the entry's key and the fields that differ from the entry
+     * it replaced are streamed, and the recipient rebuilds the entry from its copy of the old
+     * entry when the event is applied. Because the recipient's copy must be current, entries of a
+     * set that is ever updated unreliably should not be marked for deltas.
+     */
+    public static class EntryMarshaller extends FieldMarshaller
+    {
+        public EntryMarshaller ()
+        {
+            super("entry");
+        }
+
+        @Override
+        public void readField (Field field, Object target, ObjectInputStream in)
+            throws Exception
+        {
+            EntryUpdatedEvent<?> event = (EntryUpdatedEvent<?>)target;
+            event._delta = null;
+            event._deltaKey = null;
+            if (in.getDeltas() && in.readByte() == DELTA) {
+                event._entry = null; // rebuilt by applyToObject()
+                event._deltaKey = (Comparable<?>)in.readObject();
+                event._delta = in.readDelta();
+            } else {
+                event.setEntry(in.readObject());
+            }
+        }
+
+        @Override
+        public void writeField (Field field, Object source, ObjectOutputStream out)
+            throws Exception
+        {
+            EntryUpdatedEvent<?> event = (EntryUpdatedEvent<?>)source;
+            if (out.getDeltas()) {
+                Object base = (event._oldEntry == UNSET_OLD_ENTRY) ? null : event._oldEntry;
+                if (event.getTransport().isReliable() && out.canWriteDelta(base, event._entry)) {
+                    out.writeByte(DELTA);
+                    out.writeObject(event._entry.getKey());
+                    out.writeDelta(base, event._entry);
+                    return;
+                }
+                out.writeByte(FULL);
+            }
+            out.writeObject(event._entry);
+        }
+    }
+
     /**
      * Constructs a new entry updated event on the specified target object for the specified set
      * name and with the supplied updated entry.
@@ -53,12 +111,13 @@ public class EntryUpdatedEvent<T extends DSet.Entry> extends EntryEvent<T>
     @Override
     public Comparable<?> getKey ()
     {
-        return _entry.getKey();
+        return (_entry == null) ? _deltaKey : _entry.getKey();
     }
 
     /**
      * {@inheritDoc}
-     * This implementation never returns <code>null</code>.
+     * This implementation never returns <code>null</code> once the event has been applied (an
+     * event that arrived as a delta has no entry until then).
      */
     @Override
     public T getEntry ()
@@ -88,7 +147,17 @@ public class EntryUpdatedEvent<T extends DSet.Entry> extends EntryEvent<T>
     {
         // only apply the change if we haven't already
         if (!alreadyApplied()) {
-            DSet<T> set = target.getSet(_name);
+            DSet<T> set = getSet(target);
+            // if we arrived as a delta, rebuild our entry from the one it replaces
+            if (_entry == null && _delta != null) {
+                T base = set.get(_deltaKey);
+                if (base == null) {
+                    log.warning("No matching entry to apply delta", "event", this, "set", set);
+                    return false;
+                }
+                setEntry(_delta.apply(base));
+                _delta = null;
+            }
             // fetch the previous value for interested callers
             _oldEntry = set.update(_entry);
             if (_oldEntry == null) {
@@ -114,8 +183,14 @@ public class EntryUpdatedEvent<T extends DSet.Entry> extends EntryEvent<T>
     {
         buf.append("ELUPD:");
         super.toString(buf);
-        buf.append(", entry=");
-        StringUtil.toString(buf, _entry);
+        if (_entry == null && _delta != null) {
+            buf.append(", key=");
+            StringUtil.toString(buf, _deltaKey);
+            buf.append(", delta=").append(_delta);
+        } else {
+            buf.append(", entry=");
+            StringUtil.toString(buf, _entry);
+        }
     }
 
     protected EntryUpdatedEvent<T> setOldEntry (T oldEntry)
@@ -124,8 +199,23 @@ public class EntryUpdatedEvent<T extends DSet.Entry> extends EntryEvent<T>
         return this;
     }
 
+    @SuppressWarnings("unchecked")
+    protected void setEntry (Object entry)
+    {
+        _entry = (T)entry;
+    }
+
+    @StreamWith(EntryMarshaller.class)
     protected T _entry;
 
+    /** The key of our entry and its changed fields, if we arrived as a delta and have not yet
+     * been applied. */
+    protected transient Comparable<?> _deltaKey;
+    protected transient FieldDelta _delta;
+
     @SuppressWarnings("unchecked")
     protected transient T _oldEntry = (T)UNSET_OLD_ENTRY;
+
+    /** The bytes that precede our entry on streams that allow deltas. */
+    protected static final byte FULL = 0, DELTA = 1;
 }
@@ -21,12 +21,72 @@
 
 package com.threerings.presents.dobj;
 
+import java.lang.reflect.Field;
+
+import com.threerings.io.BasicStreamers;
+import com.threerings.io.FieldMarshaller;
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.StreamWith;
+import com.threerings.io.Streamer;
+
 /**
  * A common parent class for all events that are associated with a name
  * (in some cases a field name, in other cases just an identifying name).
  */
 public abstract class NamedEvent extends DEvent
 {
+    /**
+     * Streams the name of a named event. If the stream has negotiated {@link
+     * ObjectOutputStream#setFieldIndices field indices} and the name is that of a field of the
+     * event's target, its index is streamed as a single byte in place of the name.
+     */
+    public static class NameMarshaller extends FieldMarshaller
+    {
+        public NameMarshaller ()
+        {
+            super("name");
+        }
+
+        @Override
+        public void readField (Field field, Object target, ObjectInputStream in)
+            throws Exception
+        {
+            NamedEvent event = (NamedEvent)target;
+            event._fieldIndex = -1;
+            if (in.getFieldIndices()) {
+                int index = in.readUnsignedByte();
+                if (index != NO_INDEX) {
+                    event._fieldIndex = index;
+                    event._name = null; // resolved by resolveField()
+                    return;
+                }
+            }
+            event._name = in.readBoolean() ? (String)STRING_STREAMER.createObject(in) : null;
+        }
+
+        @Override
+        public void writeField (Field field, Object source, ObjectOutputStream out)
+            throws Exception
+        {
+            NamedEvent event = (NamedEvent)source;
+            if (out.getFieldIndices()) {
+                int index = event._fieldIndex;
+                if (index >= 0 && index < NO_INDEX) {
+                    out.writeByte(index);
+                    return;
+                }
+                out.writeByte(NO_INDEX);
+            }
+            if (event._name == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                STRING_STREAMER.writeObject(event._name, out, true);
+            }
+        }
+    }
+
     /**
      * Constructs a new named event for the specified target object with
      * the supplied attribute name.
@@ -48,12 +108,78 @@ public abstract class NamedEvent extends DEvent
         return _name;
     }
 
+    /**
+     * Resolves this event's name against the supplied target, noting the index of the field it
+     * names (if any) so that it may be streamed compactly, or looking up the name of the field if
+     * this event arrived with only an index. This must be called before the event is applied to
+     * its target or passed on to other recipients.
+     */
+    public void resolveField (DObject target)
+    {
+        if (_name == null) {
+            if (_fieldIndex >= 0) {
+                _name = target.getAccessor(_fieldIndex).name;
+            }
+        } else if (_fieldIndex < 0) {
+            _fieldIndex = target.getFieldIndex(_name);
+        }
+    }
+
+    /**
+     * Returns true if this event was superseded by a later change to the same field before it was
+     * dispatched, in which case it should be dropped rather than dispatched.
+     *
+     * @see com.threerings.presents.annotation.Coalesce
+     */
+    public boolean isSuperseded ()
+    {
+        return _superseded;
+    }
+
+    /**
+     * Marks this event as superseded by a later change to the same field.
+     */
+    protected void supersede ()
+    {
+        _superseded = true;
+    }
+
+    /**
+     * Returns the accessor for the field of the supplied target that this event names.
+     */
+    protected Accessor getAccessor (DObject target)
+    {
+        return (_fieldIndex >= 0) ? target.getAccessor(_fieldIndex) : target.getAccessor(_name);
+    }
+
     @Override
     protected void toString (StringBuilder buf)
     {
         super.toString(buf);
-        buf.append(", name=").append(_name);
+        buf.append(", name=");
+        if (_name == null && _fieldIndex >= 0) {
+            buf.append("#").append(_fieldIndex);
+        } else {
+            buf.append(_name);
+        }
+        if (_superseded) {
+            buf.append(", superseded");
+        }
     }
 
+    @StreamWith(NameMarshaller.class)
     protected String _name;
+
+    /** The index of the field of our target named by this event, or -1 if it is not yet known or
+     * our name is not that of a field. */
+    protected transient int _fieldIndex = -1;
+
+    /** Whether this event was superseded before it was dispatched. */
+    protected transient boolean _superseded;
+
+    /** The byte written in place of a field index when the name is streamed instead. */
+    protected static final int NO_INDEX = 255;
+
+    /** Used to stream names that are not streamed as field indices. */
+    protected static final Streamer STRING_STREAMER = BasicStreamers.BSTREAMERS.get(String.class);
 }
@@ -63,7 +63,7 @@ public class ObjectAddedEvent extends NamedEvent
         throws ObjectAccessException
     {
         if (!_alreadyApplied) {
-            OidList list = (OidList)target.getAttribute(_name);
+            OidList list = (OidList)getAccessor(target).get(target);
             list.add(_oid);
         }
         return true;
@@ -63,7 +63,7 @@ public class ObjectRemovedEvent extends NamedEvent
         throws ObjectAccessException
     {
         if (!_alreadyApplied) {
-            OidList list = (OidList)target.getAttribute(_name);
+            OidList list = (OidList)getAccessor(target).get(target);
             list.remove(_oid);
         }
         return true;
@@ -32,6 +32,10 @@ import com.threerings.io.Streamable;
  * expectation that all modifications of instances will take place on the
  * dobjmgr thread.
  *
+ * <p> Once a list grows beyond a handful of ids, it maintains a hash of its contents alongside
+ * the (insertion ordered) list itself, so that membership checks (and thus additions) take
+ * constant time. The hash is not streamed; it is rebuilt as needed by the recipient.
+ *
  * <ul>
  * <li> Do not use an OidList to store a set of ints. OidList has special meaning inside
  * of the dobj system, namely:
@@ -78,10 +82,8 @@ public class OidList
     public boolean add (int oid)
     {
         // check for existence
-        for (int ii = 0; ii < _size; ii++) {
-            if (_oids[ii] == oid) {
-                return false;
-            }
+        if (contains(oid)) {
+            return false;
         }
 
         // make room if necessary
@@ -91,6 +93,9 @@ public class OidList
 
         // add the oid
         _oids[_size++] = oid;
+        if (_oidIndex != null) {
+            _oidIndex.add(oid);
+        }
         return true;
     }
 
@@ -102,6 +107,12 @@ public class OidList
      */
     public boolean remove (int oid)
     {
+        // if we're indexed, we can avoid the scan if the oid isn't present
+        OidIndex index = getIndex();
+        if (index != null && !index.remove(oid)) {
+            return false;
+        }
+
         // scan for the oid in question
         for (int ii = 0; ii < _size; ii++) {
             if (_oids[ii] == oid) {
@@ -119,6 +130,10 @@ public class OidList
      */
     public boolean contains (int oid)
     {
+        OidIndex index = getIndex();
+        if (index != null) {
+            return index.contains(oid);
+        }
         for (int ii = 0; ii < _size; ii++) {
             if (_oids[ii] == oid) {
                 return true;
@@ -164,6 +179,127 @@ public class OidList
         _oids = oids;
     }
 
+    /**
+     * Returns our index, creating it if we have become large enough to warrant one, or null if we
+     * are small enough that a linear scan will do.
+     */
+    private OidIndex getIndex ()
+    {
+        if (_oidIndex == null && _size > INDEX_THRESHOLD) {
+            _oidIndex = new OidIndex(_size);
+            for (int ii = 0; ii < _size; ii++) {
+                _oidIndex.add(_oids[ii]);
+            }
+        }
+        return _oidIndex;
+    }
+
+    /**
+     * A set of ints, stored in an open addressed hash table with linear probing.
+     */
+    protected static class OidIndex
+    {
+        public OidIndex (int expectedSize)
+        {
+            int capacity = 16;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            _table = new int[capacity];
+        }
+
+        public boolean contains (int oid)
+        {
+            if (oid == EMPTY) {
+                return _hasEmpty;
+            }
+            int mask = _table.length - 1;
+            for (int ii = hash(oid) & mask; _table[ii] != EMPTY; ii = (ii + 1) & mask) {
+                if (_table[ii] == oid) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void add (int oid)
+        {
+            if (oid == EMPTY) {
+                _hasEmpty = true;
+                return;
+            }
+            if ((_count + 1) * 2 > _table.length) {
+                int[] otable = _table;
+                _table = new int[otable.length * 2];
+                _count = 0;
+                for (int value : otable) {
+                    if (value != EMPTY) {
+                        insert(value);
+                    }
+                }
+            }
+            insert(oid);
+        }
+
+        public boolean remove (int oid)
+        {
+            if (oid == EMPTY) {
+                boolean had = _hasEmpty;
+                _hasEmpty = false;
+                return had;
+            }
+            int mask = _table.length - 1;
+            int ii = hash(oid) & mask;
+            while (_table[ii] != oid) {
+                if (_table[ii] == EMPTY) {
+                    return false;
+                }
+                ii = (ii + 1) & mask;
+            }
+
+            // shift back any later entries in this run that would no longer be reachable
+            for (int jj = (ii + 1) & mask; _table[jj] != EMPTY; jj = (jj + 1) & mask) {
+                int home = hash(_table[jj]) & mask;
+                if (((jj - home) & mask) >= ((jj - ii) & mask)) {
+                    _table[ii] = _table[jj];
+                    ii = jj;
+                }
+            }
+            _table[ii] = EMPTY;
+            _count--;
+            return true;
+        }
+
+        protected void insert (int oid)
+        {
+            int mask = _table.length - 1;
+            int ii = hash(oid) & mask;
+            while (_table[ii] != EMPTY) {
+                if (_table[ii] == oid) {
+                    return;
+                }
+                ii = (ii + 1) & mask;
+            }
+            _table[ii] = oid;
+            _count++;
+        }
+
+        protected static int hash (int oid)
+        {
+            // oids are largely sequential; spread them across the table
+            int hash = oid * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        protected int[] _table;
+        protected int _count;
+
+        /** Whether we contain the value that we use to mark empty slots. */
+        protected boolean _hasEmpty;
+
+        protected static final int EMPTY = 0;
+    }
+
     protected class OidIterator
         implements Iterator<Integer>
     {
@@ -191,5 +327,11 @@ public class OidList
     private int[] _oids;
     private int _size;
 
+    /** A hash of our contents, or null if we have not yet grown large enough to need one. */
+    private transient OidIndex _oidIndex;
+
     protected static final int DEFAULT_SIZE = 4;
+
+    /** The size beyond which we index our contents. */
+    protected static final int INDEX_THRESHOLD = 16;
 }
@@ -57,6 +57,12 @@ public interface RootDObjectManager extends DObjectManager, RunQueue, Executor,
      */
     void destroyObject (int oid);
 
+    /**
+     * Returns true if the calling thread is the thread that dispatches the events of the supplied
+     * object, which must be managed by this manager.
+     */
+    boolean isDispatchThread (DObject object);
+
     /**
      * Creates an {@link Interval} that runs the supplied runnable. If the root omgr is shutdown
      * before the interval expires (or if the interval is scheduled to repeat), it will be
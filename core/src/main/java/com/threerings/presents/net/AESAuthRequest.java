@@ -111,7 +111,7 @@ public class AESAuthRequest extends AuthRequest
         }
         _key = key;
         try {
-           _contents = SecureUtil.getAESCipher(Cipher.DECRYPT_MODE, _key).doFinal(_contents);
+           _contents = SecureUtil.doAES(Cipher.DECRYPT_MODE, _key, _contents);
         } catch (GeneralSecurityException gse) {
             IOException ioe = new IOException("Failed to decrypt credentials");
             ioe.initCause(gse);
@@ -126,6 +126,7 @@ public class AESAuthRequest extends AuthRequest
     /**
      * A customized AES encrypting write object.
      */
+    @Override
     public void writeObject (ObjectOutputStream out)
         throws IOException
     {
@@ -135,7 +136,7 @@ public class AESAuthRequest extends AuthRequest
         oOut.writeObject(_clearCreds);
         try {
             byte[] encrypted =
-                SecureUtil.getAESCipher(Cipher.ENCRYPT_MODE, _key).doFinal(byteOut.toByteArray());
+                SecureUtil.doAES(Cipher.ENCRYPT_MODE, _key, byteOut.toByteArray());
             out.writeInt(encrypted.length);
             out.write(encrypted);
         } catch (GeneralSecurityException gse) {
@@ -143,6 +144,8 @@ public class AESAuthRequest extends AuthRequest
             ioe.initCause(gse);
             throw ioe;
         }
+        // our capabilities follow the encrypted contents, where older servers won't look for them
+        writeCapabilities(out);
     }
 
     /**
@@ -155,6 +158,7 @@ public class AESAuthRequest extends AuthRequest
         in.defaultReadObject();
         _contents = new byte[in.readInt()];
         in.read(_contents);
+        readCapabilities(in);
     }
 
     /** Our encryption key. */
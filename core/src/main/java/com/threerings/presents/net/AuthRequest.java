@@ -23,9 +23,11 @@ package com.threerings.presents.net;
 
 import java.util.TimeZone;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
 
 /**
  * Used to authenticate with the server.
@@ -49,6 +51,9 @@ public class AuthRequest extends UpstreamMessage
         _version = version;
         _zone = TimeZone.getDefault().getID();
         _bootGroups = bootGroups;
+        _fieldIndices = true;
+        _compressedFrames = true;
+        _entryDeltas = true;
     }
 
     /**
@@ -83,6 +88,48 @@ public class AuthRequest extends UpstreamMessage
         return _bootGroups;
     }
 
+    /**
+     * Returns true if this client can receive events that identify distributed object fields by
+     * index rather than by name.
+     *
+     * @see com.threerings.io.ObjectOutputStream#setFieldIndices
+     */
+    public boolean supportsFieldIndices ()
+    {
+        return _fieldIndices;
+    }
+
+    /**
+     * Returns true if this client can read frames that were compressed by the server.
+     *
+     * @see com.threerings.io.FramedInputStream#setAcceptCompressed
+     */
+    public boolean supportsCompressedFrames ()
+    {
+        return _compressedFrames;
+    }
+
+    /**
+     * Returns true if this client can receive updated set entries as deltas from the entries they
+     * replace.
+     *
+     * @see com.threerings.io.ObjectOutputStream#setDeltas
+     */
+    public boolean supportsEntryDeltas ()
+    {
+        return _entryDeltas;
+    }
+
+    /**
+     * Returns true if this client sent the flags describing the optional protocol features it
+     * supports, in which case it expects the server to answer them in its {@link
+     * BootstrapNotification}.
+     */
+    public boolean sentCapabilities ()
+    {
+        return _capabilities;
+    }
+
     /**
      * Returns a shared secret key used for sending encrypted data to the client.
      */
@@ -98,6 +145,16 @@ public class AuthRequest extends UpstreamMessage
             ", version=" + _version + "]";
     }
 
+    /**
+     * Writes our custom streamable fields.
+     */
+    public void writeObject (ObjectOutputStream out)
+        throws IOException
+    {
+        out.defaultWriteObject();
+        writeCapabilities(out);
+    }
+
     /**
      * Reads our custom streamable fields.
      */
@@ -106,6 +163,7 @@ public class AuthRequest extends UpstreamMessage
     {
         try {
             in.defaultReadObject();
+            readCapabilities(in);
         } catch (IOException ioe) {
             // if we fail here because the client is old, leave ourselves with a partially
             // initialized set of credentials, which the server will generally cope with by telling
@@ -113,6 +171,36 @@ public class AuthRequest extends UpstreamMessage
         }
     }
 
+    /**
+     * Writes the flags describing the optional protocol features this client supports. These
+     * must be the last thing written for this request, as older clients (and non-Java clients)
+     * don't write them at all.
+     */
+    protected void writeCapabilities (ObjectOutputStream out)
+        throws IOException
+    {
+        out.writeByte((_fieldIndices ? FIELD_INDICES : 0) |
+                      (_compressedFrames ? COMPRESSED_FRAMES : 0) |
+                      (_entryDeltas ? ENTRY_DELTAS : 0));
+    }
+
+    /**
+     * Reads the flags written by {@link #writeCapabilities}, if the client wrote them.
+     */
+    protected void readCapabilities (ObjectInputStream in)
+        throws IOException
+    {
+        try {
+            int flags = in.readUnsignedByte();
+            _fieldIndices = (flags & FIELD_INDICES) != 0;
+            _compressedFrames = (flags & COMPRESSED_FRAMES) != 0;
+            _entryDeltas = (flags & ENTRY_DELTAS) != 0;
+            _capabilities = true;
+        } catch (EOFException eofe) {
+            // the client didn't write the flags, so it supports none of these
+        }
+    }
+
     /** The credentials associated with this auth request. */
     protected Credentials _creds;
 
@@ -124,4 +212,26 @@ public class AuthRequest extends UpstreamMessage
 
     /** The set of bootstrap service groups this client is interested in. */
     protected String[] _bootGroups;
+
+    /** Whether this client supports field indices. These flags are streamed after everything
+     * else (see {@link #writeCapabilities}) because older clients will not supply them. */
+    protected transient boolean _fieldIndices;
+
+    /** Whether this client accepts compressed frames. */
+    protected transient boolean _compressedFrames;
+
+    /** Whether this client accepts entry deltas. */
+    protected transient boolean _entryDeltas;
+
+    /** Whether this client sent the flags above. */
+    protected transient boolean _capabilities;
+
+    /** The flag written if this client supports field indices. */
+    protected static final int FIELD_INDICES = 1 << 0;
+
+    /** The flag written if this client accepts compressed frames. */
+    protected static final int COMPRESSED_FRAMES = 1 << 1;
+
+    /** The flag written if this client accepts entry deltas. */
+    protected static final int ENTRY_DELTAS = 1 << 2;
 }
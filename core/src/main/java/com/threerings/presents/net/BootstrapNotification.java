@@ -21,6 +21,12 @@
 
 package com.threerings.presents.net;
 
+import java.io.EOFException;
+import java.io.IOException;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
 /**
  * A bootstrap notification is delivered to the client once the server has
  * fully initialized itself in preparation for dealing with this client.
@@ -43,8 +49,43 @@ public class BootstrapNotification extends DownstreamMessage
      * Constructs an bootstrap notification with the supplied data.
      */
     public BootstrapNotification (BootstrapData data)
+    {
+        this(data, false);
+    }
+
+    /**
+     * Constructs a bootstrap notification with the supplied data, after which events delivered
+     * to the client will identify fields by index if <code>fieldIndices</code> is true. This
+     * should only be requested for clients that {@link AuthRequest#supportsFieldIndices}.
+     */
+    public BootstrapNotification (BootstrapData data, boolean fieldIndices)
+    {
+        this(data, fieldIndices, false);
+    }
+
+    /**
+     * Constructs a bootstrap notification with the supplied data, after which events delivered
+     * to the client will identify fields by index if <code>fieldIndices</code> is true and may
+     * carry updated set entries as deltas if <code>deltas</code> is true. These should only be
+     * requested for clients that {@link AuthRequest#supportsFieldIndices} and {@link
+     * AuthRequest#supportsEntryDeltas} respectively.
+     */
+    public BootstrapNotification (BootstrapData data, boolean fieldIndices, boolean deltas)
     {
         _data = data;
+        _fieldIndices = fieldIndices;
+        _deltas = deltas;
+    }
+
+    /**
+     * Notes whether the client to which this notification is delivered sent the flags describing
+     * the protocol features it supports (see {@link AuthRequest#sentCapabilities}). Such clients
+     * expect this notification to answer them even if they will use none of those features.
+     */
+    public BootstrapNotification setAnswersCapabilities (boolean answers)
+    {
+        _answers = answers;
+        return this;
     }
 
     public BootstrapData getData ()
@@ -52,6 +93,60 @@ public class BootstrapNotification extends DownstreamMessage
         return _data;
     }
 
+    /**
+     * Returns true if the events that follow this notification identify fields by index.
+     */
+    public boolean usesFieldIndices ()
+    {
+        return _fieldIndices;
+    }
+
+    /**
+     * Returns true if the events that follow this notification may carry updated set entries as
+     * deltas.
+     */
+    public boolean usesEntryDeltas ()
+    {
+        return _deltas;
+    }
+
+    /**
+     * Writes our custom streamable fields.
+     */
+    public void writeObject (ObjectOutputStream out)
+        throws IOException
+    {
+        out.defaultWriteObject();
+        // clients that did not send their capabilities don't expect the flags (and never request
+        // any of these), so we only write them to those that did, and switch the stream over as
+        // of the end of this message
+        int flags = (_fieldIndices ? FIELD_INDICES : 0) | (_deltas ? ENTRY_DELTAS : 0);
+        if (_answers || flags != 0) {
+            out.writeByte(flags);
+            out.setFieldIndices(_fieldIndices);
+            out.setDeltas(_deltas);
+        }
+    }
+
+    /**
+     * Reads our custom streamable fields.
+     */
+    public void readObject (ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        try {
+            int flags = in.readUnsignedByte();
+            _fieldIndices = (flags & FIELD_INDICES) != 0;
+            _deltas = (flags & ENTRY_DELTAS) != 0;
+        } catch (EOFException eofe) {
+            // the server is too old to write the flags, so it's not using any of these; such
+            // servers never send this notification as part of a compound message
+        }
+        in.setFieldIndices(_fieldIndices);
+        in.setDeltas(_deltas);
+    }
+
     @Override
     public String toString ()
     {
@@ -60,4 +155,19 @@ public class BootstrapNotification extends DownstreamMessage
 
     /** The data associated with this notification. */
     protected BootstrapData _data;
+
+    /** Whether subsequent events identify fields by index. */
+    protected transient boolean _fieldIndices;
+
+    /** Whether subsequent events may carry updated set entries as deltas. */
+    protected transient boolean _deltas;
+
+    /** Whether the client expects us to write our flags. */
+    protected transient boolean _answers;
+
+    /** The flag written if subsequent events identify fields by index. */
+    protected static final int FIELD_INDICES = 1 << 0;
+
+    /** The flag written if subsequent events may carry updated set entries as deltas. */
+    protected static final int ENTRY_DELTAS = 1 << 1;
 }
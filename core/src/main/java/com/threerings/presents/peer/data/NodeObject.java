@@ -26,6 +26,7 @@ import javax.annotation.Generated;
 import com.google.common.base.Objects;
 
 import com.threerings.io.SimpleStreamableObject;
+import com.threerings.io.StreamWith;
 import com.threerings.io.Streamable;
 
 import com.threerings.presents.dobj.DObject;
@@ -142,7 +143,8 @@ public class NodeObject extends DObject
     public PeerMarshaller peerService;
 
     /** Contains information on all clients connected to this node. */
-    public DSet<ClientInfo> clients = new DSet<ClientInfo>();
+    @StreamWith(DSet.HashedMarshaller.class)
+    public DSet<ClientInfo> clients = DSet.newHashedDSet();
 
     /** The set of locks held by this node. */
     public DSet<Lock> locks = new DSet<Lock>();
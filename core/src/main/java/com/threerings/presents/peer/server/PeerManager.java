@@ -121,6 +121,17 @@ public abstract class PeerManager
         void droppedLock (NodeObject.Lock lock);
     }
 
+    /**
+     * Used by entities that wish to know when our session with one of our peers has ended.
+     */
+    public static interface PeerObserver
+    {
+        /**
+         * Called when our session with the named peer has ended.
+         */
+        void disconnectedFromPeer (String nodeName);
+    }
+
     /**
      * Wraps an operation that needs a shared resource lock to be acquired before it can be
      * performed, and released after it completes. Used by {@link PeerManager#performWithLock}.
@@ -947,6 +958,22 @@ public abstract class PeerManager
         _dropobs.remove(observer);
     }
 
+    /**
+     * Adds an observer to notify when our session with a peer has ended.
+     */
+    public void addPeerObserver (PeerObserver observer)
+    {
+        _peerobs.add(observer);
+    }
+
+    /**
+     * Removes a peer observer from the list.
+     */
+    public void removePeerObserver (PeerObserver observer)
+    {
+        _peerobs.remove(observer);
+    }
+
     /**
      * Called by {@link PeerSession}s when clients subscribe to the {@link NodeObject}.
      */
@@ -1408,6 +1435,20 @@ public abstract class PeerManager
         // nothing by default
     }
 
+    /**
+     * Called when our session with the named peer has ended, after {@link #disconnectedFromPeer},
+     * to notify our peer observers.
+     */
+    protected void peerRemoved (final String nodeName)
+    {
+        _peerobs.apply(new ObserverList.ObserverOp<PeerObserver>() {
+            public boolean apply (PeerObserver observer) {
+                observer.disconnectedFromPeer(nodeName);
+                return true;
+            }
+        });
+    }
+
     /**
      * Called when a peer announces its intention to acquire a lock.
      */
@@ -1847,6 +1888,9 @@ public abstract class PeerManager
     /** Listeners for dropped locks. */
     protected ObserverList<DroppedLockObserver> _dropobs = ObserverList.newFastUnsafe();
 
+    /** Listeners for ended peer sessions. */
+    protected ObserverList<PeerObserver> _peerobs = ObserverList.newFastUnsafe();
+
     /** Locks in the process of resolution. */
     protected Map<NodeObject.Lock, LockHandler> _locks = Maps.newHashMap();
 
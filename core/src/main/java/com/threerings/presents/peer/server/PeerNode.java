@@ -231,6 +231,7 @@ public class PeerNode
         nodeobj.removeListener(_listener);
 
         _peermgr.disconnectedFromPeer(this);
+        _peermgr.peerRemoved(nodeName);
         _listener = null;
         nodeobj = null;
     }
@@ -28,6 +28,8 @@ import com.threerings.presents.data.AuthCodes;
 import com.threerings.presents.net.AuthRequest;
 import com.threerings.presents.net.AuthResponse;
 import com.threerings.presents.net.AuthResponseData;
+import com.threerings.presents.net.Credentials;
+import com.threerings.presents.net.UsernamePasswordCreds;
 import com.threerings.presents.server.net.AuthingConnection;
 
 import static com.threerings.presents.Log.log;
@@ -61,7 +63,8 @@ public abstract class Authenticator
         final AuthResponseData rdata = createResponseData();
         final AuthResponse rsp = new AuthResponse(rdata);
 
-        invoker.postUnit(new Invoker.Unit("authenticateConnection") {
+        invoker.postUnit(new PooledInvoker.KeyedUnit("authenticateConnection",
+                                                     getAffinityKey(req)) {
             @Override
             public boolean invoke () {
                 try {
@@ -97,6 +100,19 @@ public abstract class Authenticator
         });
     }
 
+    /**
+     * Returns the key used to serialize authentications when the auth invoker is configured with
+     * workers: authentications with the same key are processed one at a time, in order, while
+     * those with different keys may be processed concurrently. Null means that the request is
+     * processed on the main auth invoker thread. The default keys requests by username.
+     */
+    protected Object getAffinityKey (AuthRequest req)
+    {
+        Credentials creds = req.getCredentials();
+        return (creds instanceof UsernamePasswordCreds) ?
+            ((UsernamePasswordCreds)creds).getUsername() : null;
+    }
+
     /**
      * Create a new AuthResponseData instance to use for authenticating a connection.
      */
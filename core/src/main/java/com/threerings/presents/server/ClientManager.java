@@ -487,7 +487,11 @@ public class ClientManager
     {
         // remove the session from the connection map
         PresentsSession session = _conmap.remove(conn);
-        if (session != null) {
+        if (session != null && session.getConnection() != conn) {
+            log.info("Unmapped failed stale connection", "session", session, "conn", conn,
+                     "fault", fault);
+
+        } else if (session != null) {
             log.info("Unmapped failed session", "session", session, "conn", conn, "fault", fault);
             // let the session know the connection went away
             session.wasUnmapped();
@@ -506,7 +510,11 @@ public class ClientManager
     {
         // remove the session from the connection map
         PresentsSession session = _conmap.remove(conn);
-        if (session != null) {
+        if (session != null && session.getConnection() != conn) {
+            // the session resumed on a new connection before this one was closed
+            log.debug("Unmapped stale connection", "session", session, "conn", conn);
+
+        } else if (session != null) {
             log.debug("Unmapped session", "session", session, "conn", conn);
             // let the session know the connection went away
             session.wasUnmapped();
@@ -0,0 +1,225 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import com.samskivert.util.Interval;
+import com.samskivert.util.Invoker;
+
+import com.threerings.presents.annotation.MainInvoker;
+import com.threerings.presents.dobj.RootDObjectManager;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * Collects the resolvers of {@link ClientResolver} classes that opt into batching (see {@link
+ * ClientResolver#isBatched}) and hands them to the invoker in groups, so that a login storm can
+ * be serviced with a handful of bulk loads rather than a separate set of queries for every user.
+ * A batch is flushed once it reaches the configured size or once the configured window has
+ * elapsed since its first resolver arrived, whichever happens first. Batching is disabled unless
+ * <code>presents.resolver.batchWindow</code> is configured.
+ *
+ * <p> This class also tracks the time taken to resolve every client, batched or not, and reports
+ * it along with the batch sizes in the server status report. All of its methods must be called
+ * on the dobj thread.
+ */
+@Singleton
+public class ClientResolutionBatcher
+    implements ReportManager.Reporter
+{
+    @Inject public ClientResolutionBatcher (ReportManager repmgr)
+    {
+        repmgr.registerReporter(this);
+    }
+
+    /**
+     * Returns true if resolvers that request batching should be passed to {@link #addResolver}.
+     */
+    public boolean isBatching ()
+    {
+        return _batchWindow > 0;
+    }
+
+    /**
+     * Adds the supplied resolver, whose client object is available, to the pending batch for its
+     * class, flushing that batch if it is full.
+     */
+    public void addResolver (ClientResolver resolver)
+    {
+        Class<?> rclass = resolver.getClass();
+        Batch batch = _pending.get(rclass);
+        if (batch == null) {
+            _pending.put(rclass, batch = new Batch(rclass));
+            batch.start(_batchWindow);
+        }
+        batch.resolvers.add(resolver);
+        if (batch.resolvers.size() >= _batchSize) {
+            flush(batch);
+        }
+    }
+
+    /**
+     * Notes that a client resolution has completed (successfully or otherwise).
+     *
+     * @param elapsed the number of milliseconds from the start of the resolution to its end.
+     */
+    public void resolutionCompleted (long elapsed)
+    {
+        _resolutions++;
+        _resolveMillis += elapsed;
+        _maxResolveMillis = Math.max(_maxResolveMillis, elapsed);
+    }
+
+    // from interface ReportManager.Reporter
+    public void appendReport (StringBuilder report, long now, long sinceLast, boolean reset)
+    {
+        report.append("* presents.ClientResolutionBatcher:\n");
+        report.append("- Resolutions: ").append(_resolutions).append(" clients, ");
+        report.append((_resolutions == 0) ? 0 : (_resolveMillis / _resolutions));
+        report.append("ms avg, ").append(_maxResolveMillis).append("ms max\n");
+        if (isBatching()) {
+            report.append("- Batches: ").append(_batches).append(" batches, ");
+            report.append(String.format(
+                              "%.2f", (_batches == 0) ? 0f : (float)_batchedClients/_batches));
+            report.append(" avg size, ").append(_maxBatchSize).append(" max size, ");
+            report.append(_pending.size()).append(" pending\n");
+        }
+        if (reset) {
+            _resolutions = _batches = _batchedClients = 0;
+            _resolveMillis = _maxResolveMillis = 0L;
+            _maxBatchSize = 0;
+        }
+    }
+
+    /**
+     * Removes the supplied batch from the pending set and posts a unit to resolve it.
+     */
+    protected void flush (Batch batch)
+    {
+        // the batch may have already been flushed because it filled up before its window expired
+        if (_pending.get(batch.rclass) != batch) {
+            return;
+        }
+        _pending.remove(batch.rclass);
+        batch.cancel();
+
+        _batches++;
+        _batchedClients += batch.resolvers.size();
+        _maxBatchSize = Math.max(_maxBatchSize, batch.resolvers.size());
+        _invoker.postUnit(new BatchUnit(batch.resolvers));
+    }
+
+    /** The resolvers of a particular class awaiting resolution. */
+    protected class Batch
+        implements Runnable
+    {
+        public final Class<?> rclass;
+        public final List<ClientResolver> resolvers = Lists.newArrayList();
+
+        public Batch (Class<?> rclass) {
+            this.rclass = rclass;
+        }
+
+        public void start (long window) {
+            (_timer = _omgr.newInterval(this)).schedule(window);
+        }
+
+        public void cancel () {
+            _timer.cancel();
+        }
+
+        public void run () {
+            flush(this);
+        }
+
+        protected Interval _timer;
+    }
+
+    /** Loads the data for a batch of resolvers on the invoker thread and then finishes each of
+     * their resolutions individually on the dobj thread. */
+    protected static class BatchUnit extends Invoker.Unit
+    {
+        public BatchUnit (List<ClientResolver> resolvers) {
+            super("ClientResolutionBatcher.BatchUnit");
+            _resolvers = resolvers;
+        }
+
+        @Override public boolean invoke () {
+            try {
+                _resolvers.get(0).resolveBatchData(_resolvers);
+            } catch (Exception e) {
+                log.warning("Batched client resolution failed", "size", _resolvers.size(), e);
+                // fail everyone who hadn't already failed on their own
+                for (ClientResolver resolver : _resolvers) {
+                    if (resolver._failure == null) {
+                        resolver._failure = e;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override public void handleResult () {
+            for (ClientResolver resolver : _resolvers) {
+                try {
+                    resolver.handleResult();
+                } catch (Exception e) {
+                    log.warning("Failed to finish batched client resolution", "res", resolver, e);
+                }
+            }
+        }
+
+        @Override public String toString () {
+            return "ClientResolutionBatcher.BatchUnit:" + _resolvers.size();
+        }
+
+        protected List<ClientResolver> _resolvers;
+    }
+
+    /** Pending batches, by resolver class. */
+    protected Map<Class<?>, Batch> _pending = Maps.newHashMap();
+
+    /** Resolution statistics since our last report. */
+    protected int _resolutions, _batches, _batchedClients, _maxBatchSize;
+    protected long _resolveMillis, _maxResolveMillis;
+
+    /** The number of milliseconds for which resolvers that request batching are held while their
+     * batch fills up. Zero (the default) disables batching. */
+    @Inject(optional=true) @Named("presents.resolver.batchWindow")
+    protected long _batchWindow = 0L;
+
+    /** The maximum number of resolvers in a single batch; a full batch is flushed immediately. */
+    @Inject(optional=true) @Named("presents.resolver.batchSize")
+    protected int _batchSize = 50;
+
+    // dependencies
+    protected @Inject @MainInvoker Invoker _invoker;
+    protected @Inject RootDObjectManager _omgr;
+}
@@ -41,8 +41,19 @@ import static com.threerings.presents.Log.log;
  * to a client object). Implementations will want to extend this class and override {@link
  * #resolveClientData}, making the necessary database calls and populating the client object
  * appropriately.
+ *
+ * <p> By default resolvers are unkeyed, so they run on the main invoker thread in order with
+ * all other unkeyed units (saving a user's data at the end of a previous session, for example).
+ * If the invoker is configured with workers, a resolver may override {@link #getAffinityKey} to
+ * return its username so that resolutions of different users run concurrently, but only if every
+ * unit that must run in order with a user's resolution uses the same key.
+ *
+ * <p> Resolvers that would rather load data for many users at once can return true from {@link
+ * #isBatched} and override {@link #resolveBatchData}; during a login storm they will then be
+ * collected by the {@link ClientResolutionBatcher} and resolved in groups.
  */
 public class ClientResolver extends Invoker.Unit
+    implements PooledInvoker.Keyed
 {
     /**
      * Thrown during resolution if the client disconnects.
@@ -59,6 +70,7 @@ public class ClientResolver extends Invoker.Unit
     public void init (Name username)
     {
         _username = username;
+        _started = System.currentTimeMillis();
     }
 
     /**
@@ -94,7 +106,11 @@ public class ClientResolver extends Invoker.Unit
         // we've got our object, so shunt ourselves over to the invoker thread to perform database
         // loading
         _clobj = object;
-        _invoker.postUnit(this);
+        if (isBatched() && _batcher.isBatching()) {
+            _batcher.addResolver(this);
+        } else {
+            _invoker.postUnit(this);
+        }
     }
 
     @Override
@@ -134,6 +150,18 @@ public class ClientResolver extends Invoker.Unit
             // let our listener know that we're hosed
             reportFailure(_failure);
         }
+
+        _batcher.resolutionCompleted(System.currentTimeMillis() - _started);
+    }
+
+    /**
+     * Returns the key that determines which invoker worker resolves this client, if the invoker
+     * has workers. By default this is null, which resolves the client on the main invoker thread.
+     * Resolvers may return their username instead (see the class documentation).
+     */
+    public Object getAffinityKey ()
+    {
+        return null;
     }
 
     @Override
@@ -155,6 +183,34 @@ public class ClientResolver extends Invoker.Unit
         clobj.username = _username;
     }
 
+    /**
+     * Returns true if this resolver would like to be resolved along with other resolvers of the
+     * same class via {@link #resolveBatchData}. Batching only takes place if the server has
+     * configured a batch window, otherwise every resolver is resolved individually. Note that
+     * batches are not keyed, so they are not ordered with respect to units keyed by username.
+     */
+    protected boolean isBatched ()
+    {
+        return false;
+    }
+
+    /**
+     * Called on the invoker thread, on the first resolver of a batch, to load the data for every
+     * resolver in the batch (including this one), all of which are of the same class as this
+     * resolver. Implementations must do everything that {@link #resolveClientData} would do for
+     * each client, including filling in its username. A failure that affects only one client
+     * should be recorded in that resolver's <code>_failure</code>; any exception thrown will be
+     * reported as a failure for every client in the batch that has not already failed. The
+     * default implementation simply resolves each client in turn.
+     */
+    protected void resolveBatchData (List<ClientResolver> batch)
+        throws Exception
+    {
+        for (ClientResolver resolver : batch) {
+            resolver.invoke();
+        }
+    }
+
     /**
      * This method is called on the dobj thread after resolveClientData returns normally, it should
      * finish populating the client object with any data that is NOT loaded from a database.
@@ -220,8 +276,12 @@ public class ClientResolver extends Invoker.Unit
     /** A place to keep an exception around for a moment. */
     protected Exception _failure;
 
+    /** The time at which our resolution started. */
+    protected long _started;
+
     // dependencies
     protected @Inject @MainInvoker Invoker _invoker;
     protected @Inject RootDObjectManager _omgr;
     protected @Inject ClientManager _clmgr;
+    protected @Inject ClientResolutionBatcher _batcher;
 }
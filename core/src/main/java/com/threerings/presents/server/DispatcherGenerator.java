@@ -0,0 +1,299 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Primitives;
+
+import com.threerings.presents.data.ClientObject;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * Generates {@link ProviderDispatcher} subclasses which call the methods of an invocation
+ * provider class directly, selecting the method to call with a switch on its id and unboxing
+ * primitive arguments exactly as {@link Method#invoke} would. Generated classes are defined in a
+ * class loader that delegates to the provider class's loader, so they can only call the methods
+ * of public provider classes whose parameter types are all public.
+ *
+ * <p> This class references ASM and must only be loaded if ASM is available, which is handled by
+ * {@link ProviderDispatcher#create}.
+ */
+class DispatcherGenerator
+    implements Opcodes
+{
+    /**
+     * Generates, loads and instantiates a dispatcher for the supplied provider class. Returns
+     * null if the class is not suitable for a generated dispatcher, or if generation fails.
+     */
+    public static ProviderDispatcher generate (Class<?> pclass, Map<Integer, Method> methods)
+    {
+        // our generated code can't reference non-public classes, and we don't generate
+        // dispatchers for classes loaded by the bootstrap loader
+        ClassLoader parent = pclass.getClassLoader();
+        if (!isAccessible(pclass) || parent == null) {
+            return null;
+        }
+        for (Method method : methods.values()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                return null;
+            }
+            for (Class<?> ptype : method.getParameterTypes()) {
+                if (!isAccessible(ptype)) {
+                    return null;
+                }
+            }
+        }
+
+        try {
+            return (ProviderDispatcher)getLoader(parent).getDispatcherClass(
+                pclass, methods).newInstance();
+
+        } catch (Throwable t) {
+            log.warning("Failed to generate provider dispatcher, using reflection",
+                        "class", pclass.getName(), t);
+            return null;
+        }
+    }
+
+    protected DispatcherGenerator (Class<?> pclass, Map<Integer, Method> methods)
+    {
+        _pclass = pclass;
+        _codes = new int[methods.size()];
+        int idx = 0;
+        for (Integer code : methods.keySet()) {
+            _codes[idx++] = code;
+        }
+        Arrays.sort(_codes);
+        _methods = new Method[_codes.length];
+        for (int ii = 0; ii < _codes.length; ii++) {
+            _methods[ii] = methods.get(_codes[ii]);
+        }
+    }
+
+    /**
+     * Generates our dispatcher class with the specified internal name.
+     */
+    protected byte[] generate (String name)
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        // we generate 1.5 classes so that we need not compute stack map frames
+        cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC,
+                 name, null, PDISPATCHER, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, PDISPATCHER, "<init>", "()V");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        generateDispatch(cw);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Generates <code>dispatch(Object, ClientObject, int, Object[])</code>.
+     */
+    protected void generateDispatch (ClassWriter cw)
+    {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "dispatch",
+            "(" + OBJECT_DESC + CLOBJ_DESC + "I[" + OBJECT_DESC + ")Z", null, null);
+        mv.visitCode();
+
+        // locals: 0 this, 1 provider, 2 source, 3 method id, 4 args
+        Label unknown = new Label();
+        Label[] cases = new Label[_codes.length];
+        for (int ii = 0; ii < cases.length; ii++) {
+            cases[ii] = new Label();
+        }
+        mv.visitVarInsn(ILOAD, 3);
+        mv.visitLookupSwitchInsn(unknown, _codes, cases);
+
+        String owner = Type.getInternalName(_pclass);
+        boolean iface = _pclass.isInterface();
+        for (int ii = 0; ii < cases.length; ii++) {
+            Method method = _methods[ii];
+            Class<?>[] ptypes = method.getParameterTypes();
+            mv.visitLabel(cases[ii]);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, owner);
+            mv.visitVarInsn(ALOAD, 2);
+            if (ptypes[0] != ClientObject.class) {
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(ptypes[0]));
+            }
+            for (int pp = 1; pp < ptypes.length; pp++) {
+                mv.visitVarInsn(ALOAD, 4);
+                pushInt(mv, pp-1);
+                mv.visitInsn(AALOAD);
+                castArgument(mv, ptypes[pp]);
+            }
+            mv.visitMethodInsn(iface ? INVOKEINTERFACE : INVOKEVIRTUAL, owner,
+                               method.getName(), Type.getMethodDescriptor(method));
+            Class<?> rtype = method.getReturnType();
+            if (rtype == Long.TYPE || rtype == Double.TYPE) {
+                mv.visitInsn(POP2);
+            } else if (rtype != Void.TYPE) {
+                mv.visitInsn(POP);
+            }
+            mv.visitInsn(ICONST_1);
+            mv.visitInsn(IRETURN);
+        }
+
+        mv.visitLabel(unknown);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Casts the argument on the top of the stack to the supplied parameter type, unboxing it if
+     * the parameter is primitive.
+     */
+    protected static void castArgument (MethodVisitor mv, Class<?> ptype)
+    {
+        if (ptype.isPrimitive()) {
+            String wrapper = Type.getInternalName(Primitives.wrap(ptype));
+            mv.visitTypeInsn(CHECKCAST, wrapper);
+            mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, ptype.getName() + "Value",
+                               "()" + Type.getDescriptor(ptype));
+        } else if (ptype != Object.class) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(ptype));
+        }
+    }
+
+    /**
+     * Returns true if generated code can reference the supplied class.
+     */
+    protected static boolean isAccessible (Class<?> clazz)
+    {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        for (Class<?> cc = clazz; cc != null; cc = cc.getEnclosingClass()) {
+            if (!Modifier.isPublic(cc.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the specified integer constant onto the stack.
+     */
+    protected static void pushInt (MethodVisitor mv, int value)
+    {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * Returns the loader in which to define dispatchers for classes loaded by the supplied loader.
+     */
+    protected static synchronized GeneratedClassLoader getLoader (ClassLoader parent)
+    {
+        WeakReference<GeneratedClassLoader> ref = _loaders.get(parent);
+        GeneratedClassLoader loader = (ref == null) ? null : ref.get();
+        if (loader == null) {
+            loader = new GeneratedClassLoader(parent);
+            _loaders.put(parent, new WeakReference<GeneratedClassLoader>(loader));
+        }
+        return loader;
+    }
+
+    /** Defines our generated classes. */
+    protected static class GeneratedClassLoader extends ClassLoader
+    {
+        public GeneratedClassLoader (ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        /**
+         * Returns the dispatcher class for the supplied provider class and methods, generating
+         * and defining it if necessary.
+         */
+        public synchronized Class<?> getDispatcherClass (
+            Class<?> pclass, Map<Integer, Method> methods)
+        {
+            // a provider class may be registered more than once, in which case we reuse the
+            // dispatcher generated for it, but only if it dispatches the same methods under the
+            // same ids (a legacy concrete provider may be registered with different marshallers)
+            List<Object> key = Arrays.<Object>asList(pclass, ImmutableMap.copyOf(methods));
+            Class<?> clazz = _classes.get(key);
+            if (clazz == null) {
+                String name = pclass.getName() + "$$Dispatcher" + _classes.size();
+                byte[] data = new DispatcherGenerator(pclass, methods).generate(
+                    name.replace('.', '/'));
+                clazz = defineClass(name, data, 0, data.length);
+                _classes.put(key, clazz);
+            }
+            return clazz;
+        }
+
+        /** The classes we have defined, mapped by provider class and dispatched methods. */
+        protected Map<List<Object>, Class<?>> _classes = Maps.newHashMap();
+    }
+
+    /** The provider class whose methods we dispatch. */
+    protected Class<?> _pclass;
+
+    /** The ids of the methods we dispatch, in ascending order. */
+    protected int[] _codes;
+
+    /** The methods we dispatch, in the same order as their ids. */
+    protected Method[] _methods;
+
+    /** Our generated class loaders, mapped by the loader of the classes they dispatch to. The
+     * mapping is weak so that we don't prevent the unloading of either. */
+    protected static Map<ClassLoader, WeakReference<GeneratedClassLoader>> _loaders =
+        new WeakHashMap<ClassLoader, WeakReference<GeneratedClassLoader>>();
+
+    protected static final String PDISPATCHER = Type.getInternalName(ProviderDispatcher.class);
+    protected static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+    protected static final String CLOBJ_DESC = Type.getDescriptor(ClientObject.class);
+}
@@ -0,0 +1,148 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free, unbounded queue to which any number of threads may append items, but from which
+ * only a single thread may take them. This is used to queue up units for the distributed object
+ * manager's dispatch threads: appending an item never blocks (or contends for a monitor with the
+ * dispatch thread), and the dispatch thread parks only when the queue is empty.
+ *
+ * <p> Items are linked into the queue by atomically swapping in a new tail node and then pointing
+ * the old tail at it, which is the well known multi-producer/single-consumer scheme described by
+ * Dmitry Vyukov. Null items are not allowed.
+ */
+public class EventQueue<T>
+{
+    public EventQueue ()
+    {
+        _head = new Node<T>(null);
+        _tail = new AtomicReference<Node<T>>(_head);
+    }
+
+    /**
+     * Appends the supplied item to the queue. This may be called on any thread.
+     */
+    public void append (T item)
+    {
+        Node<T> node = new Node<T>(item);
+        _size.incrementAndGet();
+        _tail.getAndSet(node).next = node;
+
+        // wake up our consumer if it is waiting (or about to wait) for an item
+        if (_waiting) {
+            _waiting = false;
+            LockSupport.unpark(_consumer);
+        }
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, blocking until one is available. This
+     * must only be called by the consuming thread.
+     */
+    public T get ()
+    {
+        while (true) {
+            T item = getNonBlocking();
+            if (item != null) {
+                return item;
+            }
+
+            // let producers know that we're going to sleep and then check again, so that an item
+            // appended between our check and our parking will either be seen here or wake us up
+            _consumer = Thread.currentThread();
+            _waiting = true;
+            item = getNonBlocking();
+            if (item != null) {
+                _waiting = false;
+                return item;
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Removes and returns the item at the head of the queue, or null if the queue is empty (or if
+     * the only item in the queue is still in the process of being appended). This must only be
+     * called by the consuming thread.
+     */
+    public T getNonBlocking ()
+    {
+        Node<T> next = _head.next;
+        if (next == null) {
+            return null;
+        }
+        T item = next.item;
+        next.item = null;
+        _head = next;
+        _size.decrementAndGet();
+        return item;
+    }
+
+    /**
+     * Returns true if there are items in the queue. This may be called on any thread.
+     */
+    public boolean hasElements ()
+    {
+        return _size.get() > 0;
+    }
+
+    /**
+     * Returns the number of items in the queue. This may be called on any thread, though the value
+     * is of course only a snapshot.
+     */
+    public int size ()
+    {
+        return _size.get();
+    }
+
+    /** A link in our chain of items. */
+    protected static class Node<T>
+    {
+        public T item;
+        public volatile Node<T> next;
+
+        public Node (T item)
+        {
+            this.item = item;
+        }
+    }
+
+    /** The node preceding the next item to be taken; only accessed by the consumer. */
+    protected Node<T> _head;
+
+    /** The most recently appended node. */
+    protected AtomicReference<Node<T>> _tail;
+
+    /** The number of items in the queue. */
+    protected AtomicInteger _size = new AtomicInteger();
+
+    /** The thread that is consuming items from the queue. */
+    protected volatile Thread _consumer;
+
+    /** Set when our consumer is parked (or about to park) waiting for an item. */
+    protected volatile boolean _waiting;
+}
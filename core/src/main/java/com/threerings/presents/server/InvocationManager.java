@@ -26,6 +26,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
@@ -180,14 +181,32 @@ public class InvocationManager
             throw new RuntimeException(ie);
         }
 
+        // generate a dispatcher that calls the provider's methods directly, if we can
+        final ProviderDispatcher gdisp = ProviderDispatcher.create(pclass, invmeths);
+
         // register the dispatcher
-        _dispatchers.put(invCode, new Dispatcher() {
+        mapDispatcher(invCode, new Dispatcher() {
             public InvocationProvider getProvider () {
                 return provider;
             }
 
             public void dispatchRequest (ClientObject source, int methodId, Object[] args)
                 throws InvocationException {
+                if (gdisp != null) {
+                    try {
+                        if (gdisp.dispatch(provider, source, methodId, args)) {
+                            return;
+                        }
+                    } catch (InvocationException ie) {
+                        throw ie;
+                    } catch (Throwable t) {
+                        log.warning("Invocation service method failure",
+                                    "provider", StringUtil.shortClassName(provider.getClass()),
+                                    "method", invmeths.get(methodId).getName(), "args", args, t);
+                        throw new InvocationException(InvocationCodes.E_INTERNAL_ERROR);
+                    }
+                }
+
                 // locate the method to be invoked
                 Method m = invmeths.get(methodId);
                 if (m == null) {
@@ -226,7 +245,9 @@ public class InvocationManager
             _bootlists.put(group, marsh);
         }
 
-        _recentRegServices.put(Integer.valueOf(invCode), marsh.getClass().getName());
+        synchronized (_dispatchers) {
+            _recentRegServices.put(Integer.valueOf(invCode), marsh.getClass().getName());
+        }
 
         log.debug("Registered service", "code", invCode, "marsh", marsh);
         return marsh;
@@ -277,14 +298,16 @@ public class InvocationManager
             null : _standaloneClient.getInvocationDirector());
 
         // register the dispatcher
-        _dispatchers.put(invCode, dispatcher);
+        mapDispatcher(invCode, dispatcher);
 
         // if it's a bootstrap service, slap it in the list
         if (group != null) {
             _bootlists.put(group, marsh);
         }
 
-        _recentRegServices.put(Integer.valueOf(invCode), marsh.getClass().getName());
+        synchronized (_dispatchers) {
+            _recentRegServices.put(Integer.valueOf(invCode), marsh.getClass().getName());
+        }
 
         log.debug("Registered service", "code", invCode, "marsh", marsh);
         return marsh;
@@ -303,10 +326,36 @@ public class InvocationManager
             return;
         }
 
-        if (_dispatchers.remove(marsh.getInvocationCode()) == null) {
+        Dispatcher disp;
+        synchronized (_dispatchers) {
+            disp = _dispatchers.remove(marsh.getInvocationCode());
+        }
+        if (disp == null) {
             log.warning("Requested to remove unregistered marshaller?", "marsh", marsh,
                         new Exception());
         }
+        _serviceObjects.remove(marsh.getInvocationCode());
+    }
+
+    /**
+     * Associates the supplied service with a distributed object, such that requests for the
+     * service are dispatched on the thread that processes the object's events. This only matters
+     * if the distributed object manager is sharded, in which case services that operate on an
+     * object that is assigned to a shard should be associated with that object.
+     */
+    public void setServiceObject (InvocationMarshaller<?> marsh, DObject object)
+    {
+        _serviceObjects.put(marsh.getInvocationCode(), object.getOid());
+    }
+
+    /**
+     * Returns the oid of the object with which the specified service is associated, or zero if it
+     * is not associated with an object.
+     */
+    public int getServiceObjectOid (int invCode)
+    {
+        Integer oid = _serviceObjects.get(invCode);
+        return (oid == null) ? 0 : oid;
     }
 
     /**
@@ -330,7 +379,10 @@ public class InvocationManager
      */
     public Class<?> getDispatcherClass (int invCode)
     {
-        Object dispatcher = _dispatchers.get(invCode);
+        Object dispatcher;
+        synchronized (_dispatchers) {
+            dispatcher = _dispatchers.get(invCode);
+        }
         return (dispatcher == null) ? null : dispatcher.getClass();
     }
 
@@ -362,11 +414,17 @@ public class InvocationManager
         }
 
         // look up the dispatcher
-        Dispatcher disp = _dispatchers.get(invCode);
+        Dispatcher disp;
+        String recent = null;
+        synchronized (_dispatchers) {
+            disp = _dispatchers.get(invCode);
+            if (disp == null) {
+                recent = _recentRegServices.get(Integer.valueOf(invCode));
+            }
+        }
         if (disp == null) {
             log.info("Received invocation request but dispatcher registration was already cleared",
-                     "code", invCode, "methId", methodId, "args", args,
-                     "marsh", _recentRegServices.get(Integer.valueOf(invCode)));
+                     "code", invCode, "methId", methodId, "args", args, "marsh", recent);
             return;
         }
 
@@ -394,8 +452,7 @@ public class InvocationManager
         // dispatch the request
         try {
             if (rlist != null) {
-                rlist.setInvocationId(
-                    StringUtil.shortClassName(disp.getProvider()) + ", methodId=" + methodId);
+                rlist.setInvocationId(disp.getProvider(), methodId);
             }
             disp.dispatchRequest(source, methodId, args);
 
@@ -421,6 +478,18 @@ public class InvocationManager
         }
     }
 
+    /**
+     * Registers the supplied dispatcher for the specified invocation code. Requests may be
+     * dispatched on any of the distributed object manager's threads if it is sharded, so we
+     * synchronize on our dispatcher table when using it.
+     */
+    protected void mapDispatcher (int invCode, Dispatcher disp)
+    {
+        synchronized (_dispatchers) {
+            _dispatchers.put(invCode, disp);
+        }
+    }
+
     /**
      * Used to generate monotonically increasing provider ids.
      */
@@ -450,6 +519,9 @@ public class InvocationManager
     /** A table of invocation dispatchers each mapped by a unique code. */
     protected IntMap<Dispatcher> _dispatchers = IntMaps.newHashIntMap();
 
+    /** Maps invocation codes to the oid of the object with which the service is associated. */
+    protected ConcurrentMap<Integer, Integer> _serviceObjects = Maps.newConcurrentMap();
+
     /** Maps bootstrap group to lists of services to be provided to clients at boot time. */
     protected Multimap<String, InvocationMarshaller<?>> _bootlists = ArrayListMultimap.create();
 
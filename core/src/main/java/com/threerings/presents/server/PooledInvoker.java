@@ -0,0 +1,211 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.samskivert.util.Invoker;
+
+/**
+ * A reporting invoker that spreads units over a pool of worker invokers. A unit that implements
+ * {@link Keyed} and supplies a non-null affinity key is run by the worker selected by its key, so
+ * units with the same key run in the order in which they were posted while units with different
+ * keys may run concurrently. All other units run on this invoker's own thread, in the order in
+ * which they were posted, exactly as they would on a plain invoker. Results are delivered to our
+ * receiver regardless of the thread on which a unit was invoked.
+ *
+ * <p> Units with different keys (or no key) may run in any order relative to one another, so
+ * units that must observe one another's effects (a save and a subsequent load of the same record,
+ * say) must use the same key.
+ */
+public class PooledInvoker extends ReportingInvoker
+{
+    /**
+     * Implemented by units that may be run on a pooled worker.
+     */
+    public interface Keyed
+    {
+        /**
+         * Returns the key that determines the worker on which this unit is run, or null if it
+         * must be run on the main invoker thread.
+         */
+        Object getAffinityKey ();
+    }
+
+    /**
+     * A convenient base for units whose affinity key is known when they are created.
+     */
+    public abstract static class KeyedUnit extends Unit
+        implements Keyed
+    {
+        public KeyedUnit (String name, Object key)
+        {
+            super(name);
+            _key = key;
+        }
+
+        // from interface Keyed
+        public Object getAffinityKey ()
+        {
+            return _key;
+        }
+
+        protected Object _key;
+    }
+
+    /**
+     * Creates a pooled invoker.
+     *
+     * @param workers the number of worker threads to run in addition to the main thread. Zero
+     * means that all units are run on the main thread.
+     */
+    public PooledInvoker (String name, Executor receiver, ReportManager repmgr, int workers)
+    {
+        super(name, receiver, repmgr);
+        _repmgr = repmgr;
+        _workerCount = workers;
+    }
+
+    /**
+     * Returns our worker invokers, which will be empty if we have no workers or we have not yet
+     * been started and no keyed unit has yet been posted.
+     */
+    public List<Invoker> getWorkers ()
+    {
+        Invoker[] workers = _workers;
+        return (workers == null) ? Collections.<Invoker>emptyList() : Arrays.asList(workers);
+    }
+
+    /**
+     * Returns the number of units waiting to be run by our main thread and all of our workers.
+     */
+    public int getTotalPendingUnits ()
+    {
+        int pending = getPendingUnits();
+        for (Invoker worker : getWorkers()) {
+            pending += worker.getPendingUnits();
+        }
+        return pending;
+    }
+
+    @Override // from Invoker
+    public void postUnit (Unit unit)
+    {
+        Object key = (unit instanceof Keyed) ? ((Keyed)unit).getAffinityKey() : null;
+        Invoker[] workers = null;
+        if (key != null && getWorkerCount() > 0 && !_shutdown) {
+            workers = _workers;
+            if (workers == null) {
+                workers = createWorkers();
+            }
+        }
+        // once we've been shut down, all units go to our main thread, which deals with them as
+        // any invoker would
+        if (workers == null) {
+            super.postUnit(unit);
+        } else {
+            workers[(key.hashCode() & Integer.MAX_VALUE) % workers.length].postUnit(unit);
+        }
+    }
+
+    @Override // from Thread
+    public void start ()
+    {
+        super.start();
+        synchronized (this) {
+            // start any workers created for units posted before we were started, otherwise
+            // create (and start) them now, so that none are created after we're shut down
+            Invoker[] workers = _workers;
+            _started = true;
+            if (workers != null) {
+                for (Invoker worker : workers) {
+                    worker.start();
+                }
+            } else if (getWorkerCount() > 0) {
+                createWorkers();
+            }
+        }
+    }
+
+    @Override // from Invoker
+    public void shutdown ()
+    {
+        Invoker[] workers;
+        synchronized (this) {
+            _shutdown = true;
+            workers = _workers;
+        }
+        if (workers != null) {
+            for (Invoker worker : workers) {
+                worker.shutdown();
+            }
+        }
+        super.shutdown();
+    }
+
+    /**
+     * Returns the number of worker threads to run in addition to our main thread.
+     */
+    protected int getWorkerCount ()
+    {
+        return _workerCount;
+    }
+
+    /**
+     * Creates (and starts, if we have been started) our workers, if that has not already been
+     * done, and returns them. Returns null if we have been shut down without creating them.
+     */
+    protected synchronized Invoker[] createWorkers ()
+    {
+        if (_workers == null && !_shutdown) {
+            Invoker[] workers = new Invoker[getWorkerCount()];
+            for (int ii = 0; ii < workers.length; ii++) {
+                workers[ii] = new ReportingInvoker(getName() + "." + (ii+1), _receiver, _repmgr);
+                workers[ii].setLongThreshold(_longThreshold);
+                workers[ii].setDaemon(isDaemon());
+                if (_started) {
+                    workers[ii].start();
+                }
+            }
+            _workers = workers;
+        }
+        return _workers;
+    }
+
+    /** The report manager with which our workers register. */
+    protected ReportManager _repmgr;
+
+    /** The number of worker threads to run in addition to our main thread. */
+    protected int _workerCount;
+
+    /** Our workers, or null if no keyed unit has yet been posted. */
+    protected volatile Invoker[] _workers;
+
+    /** Whether or not our main thread has been started. */
+    protected boolean _started;
+
+    /** Whether or not we have been shut down. */
+    protected volatile boolean _shutdown;
+}
@@ -23,18 +23,33 @@ package com.threerings.presents.server;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 /**
  * A separate invoker thread on which we perform client authentication. This allows the normal
  * server operation to proceed even in the event that our authentication services have gone down
- * and attempts to authenticate cause long timeouts and blockage.
+ * and attempts to authenticate cause long timeouts and blockage. If configured with workers,
+ * authentications for different users are performed concurrently (see {@link
+ * Authenticator#getAffinityKey}).
  */
 @Singleton
-public class PresentsAuthInvoker extends ReportingInvoker
+public class PresentsAuthInvoker extends PooledInvoker
 {
     @Inject public PresentsAuthInvoker (PresentsDObjectMgr omgr, ReportManager repmgr)
     {
-        super("presents.AuthInvoker", omgr, repmgr);
+        super("presents.AuthInvoker", omgr, repmgr, 0);
         setDaemon(true);
     }
+
+    @Override // from PooledInvoker
+    protected int getWorkerCount ()
+    {
+        return _authWorkers;
+    }
+
+    /** The number of worker threads on which authentications are performed in addition to the
+     * main auth invoker thread. Zero (the default) means that all authentications are performed
+     * on the main thread, one at a time. */
+    @Inject(optional=true) @Named("presents.auth.workers")
+    protected int _authWorkers = 0;
 }
@@ -24,18 +24,25 @@ package com.threerings.presents.server;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import com.samskivert.util.Histogram;
 import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
 import com.samskivert.util.Interval;
-import com.samskivert.util.Queue;
+import com.samskivert.util.RunQueue;
 import com.samskivert.util.StringUtil;
 import com.samskivert.util.Throttle;
 
@@ -45,6 +52,7 @@ import com.threerings.presents.dobj.DEvent;
 import com.threerings.presents.dobj.DObject;
 import com.threerings.presents.dobj.DObjectManager;
 import com.threerings.presents.dobj.InvocationRequestEvent;
+import com.threerings.presents.dobj.NamedEvent;
 import com.threerings.presents.dobj.NoSuchObjectException;
 import com.threerings.presents.dobj.ObjectAccessException;
 import com.threerings.presents.dobj.ObjectAddedEvent;
@@ -65,6 +73,14 @@ import static com.threerings.presents.Log.log;
  * <p> The server object manager is meant to run on the main thread of the server application and
  * thus provides a method to be invoked by the application main thread which won't return until the
  * manager has been requested to shut down.
+ *
+ * <p> If <code>presents.dobj.shards</code> is configured, the manager will additionally run that
+ * many shard threads, each with its own event queue. Objects may be assigned to a shard via
+ * {@link #assignShard}, after which all events on that object (and any runnables and intervals
+ * posted by code running on that shard) will be processed by the shard's thread. Everything that
+ * is not assigned to a shard continues to be processed on the main thread. Code that only touches
+ * the objects of a single shard thus retains the single-threaded semantics of the unsharded
+ * manager.
  */
 @Singleton
 public class PresentsDObjectMgr
@@ -78,6 +94,10 @@ public class PresentsDObjectMgr
 
         /** The number of events dispatched during the period. */
         public int eventCount;
+
+        /** The number of changes to coalesced fields that were dropped during the period because
+         * they were superseded by later changes. */
+        public int supersededCount;
     }
 
     /** Post instances of these if you know you're going to tie up the distributed object thread
@@ -112,16 +132,31 @@ public class PresentsDObjectMgr
                 } else {
                     report.append(" (inf/s)\n");
                 }
+                report.append("- Changes coalesced: ").append(stats.supersededCount).append("\n");
+                Shard[] shards = _shards;
+                if (shards != null) {
+                    for (Shard shard : shards) {
+                        Stats sstats = shard.getStats(reset);
+                        report.append("- ").append(shard.getName()).append(": ");
+                        report.append(shard.objects.get()).append(" objects, queue size ");
+                        report.append(shard.queue.size()).append(", max queue size ");
+                        report.append(sstats.maxQueueSize).append(", units executed ");
+                        report.append(sstats.eventCount).append(", changes coalesced ");
+                        report.append(sstats.supersededCount).append("\n");
+                    }
+                }
             }
         });
         repmgr.registerReporter(ReportManager.PROFILE_TYPE, new ReportManager.Reporter() {
             public void appendReport (StringBuilder report, long now, long elapsed, boolean reset) {
                 report.append("* presents.PresentsDObjectMgr:\n");
                 if (UNIT_PROF_ENABLED) {
-                    report.append("- Unit profiles: ").append(_profiles.size()).append("\n");
-                    for (Map.Entry<String, UnitProfile> entry : _profiles.entrySet()) {
-                        report.append("  ").append(entry.getKey());
-                        report.append(" ").append(entry.getValue()).append("\n");
+                    synchronized (_profiles) {
+                        report.append("- Unit profiles: ").append(_profiles.size()).append("\n");
+                        for (Map.Entry<String, UnitProfile> entry : _profiles.entrySet()) {
+                            report.append("  ").append(entry.getKey());
+                            report.append(" ").append(entry.getValue()).append("\n");
+                        }
                     }
                 } else {
                     report.append("- Unit profiles disabled.\n");
@@ -139,9 +174,9 @@ public class PresentsDObjectMgr
      * @param increment if true, the event id will be incremented so that the caller can "claim"
      * the returned event id.
      */
-    public synchronized long getNextEventId (boolean increment)
+    public long getNextEventId (boolean increment)
     {
-        return increment ? _nextEventId++ : _nextEventId;
+        return increment ? _nextEventId.getAndIncrement() : _nextEventId.get();
     }
 
     /**
@@ -155,9 +190,11 @@ public class PresentsDObjectMgr
         _defaultController = controller;
 
         // switch all objects from the old default (null, usually) to the new default.
-        for (DObject obj : _objects.values()) {
-            if (oldDefault == obj.getAccessController()) {
-                obj.setAccessController(controller);
+        synchronized (_objects) {
+            for (DObject obj : _objects.values()) {
+                if (oldDefault == obj.getAccessController()) {
+                    obj.setAccessController(controller);
+                }
             }
         }
     }
@@ -175,7 +212,13 @@ public class PresentsDObjectMgr
         registerObject(object);
         // and note a proxy reference for the object which we'll use to forward events back to its
         // originating manager after converting them back to the original oid
-        _proxies.put(object.getOid(), new ProxyReference(origObjectId, omgr));
+        synchronized (_objects) {
+            ProxyReference proxy = new ProxyReference(origObjectId, omgr);
+            _proxies.put(object.getOid(), proxy);
+            if (_sharedProxies != null) {
+                _sharedProxies.put(object.getOid(), proxy);
+            }
+        }
     }
 
     /**
@@ -185,10 +228,16 @@ public class PresentsDObjectMgr
      */
     public void clearProxyObject (int origObjectId, DObject object)
     {
-        if (_proxies.remove(object.getOid()) == null) {
-            log.warning("Missing proxy mapping for cleared proxy", "ooid", origObjectId);
+        synchronized (_objects) {
+            if (_proxies.remove(object.getOid()) == null) {
+                log.warning("Missing proxy mapping for cleared proxy", "ooid", origObjectId);
+            }
+            _objects.remove(object.getOid());
+            if (_sharedObjects != null) {
+                _sharedProxies.remove(object.getOid());
+                _sharedObjects.remove(object.getOid());
+            }
         }
-        _objects.remove(object.getOid());
     }
 
     // from interface DObjectManager
@@ -220,9 +269,13 @@ public class PresentsDObjectMgr
                         new Exception());
         }
 
-        // assign the event's id and append it to the queue
+        // assign the event's id and append it to the queue of the thread that handles its target
         event.eventId = getNextEventId(true);
-        _evqueue.append(event);
+        if (_shards == null) {
+            _evqueue.append(event);
+        } else {
+            getEventQueue(event).append(event);
+        }
     }
 
     // from interface DObjectManager
@@ -242,19 +295,30 @@ public class PresentsDObjectMgr
                         "class", object.getClass().getName(), new Exception());
         }
 
-        int oid = getNextOid();
+        synchronized (_objects) {
+            int oid = getNextOid();
+
+            // initialize this object
+            object.setOid(oid);
+            object.setManager(this);
 
-        // initialize this object
-        object.setOid(oid);
-        object.setManager(this);
+            // set the default access controller if a controller hasn't already been specified
+            if (object.getAccessController() == null) {
+                object.setAccessController(_defaultController);
+            }
 
-        // set the default access controller if a controller hasn't already been specified
-        if (object.getAccessController() == null) {
-            object.setAccessController(_defaultController);
+            // insert it into the table
+            _objects.put(oid, object);
+            if (_sharedObjects != null) {
+                _sharedObjects.put(oid, object);
+            }
         }
 
-        // insert it into the table
-        _objects.put(oid, object);
+        // objects registered by code running on a shard start out on that shard
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        if (shard != null) {
+            setShard(object.getOid(), shard);
+        }
 
 //         log.info("Registered object", "obj", object);
 
@@ -272,10 +336,33 @@ public class PresentsDObjectMgr
         postEvent(new ObjectDestroyedEvent(oid));
     }
 
-    // from interface RootDObjectManager
-    public Interval newInterval (final Runnable action)
+    /**
+     * {@inheritDoc}
+     *
+     * <p> The interval will be run on the thread that created it: the main thread or, if it was
+     * created by code running on a shard, that shard's thread.
+     */
+    public Interval newInterval (Runnable action)
+    {
+        Shard shard = getCurrentShard();
+        return newInterval((shard == null) ? this : shard, action);
+    }
+
+    /**
+     * Creates an interval that runs the supplied action on the thread that processes events for
+     * the supplied object, regardless of the thread that creates or schedules it.
+     */
+    public Interval newInterval (DObject object, Runnable action)
+    {
+        return newInterval(getRunQueue(object), action);
+    }
+
+    /**
+     * Creates an interval that runs the supplied action on the supplied run queue.
+     */
+    protected Interval newInterval (RunQueue queue, final Runnable action)
     {
-        return new Interval(this) {
+        return new Interval(queue) {
             @Override public void expired () {
                 action.run();
             }
@@ -297,7 +384,159 @@ public class PresentsDObjectMgr
      */
     public DObject getObject (int oid)
     {
-        return _objects.get(oid);
+        ConcurrentMap<Integer, DObject> shared = _sharedObjects;
+        return (shared == null) ? _objects.get(oid) : shared.get(oid);
+    }
+
+    /**
+     * Returns true if this manager is configured to process events on shard threads in addition
+     * to the main thread.
+     */
+    public boolean isSharded ()
+    {
+        return _shardCount > 0;
+    }
+
+    /**
+     * Assigns the supplied object to the shard that currently has the fewest objects, after which
+     * all events on the object will be processed on that shard's thread. This should be called
+     * on the thread that currently processes the object's events, normally right after the object
+     * is registered; any events already queued for it there are passed along to the shard. Does
+     * nothing if this manager is not sharded.
+     */
+    public void assignShard (DObject object)
+    {
+        Shard[] shards = getShards();
+        if (shards == null) {
+            return;
+        }
+        Shard least = shards[0];
+        for (Shard shard : shards) {
+            if (shard.objects.get() < least.objects.get()) {
+                least = shard;
+            }
+        }
+        setShard(object.getOid(), least);
+    }
+
+    /**
+     * Moves the supplied object to the shard of the specified leader, or to the main thread if the
+     * leader is null or not assigned to a shard. Events that were queued up for the object before
+     * it moved are forwarded to its new shard as they are dequeued. Does nothing if this manager
+     * is not sharded.
+     */
+    public void assignShard (DObject object, DObject leader)
+    {
+        if (_shards != null) {
+            setShard(object.getOid(), (leader == null) ? null : _assignments.get(leader.getOid()));
+        }
+    }
+
+    /**
+     * Moves the supplied object to the shard of the specified leader (as {@link
+     * #assignShard(DObject,DObject)}) and then runs the supplied action on the thread that
+     * processes events for the object, once the events that were queued up for the object on its
+     * old thread have been forwarded to the new one. This must be called on the thread that
+     * currently processes events for the object. If the object does not change threads, the
+     * action is run immediately.
+     */
+    public void transferShard (DObject object, DObject leader, Runnable action)
+    {
+        EventQueue<Object> oqueue = (_shards == null) ? null : getQueue(object.getOid());
+        assignShard(object, leader);
+        if (oqueue == null || getQueue(object.getOid()) == oqueue) {
+            action.run();
+        } else {
+            // this will pass the action along to the object's new thread when it comes up on the
+            // old one, at which point any events queued ahead of it will have been passed along
+            oqueue.append(new ObjectUnit(object, action));
+        }
+    }
+
+    /**
+     * Returns a run queue that runs units on the thread that processes events for the supplied
+     * object.
+     *
+     * @see #postRunnable(DObject,Runnable)
+     */
+    public RunQueue getRunQueue (final DObject object)
+    {
+        if (!isSharded()) {
+            return this;
+        }
+        return new RunQueue() {
+            public void postRunnable (Runnable unit) {
+                PresentsDObjectMgr.this.postRunnable(object, unit);
+            }
+            public boolean isDispatchThread () {
+                return PresentsDObjectMgr.this.isDispatchThread(object);
+            }
+            public boolean isRunning () {
+                return _running;
+            }
+            public void execute (Runnable command) {
+                postRunnable(command);
+            }
+        };
+    }
+
+    /**
+     * Posts a unit of code that should be run on the thread that processes events for the
+     * supplied object. If the object is moved to another thread before the unit is run, the unit
+     * follows it.
+     *
+     * @see #postRunnable(Runnable)
+     */
+    public void postRunnable (DObject object, Runnable unit)
+    {
+        if (_shards == null) {
+            postRunnable(unit);
+        } else {
+            getQueue(object.getOid()).append(new ObjectUnit(object, unit));
+        }
+    }
+
+    /**
+     * Notes the event thread from which the supplied invoker unit is being posted, so that its
+     * result is delivered back to that thread when the invoker passes it to {@link #execute}
+     * rather than to the main thread. Does nothing if the caller is not one of our shards.
+     */
+    public void noteOrigin (Runnable unit)
+    {
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        if (shard != null) {
+            _origins.put(unit, shard);
+        }
+    }
+
+    /**
+     * Arranges for the supplied action to be run on the calling event thread once it finishes the
+     * unit it is processing, or if a flush window is configured, once it runs out of units to
+     * process or the window elapses, whichever comes first. This allows work such as the delivery
+     * of outgoing messages to be batched up across the events of a unit, or a burst of units,
+     * without delaying the work when the thread has nothing else to do. An action is run once for
+     * each time it is posted.
+     *
+     * @return true if the action was deferred, false if the caller is not one of our event
+     * threads, in which case the action was not deferred and the caller should do its work
+     * directly.
+     */
+    public boolean postFlush (Runnable action)
+    {
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        Flushes flushes;
+        if (shard != null) {
+            flushes = shard.flushes;
+        } else if (Thread.currentThread() == _dobjThread) {
+            flushes = _flushes;
+        } else {
+            return false;
+        }
+        if (flushes.actions.isEmpty() && _flushWindow > 0) {
+            flushes.stamp = System.currentTimeMillis();
+        }
+        flushes.actions.add(action);
+        return true;
     }
 
     /**
@@ -310,6 +549,7 @@ public class PresentsDObjectMgr
      */
     public Stats getStats (boolean snapshot)
     {
+        // note that these are the main thread's stats; those of our shards are only reported
         if (snapshot) {
             _recent = _current;
             _current = new Stats();
@@ -321,14 +561,21 @@ public class PresentsDObjectMgr
     // from Executor
     public void execute (Runnable command)
     {
-        postRunnable(command);
+        // deliver invoker results to the shard that posted them, if they were noted
+        Shard origin = _origins.isEmpty() ? null : _origins.remove(command);
+        if (origin != null) {
+            origin.postRunnable(command);
+        } else {
+            postRunnable(command);
+        }
     }
 
     /**
      * Posts a self-contained unit of code that should be run on the distributed object manager
      * thread at the next available opportunity. The code will be queued up with the rest of the
      * events and invoked in turn. Like event processing code, the code should not take long to
-     * complete and should <em>definitely</em> not block.
+     * complete and should <em>definitely</em> not block. Code posted from a shard thread is run
+     * on that shard, so that code running on a shard need not concern itself with sharding.
      *
      * From interface RunQueue
      */
@@ -340,19 +587,39 @@ public class PresentsDObjectMgr
         }
 
         // just append it to the queue
-        _evqueue.append(unit);
+        Shard shard = getCurrentShard();
+        if (shard == null) {
+            _evqueue.append(unit);
+        } else {
+            shard.queue.append(unit);
+        }
     }
 
     /**
      * Returns true if the thread invoking this method is the same thread that is doing distributed
-     * object event dispatch. Code that wishes to enforce that it is either always or never called
-     * on the event dispatch thread will want to make use of this method.
+     * object event dispatch (or, if we are sharded, is one of our shard threads). Code that wishes
+     * to enforce that it is either always or never called on the event dispatch thread will want
+     * to make use of this method.
      *
      * From interface RunQueue
      */
-    public synchronized boolean isDispatchThread ()
+    public boolean isDispatchThread ()
     {
-        return Thread.currentThread() == _dobjThread;
+        return Thread.currentThread() == _dobjThread || getCurrentShard() != null;
+    }
+
+    /**
+     * Returns true if the thread invoking this method is the thread that processes events for the
+     * supplied object. If we are not sharded, this is equivalent to {@link #isDispatchThread()}.
+     */
+    public boolean isDispatchThread (DObject object)
+    {
+        if (_shards == null) {
+            return isDispatchThread();
+        }
+        Shard shard = _assignments.get(object.getOid());
+        Thread thread = Thread.currentThread();
+        return (shard == null) ? (thread == _dobjThread) : (thread == shard);
     }
 
     /**
@@ -362,13 +629,26 @@ public class PresentsDObjectMgr
      * initialization are considered safe and only after the distributed object manager is started
      * (and the event thread is established) will we require it.
      */
-    public synchronized void requireEventThread ()
+    public void requireEventThread ()
     {
         if (_dobjThread != null && !isDispatchThread()) {
             throw new IllegalStateException("This method must be called on the dobj event thread.");
         }
     }
 
+    /**
+     * Ensures that the calling thread is the thread that processes events for the supplied object,
+     * throwing an {@link IllegalStateException} if it is not. Like {@link #requireEventThread()},
+     * all calls will succeed until the manager is started up.
+     */
+    public void requireEventThread (DObject object)
+    {
+        if (_dobjThread != null && !isDispatchThread(object)) {
+            throw new IllegalStateException(
+                "This method must be called on the event thread of " + object.which() + ".");
+        }
+    }
+
     /**
      * Ensures that the calling thread <em>is not</em> the distributed object event dispatch
      * thread, throwing an {@link IllegalStateException} if it is.
@@ -394,9 +674,25 @@ public class PresentsDObjectMgr
             _dobjThread = Thread.currentThread();
         }
 
+        // start up our shards, if we have any
+        getShards();
+
         while (isRunning()) {
             // pop the next unit off the queue and process it
             processUnit(_evqueue.get());
+            // then run any flushes that are due
+            if (!_flushes.actions.isEmpty()) {
+                maybeFlush(_flushes, _evqueue);
+            }
+        }
+        flush(_flushes);
+
+        // wake up our shards so that they notice that we're no longer running
+        Shard[] shards = _shards;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                shard.queue.append(NOOP);
+            }
         }
 
         log.info("DOMGR exited.");
@@ -409,7 +705,8 @@ public class PresentsDObjectMgr
      */
     public void harshShutdown ()
     {
-        postRunnable(new Runnable() {
+        // this must be run by the main thread, even if we're called on a shard
+        _evqueue.append(new Runnable() {
             public void run () {
                 _running = false;
             }
@@ -437,8 +734,10 @@ public class PresentsDObjectMgr
      */
     public void dumpUnitProfiles ()
     {
-        for (Map.Entry<String, UnitProfile> entry : _profiles.entrySet()) {
-            log.info("P: " + entry.getKey() + " => " + entry.getValue());
+        synchronized (_profiles) {
+            for (Map.Entry<String, UnitProfile> entry : _profiles.entrySet()) {
+                log.info("P: " + entry.getKey() + " => " + entry.getValue());
+            }
         }
     }
 
@@ -447,7 +746,9 @@ public class PresentsDObjectMgr
      */
     public void clearUnitProfiles ()
     {
-        _profiles.clear();
+        synchronized (_profiles) {
+            _profiles.clear();
+        }
     }
 
     /**
@@ -467,8 +768,12 @@ public class PresentsDObjectMgr
 
 //         log.info("Removing destroyed object from table", "oid", oid);
 
-        // remove the object from the table
+        // remove the object from the table (and from its shard)
         _objects.remove(oid);
+        if (_sharedObjects != null) {
+            _sharedObjects.remove(oid);
+        }
+        clearShard(oid);
 
         // deactivate the object
         target.setManager(null);
@@ -635,6 +940,14 @@ public class PresentsDObjectMgr
      */
     public boolean queueIsEmpty ()
     {
+        Shard[] shards = _shards;
+        if (shards != null) {
+            for (Shard shard : shards) {
+                if (shard.queue.hasElements()) {
+                    return false;
+                }
+            }
+        }
         return !_evqueue.hasElements();
     }
 
@@ -642,7 +955,7 @@ public class PresentsDObjectMgr
      * Tests if the event processing thread is still running. This is required by the
      * ConnectionManager to ensure messages posted just before or during shutdown are sent.
      */
-    public synchronized boolean isRunning ()
+    public boolean isRunning ()
     {
         return _running;
     }
@@ -655,9 +968,12 @@ public class PresentsDObjectMgr
         long start = System.nanoTime();
 
         // keep track of the largest queue size we've seen
-        int queueSize = _evqueue.size();
-        if (queueSize > _current.maxQueueSize) {
-            _current.maxQueueSize = queueSize;
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        EventQueue<Object> queue = (shard == null) ? _evqueue : shard.queue;
+        Stats stats = (shard == null) ? _current : shard.current;
+        int queueSize = queue.size();
+        if (queueSize > stats.maxQueueSize) {
+            stats.maxQueueSize = queueSize;
         }
 
         try {
@@ -668,8 +984,24 @@ public class PresentsDObjectMgr
             } else {
                 DEvent event = (DEvent)unit;
 
+                // if the event's target has moved to another thread since the event was queued,
+                // pass it along to that thread
+                if (_shards != null) {
+                    EventQueue<Object> owner = getEventQueue(event);
+                    if (owner != queue) {
+                        owner.append(event);
+                        return;
+                    }
+                }
+
+                // drop changes that were superseded by a later change to the same field
+                if (event instanceof NamedEvent && ((NamedEvent)event).isSuperseded()) {
+                    ++stats.supersededCount;
+                    return;
+                }
+
                 // if this event is on a proxied object, forward it to the owning manager
-                ProxyReference proxy = _proxies.get(event.getTargetOid());
+                ProxyReference proxy = getProxy(event.getTargetOid());
                 if (proxy != null) {
                     // rewrite the oid into the originating manager's id space
                     event.setTargetOid(proxy.origObjectId);
@@ -694,6 +1026,11 @@ public class PresentsDObjectMgr
         // compute the elapsed time in microseconds
         long elapsed = (System.nanoTime() - start)/1000;
 
+        // report on the unit wrapped by an object unit, rather than the wrapper
+        if (unit instanceof ObjectUnit) {
+            unit = ((ObjectUnit)unit).unit;
+        }
+
         // report excessively long units
         if (elapsed > 500000 && !(unit instanceof LongRunnable)) {
             log.warning("Long dobj unit " + StringUtil.shortClassName(unit), "unit", unit,
@@ -701,7 +1038,8 @@ public class PresentsDObjectMgr
         }
 
         // periodically sample and record the time spent processing a unit
-        if (UNIT_PROF_ENABLED && _eventCount % _unitProfInterval == 0) {
+        long eventCount = (shard == null) ? _eventCount : shard.eventCount;
+        if (UNIT_PROF_ENABLED && eventCount % _unitProfInterval == 0) {
             String cname;
             // do some jiggery pokery to get more fine grained profiling details on certain
             // "popular" unit types
@@ -716,11 +1054,13 @@ public class PresentsDObjectMgr
             } else {
                 cname = StringUtil.shortClassName(unit);
             }
-            UnitProfile uprof = _profiles.get(cname);
-            if (uprof == null) {
-                _profiles.put(cname, uprof = new UnitProfile());
+            synchronized (_profiles) {
+                UnitProfile uprof = _profiles.get(cname);
+                if (uprof == null) {
+                    _profiles.put(cname, uprof = new UnitProfile());
+                }
+                uprof.record(elapsed);
             }
-            uprof.record(elapsed);
         }
     }
 
@@ -730,10 +1070,20 @@ public class PresentsDObjectMgr
     protected void processCompoundEvent (CompoundEvent event)
     {
         List<DEvent> events = event.getEvents();
+
+        // drop changes that were superseded by later changes in the same transaction, so that
+        // they are neither dispatched nor sent along to our proxies
+        for (Iterator<DEvent> iter = events.iterator(); iter.hasNext(); ) {
+            DEvent sevent = iter.next();
+            if (sevent instanceof NamedEvent && ((NamedEvent)sevent).isSuperseded()) {
+                iter.remove();
+                noteSuperseded();
+            }
+        }
         int ecount = events.size();
 
         // look up the target object
-        DObject target = _objects.get(event.getTargetOid());
+        DObject target = getObject(event.getTargetOid());
         if (target == null) {
             log.debug("Compound event target no longer exists", "event", event);
             return;
@@ -763,7 +1113,7 @@ public class PresentsDObjectMgr
     protected void processEvent (DEvent event)
     {
         // look up the target object
-        DObject target = _objects.get(event.getTargetOid());
+        DObject target = getObject(event.getTargetOid());
         if (target == null) {
             log.debug("Event target no longer exists", "event", event);
             return;
@@ -794,12 +1144,30 @@ public class PresentsDObjectMgr
             // do any internal management necessary based on this event
             EventHelper helper = _helpers.get(event.getClass());
             if (helper != null) {
-                // if helper returns false, we abort event processing
-                if (!helper.invoke(event, target)) {
+                // if helper returns false, we abort event processing; our helpers manipulate the
+                // object and reference tables, which are shared by our shards
+                boolean proceed;
+                if (_shards == null) {
+                    proceed = helper.invoke(event, target);
+                } else {
+                    synchronized (_objects) {
+                        proceed = helper.invoke(event, target);
+                    }
+                }
+                if (!proceed) {
                     return false;
                 }
             }
 
+            if (event instanceof NamedEvent) {
+                NamedEvent nevent = (NamedEvent)event;
+                // once a change is dispatched, later changes to its field can't be coalesced
+                // with it
+                target.clearPendingChange(nevent);
+                // note the index of the event's field so that it can be delivered compactly
+                nevent.resolveField(target);
+            }
+
             // everything's good so far, apply the event to the object
             notify = event.applyToObject(target);
 
@@ -817,11 +1185,170 @@ public class PresentsDObjectMgr
         }
 
         // track the number of events dispatched
-        ++_eventCount;
-        ++_current.eventCount;
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        if (shard == null) {
+            ++_eventCount;
+            ++_current.eventCount;
+        } else {
+            ++shard.eventCount;
+            ++shard.current.eventCount;
+        }
         return true;
     }
 
+    /**
+     * Runs the supplied pending flush actions if it is time to do so: if we have no flush window,
+     * if the supplied queue has run dry or if the window has elapsed.
+     */
+    protected void maybeFlush (Flushes flushes, EventQueue<Object> queue)
+    {
+        if (_flushWindow <= 0 || !queue.hasElements() ||
+            System.currentTimeMillis() - flushes.stamp >= _flushWindow) {
+            flush(flushes);
+        }
+    }
+
+    /**
+     * Runs and clears out the supplied pending flush actions.
+     */
+    protected void flush (Flushes flushes)
+    {
+        // actions posted while we're flushing are run in this same flush
+        List<Runnable> actions = flushes.actions;
+        for (int ii = 0; ii < actions.size(); ii++) {
+            Runnable action = actions.get(ii);
+            try {
+                action.run();
+            } catch (VirtualMachineError e) {
+                handleFatalError(action, e);
+            } catch (Throwable t) {
+                log.warning("Flush action failed", "action", action, t);
+            }
+        }
+        actions.clear();
+    }
+
+    /**
+     * Records that a superseded change was dropped by the calling thread.
+     */
+    protected void noteSuperseded ()
+    {
+        Shard shard = (_shards == null) ? null : getCurrentShard();
+        ++((shard == null) ? _current : shard.current).supersededCount;
+    }
+
+    /**
+     * Returns the proxy reference for the specified oid, or null if it is not a proxied object.
+     */
+    protected ProxyReference getProxy (int oid)
+    {
+        ConcurrentMap<Integer, ProxyReference> shared = _sharedProxies;
+        return (shared == null) ? _proxies.get(oid) : shared.get(oid);
+    }
+
+    /**
+     * Returns the shard whose thread is invoking this method, or null if it is not one of our
+     * shard threads.
+     */
+    protected Shard getCurrentShard ()
+    {
+        Thread thread = Thread.currentThread();
+        return (thread instanceof Shard && ((Shard)thread).getManager() == this) ?
+            (Shard)thread : null;
+    }
+
+    /**
+     * Returns our shards, creating them if necessary and starting them up if we are running.
+     * Returns null if we are not configured to run any shards.
+     */
+    protected synchronized Shard[] getShards ()
+    {
+        if (_shardCount <= 0) {
+            return null;
+        }
+        if (_shards == null) {
+            Shard[] shards = new Shard[_shardCount];
+            for (int ii = 0; ii < shards.length; ii++) {
+                shards[ii] = new Shard(ii+1);
+            }
+            // from here on our threads read the shared copies of our tables, which must be
+            // complete before anyone can see our shards
+            synchronized (_objects) {
+                ConcurrentMap<Integer, ProxyReference> proxies = Maps.newConcurrentMap();
+                proxies.putAll(_proxies);
+                _sharedProxies = proxies;
+                ConcurrentMap<Integer, DObject> objects = Maps.newConcurrentMap();
+                objects.putAll(_objects);
+                _sharedObjects = objects;
+            }
+            _shards = shards;
+        }
+        if (_dobjThread != null) {
+            for (Shard shard : _shards) {
+                if (shard.getState() == Thread.State.NEW) {
+                    shard.start();
+                }
+            }
+        }
+        return _shards;
+    }
+
+    /**
+     * Assigns the specified object to the supplied shard, or to the main thread if the shard is
+     * null.
+     */
+    protected void setShard (int oid, Shard shard)
+    {
+        Shard oshard = (shard == null) ? _assignments.remove(oid) : _assignments.put(oid, shard);
+        if (oshard != null) {
+            oshard.objects.decrementAndGet();
+        }
+        if (shard != null) {
+            shard.objects.incrementAndGet();
+        }
+    }
+
+    /**
+     * Clears out any shard assignment for the specified object.
+     */
+    protected void clearShard (int oid)
+    {
+        if (_shards != null) {
+            setShard(oid, null);
+        }
+    }
+
+    /**
+     * Returns the queue on which the supplied event should be processed. Events are processed by
+     * the thread that handles the object on which they operate: for object access events that is
+     * the object being accessed, and for invocation requests that is the object with which the
+     * invoked service is associated (see {@link InvocationManager#setServiceObject}).
+     */
+    protected EventQueue<Object> getEventQueue (DEvent event)
+    {
+        int oid;
+        if (event instanceof AccessObjectEvent<?>) {
+            oid = ((AccessObjectEvent<?>)event)._oid;
+        } else if (event instanceof InvocationRequestEvent && _invmgr != null) {
+            oid = _invmgr.getServiceObjectOid(((InvocationRequestEvent)event).getInvCode());
+            if (oid == 0) {
+                oid = event.getTargetOid();
+            }
+        } else {
+            oid = event.getTargetOid();
+        }
+        return getQueue(oid);
+    }
+
+    /**
+     * Returns the queue that processes events for the object with the specified oid.
+     */
+    protected EventQueue<Object> getQueue (int oid)
+    {
+        Shard shard = _assignments.get(oid);
+        return (shard == null) ? _evqueue : shard.queue;
+    }
+
     /**
      * Attempts to recover from fatal errors but rethrows if things are freaking out too
      * frequently.
@@ -954,7 +1481,7 @@ public class PresentsDObjectMgr
             }
 
             // look up the target object
-            @SuppressWarnings("unchecked") T obj = (T)_objects.get(_oid);
+            @SuppressWarnings("unchecked") T obj = (T)getObject(_oid);
 
             // if we're unsubscribing, take care of that and get on out
             if (_action == UNSUBSCRIBE) {
@@ -1053,6 +1580,128 @@ public class PresentsDObjectMgr
         protected Histogram _histo = new Histogram(0, 20000, 10);
     }
 
+    /** Processes the events of the objects assigned to it, and any units posted by its code, on
+     * its own thread. */
+    protected class Shard extends Thread
+        implements RunQueue
+    {
+        /** The queue via which this shard's events are processed. */
+        public final EventQueue<Object> queue = new EventQueue<Object>();
+
+        /** The number of objects assigned to this shard. */
+        public final AtomicInteger objects = new AtomicInteger();
+
+        /** Used to track this shard's runtime statistics. */
+        public Stats recent = new Stats(), current = recent;
+
+        /** Used to track the number of events dispatched by this shard. */
+        public long eventCount;
+
+        /** The flush actions deferred by code running on this shard. */
+        public final Flushes flushes = new Flushes();
+
+        public Shard (int index)
+        {
+            super("dobj-shard-" + index);
+            setDaemon(true);
+        }
+
+        public PresentsDObjectMgr getManager ()
+        {
+            return PresentsDObjectMgr.this;
+        }
+
+        public Stats getStats (boolean snapshot)
+        {
+            if (snapshot) {
+                recent = current;
+                current = new Stats();
+                current.maxQueueSize = queue.size();
+            }
+            return recent;
+        }
+
+        @Override public void run ()
+        {
+            log.info("DOMGR shard running", "shard", getName());
+            while (_running) {
+                processUnit(queue.get());
+                if (!flushes.actions.isEmpty()) {
+                    maybeFlush(flushes, queue);
+                }
+            }
+            flush(flushes);
+            log.info("DOMGR shard exited", "shard", getName());
+        }
+
+        // from interface RunQueue
+        public void postRunnable (Runnable unit)
+        {
+            queue.append(unit);
+        }
+
+        // from interface RunQueue
+        public boolean isDispatchThread ()
+        {
+            return Thread.currentThread() == this;
+        }
+
+        // from interface RunQueue
+        public boolean isRunning ()
+        {
+            return _running;
+        }
+
+        // from interface Executor
+        public void execute (Runnable command)
+        {
+            postRunnable(command);
+        }
+    }
+
+    /** Runs a unit on the thread that processes events for an object, passing it along to the
+     * object's new thread if the object has moved since the unit was queued. */
+    protected class ObjectUnit
+        implements Runnable
+    {
+        /** The object whose thread is to run our unit. */
+        public final DObject object;
+
+        /** The unit to be run. */
+        public final Runnable unit;
+
+        public ObjectUnit (DObject object, Runnable unit)
+        {
+            this.object = object;
+            this.unit = unit;
+        }
+
+        // from interface Runnable
+        public void run ()
+        {
+            if (isDispatchThread(object)) {
+                unit.run();
+            } else {
+                getQueue(object.getOid()).append(this);
+            }
+        }
+
+        @Override public String toString ()
+        {
+            return String.valueOf(unit);
+        }
+    }
+
+    /** The flush actions deferred by code running on one of our event threads. */
+    protected static class Flushes
+    {
+        /** The actions to be run, in the order they were posted. */
+        public final List<Runnable> actions = Lists.newArrayList();
+
+        /** The time at which the first pending action was posted, if we have a flush window. */
+        public long stamp;
+    }
+
     /** Tracks necessary information on a proxy distributed object. */
     protected static class ProxyReference
     {
@@ -1073,12 +1722,14 @@ public class PresentsDObjectMgr
     }
 
     /** A flag indicating that the event dispatcher is still running. */
-    protected boolean _running = true;
+    protected volatile boolean _running = true;
 
-    /** The event queue via which all events are processed. */
-    protected Queue<Object> _evqueue = new Queue<Object>();
+    /** The event queue via which all events are processed. Any thread may post to it, but only the
+     * main thread takes units from it. */
+    protected EventQueue<Object> _evqueue = new EventQueue<Object>();
 
-    /** The managed distributed objects table. */
+    /** The managed distributed objects table. If we are sharded, this is only used while holding
+     * its monitor, which also guards our other tables. */
     protected IntMap<DObject> _objects = IntMaps.newHashIntMap();
 
     /** Used to assign a unique oid to each distributed object. */
@@ -1100,12 +1751,17 @@ public class PresentsDObjectMgr
     /** Maintains proxy information for any proxied distributed objects. */
     protected IntMap<ProxyReference> _proxies = IntMaps.newHashIntMap();
 
+    /** Copies of our object and proxy tables that any of our threads may read without locking,
+     * or null if we are not sharded. They are modified along with the tables themselves. */
+    protected volatile ConcurrentMap<Integer, DObject> _sharedObjects;
+    protected volatile ConcurrentMap<Integer, ProxyReference> _sharedProxies;
+
     /** keeps Track of which thread is executing the event loop so that other services can enforce
      * restrictions on code that should or should not be called from the event dispatch thread. */
-    protected Thread _dobjThread;
+    protected volatile Thread _dobjThread;
 
     /** A monotonically increasing counter used to assign an id to all dispatched events. */
-    protected long _nextEventId = 1;
+    protected AtomicLong _nextEventId = new AtomicLong(1);
 
     /** Used to profile our events and runnable units. */
     protected Map<String, UnitProfile> _profiles = Maps.newHashMap();
@@ -1113,6 +1769,27 @@ public class PresentsDObjectMgr
     /** Used to track runtime statistics. */
     protected Stats _recent = new Stats(), _current = _recent;
 
+    /** The number of shard threads to run in addition to the main thread. */
+    @Inject(optional=true) @Named("presents.dobj.shards")
+    protected int _shardCount = 0;
+
+    /** The number of milliseconds for which flush actions may be deferred while an event thread
+     * has more units to process, or zero to run them at the end of every unit. */
+    @Inject(optional=true) @Named("presents.dobj.flushWindow")
+    protected int _flushWindow = 0;
+
+    /** The flush actions deferred by code running on the main thread. */
+    protected Flushes _flushes = new Flushes();
+
+    /** Our shards, or null if we are not sharded or no object has yet been assigned to one. */
+    protected volatile Shard[] _shards;
+
+    /** Maps the oids of objects assigned to a shard to that shard. */
+    protected ConcurrentMap<Integer, Shard> _assignments = Maps.newConcurrentMap();
+
+    /** The shards from which outstanding invoker units were posted (see {@link #noteOrigin}). */
+    protected ConcurrentMap<Runnable, Shard> _origins = new MapMaker().weakKeys().makeMap();
+
     /** Maps event classes to helpers that perform additional processing for particular events. */
     protected Map<Class<?>, EventHelper> _helpers = Maps.newHashMap();
 
@@ -1125,6 +1802,12 @@ public class PresentsDObjectMgr
     /** Whether or not unit profiling is enabled. */
     protected static final boolean UNIT_PROF_ENABLED = true;
 
+    /** Used to wake up our shards when we shut down. */
+    protected static final Runnable NOOP = new Runnable() {
+        public void run () {
+        }
+    };
+
     /** The default size of an oid list refs vector. */
     protected static final int DEFREFVEC_SIZE = 4;
 
@@ -26,6 +26,7 @@ import java.util.List;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import com.samskivert.util.Invoker;
 import com.samskivert.util.Lifecycle;
@@ -35,15 +36,16 @@ import com.threerings.presents.server.PresentsDObjectMgr.LongRunnable;
 import static com.threerings.presents.Log.log;
 
 /**
- * Extends the generic {@link Invoker} and integrates it a bit more into the Presents system.
+ * Extends the generic {@link Invoker} and integrates it a bit more into the Presents system. If
+ * configured with workers, {@link PooledInvoker.Keyed} units are spread over them by key.
  */
 @Singleton
-public class PresentsInvoker extends ReportingInvoker
+public class PresentsInvoker extends PooledInvoker
     implements Lifecycle.ShutdownComponent
 {
     @Inject public PresentsInvoker (PresentsDObjectMgr omgr, Lifecycle cycle, ReportManager repmgr)
     {
-        super("presents.Invoker", omgr, repmgr);
+        super("presents.Invoker", omgr, repmgr, 0);
         cycle.addComponent(this);
         _omgr = omgr;
     }
@@ -60,14 +62,22 @@ public class PresentsInvoker extends ReportingInvoker
     }
 
     /**
-     * Posts the given runnable to this invoker when it, the DObjectManager and any interdependent
-     * invokers are all empty.
+     * Posts the given runnable to this invoker when it, its workers, the DObjectManager and any
+     * interdependent invokers are all empty.
      */
     public void postRunnableWhenEmpty (Runnable onEmpty)
     {
         postUnit(new EmptyingUnit(onEmpty));
     }
 
+    @Override // from PooledInvoker
+    public void postUnit (Unit unit)
+    {
+        // if this is posted from a dobj shard, its result should be handled on that shard
+        _omgr.noteOrigin(unit);
+        super.postUnit(unit);
+    }
+
     @Override // from Thread
     public void start ()
     {
@@ -102,6 +112,12 @@ public class PresentsInvoker extends ReportingInvoker
             }});
     }
 
+    @Override // from PooledInvoker
+    protected int getWorkerCount ()
+    {
+        return _invokerWorkers;
+    }
+
     @Override // from Invoker
     protected void didShutdown ()
     {
@@ -113,8 +129,8 @@ public class PresentsInvoker extends ReportingInvoker
     }
 
     /**
-     * This gets posted to this invoker over and over again until it, any interdependent invokers
-     * and the DObjectManager are all empty.
+     * This gets posted to this invoker over and over again until it, its workers, any
+     * interdependent invokers and the DObjectManager are all empty.
      */
     protected class EmptyingUnit extends Unit {
         public EmptyingUnit (Runnable onEmpty) {
@@ -145,9 +161,15 @@ public class PresentsInvoker extends ReportingInvoker
             } else {
                 _loopCount = 0;
                 // The invoker is empty and running this. Check if everything else is empty.
-                List<BlockingUnit> checkers =
-                    Lists.newArrayListWithCapacity(_interdependentInvokers.size() + 1);
+                List<Invoker> invokers = Lists.newArrayList(getWorkers());
                 for (Invoker invoker : _interdependentInvokers) {
+                    invokers.add(invoker);
+                    if (invoker instanceof PooledInvoker) {
+                        invokers.addAll(((PooledInvoker)invoker).getWorkers());
+                    }
+                }
+                List<BlockingUnit> checkers = Lists.newArrayListWithCapacity(invokers.size() + 1);
+                for (Invoker invoker : invokers) {
                     checkers.add(new BlockingUnit(invoker));
                 }
                 checkers.add(new BlockingUnit());
@@ -340,4 +362,9 @@ public class PresentsInvoker extends ReportingInvoker
 
     /** The server we're working for. */
     protected PresentsServer _server;
+
+    /** The number of worker threads on which keyed units are run in addition to the main invoker
+     * thread. Zero (the default) means that all units are run on the main thread. */
+    @Inject(optional=true) @Named("presents.invoker.workers")
+    protected int _invokerWorkers = 0;
 }
@@ -34,6 +34,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import com.samskivert.util.IntMap;
 import com.samskivert.util.IntMaps;
@@ -68,6 +69,7 @@ import com.threerings.presents.net.PingRequest;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.SubscribeRequest;
 import com.threerings.presents.net.ThrottleUpdatedMessage;
+import com.threerings.presents.net.Transport;
 import com.threerings.presents.net.TransmitDatagramsRequest;
 import com.threerings.presents.net.UnsubscribeRequest;
 import com.threerings.presents.net.UnsubscribeResponse;
@@ -89,7 +91,9 @@ import static com.threerings.presents.Log.log;
  * <p><em>A note on synchronization:</em> the client object is structured so that its
  * <code>Subscriber</code> implementation (which is called from the dobjmgr thread) can proceed
  * without synchronization. This does not overlap with its other client duties which are called
- * from the conmgr thread and therefore also need not be synchronized.
+ * from the conmgr thread and therefore also need not be synchronized. If the dobjmgr is sharded,
+ * however, the objects to which the client is subscribed may be managed by different threads, so
+ * the state used to deliver messages to the client is guarded by {@link #_batch}.
  */
 public class PresentsSession
     implements PresentsConnection.MessageHandler, ClientResolutionListener
@@ -516,8 +520,9 @@ public class PresentsSession
         Connection oldconn = getConnection();
         if (oldconn != null && !oldconn.isClosed()) {
             log.info("Closing stale connection", "old", oldconn, "new", conn);
-            // close the old connection (which results in everything being properly unregistered)
-            oldconn.close();
+            // close the old connection on the thread of the reactor that manages it; once it's
+            // closed, the client manager will unmap it, but leave us alone as we've moved on
+            _conmgr.closeConnection(oldconn);
         }
 
         // note our new auth request (so that we can deliver the proper bootstrap services)
@@ -656,13 +661,17 @@ public class PresentsSession
      */
     protected void clearSubscrips (boolean verbose)
     {
-        for (ClientProxy rec : _subscrips.values()) {
+        List<ClientProxy> recs;
+        synchronized (_subscrips) {
+            recs = Lists.newArrayList(_subscrips.values());
+            _subscrips.clear();
+        }
+        for (ClientProxy rec : recs) {
             if (verbose) {
                 log.info("Clearing subscription", "client", this, "obj", rec.object.getOid());
             }
             rec.unsubscribe();
         }
-        _subscrips.clear();
     }
 
     /**
@@ -741,7 +750,9 @@ public class PresentsSession
         populateBootstrapData(data);
 
         // create a send bootstrap notification
-        postMessage(new BootstrapNotification(data), null);
+        postMessage(new BootstrapNotification(
+                        data, _areq != null && _areq.supportsFieldIndices(),
+                        _areq != null && _areq.supportsEntryDeltas()), null);
     }
 
     /**
@@ -916,10 +927,12 @@ public class PresentsSession
      */
     protected void startCompoundMessage ()
     {
-        if (_compound == null) {
-            _compound = new CompoundDownstreamMessage();
+        synchronized (_batch) {
+            if (_compound == null) {
+                _compound = new CompoundDownstreamMessage();
+            }
+            _compoundDepth++;
         }
-        _compoundDepth++;
     }
 
     /**
@@ -927,11 +940,13 @@ public class PresentsSession
      */
     protected void finishCompoundMessage ()
     {
-        if (--_compoundDepth == 0) {
-            CompoundDownstreamMessage downstream = _compound;
-            _compound = null;
-            if (!downstream.msgs.isEmpty()) {
-                postMessage(downstream, null);
+        synchronized (_batch) {
+            if (--_compoundDepth == 0) {
+                CompoundDownstreamMessage downstream = _compound;
+                _compound = null;
+                if (!downstream.msgs.isEmpty()) {
+                    postMessage(downstream, null);
+                }
             }
         }
     }
@@ -939,44 +954,116 @@ public class PresentsSession
     /** Queues a message for delivery to the client. */
     protected boolean postMessage (DownstreamMessage msg, PresentsConnection expect)
     {
-        PresentsConnection conn = getConnection();
-
-        // make sure that the connection they expect us to be using is the one we're using; there
-        // are circumstances were sufficient delay between request and response gives the client
-        // time to drop their original connection and establish a new one, opening the door to
-        // major confusion
-        if (expect != null && conn != expect) {
-            return false;
+        // the bootstrap must answer the client's capabilities, however it was created, as it may
+        // be followed by other messages in the same compound message
+        boolean bootstrap = (msg instanceof BootstrapNotification);
+        if (bootstrap) {
+            ((BootstrapNotification)msg).setAnswersCapabilities(
+                _areq != null && _areq.sentCapabilities());
         }
 
-        if (_compound != null) {
-            _compound.msgs.add(msg);
-            return true;
-        }
+        int dropped;
+        synchronized (_batch) {
+            PresentsConnection conn = getConnection();
 
-        // make sure we have a connection at all
-        if (conn != null) {
-            conn.postMessage(msg);
-            _messagesOut++; // count 'em up!
-            return true;
-        }
+            // make sure that the connection they expect us to be using is the one we're using;
+            // there are circumstances were sufficient delay between request and response gives
+            // the client time to drop their original connection and establish a new one, opening
+            // the door to major confusion
+            if (expect != null && conn != expect) {
+                return false;
+            }
+
+            if (_compound != null) {
+                _compound.msgs.add(msg);
+                return true;
+            }
+
+            // if we're batching, hold reliable messages until the current dobj unit is done so
+            // that they go out together in a single compound message; the bootstrap is always
+            // sent on its own, as it changes how the messages that follow it are streamed
+            if (conn != null && _batchMessages && !bootstrap &&
+                    Transport.DEFAULT.equals(msg.getTransport()) && batchMessage(conn, msg)) {
+                _messagesOut++;
+                return true;
+            }
+
+            // make sure we have a connection at all
+            if (conn != null) {
+                flushMessages(); // anything batched must precede this message
+                conn.postMessage(msg);
+                _messagesOut++; // count 'em up!
+                return true;
+            }
 
-        // don't log dropped messages unless we're dropping a lot of them (meaning something is
-        // still queueing messages up for this dead client even though it shouldn't be)
-        if (++_messagesDropped % 50 == 0) {
-            log.warning("Dropping many messages?", "client", this,
-                "count", _messagesDropped, "msg", msg);
+            // don't log dropped messages unless we're dropping a lot of them (meaning something
+            // is still queueing messages up for this dead client even though it shouldn't be)
+            dropped = ++_messagesDropped;
+        }
+        if (dropped % 50 == 0) {
+            log.warning("Dropping many messages?", "client", this, "count", dropped, "msg", msg);
         }
 
         // make darned sure we don't have any remaining subscriptions
         if (_subscrips.size() > 0) {
 //             log.warning("Clearing stale subscriptions", "client", this,
 //                         "subscrips", _subscrips.size());
-            clearSubscrips(_messagesDropped > 10);
+            clearSubscrips(dropped > 10);
         }
         return false;
     }
 
+    /**
+     * Adds the supplied message to our pending batch, arranging for the batch to be sent when the
+     * current distributed object unit completes.
+     *
+     * @return false if the message could not be batched (because we're not on an event thread)
+     * and should be sent directly.
+     */
+    protected boolean batchMessage (PresentsConnection conn, DownstreamMessage msg)
+    {
+        synchronized (_batch) {
+            if (_batchConn != null && _batchConn != conn) {
+                flushMessages();
+            }
+            if (_batch.isEmpty() && !_omgr.postFlush(_flusher)) {
+                return false;
+            }
+            if (msg instanceof CompoundDownstreamMessage) {
+                _batch.addAll(((CompoundDownstreamMessage)msg).msgs);
+            } else {
+                _batch.add(msg);
+            }
+            _batchConn = conn;
+            return true;
+        }
+    }
+
+    /**
+     * Sends any messages batched up by {@link #batchMessage}: alone if there is but one, or in a
+     * single compound message otherwise.
+     */
+    protected void flushMessages ()
+    {
+        synchronized (_batch) {
+            if (_batch.isEmpty()) {
+                return;
+            }
+            DownstreamMessage msg;
+            if (_batch.size() == 1) {
+                msg = _batch.get(0);
+            } else {
+                CompoundDownstreamMessage compound = new CompoundDownstreamMessage();
+                compound.msgs.addAll(_batch);
+                msg = compound;
+            }
+            PresentsConnection conn = _batchConn;
+            _batch.clear();
+            _batchConn = null;
+            conn.postMessage(msg);
+        }
+    }
+
     /**
      * Notifies this client that its throttle was updated.
      */
@@ -1308,6 +1395,26 @@ public class PresentsSession
      */
     protected int _compoundDepth;
 
+    /** Whether to batch the messages sent during a distributed object unit into a single compound
+     * message. Clients must be able to process compound messages for this to be enabled. */
+    @Inject(optional=true) @Named("presents.net.batchMessages")
+    protected boolean _batchMessages = false;
+
+    /** Messages awaiting delivery at the end of the current distributed object unit. This is also
+     * used to synchronize access to our compound message, batch and outgoing message counts, which
+     * may be used by any of the dobjmgr's threads if it is sharded. */
+    protected List<DownstreamMessage> _batch = Lists.newArrayList();
+
+    /** The connection on which our batched messages are to be delivered. */
+    protected PresentsConnection _batchConn;
+
+    /** Sends our batched messages; registered with the omgr when a batch is started. */
+    protected Runnable _flusher = new Runnable() {
+        public void run () {
+            flushMessages();
+        }
+    };
+
     /** The Oids of objects that have been destroyed while we were subscribed. */
     protected HashSet<Integer> _destroyedSubs = Sets.newHashSet();
     protected ClassLoader _loader;
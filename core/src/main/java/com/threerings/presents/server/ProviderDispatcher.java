@@ -0,0 +1,75 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import com.threerings.presents.data.ClientObject;
+
+import static com.threerings.presents.Log.log;
+
+/**
+ * Dispatches invocation requests to the methods of a particular invocation provider class with a
+ * switch on the method id and direct calls, rather than via {@link Method#invoke}. Subclasses are
+ * generated at runtime by {@link DispatcherGenerator} (when generation is enabled and ASM is
+ * available) for each provider registered with {@link InvocationManager#registerProvider}.
+ */
+public abstract class ProviderDispatcher
+{
+    /**
+     * Creates a dispatcher for the supplied provider class, or returns null if generated
+     * dispatchers are disabled or one cannot be generated for the class in question.
+     *
+     * @param methods the provider methods to be dispatched, mapped by method id.
+     */
+    public static ProviderDispatcher create (Class<?> pclass, Map<Integer, Method> methods)
+    {
+        if (!_generate) {
+            return null;
+        }
+        try {
+            return DispatcherGenerator.generate(pclass, methods);
+        } catch (NoClassDefFoundError ncdfe) {
+            log.warning("Generated dispatchers require ASM; using reflective dispatch.");
+            _generate = false;
+            return null;
+        }
+    }
+
+    /**
+     * Invokes the provider method with the specified id, passing it the source client object
+     * followed by the supplied arguments. Any exception thrown by the provider method is passed
+     * through unwrapped.
+     *
+     * @return true if the method was dispatched, false if no method has the specified id.
+     */
+    public abstract boolean dispatch (
+        Object provider, ClientObject source, int methodId, Object[] args)
+        throws InvocationException;
+
+    /** Whether we generate provider dispatchers, enabled via the
+     * <code>com.threerings.presents.generateDispatchers</code> system property. Cleared if we
+     * discover that ASM is not available. */
+    protected static boolean _generate =
+        Boolean.getBoolean("com.threerings.presents.generateDispatchers");
+}
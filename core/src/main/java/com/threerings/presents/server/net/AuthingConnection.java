@@ -30,11 +30,13 @@ import com.threerings.presents.data.AuthCodes;
 import com.threerings.presents.net.AESAuthRequest;
 import com.threerings.presents.net.AuthRequest;
 import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.AuthResponseData;
 import com.threerings.presents.net.DownstreamMessage;
 import com.threerings.presents.net.Message;
 import com.threerings.presents.net.PublicKeyCredentials;
 import com.threerings.presents.net.SecureRequest;
 import com.threerings.presents.net.SecureResponse;
+import com.threerings.presents.server.net.PresentsConnectionManager.CryptoTask;
 import com.threerings.util.Name;
 
 /**
@@ -51,58 +53,74 @@ public class AuthingConnection extends PresentsConnection
                     // first see if the client is trying to start secure authentication
                     try {
                         SecureRequest secreq = (SecureRequest)msg;
-                        PrivateKey key = _pcmgr.getPrivateKey();
+                        final PrivateKey key = _pcmgr.getPrivateKey();
                         // fail quickly if we don't support secure connections
                         if (key == null) {
                             safePostMessage(new SecureResponse(AuthCodes.FAILED_TO_SECURE));
                         } else {
-                            // generate a server key and encode it using the client key
-                            SecureResponse resp = new SecureResponse();
-                            PublicKeyCredentials pkcreds =
+                            // generate a server key and encode it using the client key (which
+                            // requires a costly RSA decryption)
+                            final PublicKeyCredentials pkcreds =
                                     (PublicKeyCredentials)secreq.getCredentials();
                             _clientSecureVersion = pkcreds.getSecureVersion();
-                            _serverSecret = resp.createSecret(pkcreds, key, 16);
-                            safePostMessage(resp);
+                            _pcmgr.performCrypto(new CryptoTask(AuthingConnection.this) {
+                                public void crypt () {
+                                    _secret = _resp.createSecret(pkcreds, key, 16);
+                                }
+                                public void completed () {
+                                    _serverSecret = _secret;
+                                    safePostMessage(_resp);
+                                }
+                                public DownstreamMessage rejection () {
+                                    return new SecureResponse(AuthCodes.FAILED_TO_SECURE);
+                                }
+                                protected SecureResponse _resp = new SecureResponse();
+                                protected byte[] _secret;
+                            });
                         }
                         return;
                     } catch (ClassCastException cce) {
                         // Client didn't request a secure channel so proceed with normal
                         // authentication
                     }
+                } else if (msg instanceof AESAuthRequest) {
+                    final AESAuthRequest areq = (AESAuthRequest)msg;
+                    _pcmgr.performCrypto(new CryptoTask(AuthingConnection.this) {
+                        public void crypt () {
+                            try {
+                                areq.decrypt(_serverSecret);
+                            } catch (ClassNotFoundException cnfe) {
+                                _error = cnfe;
+                            } catch (IOException ioe) {
+                                _error = ioe;
+                            }
+                        }
+                        public void completed () {
+                            if (_error == null) {
+                                gotAuthRequest(areq);
+                            } else {
+                                log.warning("Failed to decrypt request during secure " +
+                                            "authentication process", "conn",
+                                            AuthingConnection.this, "msg", areq, _error);
+                                safePostMessage(new SecureResponse(AuthCodes.FAILED_TO_SECURE));
+                            }
+                        }
+                        public DownstreamMessage rejection () {
+                            AuthResponseData rdata = new AuthResponseData();
+                            rdata.code = AuthCodes.SERVER_BUSY;
+                            AuthResponse rsp = new AuthResponse(rdata);
+                            setAuthResponse(rsp);
+                            return rsp;
+                        }
+                        protected Exception _error;
+                    });
+                    return;
                 } else {
-                    try {
-                        ((AESAuthRequest)msg).decrypt(_serverSecret);
-
-                    } catch (ClassCastException cce) {
-                        log.warning(
-                            "Received non-encrypted request during secure authentication process",
-                            "conn", AuthingConnection.this, "msg", msg);
-                    } catch (ClassNotFoundException cnfe) {
-                        log.warning(
-                            "Failed to decrypt request during secure authentication process",
-                            "conn", AuthingConnection.this, "msg", msg, cnfe);
-                        safePostMessage(new SecureResponse(AuthCodes.FAILED_TO_SECURE));
-                        return;
-                    } catch (IOException ioe) {
-                        log.warning(
-                            "Failed to decrypt request during secure authentication process",
-                            "conn", AuthingConnection.this, "msg", msg, ioe);
-                        safePostMessage(new SecureResponse(AuthCodes.FAILED_TO_SECURE));
-                        return;
-                    }
-                }
-                try {
-                    // keep a handle on our auth request
-                    _authreq = (AuthRequest)msg;
-                } catch (ClassCastException cce) {
-                    log.warning("Received non-authreq message during authentication process",
+                    log.warning(
+                        "Received non-encrypted request during secure authentication process",
                         "conn", AuthingConnection.this, "msg", msg);
                 }
-
-                if (_authreq != null) {
-                    // post ourselves for processing by the authmgr
-                    _pcmgr.authenticateConnection(AuthingConnection.this);
-                }
+                gotAuthRequest(msg);
             }
         });
     }
@@ -157,6 +175,26 @@ public class AuthingConnection extends PresentsConnection
         return "[mode=AUTHING, addr=" + getInetAddress() + "]";
     }
 
+    /**
+     * Called when we've received (and if necessary decrypted) our auth request.
+     */
+    protected void gotAuthRequest (Message msg)
+    {
+        try {
+            // keep a handle on our auth request
+            _authreq = (AuthRequest)msg;
+            setCompressFrames(_authreq.supportsCompressedFrames());
+        } catch (ClassCastException cce) {
+            log.warning("Received non-authreq message during authentication process",
+                "conn", this, "msg", msg);
+        }
+
+        if (_authreq != null) {
+            // post ourselves for processing by the authmgr
+            _pcmgr.authenticateConnection(this);
+        }
+    }
+
     /**
      * Callable from non-dobjmgr thread, this queues up a runnable on the dobjmgr thread to post
      * the supplied message to this client.
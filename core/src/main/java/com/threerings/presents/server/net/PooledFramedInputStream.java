@@ -0,0 +1,109 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.threerings.io.FramedInputStream;
+
+import com.threerings.nio.conman.BufferPool;
+
+/**
+ * A framed input stream that holds a read buffer only while it has a partially read frame (or
+ * unread frames) in hand. Buffers are borrowed from a {@link BufferPool} shared by all
+ * connections and are returned to it as soon as the stream's data has been consumed, so that an
+ * idle connection holds no buffer at all and a connection that once received a very large message
+ * does not retain a very large buffer. Frames too large for the pool's size classes are read into
+ * a one-off buffer which is simply dropped once the frame has been consumed.
+ *
+ * <p> Like its parent, this stream must only be accessed by a single thread.
+ */
+public class PooledFramedInputStream extends FramedInputStream
+{
+    /**
+     * Creates a stream that will borrow its buffers from the supplied pool.
+     */
+    public PooledFramedInputStream (BufferPool pool)
+    {
+        super(EMPTY_BUFFER);
+        _pool = pool;
+    }
+
+    @Override
+    public boolean readFrame (ReadableByteChannel source)
+        throws IOException
+    {
+        if (_buffer == EMPTY_BUFFER) {
+            _buffer = allocateBuffer(POOLED_BUFFER_CAPACITY);
+        }
+        if (super.readFrame(source)) {
+            return true;
+        }
+        // if we've consumed everything we read, hand our buffer back until more data arrives
+        if (_have == 0) {
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * Returns our buffer (if we have one) to the pool, discarding any partially read frame. This
+     * must be called on the thread that reads from the stream.
+     */
+    @Override
+    public void close ()
+    {
+        if (_buffer != EMPTY_BUFFER) {
+            releaseBuffer(_buffer);
+            _buffer = EMPTY_BUFFER;
+            _length = -1;
+            _have = 0;
+        }
+        _inflated = null;
+    }
+
+    @Override
+    protected ByteBuffer allocateBuffer (int capacity)
+    {
+        ByteBuffer buffer = _pool.acquire(capacity);
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    protected void releaseBuffer (ByteBuffer buffer)
+    {
+        _pool.release(buffer);
+    }
+
+    /** The pool from which we borrow our buffers. */
+    protected BufferPool _pool;
+
+    /** The size of the buffer we borrow when data arrives; we grow it if needed to hold a frame. */
+    protected static final int POOLED_BUFFER_CAPACITY = 1024;
+
+    /** Stands in for a buffer when we have none, so that reads simply report end of frame. */
+    protected static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+}
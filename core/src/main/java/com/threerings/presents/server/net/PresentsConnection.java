@@ -33,6 +33,8 @@ import java.security.NoSuchAlgorithmException;
 
 import com.google.common.base.Preconditions;
 
+import com.samskivert.io.StreamUtil;
+
 import com.threerings.io.FramedInputStream;
 import com.threerings.io.FramingOutputStream;
 import com.threerings.io.ObjectInputStream;
@@ -119,6 +121,24 @@ public class PresentsConnection extends Connection
         return _transmitDatagrams;
     }
 
+    /**
+     * Sets whether the client at the other end of this connection has agreed to receive
+     * compressed frames.
+     */
+    public void setCompressFrames (boolean compress)
+    {
+        _compressFrames = compress;
+    }
+
+    /**
+     * Checks whether the client at the other end of this connection has agreed to receive
+     * compressed frames.
+     */
+    public boolean getCompressFrames ()
+    {
+        return _compressFrames;
+    }
+
     /**
      * Returns the address to which datagrams should be sent or null if no datagram address has
      * been established.
@@ -199,7 +219,11 @@ public class PresentsConnection extends Connection
                 return; // received out of order
             }
             msg.received = when;
-            _handler.handleMessage(msg);
+            // datagrams are read on the conmgr thread, which may not be the thread on which our
+            // stream messages are read, so we synchronize to ensure our handler sees one at a time
+            synchronized (this) {
+                _handler.handleMessage(msg);
+            }
 
         } catch (ClassNotFoundException cnfe) {
             log.warning("Error reading datagram", "error", cnfe);
@@ -219,7 +243,7 @@ public class PresentsConnection extends Connection
             // we're lazy about creating our input streams because we may be inheriting them from
             // our authing connection and we don't want to unnecessarily create them in that case
             if (_fin == null) {
-                _oin = createObjectInputStream(_fin = new FramedInputStream());
+                _oin = createObjectInputStream(_fin = createFramedInputStream());
                 if (_loader != null) {
                     _oin.setClassLoader(_loader);
                 }
@@ -235,7 +259,9 @@ public class PresentsConnection extends Connection
                 Message msg = (Message)_oin.readObject();
                 msg.received = when;
 //                 Log.info("Read message " + msg + ".");
-                _handler.handleMessage(msg);
+                synchronized (this) {
+                    _handler.handleMessage(msg);
+                }
             }
 
         } catch (EOFException eofe) {
@@ -258,6 +284,11 @@ public class PresentsConnection extends Connection
             networkFailure(ioe);
         }
 
+        // if we were closed while reading, release any buffer held by our input stream
+        if (isClosed()) {
+            StreamUtil.close(_fin);
+        }
+
         return bytesIn;
     }
 
@@ -270,6 +301,16 @@ public class PresentsConnection extends Connection
         return _oin;
     }
 
+    /**
+     * Creates the framed input stream from which this connection reads messages. If the
+     * connection manager is so configured, this borrows its read buffers from the shared pool.
+     */
+    protected FramedInputStream createFramedInputStream ()
+    {
+        return _cmgr.usePooledReadBuffers() ?
+            new PooledFramedInputStream(_cmgr.getBufferPool()) : new FramedInputStream();
+    }
+
     /**
      * Creates the object input stream used by this connection to communicate. This may be
      * overridden by subclasses to create custom streams.
@@ -289,6 +330,7 @@ public class PresentsConnection extends Connection
         _fin = other._fin;
         _oin = other._oin;
         _oout = other._oout;
+        _compressFrames = other._compressFrames;
         if (_loader != null) {
             _oin.setClassLoader(_loader);
         }
@@ -296,7 +338,8 @@ public class PresentsConnection extends Connection
 
     /**
      * Returns the object output stream associated with this connection (creating it if
-     * necessary). This should only be used by the connection manager.
+     * necessary), writing to the supplied framer. This should only be used by the connection
+     * manager, which may write the connection's messages to a different framer on each thread.
      */
     protected ObjectOutputStream getObjectOutputStream (FramingOutputStream fout)
     {
@@ -304,6 +347,8 @@ public class PresentsConnection extends Connection
         // authing connection and we don't want to unnecessarily create it in that case
         if (_oout == null) {
             _oout = new ObjectOutputStream(fout);
+        } else {
+            _oout.setTarget(fout);
         }
         return _oout;
     }
@@ -334,6 +379,7 @@ public class PresentsConnection extends Connection
     protected DatagramChannel _datagramChannel;
     protected byte[] _datagramSecret;
     protected boolean _transmitDatagrams;
+    protected boolean _compressFrames;
 
     protected MessageDigest _digest;
     protected DatagramSequencer _sequencer;
@@ -21,7 +21,15 @@
 
 package com.threerings.presents.server.net;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -34,8 +42,10 @@ import java.nio.channels.SocketChannel;
 import java.security.PrivateKey;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import com.samskivert.util.Invoker;
 import com.samskivert.util.Lifecycle;
@@ -46,13 +56,25 @@ import com.samskivert.util.Tuple;
 import com.threerings.io.ByteBufferInputStream;
 import com.threerings.io.FramingOutputStream;
 import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.PreparedObject;
 import com.threerings.io.UnreliableObjectInputStream;
 import com.threerings.io.UnreliableObjectOutputStream;
 
 import com.threerings.presents.annotation.AuthInvoker;
 import com.threerings.presents.client.Client;
+import com.threerings.presents.data.AuthCodes;
 import com.threerings.presents.data.PresentsConMgrStats;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.CompoundEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.NamedEvent;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.AuthResponseData;
+import com.threerings.presents.net.CompoundDownstreamMessage;
+import com.threerings.presents.net.DownstreamMessage;
+import com.threerings.presents.net.EventNotification;
 import com.threerings.presents.net.Message;
+import com.threerings.presents.net.ObjectResponse;
 import com.threerings.presents.net.PingRequest;
 import com.threerings.presents.net.PongResponse;
 import com.threerings.presents.net.Transport;
@@ -60,14 +82,17 @@ import com.threerings.presents.server.Authenticator;
 import com.threerings.presents.server.ChainedAuthenticator;
 import com.threerings.presents.server.ClientManager;
 import com.threerings.presents.server.DummyAuthenticator;
+import com.threerings.presents.server.PooledInvoker;
 import com.threerings.presents.server.PresentsDObjectMgr;
 import com.threerings.presents.server.ReportManager;
 import com.threerings.presents.util.DatagramSequencer;
 import com.threerings.presents.util.SecureUtil;
 
+import com.threerings.nio.conman.ConMgrStats;
 import com.threerings.nio.conman.Connection;
 import com.threerings.nio.conman.ConnectionManager;
 import com.threerings.nio.conman.NetEventHandler;
+import com.threerings.nio.conman.Reactor;
 
 import static com.threerings.presents.Log.log;
 
@@ -89,6 +114,9 @@ public class PresentsConnectionManager extends ConnectionManager
     public synchronized PresentsConMgrStats getStats ()
     {
         ((PresentsConMgrStats)_stats).authQueueSize = _authq.size();
+        ThreadPoolExecutor cryptoExec = _cryptoExec;
+        ((PresentsConMgrStats)_stats).cryptoQueueSize =
+            (cryptoExec == null) ? 0 : cryptoExec.getQueue().size();
         return ((PresentsConMgrStats)super.getStats());
     }
 
@@ -104,6 +132,20 @@ public class PresentsConnectionManager extends ConnectionManager
         long bytesOut = stats.bytesOut - _lastStats.bytesOut;
         long msgsIn = stats.msgsIn - _lastStats.msgsIn;
         long msgsOut = stats.msgsOut - _lastStats.msgsOut;
+        long writes = stats.writes - _lastStats.writes;
+        long framesCompressed = stats.framesCompressed - _lastStats.framesCompressed;
+        long zbytesIn = stats.compressionBytesIn - _lastStats.compressionBytesIn;
+        long zbytesOut = stats.compressionBytesOut - _lastStats.compressionBytesOut;
+        long znanos = stats.compressionNanos - _lastStats.compressionNanos;
+        long oflowDropped = stats.overflowDropped - _lastStats.overflowDropped;
+        long oflowCollapsed = stats.overflowCollapsed - _lastStats.overflowCollapsed;
+        int oflowDisconnects = stats.overflowDisconnects - _lastStats.overflowDisconnects;
+        long cryptoTasks = stats.cryptoTasks - _lastStats.cryptoTasks;
+        long cryptoNanos = stats.cryptoNanos - _lastStats.cryptoNanos;
+        long cryptoSaturated = stats.cryptoSaturated - _lastStats.cryptoSaturated;
+        long authsRejected = stats.authsRejected - _lastStats.authsRejected;
+        long msgsBatched = stats.messagesBatched - _lastStats.messagesBatched;
+        long eventsPrepared = stats.eventsPrepared - _lastStats.eventsPrepared;
         if (reset) {
             _lastStats = stats;
         }
@@ -134,7 +176,64 @@ public class PresentsConnectionManager extends ConnectionManager
         report.append(msgsOut*1000/sinceLast).append(" mps, ");
         long avgOut = (msgsOut == 0) ? 0 : (bytesOut/msgsOut);
         report.append(avgOut).append(" avg size, ");
-        report.append(bytesOut*1000/sinceLast).append(" bps\n");
+        report.append(bytesOut*1000/sinceLast).append(" bps, ");
+        report.append(writes).append(" writes, ");
+        report.append(String.format("%.2f", (writes == 0) ? 0f : (float)msgsOut/writes));
+        report.append(" msgs/write\n");
+        if (zbytesIn > 0) {
+            report.append("- Compression: ");
+            report.append(framesCompressed).append(" frames, ");
+            report.append(zbytesIn).append(" -> ").append(zbytesOut).append(" bytes, ");
+            report.append(String.format("%.2f", (float)zbytesOut/zbytesIn)).append(" ratio, ");
+            report.append(znanos/1000000).append(" ms\n");
+        }
+        if (msgsBatched > 0 || eventsPrepared > 0) {
+            report.append("- Fan-out: ");
+            report.append(msgsBatched).append(" batched msgs, ");
+            report.append(eventsPrepared).append(" prepared events\n");
+        }
+        if (stats.overQueueSize > 0 || oflowDropped > 0 || oflowCollapsed > 0 ||
+                oflowDisconnects > 0) {
+            report.append("- Overflow: ");
+            report.append(stats.overQueueSize).append(" msgs, ");
+            report.append(stats.overQueueBytes).append(" bytes, ");
+            report.append(oflowDropped).append(" dropped, ");
+            report.append(oflowCollapsed).append(" collapsed, ");
+            report.append(oflowDisconnects).append(" disconnects\n");
+            for (String oflow : getLargestOverflows(REPORTED_OVERFLOWS)) {
+                report.append("  ").append(oflow).append("\n");
+            }
+        }
+
+        int pendingAuths = getPendingAuths();
+        if (pendingAuths > 0 || authsRejected > 0) {
+            report.append("- Authentication: ");
+            report.append(pendingAuths).append(" pending, ");
+            report.append(authsRejected).append(" rejected as busy\n");
+        }
+        if (cryptoTasks > 0 || stats.cryptoQueueSize > 0) {
+            report.append("- Secure auth: ");
+            report.append(cryptoTasks).append(" steps, ");
+            float avgMillis = (cryptoTasks == 0) ? 0f : cryptoNanos/(cryptoTasks*1000000f);
+            report.append(String.format("%.2f", avgMillis)).append(" ms avg latency, ");
+            report.append(stats.cryptoQueueSize).append(" queued, ");
+            report.append(cryptoSaturated).append(" saturated\n");
+        }
+
+        // report on the balance of our secondary reactors if we have them
+        ConMgrStats[] rstats = getReactorStats();
+        if (rstats.length > 0) {
+            report.append("- Reactors: ");
+            for (int ii = 0; ii < rstats.length; ii++) {
+                if (ii > 0) {
+                    report.append(", ");
+                }
+                report.append(rstats[ii].handlerCount).append("/");
+                report.append(rstats[ii].outQueueSize).append("/");
+                report.append(rstats[ii].overQueueSize);
+            }
+            report.append(" (conns/outq/overq)\n");
+        }
     }
 
     /**
@@ -208,7 +307,10 @@ public class PresentsConnectionManager extends ConnectionManager
 
         // the first four bytes are the connection id
         int connectionId = _databuf.getInt();
-        Connection conn = _connections.get(connectionId);
+        Connection conn;
+        synchronized (_connections) {
+            conn = _connections.get(connectionId);
+        }
         if (conn != null) {
             ((PresentsConnection)conn).handleDatagram(source, listener, _databuf, when);
         } else {
@@ -246,39 +348,254 @@ public class PresentsConnectionManager extends ConnectionManager
             // let it through though as we don't want to break things unnecessarily
         }
 
-        try {
-            // send it as a datagram if hinted and possible (pongs must be sent as part of the
-            // negotation process)
-            if (!msg.getTransport().isReliable() &&
-                    (conn.getTransmitDatagrams() || msg instanceof PongResponse) &&
-                        postDatagram(conn, msg)) {
-                return;
+        // messages may be posted by more than one thread if the dobjmgr is sharded, so each thread
+        // has its own framer and prepared message cache, and the connection's output stream (and
+        // the order in which its frames are queued) is guarded by the connection
+        synchronized (conn) {
+            try {
+                // send it as a datagram if hinted and possible (pongs must be sent as part of the
+                // negotation process)
+                if (!msg.getTransport().isReliable() &&
+                        (conn.getTransmitDatagrams() || msg instanceof PongResponse) &&
+                            postDatagram(conn, msg)) {
+                    return;
+                }
+
+                // note the actual transport
+                msg.noteActualTransport(Transport.RELIABLE_ORDERED);
+
+                FramingOutputStream framer = _framers.get();
+                framer.resetFrame();
+
+                // flatten this message using the connection's output stream, reusing the already
+                // streamed form of an event that is being delivered to multiple subscribers
+                ObjectOutputStream oout = conn.getObjectOutputStream(framer);
+                int mappings = oout.getMappingCount(), deltaCount = oout.getDeltaCount();
+                boolean fieldIndices = oout.getFieldIndices(), deltas = oout.getDeltas();
+                int batched = 0, reused = 0;
+                PreparedObject prepared = getPreparedMessage(msg, oout);
+                if (prepared != null) {
+                    prepared.writeTo(oout);
+                    reused = 1;
+
+                } else if (msg instanceof CompoundDownstreamMessage) {
+                    // a session's batched messages are streamed together, but the events among
+                    // them are written in the forms prepared for the events' other subscribers
+                    // (chosen as each is written, as an earlier member may change the stream's
+                    // settings)
+                    List<DownstreamMessage> msgs = ((CompoundDownstreamMessage)msg).msgs;
+                    MemberPreparer preparer = new MemberPreparer(msgs);
+                    oout.setPreparer(preparer);
+                    try {
+                        oout.writeObject(msg);
+                    } finally {
+                        oout.setPreparer(null);
+                    }
+                    batched = msgs.size();
+                    reused = preparer.reused;
+
+                } else {
+                    oout.writeObject(msg);
+                }
+                oout.flush();
+                if (batched > 0 || reused > 0) {
+                    noteFanOut(batched, reused);
+                }
+
+                // if the connection's reactor applies overflow policies, determine how to treat the
+                // message if the client falls behind; messages that created stream mappings,
+                // changed the stream's settings or were written as deltas (of entries that the
+                // client must already have) must be delivered in order with all others
+                Reactor reactor = conn.getReactor();
+                Object key = null;
+                if (reactor.usesOverflowKeys()) {
+                    key = getOverflowKey(msg, reactor, oout.getMappingCount() != mappings ||
+                        oout.getFieldIndices() != fieldIndices || oout.getDeltas() != deltas ||
+                        oout.getDeltaCount() != deltaCount);
+                }
+
+                // compress the frame if it's large and the client can handle that, then copy the
+                // data into a pooled buffer
+                ByteBuffer buffer;
+                int size = framer.getBuffer().position();
+                if (_compressThreshold > 0 && size >= _compressThreshold &&
+                        conn.getCompressFrames()) {
+                    long start = System.nanoTime();
+                    buffer = framer.compressAndReturnBuffer();
+                    noteCompression(size, buffer.limit(), System.nanoTime() - start);
+                } else {
+                    buffer = framer.frameAndReturnBuffer();
+                }
+                ByteBuffer data = _bufferPool.acquire(buffer.limit());
+                data.put(buffer);
+                data.flip();
+                // log.info("Flattened " + msg + " into " + data.limit() + " bytes.");
+
+                // and slap both on the queue of the reactor that handles this connection
+                reactor.postMessage(conn, data, key);
+
+            } catch (Exception e) {
+                log.warning("Failure flattening message", "conn", conn, "msg", msg, e);
             }
+        }
+    }
 
-            // note the actual transport
-            msg.noteActualTransport(Transport.RELIABLE_ORDERED);
+    /**
+     * Returns the overflow key for the supplied message (see {@link
+     * Reactor#postMessage(Connection,ByteBuffer,Object)}): messages that requested unreliable
+     * delivery may be dropped, those on channels other than the default go on their channel's
+     * lane, and attribute changes are superseded by later changes to the same attribute, so long
+     * as nothing else changed that attribute's field in between. Everything else must be
+     * delivered. Compound messages (including those in which sessions batch their messages) are
+     * never superseded as a whole, so attribute changes that are batched with other messages are
+     * not collapsed, though they still stop earlier changes to their fields from being collapsed.
+     * Subscription responses are delivered in order with all others, so that no event for the
+     * object in question can overtake its response on a lane.
+     *
+     * @param ordered true if the message must be delivered in order with all others, because it
+     * created stream mappings, changed the stream's settings or was written as a delta.
+     */
+    protected Object getOverflowKey (Message msg, Reactor reactor, boolean ordered)
+    {
+        Transport transport = msg.getTransport();
+        if (!ordered && containsObjectResponse(msg)) {
+            ordered = true;
+        }
+        if (!ordered) {
+            if (!transport.isReliable()) {
+                return Reactor.DROPPABLE;
+            }
+            if (transport.isOrdered() && transport.getChannel() != 0) {
+                return reactor.getLaneKey(transport.getChannel());
+            }
+            if (msg instanceof EventNotification) {
+                DEvent event = ((EventNotification)msg).getEvent();
+                if (event.getClass() == AttributeChangedEvent.class) {
+                    return getFieldKey((AttributeChangedEvent)event);
+                }
+            }
+        }
 
-            _framer.resetFrame();
+        // anything else that changes a field stops changes to it on either side being collapsed
+        List<Object> fields = getChangedFields(msg, null);
+        if (fields != null) {
+            return Reactor.getTouchKey(fields, ordered);
+        }
+        return ordered ? null : Reactor.INDEPENDENT;
+    }
 
-            // flatten this message using the connection's output stream
-            ObjectOutputStream oout = conn.getObjectOutputStream(_framer);
-            oout.writeObject(msg);
-            oout.flush();
+    /**
+     * Returns true if the supplied message is, or batches, a subscription response.
+     */
+    protected static boolean containsObjectResponse (Message msg)
+    {
+        if (msg instanceof CompoundDownstreamMessage) {
+            for (DownstreamMessage cmsg : ((CompoundDownstreamMessage)msg).msgs) {
+                if (containsObjectResponse(cmsg)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return (msg instanceof ObjectResponse<?>);
+    }
 
-            // now extract that data into a byte array
-            ByteBuffer buffer = _framer.frameAndReturnBuffer();
-            byte[] data = new byte[buffer.limit()];
-            buffer.get(data);
-            // log.info("Flattened " + msg + " into " + data.length + " bytes.");
+    /**
+     * Adds the overflow keys of the fields changed by the supplied message or event to the
+     * supplied list, creating it if necessary, and returns it. Returns null if no list was
+     * supplied and nothing was added.
+     */
+    protected List<Object> getChangedFields (Object msg, List<Object> fields)
+    {
+        if (msg instanceof EventNotification) {
+            fields = getChangedFields(((EventNotification)msg).getEvent(), fields);
+        } else if (msg instanceof CompoundDownstreamMessage) {
+            for (DownstreamMessage cmsg : ((CompoundDownstreamMessage)msg).msgs) {
+                fields = getChangedFields(cmsg, fields);
+            }
+        } else if (msg instanceof CompoundEvent) {
+            for (DEvent event : ((CompoundEvent)msg).getEvents()) {
+                fields = getChangedFields(event, fields);
+            }
+        } else if (msg instanceof NamedEvent) {
+            if (fields == null) {
+                fields = Lists.newArrayListWithCapacity(1);
+            }
+            fields.add(getFieldKey((NamedEvent)msg));
+        }
+        return fields;
+    }
 
-            // and slap both on the queue
-            _outq.append(Tuple.<Connection, byte[]>newTuple(conn, data));
+    /**
+     * Returns the overflow key of changes to the field modified by the supplied event.
+     */
+    protected static Object getFieldKey (NamedEvent event)
+    {
+        return Tuple.newTuple(event.getTargetOid(), event.getName());
+    }
 
-        } catch (Exception e) {
-            log.warning("Failure flattening message", "conn", conn, "msg", msg, e);
+    /**
+     * Records the results of an attempt to compress a frame in our stats.
+     */
+    protected void noteCompression (int size, int compressedSize, long nanos)
+    {
+        PresentsConMgrStats stats = (PresentsConMgrStats)_stats;
+        synchronized (this) {
+            if (compressedSize < size) {
+                stats.framesCompressed++;
+            }
+            stats.compressionBytesIn += size;
+            stats.compressionBytesOut += compressedSize;
+            stats.compressionNanos += nanos;
         }
     }
 
+    /**
+     * Records the delivery of batched messages and prepared events in our stats.
+     */
+    protected void noteFanOut (int batched, int reused)
+    {
+        PresentsConMgrStats stats = (PresentsConMgrStats)_stats;
+        synchronized (this) {
+            stats.messagesBatched += batched;
+            stats.eventsPrepared += reused;
+        }
+    }
+
+    /**
+     * Helper function for {@link #postMessage}; returns a prepared form of the supplied message if
+     * it is an event notification that is being fanned out to the subscribers of a distributed
+     * object, or null if the message should be streamed normally. Events are only prepared on
+     * their second delivery so that events with a single subscriber incur no extra overhead.
+     *
+     * @param oout the stream to which the message will be written, whose field indices and
+     * deltas settings determine the prepared form.
+     */
+    protected PreparedObject getPreparedMessage (Message msg, ObjectOutputStream oout)
+        throws IOException
+    {
+        if (!(msg instanceof EventNotification)) {
+            return null;
+        }
+
+        // a distributed object notifies all of its subscribers of an event before moving on to
+        // the next, but sessions that batch their messages deliver all of a unit's events to one
+        // subscriber before moving on to the next, so we track the most recently delivered events
+        DEvent event = ((EventNotification)msg).getEvent();
+        Map<DEvent, PreparedEvent> prepared = _preparedEvents.get();
+        PreparedEvent pevent = prepared.get(event);
+        if (pevent == null || pevent.eventId != event.eventId) {
+            prepared.put(event, new PreparedEvent(event.eventId));
+            return null;
+        }
+        boolean fieldIndices = oout.getFieldIndices(), deltas = oout.getDeltas();
+        int idx = (fieldIndices ? 1 : 0) | (deltas ? 2 : 0);
+        if (pevent.forms[idx] == null) {
+            pevent.forms[idx] = PreparedObject.prepare(msg, fieldIndices, deltas);
+        }
+        return pevent.forms[idx];
+    }
+
     /**
      * Helper function for {@link #postMessage}; handles posting the message as a datagram.
      *
@@ -287,23 +604,28 @@ public class PresentsConnectionManager extends ConnectionManager
     protected boolean postDatagram (PresentsConnection conn, Message msg)
         throws Exception
     {
-        _flattener.reset();
-
-        // flatten the message using the connection's sequencer
-        DatagramSequencer sequencer = conn.getDatagramSequencer();
-        sequencer.writeDatagram(msg);
+        // all of our datagram sequencers write to our one flattener
+        byte[] data;
+        synchronized (_flattener) {
+            _flattener.reset();
+
+            // flatten the message using the connection's sequencer
+            DatagramSequencer sequencer = conn.getDatagramSequencer();
+            sequencer.writeDatagram(msg);
+
+            // if the message is too big, we must fall back to sending it through the stream
+            // channel
+            if (_flattener.size() > Client.MAX_DATAGRAM_SIZE) {
+                return false;
+            }
 
-        // if the message is too big, we must fall back to sending it through the stream channel
-        if (_flattener.size() > Client.MAX_DATAGRAM_SIZE) {
-            return false;
+            // extract as a byte array
+            data = _flattener.toByteArray();
         }
 
         // note the actual transport
         msg.noteActualTransport(Transport.UNRELIABLE_UNORDERED);
 
-        // extract as a byte array
-        byte[] data = _flattener.toByteArray();
-
         // slap it on the queue
         _dataq.append(Tuple.newTuple(conn, data));
 
@@ -407,10 +729,26 @@ public class PresentsConnectionManager extends ConnectionManager
             startOutgoingConnection(pconn.left, pconn.right);
         }
 
+        // finish any secure authentication steps completed by our crypto threads
+        CryptoTask task;
+        while ((task = _cryptoq.getNonBlocking()) != null) {
+            cryptoCompleted(task);
+        }
+
         // check for connections that have completed authentication
         processAuthedConnections(iterStamp);
     }
 
+    @Override
+    protected void didShutdown ()
+    {
+        super.didShutdown();
+
+        if (_cryptoExec != null) {
+            _cryptoExec.shutdown();
+        }
+    }
+
     @Override
     protected void connectionFailed (Connection conn, IOException ioe)
     {
@@ -435,6 +773,20 @@ public class PresentsConnectionManager extends ConnectionManager
      */
     protected void authenticateConnection (AuthingConnection conn)
     {
+        // if too many authentications are already waiting, turn this one away immediately rather
+        // than making everyone wait longer
+        if (_maxPendingAuths > 0 && getPendingAuths() >= _maxPendingAuths) {
+            AuthResponseData rdata = new AuthResponseData();
+            rdata.code = AuthCodes.SERVER_BUSY;
+            AuthResponse rsp = new AuthResponse(rdata);
+            conn.setAuthResponse(rsp);
+            conn.safePostMessage(rsp);
+            synchronized (this) {
+                ((PresentsConMgrStats)_stats).authsRejected++;
+            }
+            return;
+        }
+
         Authenticator author = _author;
         for (ChainedAuthenticator cauthor : _authors) {
             if (cauthor.shouldHandleConnection(conn)) {
@@ -453,6 +805,116 @@ public class PresentsConnectionManager extends ConnectionManager
         });
     }
 
+    /**
+     * Returns the number of authentications waiting to be processed by the auth invoker.
+     */
+    protected int getPendingAuths ()
+    {
+        return (_authInvoker instanceof PooledInvoker) ?
+            ((PooledInvoker)_authInvoker).getTotalPendingUnits() : _authInvoker.getPendingUnits();
+    }
+
+    /**
+     * Performs the (expensive) cryptographic work of a secure authentication step. If we are
+     * configured with crypto threads, the work is done on one of them and the task is completed
+     * on the conmgr thread once it's done, or the client is turned away if the crypto threads are
+     * saturated. Otherwise the task is performed and completed immediately. This is called by
+     * {@link AuthingConnection} on the conmgr thread.
+     */
+    protected void performCrypto (final CryptoTask task)
+    {
+        task.submitted = System.nanoTime();
+        if (_cryptoThreads > 0) {
+            if (_cryptoExec == null) {
+                _cryptoExec = createCryptoExecutor();
+            }
+            try {
+                _cryptoExec.execute(new Runnable() {
+                    public void run () {
+                        crypt(task);
+                        _cryptoq.append(task);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                cryptoRejected(task);
+            }
+            return;
+        }
+        crypt(task);
+        cryptoCompleted(task);
+    }
+
+    /**
+     * Turns away the client whose secure authentication step could not be handed off to a crypto
+     * thread, rather than doing the work on the conmgr thread while it is already busy with a
+     * flood of authentications. Called on the conmgr thread.
+     */
+    protected void cryptoRejected (CryptoTask task)
+    {
+        synchronized (this) {
+            ((PresentsConMgrStats)_stats).cryptoSaturated++;
+        }
+        final AuthingConnection conn = task.conn;
+        final DownstreamMessage rsp = task.rejection();
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                conn.postMessage(rsp);
+                conn.asyncClose();
+            }
+        });
+    }
+
+    /**
+     * Performs the cryptographic work of the supplied task, noting whether or not it failed.
+     */
+    protected void crypt (CryptoTask task)
+    {
+        try {
+            task.crypt();
+        } catch (Throwable t) {
+            log.warning("Secure authentication step failed", "conn", task.conn, t);
+            task.failed = true;
+        }
+    }
+
+    /**
+     * Completes a task whose cryptographic work has been done. Called on the conmgr thread.
+     */
+    protected void cryptoCompleted (CryptoTask task)
+    {
+        PresentsConMgrStats stats = (PresentsConMgrStats)_stats;
+        synchronized (this) {
+            stats.cryptoTasks++;
+            stats.cryptoNanos += System.nanoTime() - task.submitted;
+        }
+
+        if (task.conn.isClosed()) {
+            // nothing to do, the client gave up on us
+        } else if (task.failed) {
+            closeConnection(task.conn);
+        } else {
+            task.completed();
+        }
+    }
+
+    /**
+     * Creates the pool of threads on which secure authentication steps are performed.
+     */
+    protected ThreadPoolExecutor createCryptoExecutor ()
+    {
+        ThreadFactory factory = new ThreadFactory() {
+            public Thread newThread (Runnable runnable) {
+                Thread thread = new Thread(runnable, "presents.Crypto-" + _count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+            protected AtomicInteger _count = new AtomicInteger();
+        };
+        return new ThreadPoolExecutor(
+            _cryptoThreads, _cryptoThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(_cryptoQueueLimit, 1)), factory);
+    }
+
     /**
      * Starts an accepted socket down the path to authorization.
      */
@@ -468,8 +930,32 @@ public class PresentsConnectionManager extends ConnectionManager
      */
     protected void processAuthedConnections (long iterStamp)
     {
+        if (haveReactors()) {
+            // retry any connections we were unable to hand off on a previous tick
+            for (AuthingConnection conn : _unassigned) {
+                _authq.append(conn);
+            }
+            _unassigned.clear();
+
+            // if we're going to hand connections off to a secondary reactor, the messages already
+            // queued up for them (their auth response) must be written first so that they don't
+            // end up racing with messages written by the reactor
+            if (_authq.size() > 0) {
+                sendOutgoingMessages(iterStamp);
+            }
+        }
+
         AuthingConnection conn;
         while ((conn = _authq.getNonBlocking()) != null) {
+            if (haveReactors() && (_oflowqs.containsKey(conn) || hasQueuedMessages(conn))) {
+                // wait until our queued messages have been written before passing this connection
+                // off to another thread (if they're never written, the connection will fail)
+                if (!conn.isClosed()) {
+                    _unassigned.add(conn);
+                }
+                continue;
+            }
+
             try {
                 // construct a new running connection to handle this connections network traffic
                 // from here on out
@@ -485,14 +971,21 @@ public class PresentsConnectionManager extends ConnectionManager
                 _handlers.put(rconn.selkey, rconn);
 
                 // add a mapping for the connection id and set the datagram secret
-                _connections.put(rconn.getConnectionId(), rconn);
+                synchronized (_connections) {
+                    _connections.put(rconn.getConnectionId(), rconn);
+                }
                 rconn.setDatagramSecret(conn.getAuthRequest().getCredentials().getDatagramSecret());
 
-                // transfer any overflow queue for that connection
+                // transfer any overflow queue and queued messages for that connection
                 OverflowQueue oflowHandler = _oflowqs.remove(conn);
                 if (oflowHandler != null) {
+                    oflowHandler.conn = rconn;
                     _oflowqs.put(rconn, oflowHandler);
                 }
+                transferQueued(conn, rconn);
+
+                // pin the new connection to one of our secondary reactors if we have them
+                assignReactor(rconn);
 
                 // and let the client manager know about our new connection
                 _clmgr.connectionEstablished(rconn, conn.getAuthName(), conn.getAuthRequest(),
@@ -583,6 +1076,93 @@ public class PresentsConnectionManager extends ConnectionManager
         protected final Connection _conn;
     }
 
+    /**
+     * A step of the secure authentication process whose cryptographic work may be performed off
+     * of the conmgr thread. See {@link #performCrypto}.
+     */
+    protected abstract static class CryptoTask
+    {
+        /** The connection being authenticated. */
+        public final AuthingConnection conn;
+
+        /** The time at which this task was handed off for processing. */
+        public long submitted;
+
+        /** Whether our cryptographic work failed unexpectedly. */
+        public boolean failed;
+
+        public CryptoTask (AuthingConnection conn)
+        {
+            this.conn = conn;
+        }
+
+        /**
+         * Performs the cryptographic work of this step. This may be called on any thread.
+         */
+        public abstract void crypt ();
+
+        /**
+         * Completes this step with the results of our cryptographic work. This is called on the
+         * conmgr thread, and is not called if the connection has since been closed.
+         */
+        public abstract void completed ();
+
+        /**
+         * Returns the message with which the client is turned away if this step cannot be handed
+         * off to a crypto thread.
+         */
+        public abstract DownstreamMessage rejection ();
+    }
+
+    /** Supplies the prepared forms of the events in a compound message as they are written. */
+    protected class MemberPreparer
+        implements ObjectOutputStream.Preparer
+    {
+        /** The number of members that were written in prepared forms. */
+        public int reused;
+
+        public MemberPreparer (List<DownstreamMessage> msgs)
+        {
+            for (DownstreamMessage msg : msgs) {
+                if (msg instanceof EventNotification) {
+                    _members.put(msg, Boolean.TRUE);
+                }
+            }
+        }
+
+        // from interface ObjectOutputStream.Preparer
+        public PreparedObject getPrepared (Object object, ObjectOutputStream out)
+            throws IOException
+        {
+            if (_members.isEmpty() || !_members.containsKey(object)) {
+                return null;
+            }
+            PreparedObject prepared = getPreparedMessage((Message)object, out);
+            if (prepared != null) {
+                reused++;
+            }
+            return prepared;
+        }
+
+        protected Map<Object, Boolean> _members = Maps.newIdentityHashMap();
+    }
+
+    /** The prepared forms of a recently delivered event. */
+    protected static class PreparedEvent
+    {
+        /** The id of the event when it was delivered (events may be reposted). */
+        public final long eventId;
+
+        /** The event's prepared forms for streams with each combination of field indices and
+         * deltas, if it has been delivered to more than one subscriber. */
+        public final PreparedObject[] forms = new PreparedObject[4];
+
+        public PreparedEvent (long eventId)
+        {
+            this.eventId = eventId;
+        }
+    }
+
     /** Handles client authentication. The base authenticator is injected but optional services
      * like the PeerManager may replace this authenticator with one that intercepts certain types
      * of authentication and then passes normal authentications through. */
@@ -591,14 +1171,66 @@ public class PresentsConnectionManager extends ConnectionManager
     protected PrivateKey _privateKey;
 
     protected Queue<AuthingConnection> _authq = Queue.newQueue();
+
+    /** The number of authentications that may be waiting to be processed by the auth invoker,
+     * beyond which further authentication requests are rejected as {@link AuthCodes#SERVER_BUSY}.
+     * Zero (the default) means that there is no limit. */
+    @Inject(optional=true) @Named("presents.auth.maxPending")
+    protected int _maxPendingAuths = 0;
+
+    /** Secure authentication steps whose cryptographic work has been done by a crypto thread. */
+    protected Queue<CryptoTask> _cryptoq = Queue.newQueue();
+
+    /** Performs secure authentication steps, or null if we have no crypto threads or have not
+     * yet needed them. */
+    protected volatile ThreadPoolExecutor _cryptoExec;
+
+    /** The number of threads on which the cryptographic work of secure authentication is done.
+     * Zero (the default) means that it is done on the conmgr thread. */
+    @Inject(optional=true) @Named("presents.net.cryptoThreads")
+    protected int _cryptoThreads = 0;
+
+    /** The number of secure authentication steps that may wait for a crypto thread, beyond which
+     * the clients making further steps are turned away. */
+    @Inject(optional=true) @Named("presents.net.cryptoQueueLimit")
+    protected int _cryptoQueueLimit = 1000;
+
+    /** Authed connections that are waiting for their overflow queue to drain before they can be
+     * handed off to a secondary reactor. */
+    protected List<AuthingConnection> _unassigned = Lists.newArrayList();
+
     protected Queue<Tuple<Connection, InetSocketAddress>> _connectq = Queue.newQueue();
 
     /** failed (idled out) outgoing connections that need to be cleaned up */
     protected Queue<OutgoingConnectionHandler> _outfailq = Queue.newQueue();
 
-    protected FramingOutputStream _framer = new FramingOutputStream();
+    /** The framer into which each thread that posts messages flattens them. */
+    protected ThreadLocal<FramingOutputStream> _framers = new ThreadLocal<FramingOutputStream>() {
+        @Override protected FramingOutputStream initialValue () {
+            return new FramingOutputStream();
+        }
+    };
+
+    /** The size (in bytes) at or above which frames are compressed for clients that accept
+     * compressed frames, or zero to never compress frames. */
+    @Inject(optional=true) @Named("presents.net.compressThreshold")
+    protected int _compressThreshold = 0;
     protected ByteArrayOutputStream _flattener = new ByteArrayOutputStream();
 
+    /** The events most recently delivered by each thread that posts messages, least recently
+     * delivered first. */
+    protected ThreadLocal<Map<DEvent, PreparedEvent>> _preparedEvents =
+        new ThreadLocal<Map<DEvent, PreparedEvent>>() {
+        @Override protected Map<DEvent, PreparedEvent> initialValue () {
+            return new LinkedHashMap<DEvent, PreparedEvent>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry (
+                    Map.Entry<DEvent, PreparedEvent> eldest) {
+                    return size() > MAX_PREPARED_EVENTS;
+                }
+            };
+        }
+    };
+
     // some dependencies
     @Inject @AuthInvoker protected Invoker _authInvoker;
     @Inject protected ClientManager _clmgr;
@@ -609,4 +1241,10 @@ public class PresentsConnectionManager extends ConnectionManager
 
     protected Queue<Tuple<PresentsConnection, byte[]>> _dataq = Queue.newQueue();
     protected ByteBuffer _databuf = ByteBuffer.allocateDirect(Client.MAX_DATAGRAM_SIZE);
+
+    /** The number of the largest overflow queues that we describe in our report. */
+    protected static final int REPORTED_OVERFLOWS = 5;
+
+    /** The number of recently delivered events whose prepared forms we retain. */
+    protected static final int MAX_PREPARED_EVENTS = 256;
 }
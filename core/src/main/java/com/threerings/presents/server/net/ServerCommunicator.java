@@ -24,6 +24,7 @@ package com.threerings.presents.server.net;
 import java.io.IOException;
 import java.io.InputStream;
 
+import com.threerings.io.FramedInputStream;
 import com.threerings.io.ObjectInputStream;
 import com.threerings.presents.client.Client;
 import com.threerings.presents.client.ClientObjectInputStream;
@@ -90,6 +91,13 @@ public class ServerCommunicator extends Communicator
                     return new ClientObjectInputStream(_client, src);
                 }
 
+                @Override protected FramedInputStream createFramedInputStream () {
+                    // our auth request tells the server that we accept compressed frames
+                    FramedInputStream fin = super.createFramedInputStream();
+                    fin.setAcceptCompressed(true);
+                    return fin;
+                }
+
                 @Override protected void closeSocket () {
                     super.closeSocket();
                     shutdown();
@@ -27,6 +27,7 @@ import com.samskivert.util.Invoker;
 import com.threerings.presents.client.InvocationService;
 import com.threerings.presents.data.InvocationCodes;
 import com.threerings.presents.server.InvocationException;
+import com.threerings.presents.server.PooledInvoker;
 
 import static com.threerings.presents.Log.log;
 
@@ -37,6 +38,7 @@ import static com.threerings.presents.Log.log;
  * replied to with {@link InvocationCodes#INTERNAL_ERROR}.
  */
 public abstract class PersistingUnit extends Invoker.Unit
+    implements PooledInvoker.Keyed
 {
     public PersistingUnit (InvocationService.InvocationListener listener)
     {
@@ -102,6 +104,18 @@ public abstract class PersistingUnit extends Invoker.Unit
         }
     }
 
+    /**
+     * Returns the key that determines which invoker worker runs this unit, if the invoker has
+     * workers. By default this is null, which runs the unit on the main invoker thread in order
+     * with all other unkeyed units. Units that only need to be ordered with respect to units
+     * affecting the same data (those of a particular user, say) can return a key identifying
+     * that data.
+     */
+    public Object getAffinityKey ()
+    {
+        return null;
+    }
+
     @Override // from Invoker.Unit
     public boolean invoke ()
     {
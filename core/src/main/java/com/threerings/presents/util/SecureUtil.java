@@ -54,7 +54,7 @@ public class SecureUtil
     public static Cipher getAESCipher (int mode, byte[] key)
     {
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = Cipher.getInstance(AES_TRANSFORM);
             SecretKeySpec aesKey = new SecretKeySpec(key, "AES");
             cipher.init(mode, aesKey, IVPS);
             return cipher;
@@ -86,7 +86,7 @@ public class SecureUtil
     public static Cipher getRSACipher (int mode, Key key)
     {
         try {
-            Cipher cipher = Cipher.getInstance("RSA");
+            Cipher cipher = Cipher.getInstance(RSA_TRANSFORM);
             cipher.init(mode, key);
             return cipher;
         } catch (GeneralSecurityException gse) {
@@ -95,6 +95,30 @@ public class SecureUtil
         return null;
     }
 
+    /**
+     * Encrypts or decrypts the supplied data with AES using the supplied key. This uses a cipher
+     * that is cached by the calling thread rather than creating a new one for every operation.
+     */
+    public static byte[] doAES (int mode, byte[] key, byte[] data)
+        throws GeneralSecurityException
+    {
+        Cipher cipher = getThreadCipher(_aesCiphers, AES_TRANSFORM);
+        cipher.init(mode, new SecretKeySpec(key, "AES"), IVPS);
+        return cipher.doFinal(data);
+    }
+
+    /**
+     * Encrypts or decrypts the supplied data with RSA using the supplied key. This uses a cipher
+     * that is cached by the calling thread rather than creating a new one for every operation.
+     */
+    public static byte[] doRSA (int mode, Key key, byte[] data)
+        throws GeneralSecurityException
+    {
+        Cipher cipher = getThreadCipher(_rsaCiphers, RSA_TRANSFORM);
+        cipher.init(mode, key);
+        return cipher.doFinal(data);
+    }
+
     /**
      * Creates an RSA key pair.
      */
@@ -225,7 +249,7 @@ public class SecureUtil
             encrypt[secret.length + ii] = salt[ii];
         }
         try {
-            return getRSACipher(key).doFinal(encrypt);
+            return doRSA(Cipher.ENCRYPT_MODE, key, encrypt);
         } catch (GeneralSecurityException gse) {
             log.warning("Failed to encrypt bytes", gse);
         }
@@ -240,7 +264,7 @@ public class SecureUtil
     public static byte[] decryptBytes (PrivateKey key, byte[] encrypted, byte[] salt)
     {
         try {
-            byte[] decrypted = getRSACipher(key).doFinal(encrypted);
+            byte[] decrypted = doRSA(Cipher.DECRYPT_MODE, key, encrypted);
             for (int ii = 0; ii < salt.length; ii++) {
                 if (decrypted[decrypted.length - salt.length + ii] != salt[ii]) {
                     return null;
@@ -269,8 +293,29 @@ public class SecureUtil
         return xored;
     }
 
+    /**
+     * Returns the calling thread's cipher for the specified transformation, creating it if
+     * necessary. The caller must initialize the cipher before using it.
+     */
+    protected static Cipher getThreadCipher (ThreadLocal<Cipher> ciphers, String transform)
+        throws GeneralSecurityException
+    {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            ciphers.set(cipher = Cipher.getInstance(transform));
+        }
+        return cipher;
+    }
+
     protected static final SecureRandom _rand = new SecureRandom();
 
+    /** Each thread's AES and RSA ciphers, reinitialized for every operation. */
+    protected static final ThreadLocal<Cipher> _aesCiphers = new ThreadLocal<Cipher>();
+    protected static final ThreadLocal<Cipher> _rsaCiphers = new ThreadLocal<Cipher>();
+
+    /** The transformations used by our ciphers. */
+    protected static final String AES_TRANSFORM = "AES/CBC/PKCS5Padding", RSA_TRANSFORM = "RSA";
+
     /** Our split character. */
     protected static final char SPLIT = '#';
 
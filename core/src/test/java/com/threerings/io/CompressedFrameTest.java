@@ -0,0 +1,153 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the reading of compressed frames interleaved with uncompressed ones.
+ */
+public class CompressedFrameTest
+{
+    @Test public void testMixedFrames ()
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        WritableByteChannel out = Channels.newChannel(bout);
+        FramingOutputStream fout = new FramingOutputStream();
+        DataOutputStream dout = new DataOutputStream(fout);
+
+        // a small uncompressed frame
+        dout.writeUTF(SMALL);
+        write(out, fout.frameAndReturnBuffer(), false);
+        fout.resetFrame();
+
+        // a large frame, well above any sensible threshold, which deflates nicely
+        writeLarge(dout, 'a');
+        ByteBuffer buffer = fout.compressAndReturnBuffer();
+        assertTrue("compressed frame shrank", buffer.remaining() < LARGE_COUNT * LARGE.length());
+        write(out, buffer, true);
+        fout.resetFrame();
+
+        // a frame too small to benefit from compression is sent uncompressed
+        dout.writeByte(42);
+        write(out, fout.compressAndReturnBuffer(), false);
+        fout.resetFrame();
+
+        // a large frame sent uncompressed
+        writeLarge(dout, 'b');
+        write(out, fout.frameAndReturnBuffer(), false);
+        fout.resetFrame();
+
+        // and another large compressed frame, to ensure we reuse our buffers properly
+        writeLarge(dout, 'c');
+        write(out, fout.compressAndReturnBuffer(), true);
+        fout.resetFrame();
+
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(bout.toByteArray()));
+        FramedInputStream fin = new FramedInputStream();
+        fin.setAcceptCompressed(true);
+        DataInputStream din = new DataInputStream(fin);
+
+        readFrame(fin, in);
+        assertEquals(SMALL, din.readUTF());
+        assertEquals(-1, fin.read());
+
+        readFrame(fin, in);
+        readLarge(din, 'a');
+        assertEquals(-1, fin.read());
+
+        readFrame(fin, in);
+        assertEquals(42, din.readByte());
+        assertEquals(-1, fin.read());
+
+        readFrame(fin, in);
+        readLarge(din, 'b');
+        assertEquals(-1, fin.read());
+
+        readFrame(fin, in);
+        readLarge(din, 'c');
+        assertEquals(-1, fin.read());
+    }
+
+    protected static void write (WritableByteChannel out, ByteBuffer buffer, boolean compressed)
+        throws IOException
+    {
+        boolean flagged = (buffer.getInt(buffer.position()) & FramingOutputStream.COMPRESSED_FLAG)
+            != 0;
+        assertEquals("compressed flag", compressed, flagged);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    protected static void readFrame (FramedInputStream fin, ReadableByteChannel in)
+        throws IOException
+    {
+        // large frames may take more than one read to arrive in full
+        for (int ii = 0; !fin.readFrame(in); ii++) {
+            assertFalse("frame never completed", ii > 1000);
+        }
+    }
+
+    protected static void writeLarge (DataOutputStream dout, char tag)
+        throws IOException
+    {
+        dout.writeChar(tag);
+        for (int ii = 0; ii < LARGE_COUNT; ii++) {
+            dout.writeUTF(LARGE);
+            dout.writeInt(ii);
+        }
+    }
+
+    protected static void readLarge (DataInputStream din, char tag)
+        throws IOException
+    {
+        assertEquals(tag, din.readChar());
+        for (int ii = 0; ii < LARGE_COUNT; ii++) {
+            assertEquals(LARGE, din.readUTF());
+            assertEquals(ii, din.readInt());
+        }
+    }
+
+    protected static final String SMALL = "Tiny.";
+
+    protected static final String LARGE =
+        "The quick brown fox jumped over the lazy dog, again and again and again.";
+
+    protected static final int LARGE_COUNT = 2000;
+}
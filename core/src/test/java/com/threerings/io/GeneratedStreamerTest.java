@@ -0,0 +1,132 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.samskivert.util.StringUtil;
+
+/**
+ * Tests that generated {@link FieldStreamer}s behave just like reflective streaming.
+ */
+public class GeneratedStreamerTest
+{
+    @Test
+    public void testWidget ()
+        throws IOException, ClassNotFoundException
+    {
+        testStreaming(new StreamableTest.Widget());
+    }
+
+    @Test
+    public void testWocket ()
+        throws IOException, ClassNotFoundException
+    {
+        testStreaming(new StreamableTest.Wocket());
+    }
+
+    @Test
+    public void testCustomStreamer ()
+        throws IOException, ClassNotFoundException
+    {
+        testStreaming(new StreamableTest.Wicket());
+    }
+
+    @Test
+    public void testMissingFields ()
+        throws IOException, ClassNotFoundException
+    {
+        // a stream that ends early leaves the remaining fields untouched
+        Streamer streamer = createStreamer(StreamableTest.Wocket.class, true);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new ObjectOutputStream(bout).writeByte(42);
+        StreamableTest.Wocket wocket = (StreamableTest.Wocket)read(streamer, bout.toByteArray());
+        assertEquals(42, wocket.bizyte);
+        assertEquals(new StreamableTest.Wocket().dizouble, wocket.dizouble, 0);
+    }
+
+    protected void testStreaming (Object object)
+        throws IOException, ClassNotFoundException
+    {
+        Streamer reflective = createStreamer(object.getClass(), false);
+        Streamer generated = createStreamer(object.getClass(), true);
+
+        // make sure both write exactly the same bytes, with and without custom writers
+        for (boolean useWriter : new boolean[] { true, false }) {
+            byte[] data = write(reflective, object, useWriter);
+            assertEquals(StringUtil.hexlate(data),
+                         StringUtil.hexlate(write(generated, object, useWriter)));
+        }
+        assertNotNull(((Streamer.ClassStreamer)generated)._fstreamer);
+
+        // and that the generated streamer reads back what was written
+        assertEquals(object, read(generated, write(reflective, object, true)));
+    }
+
+    protected static Streamer createStreamer (Class<?> target, boolean generate)
+        throws IOException
+    {
+        boolean ogenerate = FieldStreamer._generate;
+        FieldStreamer._generate = generate;
+        try {
+            Streamer streamer = Streamer.create(target);
+            // custom class streamers create their marshallers on first use
+            write(streamer, createInstance(target), false);
+            return streamer;
+        } finally {
+            FieldStreamer._generate = ogenerate;
+        }
+    }
+
+    protected static Object createInstance (Class<?> target)
+    {
+        try {
+            return target.newInstance();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    protected static byte[] write (Streamer streamer, Object object, boolean useWriter)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeBareObject(object, streamer, useWriter);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    protected static Object read (Streamer streamer, byte[] data)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+        Object object = streamer.createObject(oin);
+        oin.readBareObject(object, streamer, true);
+        return object;
+    }
+}
@@ -0,0 +1,132 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.io;
+
+import java.util.List;
+import java.util.Map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.samskivert.util.StringUtil;
+
+/**
+ * Tests the {@link PreparedObject} class.
+ */
+public class PreparedObjectTest
+{
+    @Test
+    public void testFreshStream ()
+        throws IOException
+    {
+        StreamableTest.Widget w = new StreamableTest.Widget();
+        PreparedObject prep = PreparedObject.prepare(w);
+
+        // a prepared object must produce exactly the bytes that writeObject() would
+        assertEquals(StringUtil.hexlate(StreamableTest.flatten(w)),
+                     StringUtil.hexlate(writePrepared(prep)));
+    }
+
+    @Test
+    public void testExistingMappings ()
+        throws IOException, ClassNotFoundException
+    {
+        StreamableTest.Widget w = new StreamableTest.Widget();
+        PreparedObject prep = PreparedObject.prepare(w);
+
+        // write a widget to two streams, one normally and one via the prepared object; then do
+        // so again so that the second write reuses the class and intern codes of the first
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeUTF("header");
+        oout.writeObject(w);
+        oout.writeObject(w);
+
+        ByteArrayOutputStream pbout = new ByteArrayOutputStream();
+        ObjectOutputStream pout = new ObjectOutputStream(pbout);
+        pout.writeUTF("header");
+        prep.writeTo(pout);
+        prep.writeTo(pout);
+
+        assertEquals(StringUtil.hexlate(bout.toByteArray()),
+                     StringUtil.hexlate(pbout.toByteArray()));
+
+        // and make sure it all reads back in properly
+        ObjectInputStream oin = new ObjectInputStream(
+            new ByteArrayInputStream(pbout.toByteArray()));
+        assertEquals("header", oin.readUTF());
+        assertEquals(w, oin.readObject());
+        assertEquals(w, oin.readObject());
+    }
+
+    @Test
+    public void testPreparedMembers ()
+        throws IOException, ClassNotFoundException
+    {
+        StreamableTest.Widget w1 = new StreamableTest.Widget();
+        StreamableTest.Widget w2 = new StreamableTest.Widget();
+        List<StreamableTest.Widget> widgets = Lists.newArrayList(w1, w2, w1);
+
+        // the prepared form of a member is written in its place wherever it appears
+        final Map<Object, PreparedObject> prepared = Maps.newIdentityHashMap();
+        prepared.put(w1, PreparedObject.prepare(w1));
+        ByteArrayOutputStream pbout = new ByteArrayOutputStream();
+        ObjectOutputStream pout = new ObjectOutputStream(pbout);
+        pout.setPreparer(new ObjectOutputStream.Preparer() {
+            public PreparedObject getPrepared (Object object, ObjectOutputStream out) {
+                return prepared.get(object);
+            }
+        });
+        pout.writeObject(widgets);
+        pout.setPreparer(null);
+
+        assertEquals(StringUtil.hexlate(StreamableTest.flatten(widgets)),
+                     StringUtil.hexlate(pbout.toByteArray()));
+        ObjectInputStream oin = new ObjectInputStream(
+            new ByteArrayInputStream(pbout.toByteArray()));
+        assertEquals(widgets, oin.readObject());
+    }
+
+    @Test
+    public void testNull ()
+        throws IOException
+    {
+        PreparedObject prep = PreparedObject.prepare(null);
+        assertEquals(StringUtil.hexlate(StreamableTest.flatten(null)),
+                     StringUtil.hexlate(writePrepared(prep)));
+    }
+
+    protected static byte[] writePrepared (PreparedObject prep)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        prep.writeTo(new ObjectOutputStream(bout));
+        return bout.toByteArray();
+    }
+}
@@ -0,0 +1,284 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.nio.conman;
+
+import java.util.List;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the overflow policies of {@link Reactor.OverflowQueue}.
+ */
+public class OverflowQueueTest
+{
+    public OverflowQueueTest ()
+        throws IOException
+    {
+        _reactor = new TestReactor();
+    }
+
+    @Test public void testCollapse ()
+    {
+        _reactor._collapseOverflow = true;
+        Reactor.OverflowQueue oqueue = _reactor.new OverflowQueue(null, message(0, 4));
+        ByteBuffer a1 = message(1, 4), b = message(2, 4), a2 = message(3, 4);
+        oqueue.append(a1, "a");
+        oqueue.append(b, null);
+        oqueue.append(a2, "a");
+
+        // the first "a" is superseded by the second, but the unkeyed message stays put
+        assertQueue(oqueue, Reactor.DROPPED_MESSAGE, b, a2);
+        assertEquals(Lists.newArrayList(a1), _reactor.released);
+        assertEquals(12L, oqueue.getBytes());
+    }
+
+    @Test public void testTouch ()
+    {
+        _reactor._collapseOverflow = true;
+        Reactor.OverflowQueue oqueue = _reactor.new OverflowQueue(null, message(0, 4));
+        ByteBuffer a1 = message(1, 4), t = message(2, 4), a2 = message(3, 4), a3 = message(4, 4);
+        List<Object> touched = Lists.<Object>newArrayList("a");
+        oqueue.append(a1, "a");
+        oqueue.append(t, Reactor.getTouchKey(touched, false));
+        oqueue.append(a2, "a");
+        oqueue.append(a3, "a");
+
+        // a message that touches "a" keeps the "a" before it from being superseded by those after
+        assertQueue(oqueue, a1, t, Reactor.DROPPED_MESSAGE, a3);
+        assertEquals(Lists.newArrayList(a2), _reactor.released);
+    }
+
+    @Test public void testDroppable ()
+    {
+        _reactor._overflowSoftLimit = 10;
+        Reactor.OverflowQueue oqueue = _reactor.new OverflowQueue(null, message(0, 4));
+        ByteBuffer d1 = message(1, 4), m1 = message(2, 4), d2 = message(3, 4);
+        oqueue.append(d1, Reactor.DROPPABLE);
+        assertEquals(8L, oqueue.getBytes());
+
+        // going over the soft limit drops the droppable messages that are already queued
+        oqueue.append(m1, null);
+        assertQueue(oqueue, Reactor.DROPPED_MESSAGE, m1);
+        assertEquals(8L, oqueue.getBytes());
+
+        // droppable messages queued while we're over the limit are discarded immediately
+        oqueue.append(message(4, 4), Reactor.INDEPENDENT);
+        oqueue.append(d2, Reactor.DROPPABLE);
+        assertEquals(3, oqueue.size());
+        assertEquals(Lists.newArrayList(d1, d2), _reactor.released);
+        assertEquals(12L, oqueue.getBytes());
+    }
+
+    @Test public void testLanes ()
+        throws IOException
+    {
+        _reactor._overflowLanes = true;
+        TestConnection conn = new TestConnection();
+        try {
+            Reactor.OverflowQueue oqueue = _reactor.new OverflowQueue(conn, message(0, 4));
+            oqueue.append(message(1, 4), Reactor.INDEPENDENT);
+            oqueue.append(message(2, 4), _reactor.getLaneKey(1));
+            oqueue.append(message(3, 4), null);
+            oqueue.append(message(4, 4), _reactor.getLaneKey(2));
+            oqueue.append(message(5, 4), _reactor.getLaneKey(1));
+            assertEquals(5, oqueue.getMessageCount());
+
+            // the first lane message overtakes the independent message, but those queued after
+            // the unkeyed message must wait for it; the partial message always goes first
+            assertTrue(oqueue.writeOverflowMessages(0L));
+            assertEquals("0 2 1 3 5 4", conn.read(24));
+            assertEquals(0, oqueue.getMessageCount());
+            assertEquals(0L, oqueue.getBytes());
+        } finally {
+            conn.shutdown();
+        }
+    }
+
+    @Test public void testAsyncClose ()
+        throws IOException
+    {
+        _reactor._collapseOverflow = true;
+        TestConnection conn = new TestConnection();
+        try {
+            // a message too large for the socket buffers forces an overflow queue to be created
+            // during the same flush that processes the close request
+            conn.getChannel().configureBlocking(false);
+            _reactor.postMessage(conn, message(0, BIG), null);
+            _reactor.postMessage(conn, Reactor.ASYNC_CLOSE_REQUEST, null);
+            assertFalse(_reactor.flushMessages(conn));
+            Reactor.OverflowQueue oqueue = _reactor._oflowqs.get(conn);
+            assertQueue(oqueue, Reactor.ASYNC_CLOSE_REQUEST);
+
+            // later messages are superseded correctly
+            ByteBuffer a2 = message(2, 4), b2 = message(4, 4);
+            oqueue.append(message(1, 4), "a");
+            oqueue.append(message(3, 4), "b");
+            oqueue.append(a2, "a");
+            oqueue.append(b2, "b");
+            assertQueue(oqueue, Reactor.ASYNC_CLOSE_REQUEST, Reactor.DROPPED_MESSAGE,
+                        Reactor.DROPPED_MESSAGE, a2, b2);
+
+            // the connection is queued for death once the messages before the close are written
+            StringBuilder ids = new StringBuilder();
+            while (!oqueue.writeOverflowMessages(0L)) {
+                conn.drain(ids);
+            }
+            conn.drain(ids);
+            assertSame(conn, _reactor._deathq.getNonBlocking());
+            assertEquals(BIG + 8, ids.length());
+        } finally {
+            conn.shutdown();
+        }
+    }
+
+    protected void assertQueue (Reactor.OverflowQueue oqueue, ByteBuffer... expect)
+    {
+        assertEquals(expect.length, oqueue.size());
+        assertEquals(expect.length, oqueue._keys.size());
+        for (int ii = 0; ii < expect.length; ii++) {
+            assertSame(expect[ii], oqueue.get(ii));
+        }
+    }
+
+    /**
+     * Creates a message of the specified size filled with the specified id.
+     */
+    protected static ByteBuffer message (int id, int size)
+    {
+        ByteBuffer data = ByteBuffer.allocate(size);
+        for (int ii = 0; ii < size; ii++) {
+            data.put((byte)id);
+        }
+        data.flip();
+        return data;
+    }
+
+    /** A reactor that doesn't need a connection manager. */
+    protected static class TestReactor extends Reactor
+    {
+        public List<ByteBuffer> released = Lists.newArrayList();
+
+        public TestReactor ()
+            throws IOException
+        {
+            super("test", 0L);
+        }
+
+        @Override protected void releaseBuffer (ByteBuffer data)
+        {
+            if (data != ASYNC_CLOSE_REQUEST && data != DROPPED_MESSAGE) {
+                released.add(data);
+            }
+        }
+    }
+
+    /** A connection to a local socket whose output we can read back. */
+    protected static class TestConnection extends Connection
+    {
+        public TestConnection ()
+            throws IOException
+        {
+            // keep the socket buffers small so that we can easily fill them
+            _server = ServerSocketChannel.open();
+            _server.socket().setReceiveBufferSize(BUFFER_SIZE);
+            _server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            _channel = SocketChannel.open();
+            _channel.socket().setSendBufferSize(BUFFER_SIZE);
+            _channel.connect(_server.socket().getLocalSocketAddress());
+            _peer = _server.accept();
+            _peer.configureBlocking(false);
+        }
+
+        /**
+         * Reads whatever has been written to this connection so far, appending a character for
+         * each byte.
+         */
+        public void drain (StringBuilder into)
+            throws IOException
+        {
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            while (_peer.read(buf) > 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    into.append((char)('0' + buf.get()));
+                }
+                buf.clear();
+            }
+        }
+
+        /**
+         * Reads the specified number of bytes written to this connection, returning the ids of
+         * the messages they comprise, assuming that each is four bytes long.
+         */
+        public String read (int bytes)
+            throws IOException
+        {
+            ByteBuffer buf = ByteBuffer.allocate(bytes);
+            while (buf.hasRemaining() && _peer.read(buf) >= 0) {
+                // keep reading until we have it all
+            }
+            buf.flip();
+            StringBuilder ids = new StringBuilder();
+            for (int ii = 0; ii < buf.limit(); ii += 4) {
+                ids.append((ids.length() == 0) ? "" : " ").append(buf.get(ii));
+            }
+            return ids.toString();
+        }
+
+        public void shutdown ()
+            throws IOException
+        {
+            closeSocket();
+            _peer.close();
+            _server.close();
+        }
+
+        public int handleEvent (long when)
+        {
+            return 0;
+        }
+
+        protected ServerSocketChannel _server;
+        protected SocketChannel _peer;
+    }
+
+    protected TestReactor _reactor;
+
+    /** Larger than the socket buffers will accept in a single write. */
+    protected static final int BIG = 1024 * 1024 - 1;
+
+    /** The size of our test sockets' buffers. */
+    protected static final int BUFFER_SIZE = 8192;
+}
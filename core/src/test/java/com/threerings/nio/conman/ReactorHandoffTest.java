@@ -0,0 +1,186 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.nio.conman;
+
+import java.util.List;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.net.AuthRequest;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.UsernamePasswordCreds;
+import com.threerings.presents.server.ClientManager;
+import com.threerings.presents.server.PresentsTestBase;
+import com.threerings.presents.server.ReportManager;
+import com.threerings.presents.server.net.AuthingConnection;
+import com.threerings.presents.server.net.PresentsConnection;
+import com.threerings.presents.server.net.PresentsConnectionManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the handing off of newly authenticated connections to secondary reactors.
+ */
+public class ReactorHandoffTest extends PresentsTestBase
+{
+    public static class TestConnectionManager extends PresentsConnectionManager
+    {
+        @Inject public TestConnectionManager (Lifecycle cycle, ReportManager repmgr)
+            throws IOException
+        {
+            super(cycle, repmgr);
+        }
+
+        public void init (ClientManager clmgr)
+            throws IOException
+        {
+            _clmgr = clmgr;
+            _reactors.add(new Reactor(this, "test-0"));
+        }
+
+        public void authenticated (AuthingConnection conn)
+        {
+            _authq.append(conn);
+        }
+
+        public void processAuthed ()
+        {
+            processAuthedConnections(System.currentTimeMillis());
+        }
+    }
+
+    public static class TestClientManager extends ClientManager
+    {
+        public List<PresentsConnection> established = Lists.newArrayList();
+
+        @Inject public TestClientManager (ReportManager repmgr, Lifecycle cycle)
+        {
+            super(repmgr, cycle);
+        }
+
+        @Override public synchronized void connectionEstablished (
+            PresentsConnection conn, Name authname, AuthRequest req, AuthResponse rsp)
+        {
+            established.add(conn);
+        }
+    }
+
+    @Test public void testHandoff ()
+        throws Exception
+    {
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+        TestClientManager clmgr = getInstance(TestClientManager.class);
+        cmgr.init(clmgr);
+        Reactor reactor = cmgr._reactors.get(0);
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().setReceiveBufferSize(BUFFER_SIZE);
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+        SocketChannel channel = server.accept();
+        try {
+            channel.socket().setSendBufferSize(BUFFER_SIZE);
+            channel.configureBlocking(false);
+            peer.configureBlocking(false);
+            TestAuthingConnection conn = new TestAuthingConnection();
+            conn.init(cmgr, channel, System.currentTimeMillis());
+            conn.selkey = cmgr.register(channel, SelectionKey.OP_READ, conn);
+
+            // queue up more than the socket will accept (standing in for the auth response)
+            cmgr.postMessage(conn, OverflowQueueTest.message(1, BIG));
+            cmgr.authenticated(conn);
+
+            // the connection is not handed off while its messages are being written by the conmgr
+            cmgr.processAuthed();
+            assertTrue(cmgr._oflowqs.containsKey(conn));
+            assertTrue(clmgr.established.isEmpty());
+            assertEquals(0, reactor._adoptq.size());
+
+            // once they have all been written, it is
+            ByteBuffer buf = ByteBuffer.allocate(BIG + 4);
+            for (int ii = 0; clmgr.established.isEmpty(); ii++) {
+                assertTrue("handoff never happened", ii < 100000);
+                peer.read(buf);
+                cmgr.processAuthed();
+            }
+            PresentsConnection rconn = clmgr.established.get(0);
+            assertNotSame(conn, rconn);
+            assertSame(reactor, rconn.getReactor());
+            assertFalse(cmgr._handlers.containsValue(rconn));
+            assertFalse(cmgr._oflowqs.containsKey(conn));
+            assertEquals(1, reactor._adoptq.size());
+
+            // and later messages are written by the reactor, after those written by the conmgr
+            reactor.postMessage(rconn, OverflowQueueTest.message(2, 4));
+            reactor.iterate();
+            assertSame(rconn, reactor._handlers.get(rconn.selkey));
+            for (int ii = 0; buf.hasRemaining(); ii++) {
+                assertTrue("messages never arrived", ii < 100000);
+                peer.read(buf);
+            }
+            buf.flip();
+            for (int ii = 0; ii < BIG; ii++) {
+                assertEquals(1, buf.get(ii));
+            }
+            assertEquals(2, buf.get(BIG));
+
+        } finally {
+            peer.close();
+            channel.close();
+            server.close();
+        }
+    }
+
+    /** An authing connection that has received an auth request. */
+    protected static class TestAuthingConnection extends AuthingConnection
+    {
+        public TestAuthingConnection ()
+        {
+            _authreq = new AuthRequest(
+                new UsernamePasswordCreds(new Name("test"), "test"), "", new String[0]);
+        }
+    }
+
+    /** Larger than the socket buffers will accept in a single write. */
+    protected static final int BIG = 1024 * 1024 - 1;
+
+    /** The size of our test sockets' buffers. */
+    protected static final int BUFFER_SIZE = 8192;
+}
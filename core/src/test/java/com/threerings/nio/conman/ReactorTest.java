@@ -0,0 +1,270 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.nio.conman;
+
+import java.util.List;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.samskivert.util.Lifecycle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the handing of connections to secondary {@link Reactor}s and the handling of those
+ * connections by the reactors to which they are handed.
+ */
+public class ReactorTest
+{
+    public ReactorTest ()
+        throws IOException
+    {
+        _cmgr = new TestConnectionManager();
+        for (int ii = 0; ii < 2; ii++) {
+            _cmgr._reactors.add(new Reactor(_cmgr, "test-" + ii));
+        }
+        _server = ServerSocketChannel.open();
+        _server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @After public void shutdown ()
+        throws IOException
+    {
+        for (TestConnection conn : _conns) {
+            conn.shutdown();
+        }
+        _server.close();
+    }
+
+    @Test public void testAssignment ()
+        throws IOException
+    {
+        Reactor r0 = _cmgr._reactors.get(0), r1 = _cmgr._reactors.get(1);
+        TestConnection c1 = connect(), c2 = connect(), c3 = connect();
+        assertSame(_cmgr, c1.getReactor());
+
+        // connections are handed to our reactors in turn and leave our selector
+        _cmgr.assignReactor(c1);
+        _cmgr.assignReactor(c2);
+        _cmgr.assignReactor(c3);
+        assertSame(r0, c1.getReactor());
+        assertSame(r1, c2.getReactor());
+        assertSame(r0, c3.getReactor());
+        assertNull(c1.selkey);
+        assertFalse(_cmgr._handlers.containsValue(c1));
+
+        // each reactor registers its connections on its next tick and writes their messages
+        r0.postMessage(c1, message(1));
+        r0.postMessage(c3, message(3));
+        r1.postMessage(c2, message(2));
+        r0.iterate();
+        r1.iterate();
+        assertNotNull(c1.selkey);
+        assertSame(c1, r0._handlers.get(c1.selkey));
+        assertSame(c3, r0._handlers.get(c3.selkey));
+        assertSame(c2, r1._handlers.get(c2.selkey));
+        assertEquals(1, c1.read());
+        assertEquals(2, c2.read());
+        assertEquals(3, c3.read());
+    }
+
+    @Test public void testClose ()
+        throws IOException
+    {
+        TestConnection conn = connect();
+        _cmgr.assignReactor(conn);
+        Reactor reactor = conn.getReactor();
+        reactor.iterate();
+
+        // connections are closed on the thread of the reactor that owns them
+        _cmgr.closeConnection(conn);
+        assertEquals(0, _cmgr._deathq.size());
+        assertEquals(1, reactor._deathq.size());
+        assertFalse(conn.isClosed());
+        reactor.iterate();
+        assertTrue(conn.isClosed());
+        assertTrue(reactor._handlers.isEmpty());
+        assertEquals(1, _cmgr.getStats().closes);
+        assertEquals(-1, conn.read());
+    }
+
+    @Test public void testAsyncClose ()
+        throws IOException
+    {
+        TestConnection conn = connect();
+        _cmgr.assignReactor(conn);
+        Reactor reactor = conn.getReactor();
+        reactor.iterate();
+
+        // an asynchronous close is processed by the owning reactor once the messages before it
+        // have been written
+        reactor.postMessage(conn, message(5));
+        conn.asyncClose();
+        assertEquals(0, _cmgr._pendingq.size());
+        reactor.iterate();
+        reactor.iterate();
+        assertTrue(conn.isClosed());
+        assertEquals(5, conn.read());
+        assertEquals(-1, conn.read());
+    }
+
+    @Test public void testIdle ()
+        throws IOException
+    {
+        // place both connections on the same reactor
+        TestConnection conn = connect(), other = connect(), active = connect();
+        _cmgr.assignReactor(conn);
+        _cmgr.assignReactor(other);
+        _cmgr.assignReactor(active);
+        Reactor reactor = conn.getReactor();
+        assertSame(reactor, active.getReactor());
+        reactor.iterate();
+
+        // a client that stops pinging is disconnected by the reactor that owns its connection
+        conn._lastEvent = 0L;
+        reactor.iterate();
+        assertEquals(0, _cmgr._deathq.size());
+        reactor.iterate();
+        assertTrue(conn.isClosed());
+        assertFalse(active.isClosed());
+        assertEquals(-1, conn.read());
+    }
+
+    @Test public void testStats ()
+        throws IOException
+    {
+        Reactor r0 = _cmgr._reactors.get(0), r1 = _cmgr._reactors.get(1);
+        TestConnection c1 = connect(), c2 = connect();
+        _cmgr.assignReactor(c1);
+        _cmgr.assignReactor(c2);
+        r0.postMessage(c1, message(1));
+        r0.postMessage(c1, message(2));
+        r1.postMessage(c2, message(3));
+        r0.iterate();
+        r1.iterate();
+
+        // our stats include those of our reactors, which are also available individually
+        ConMgrStats[] rstats = _cmgr.getReactorStats();
+        assertEquals(2, rstats.length);
+        assertEquals(1, rstats[0].handlerCount);
+        assertEquals(8L, rstats[0].bytesOut);
+        assertEquals(4L, rstats[1].bytesOut);
+        ConMgrStats stats = _cmgr.getStats();
+        assertEquals(2, stats.handlerCount);
+        assertEquals(12L, stats.bytesOut);
+        assertEquals(3L, stats.msgsOut);
+    }
+
+    protected TestConnection connect ()
+        throws IOException
+    {
+        TestConnection conn = new TestConnection();
+        _conns.add(conn);
+        return conn;
+    }
+
+    /**
+     * Creates a four byte message filled with the specified id.
+     */
+    protected static ByteBuffer message (int id)
+    {
+        return OverflowQueueTest.message(id, 4);
+    }
+
+    /** A connection manager that can be driven by hand. */
+    protected static class TestConnectionManager extends ConnectionManager
+    {
+        public TestConnectionManager ()
+            throws IOException
+        {
+            super(new Lifecycle(), 60 * 1000L);
+        }
+
+        @Override protected void handleAcceptedSocket (SocketChannel channel)
+        {
+            // not used
+        }
+    }
+
+    /** A connection to a local socket whose output we can read back. */
+    protected class TestConnection extends Connection
+    {
+        public TestConnection ()
+            throws IOException
+        {
+            _peer = SocketChannel.open(_server.socket().getLocalSocketAddress());
+            SocketChannel channel = _server.accept();
+            channel.configureBlocking(false);
+            init(_cmgr, channel, System.currentTimeMillis());
+            selkey = _cmgr.register(channel, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Reads the next four byte message written to this connection and returns its id, or
+         * returns -1 if the connection has been closed.
+         */
+        public int read ()
+            throws IOException
+        {
+            ByteBuffer buf = ByteBuffer.allocate(4);
+            while (buf.hasRemaining()) {
+                if (_peer.read(buf) < 0) {
+                    return -1;
+                }
+            }
+            return buf.get(0);
+        }
+
+        public void shutdown ()
+            throws IOException
+        {
+            closeSocket();
+            _peer.close();
+        }
+
+        public int handleEvent (long when)
+        {
+            return 0;
+        }
+
+        protected SocketChannel _peer;
+    }
+
+    protected TestConnectionManager _cmgr;
+    protected ServerSocketChannel _server;
+    protected List<TestConnection> _conns = Lists.newArrayList();
+}
@@ -22,10 +22,24 @@
 package com.threerings.presents.dobj;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.common.base.Function;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.util.Name;
+
+import com.threerings.presents.peer.data.ClientInfo;
+import com.threerings.presents.peer.data.NodeObject;
+
 /**
  * Tests the {@link DSet} class.
  */
@@ -68,11 +82,98 @@ public class DSetTest extends TestCase
         seed.add(new TestEntry(32));
 
         DSet<TestEntry> set = new DSet<TestEntry>(seed.iterator());
+        testSet(set);
+        testIndex(set);
+
+        // hashed sets should behave (and stream) identically
+        DSet<TestEntry> hashed = DSet.newHashedDSet(seed);
+        assertTrue(hashed.isHashed());
+        testSet(hashed);
+        testIndex(hashed);
+        assertEquals(set.toArrayList().toString(), hashed.toArrayList().toString());
+        assertTrue(hashed.clone().isHashed());
+        try {
+            assertTrue(Arrays.equals(flatten(set), flatten(hashed)));
+        } catch (IOException ioe) {
+            fail(ioe.toString());
+        }
+
+        // hashed fields should be hashed when unstreamed, and remain so when changed
+        try {
+            NodeObject nodeobj = new NodeObject();
+            ClientInfo info = new ClientInfo();
+            info.username = new Name("bob");
+            nodeobj.clients.add(info);
+            NodeObject read = (NodeObject)unflatten(flatten(nodeobj));
+            assertTrue(read.clients.isHashed());
+            assertNotNull(read.clients.get(info.username));
+            new AttributeChangedEvent(0, NodeObject.CLIENTS, new DSet<ClientInfo>()).
+                applyToObject(read);
+            assertTrue(read.clients.isHashed());
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    protected void testSet (DSet<TestEntry> set)
+    {
         assertFalse(set.add(new TestEntry(15)));
         assertTrue(set.add(new TestEntry(9)));
         assertTrue(set.remove(new TestEntry(32)));
         assertFalse(set.remove(new TestEntry(32)));
         assertTrue(set.add(new TestEntry(32)));
+        assertEquals(6, set.size());
+        assertEquals(Integer.valueOf(9), set.get(9).getKey());
+        assertNull(set.get(10));
+        assertNotNull(set.update(new TestEntry(7)));
+        assertNull(set.update(new TestEntry(8)));
+        assertEquals("[3, 7, 9, 15, 29, 32]", set.toArrayList().toString());
+    }
+
+    protected void testIndex (DSet<TestEntry> set)
+    {
+        DSet.Index<String, TestEntry> index = new DSet.Index<String, TestEntry>(
+            new Function<TestEntry, String>() {
+                public String apply (TestEntry entry) {
+                    return "e" + entry;
+                }
+            });
+        assertEquals(Integer.valueOf(29), index.get(set, "e29").getKey());
+        assertNull(index.get(set, "e30"));
+
+        // the index should track changes to the set, but not follow it into clones
+        DSet<TestEntry> clone = set.clone();
+        assertTrue(set.add(new TestEntry(30)));
+        assertNotNull(index.get(set, "e30"));
+        TestEntry updated = new TestEntry(30);
+        set.update(updated);
+        assertTrue(index.get(set, "e30") == updated);
+        set.removeKey(29);
+        assertNull(index.get(set, "e29"));
+
+        // pointing the index at another set should rebuild it from that set
+        assertNotNull(index.get(clone, "e29"));
+        assertNull(index.get(clone, "e30"));
+        set.removeKey(30);
+        assertNull(index.get(clone, "e30"));
+        assertTrue(set.add(new TestEntry(29)));
+        assertEquals(set.toArrayList().toString(), clone.toArrayList().toString());
+    }
+
+    protected static byte[] flatten (Object object)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(object);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    protected static Object unflatten (byte[] data)
+        throws IOException, ClassNotFoundException
+    {
+        return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
     }
 
     public static Test suite ()
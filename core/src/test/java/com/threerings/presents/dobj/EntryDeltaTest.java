@@ -0,0 +1,224 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.dobj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.SimpleStreamableObject;
+import com.threerings.io.StreamDeltas;
+
+import com.threerings.presents.net.BootstrapData;
+import com.threerings.presents.net.BootstrapNotification;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming of updated set entries as deltas.
+ */
+public class EntryDeltaTest
+{
+    @StreamDeltas
+    public static class DeltaEntry extends SimpleStreamableObject
+        implements DSet.Entry
+    {
+        public String name;
+        public int score;
+        public String notes;
+        public int[] ranks;
+
+        public DeltaEntry ()
+        {
+        }
+
+        public DeltaEntry (String name, int score, String notes, int[] ranks)
+        {
+            this.name = name;
+            this.score = score;
+            this.notes = notes;
+            this.ranks = ranks;
+        }
+
+        public Comparable<?> getKey ()
+        {
+            return name;
+        }
+    }
+
+    /** Inherits {@link StreamDeltas}, but streams itself with a custom reader and writer. */
+    public static class CustomEntry extends DeltaEntry
+    {
+        public transient boolean customRead;
+
+        public CustomEntry ()
+        {
+        }
+
+        public CustomEntry (String name, int score)
+        {
+            super(name, score, null, null);
+        }
+
+        public void writeObject (ObjectOutputStream out)
+            throws IOException
+        {
+            out.defaultWriteObject();
+            out.writeBoolean(true);
+        }
+
+        public void readObject (ObjectInputStream in)
+            throws IOException, ClassNotFoundException
+        {
+            in.defaultReadObject();
+            customRead = in.readBoolean();
+        }
+    }
+
+    public static class DeltaObject extends DObject
+    {
+        public DSet<DeltaEntry> entries = new DSet<DeltaEntry>();
+    }
+
+    @Test public void testDelta ()
+        throws Exception
+    {
+        String notes = "A lengthy description that should not be streamed when it is unchanged.";
+        DeltaEntry oentry = new DeltaEntry("bob", 1, notes, new int[] { 1, 2 });
+        DeltaEntry nentry = new DeltaEntry("bob", 2, notes, new int[] { 1, 2 });
+        EntryUpdatedEvent<DeltaEntry> event =
+            new EntryUpdatedEvent<DeltaEntry>(0, "entries", nentry).setOldEntry(oentry);
+
+        // the delta should be smaller, and carry no entry until applied
+        byte[] full = flatten(event, false), delta = flatten(event, true);
+        assertTrue(delta.length < full.length);
+        EntryUpdatedEvent<?> read = (EntryUpdatedEvent<?>)unflatten(delta, true);
+        assertNull(read.getEntry());
+        assertEquals("bob", read.getKey());
+
+        // applying it should rebuild the entry from the recipient's copy
+        DeltaObject target = new DeltaObject();
+        target.entries.add(new DeltaEntry("bob", 1, notes, new int[] { 1, 2 }));
+        assertTrue(read.applyToObject(target));
+        DeltaEntry entry = target.entries.get("bob");
+        assertEquals(2, entry.score);
+        assertEquals(notes, entry.notes);
+        assertArrayEquals(new int[] { 1, 2 }, entry.ranks);
+        assertSame(entry, read.getEntry());
+
+        // a delta for an entry the recipient doesn't have should fail to apply
+        read = (EntryUpdatedEvent<?>)unflatten(delta, true);
+        assertFalse(read.applyToObject(new DeltaObject()));
+    }
+
+    @Test public void testIdentity ()
+        throws Exception
+    {
+        // fields are compared by identity, so an equal but distinct value is streamed
+        int[] ranks = { 1, 2, 3, 4, 5, 6, 7, 8 };
+        DeltaEntry oentry = new DeltaEntry("bob", 1, null, ranks);
+        byte[] shared = flatten(new EntryUpdatedEvent<DeltaEntry>(
+            0, "entries", new DeltaEntry("bob", 2, null, ranks)).setOldEntry(oentry), true);
+        byte[] copied = flatten(new EntryUpdatedEvent<DeltaEntry>(
+            0, "entries", new DeltaEntry("bob", 2, null, ranks.clone())).setOldEntry(oentry), true);
+        assertTrue(shared.length < copied.length);
+
+        // and an unchanged instance produces an empty delta
+        DeltaEntry nentry = new DeltaEntry("bob", 1, null, ranks);
+        byte[] same = flatten(new EntryUpdatedEvent<DeltaEntry>(
+            0, "entries", nentry).setOldEntry(oentry), true);
+        assertTrue(same.length < shared.length);
+    }
+
+    @Test public void testFull ()
+        throws Exception
+    {
+        // events that have not been applied, or whose entries don't support deltas, are streamed
+        // in full even when deltas are allowed
+        DeltaEntry nentry = new DeltaEntry("bob", 2, null, null);
+        EntryUpdatedEvent<?> read = (EntryUpdatedEvent<?>)unflatten(flatten(
+            new EntryUpdatedEvent<DeltaEntry>(0, "entries", nentry), true), true);
+        assertEquals(2, ((DeltaEntry)read.getEntry()).score);
+
+        DSetTest.TestEntry tentry = new DSetTest.TestEntry(3);
+        EntryUpdatedEvent<DSetTest.TestEntry> event =
+            new EntryUpdatedEvent<DSetTest.TestEntry>(0, "entries", tentry).setOldEntry(
+                new DSetTest.TestEntry(3));
+        assertNotNull(((EntryUpdatedEvent<?>)unflatten(flatten(event, true), true)).getEntry());
+    }
+
+    @Test public void testCustom ()
+        throws Exception
+    {
+        // entries with custom streaming are always streamed in full, using their writer
+        CustomEntry nentry = new CustomEntry("bob", 2);
+        EntryUpdatedEvent<CustomEntry> event =
+            new EntryUpdatedEvent<CustomEntry>(0, "entries", nentry).setOldEntry(
+                new CustomEntry("bob", 1));
+        EntryUpdatedEvent<?> read = (EntryUpdatedEvent<?>)unflatten(flatten(event, true), true);
+        CustomEntry entry = (CustomEntry)read.getEntry();
+        assertNotNull(entry);
+        assertEquals(2, entry.score);
+        assertTrue(entry.customRead);
+    }
+
+    @Test public void testNegotiation ()
+        throws Exception
+    {
+        // the bootstrap switches both streams over to deltas, but only if requested
+        for (boolean deltas : new boolean[] { false, true }) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            ObjectOutputStream oout = new ObjectOutputStream(bout);
+            oout.writeObject(new BootstrapNotification(new BootstrapData(), false, deltas));
+            assertEquals(deltas, oout.getDeltas());
+            assertFalse(oout.getFieldIndices());
+            ObjectInputStream oin = new ObjectInputStream(
+                new ByteArrayInputStream(bout.toByteArray()));
+            assertEquals(deltas, ((BootstrapNotification)oin.readObject()).usesEntryDeltas());
+            assertEquals(deltas, oin.getDeltas());
+            assertFalse(oin.getFieldIndices());
+        }
+    }
+
+    protected static byte[] flatten (Object object, boolean deltas)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.setDeltas(deltas);
+        oout.writeObject(object);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    protected static Object unflatten (byte[] data, boolean deltas)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+        oin.setDeltas(deltas);
+        return oin.readObject();
+    }
+}
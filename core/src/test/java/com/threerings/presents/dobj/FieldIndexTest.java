@@ -0,0 +1,133 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.dobj;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.net.BootstrapData;
+import com.threerings.presents.net.BootstrapNotification;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming of named events with field indices.
+ */
+public class FieldIndexTest
+{
+    @Test public void testFieldEvents ()
+        throws Exception
+    {
+        TestObject source = new TestObject(), target = new TestObject();
+        AttributeChangedEvent event = new AttributeChangedEvent(0, TestObject.BAR, "hello");
+        event.resolveField(source);
+
+        // the indexed form should be smaller, and identify its field only once resolved
+        byte[] named = flatten(event, false), indexed = flatten(event, true);
+        assertTrue(indexed.length < named.length);
+        AttributeChangedEvent read = (AttributeChangedEvent)unflatten(indexed, true);
+        assertNull(read.getName());
+        read.resolveField(target);
+        assertEquals(TestObject.BAR, read.getName());
+        read.applyToObject(target);
+        assertEquals("hello", target.bar);
+
+        // the named form should be unaffected
+        read = (AttributeChangedEvent)unflatten(named, false);
+        assertEquals(TestObject.BAR, read.getName());
+
+        // as should events that arrive by index and are then passed on to an older client
+        read = (AttributeChangedEvent)unflatten(indexed, true);
+        read.resolveField(target);
+        read = (AttributeChangedEvent)unflatten(flatten(read, false), false);
+        assertEquals(TestObject.BAR, read.getName());
+    }
+
+    @Test public void testOtherEvents ()
+        throws Exception
+    {
+        // names that aren't fields are streamed as names even when indices are in use
+        MessageEvent event = new MessageEvent(0, "chat", new Object[] { "hi" });
+        event.resolveField(new TestObject());
+        MessageEvent read = (MessageEvent)unflatten(flatten(event, true), true);
+        assertEquals("chat", read.getName());
+    }
+
+    @Test public void testNegotiation ()
+        throws Exception
+    {
+        // the bootstrap switches both streams over to indices, but only if requested
+        for (boolean indices : new boolean[] { false, true }) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            ObjectOutputStream oout = new ObjectOutputStream(bout);
+            oout.writeObject(new BootstrapNotification(new BootstrapData(), indices));
+            assertEquals(indices, oout.getFieldIndices());
+            ObjectInputStream oin = new ObjectInputStream(
+                new ByteArrayInputStream(bout.toByteArray()));
+            assertEquals(indices, ((BootstrapNotification)oin.readObject()).usesFieldIndices());
+            assertEquals(indices, oin.getFieldIndices());
+        }
+    }
+
+    @Test public void testNestedNegotiation ()
+        throws Exception
+    {
+        // a bootstrap that answers the client's capabilities always writes its flags, so that it
+        // can be followed by other messages in the same compound message
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(new BootstrapNotification(new BootstrapData()).
+                         setAnswersCapabilities(true));
+        oout.writeObject("next");
+        ObjectInputStream oin = new ObjectInputStream(
+            new ByteArrayInputStream(bout.toByteArray()));
+        assertFalse(((BootstrapNotification)oin.readObject()).usesFieldIndices());
+        assertEquals("next", oin.readObject());
+        assertFalse(oin.getFieldIndices());
+    }
+
+    protected static byte[] flatten (Object object, boolean indices)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.setFieldIndices(indices);
+        oout.writeObject(object);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    protected static Object unflatten (byte[] data, boolean indices)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(data));
+        oin.setFieldIndices(indices);
+        return oin.readObject();
+    }
+}
@@ -0,0 +1,66 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.dobj;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link OidList} class.
+ */
+public class OidListTest
+{
+    @Test public void testAgainstList ()
+    {
+        // perform a bunch of random operations (on a range of oids small enough to ensure plenty
+        // of collisions and duplicates), checking that the results match those of a plain list
+        Random rando = new Random(42);
+        OidList oids = new OidList();
+        List<Integer> check = Lists.newArrayList();
+        for (int ii = 0; ii < 100000; ii++) {
+            // grow to a few hundred entries, then shrink back down below the index threshold
+            int oid = rando.nextInt(400);
+            boolean adding = ((ii / 5000) % 2 == 0) ? rando.nextInt(3) > 0 : rando.nextInt(3) == 0;
+            if (adding) {
+                assertEquals(!check.contains(oid), oids.add(oid));
+                if (!check.contains(oid)) {
+                    check.add(oid);
+                }
+            } else {
+                assertEquals(check.remove(Integer.valueOf(oid)), oids.remove(oid));
+            }
+            assertEquals(check.contains(oid), oids.contains(oid));
+            assertEquals(check.size(), oids.size());
+        }
+
+        // the list should also retain the order in which oids were added
+        for (int ii = 0; ii < check.size(); ii++) {
+            assertEquals((int)check.get(ii), oids.get(ii));
+        }
+    }
+}
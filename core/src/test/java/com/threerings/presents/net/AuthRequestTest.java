@@ -0,0 +1,138 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.threerings.io.ObjectInputStream;
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.util.Name;
+
+import com.threerings.presents.util.SecureUtil;
+
+/**
+ * Tests the streaming of {@link AuthRequest} and {@link AESAuthRequest}, in particular that the
+ * server can still read requests from clients that predate the capability flags.
+ */
+public class AuthRequestTest
+{
+    @Test public void testCapabilities ()
+        throws Exception
+    {
+        AuthRequest areq = (AuthRequest)unstream(stream(newRequest()));
+        assertEquals("test", areq.getVersion());
+        assertTrue(areq.supportsFieldIndices());
+        assertTrue(areq.supportsCompressedFrames());
+        assertTrue(areq.supportsEntryDeltas());
+    }
+
+    @Test public void testOldRequest ()
+        throws Exception
+    {
+        // older clients wrote exactly what we write, minus the trailing capability flags
+        byte[] data = stream(newRequest());
+        AuthRequest areq = (AuthRequest)unstream(dropLast(data));
+        assertEquals("test", areq.getVersion());
+        assertEquals("bob", getUsername(areq));
+        assertFalse(areq.supportsFieldIndices());
+        assertFalse(areq.supportsCompressedFrames());
+        assertFalse(areq.supportsEntryDeltas());
+    }
+
+    @Test public void testAESCapabilities ()
+        throws Exception
+    {
+        AESAuthRequest areq = (AESAuthRequest)unstream(stream(newAESRequest()));
+        areq.decrypt(KEY);
+        assertEquals("bob", getUsername(areq));
+        assertTrue(areq.supportsFieldIndices());
+        assertTrue(areq.supportsCompressedFrames());
+        assertTrue(areq.supportsEntryDeltas());
+    }
+
+    @Test public void testOldAESRequest ()
+        throws Exception
+    {
+        // older clients wrote exactly what we write, minus the flags after the encrypted contents
+        byte[] data = stream(newAESRequest());
+        AESAuthRequest areq = (AESAuthRequest)unstream(dropLast(data));
+        areq.decrypt(KEY);
+        assertEquals("test", areq.getVersion());
+        assertEquals("bob", getUsername(areq));
+        assertFalse(areq.supportsFieldIndices());
+        assertFalse(areq.supportsCompressedFrames());
+        assertFalse(areq.supportsEntryDeltas());
+    }
+
+    protected static String getUsername (AuthRequest areq)
+    {
+        return ((UsernamePasswordCreds)areq.getCredentials()).getUsername().toString();
+    }
+
+    protected static byte[] dropLast (byte[] data)
+    {
+        byte[] ndata = new byte[data.length - 1];
+        System.arraycopy(data, 0, ndata, 0, ndata.length);
+        return ndata;
+    }
+
+    protected static AuthRequest newRequest ()
+    {
+        return new AuthRequest(newCreds(), "test", null);
+    }
+
+    protected static AESAuthRequest newAESRequest ()
+    {
+        return new AESAuthRequest(KEY, newCreds(), "test", null);
+    }
+
+    protected static Credentials newCreds ()
+    {
+        return new UsernamePasswordCreds(new Name("bob"), "secret");
+    }
+
+    protected static byte[] stream (Object object)
+        throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(object);
+        oout.flush();
+        return bout.toByteArray();
+    }
+
+    protected static Object unstream (byte[] data)
+        throws IOException, ClassNotFoundException
+    {
+        return new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+    }
+
+    protected static final byte[] KEY = SecureUtil.createRandomKey(16);
+}
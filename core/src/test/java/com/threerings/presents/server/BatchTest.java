@@ -0,0 +1,124 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.net.CompoundDownstreamMessage;
+import com.threerings.presents.net.EventNotification;
+import com.threerings.presents.net.Message;
+import com.threerings.presents.net.ObjectResponse;
+import com.threerings.presents.net.Transport;
+import com.threerings.presents.server.net.PresentsConnection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the batching of the messages that a session sends during a distributed object unit.
+ */
+public class BatchTest extends PresentsTestBase
+{
+    /** A session that batches its messages and records those it sends. */
+    public static class BatchingSession extends PresentsSession
+    {
+        /** The messages sent by this session, with the members of compound messages in lists. */
+        public List<Object> sent = Lists.newArrayList();
+
+        public BatchingSession ()
+        {
+            _batchMessages = true;
+        }
+
+        @Override protected synchronized PresentsConnection getConnection ()
+        {
+            return _conn;
+        }
+
+        protected PresentsConnection _conn = new PresentsConnection() {
+            @Override public void postMessage (Message msg) {
+                if (msg instanceof CompoundDownstreamMessage) {
+                    sent.add(Lists.newArrayList(((CompoundDownstreamMessage)msg).msgs));
+                } else {
+                    sent.add(msg);
+                }
+            }
+        };
+    }
+
+    @Test public void runTest ()
+    {
+        final BatchingSession session = getInstance(BatchingSession.class);
+        final EventNotification first = notification("first");
+        final EventNotification before = notification("before");
+        final ObjectResponse<TestObject> response =
+            new ObjectResponse<TestObject>(new TestObject());
+        final EventNotification after = notification("after");
+        final EventNotification alone = notification("alone");
+        final EventNotification unreliable = notification("unreliable");
+        unreliable.setTransport(Transport.UNRELIABLE_UNORDERED);
+
+        // messages posted off of an event thread are sent immediately
+        session.postMessage(first, null);
+        assertEquals(Lists.<Object>newArrayList(first), session.sent);
+
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                // messages posted during a unit are held until it completes, then sent in order
+                session.postMessage(before, null);
+                session.postMessage(response, null);
+                session.postMessage(after, null);
+                assertEquals(1, session.sent.size());
+            }
+        });
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                // messages that cannot be batched are sent after any that were, and a batch of
+                // one is sent as is
+                session.postMessage(alone, null);
+                session.postMessage(unreliable, null);
+                _omgr.postRunnable(new Runnable() {
+                    public void run () {
+                        _omgr.harshShutdown();
+                    }
+                });
+            }
+        });
+        _omgr.run();
+
+        assertEquals(Lists.<Object>newArrayList(
+                         first, Lists.newArrayList(before, response, after), alone, unreliable),
+                     session.sent);
+    }
+
+    protected static EventNotification notification (String name)
+    {
+        return new EventNotification(new AttributeChangedEvent(1, name, name));
+    }
+
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+}
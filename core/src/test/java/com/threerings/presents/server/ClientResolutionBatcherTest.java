@@ -0,0 +1,262 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import com.samskivert.util.Invoker;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.data.ClientObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the batching of client resolutions by the {@link ClientResolutionBatcher}.
+ */
+public class ClientResolutionBatcherTest extends PresentsTestBase
+{
+    /** A batcher that records the batches it is asked to flush. */
+    public static class TestBatcher extends ClientResolutionBatcher
+    {
+        public List<Batch> flushed = Lists.newArrayList();
+
+        @Inject public TestBatcher (ReportManager repmgr)
+        {
+            super(repmgr);
+        }
+
+        @Override protected void flush (Batch batch)
+        {
+            flushed.add(batch);
+            super.flush(batch);
+        }
+    }
+
+    /** A resolver that records what is done with it. */
+    public static class TestResolver extends ClientResolver
+    {
+        /** The batches resolved by this resolver. */
+        public List<List<ClientResolver>> batches = Lists.newArrayList();
+
+        /** The number of times this resolver was finished. */
+        public int finished;
+
+        /** If set, the batch loaded by this resolver fails this resolver individually. */
+        public TestResolver failOne;
+
+        /** If set, the batch loaded by this resolver fails with this exception. */
+        public Exception failAll;
+
+        @Override protected boolean isBatched ()
+        {
+            return true;
+        }
+
+        @Override protected void resolveBatchData (List<ClientResolver> batch)
+            throws Exception
+        {
+            batches.add(batch);
+            if (failOne != null) {
+                failOne._failure = new Exception("one");
+            }
+            if (failAll != null) {
+                throw failAll;
+            }
+            super.resolveBatchData(batch);
+        }
+
+        @Override protected void finishResolution (ClientObject clobj)
+        {
+            finished++;
+        }
+    }
+
+    @Test public void testFlushOnSize ()
+    {
+        TestBatcher batcher = createBatcher(60 * 1000L, 3);
+        List<TestResolver> resolvers = Lists.newArrayList();
+        for (int ii = 0; ii < 3; ii++) {
+            resolvers.add(createResolver(batcher, "user" + ii));
+        }
+
+        // the batch is held until it fills up
+        resolvers.get(0).objectAvailable(new ClientObject());
+        resolvers.get(1).objectAvailable(new ClientObject());
+        assertTrue(_units.isEmpty());
+        assertEquals(1, batcher._pending.size());
+
+        // and then flushed straight away
+        resolvers.get(2).objectAvailable(new ClientObject());
+        assertEquals(1, _units.size());
+        assertTrue(batcher._pending.isEmpty());
+        assertEquals(1, batcher._batches);
+        assertEquals(3, batcher._maxBatchSize);
+
+        // its resolvers are loaded together, then each of them is finished once
+        Invoker.Unit unit = _units.get(0);
+        unit.invoke();
+        unit.handleResult();
+        assertEquals(1, resolvers.get(0).batches.size());
+        assertEquals(resolvers, resolvers.get(0).batches.get(0));
+        for (TestResolver resolver : resolvers) {
+            assertNull(resolver._failure);
+            assertEquals(1, resolver.finished);
+            assertEquals(resolver._username, resolver._clobj.username);
+        }
+        assertEquals(3, batcher._resolutions);
+    }
+
+    @Test public void testFlushOnWindow ()
+    {
+        TestBatcher batcher = createBatcher(50L, 50);
+        TestResolver r1 = createResolver(batcher, "one"), r2 = createResolver(batcher, "two");
+        r1.objectAvailable(new ClientObject());
+        r2.objectAvailable(new ClientObject());
+        assertTrue(_units.isEmpty());
+
+        // a batch that doesn't fill up is flushed once its window expires
+        runFor(500L);
+        assertEquals(1, batcher.flushed.size());
+        assertEquals(1, _units.size());
+        assertTrue(batcher._pending.isEmpty());
+        assertEquals(Lists.newArrayList(r1, r2), batcher.flushed.get(0).resolvers);
+    }
+
+    @Test public void testFullBatchCancelsTimer ()
+    {
+        TestBatcher batcher = createBatcher(50L, 2);
+        createResolver(batcher, "one").objectAvailable(new ClientObject());
+        createResolver(batcher, "two").objectAvailable(new ClientObject());
+        assertEquals(1, batcher.flushed.size());
+
+        // the full batch's timer never fires, and a new batch gets a timer of its own
+        TestResolver r3 = createResolver(batcher, "three");
+        r3.objectAvailable(new ClientObject());
+        runFor(500L);
+        assertEquals(2, batcher.flushed.size());
+        assertEquals(Lists.newArrayList(r3), batcher.flushed.get(1).resolvers);
+        assertEquals(2, _units.size());
+    }
+
+    @Test public void testFailure ()
+    {
+        TestBatcher batcher = createBatcher(60 * 1000L, 3);
+        TestResolver r1 = createResolver(batcher, "one"), r2 = createResolver(batcher, "two"),
+            r3 = createResolver(batcher, "three");
+        Exception failure = new Exception("all");
+        r1.failOne = r2;
+        r1.failAll = failure;
+        Listener listener = new Listener();
+        for (TestResolver resolver : new TestResolver[] { r1, r2, r3 }) {
+            resolver.addResolutionListener(listener);
+            resolver.objectAvailable(new ClientObject());
+        }
+        assertEquals(1, _units.size());
+
+        // a failed batch fails only those resolvers that had not already failed on their own
+        Invoker.Unit unit = _units.get(0);
+        unit.invoke();
+        assertSame(failure, r1._failure);
+        assertEquals("one", r2._failure.getMessage());
+        assertSame(failure, r3._failure);
+
+        // and none of them are finished, but each hears of its own failure
+        unit.handleResult();
+        assertEquals(0, r1.finished + r2.finished + r3.finished);
+        assertEquals(Lists.<Object>newArrayList(failure, r2._failure, failure), listener.failures);
+        assertEquals(3, batcher._resolutions);
+    }
+
+    protected TestBatcher createBatcher (long window, int size)
+    {
+        TestBatcher batcher = getInstance(TestBatcher.class);
+        batcher._batchWindow = window;
+        batcher._batchSize = size;
+        batcher._invoker = new ReportingInvoker(
+            "test", DIRECT, getInstance(ReportManager.class)) {
+            @Override public void postUnit (Unit unit) {
+                _units.add(unit);
+            }
+        };
+        return batcher;
+    }
+
+    protected TestResolver createResolver (TestBatcher batcher, String username)
+    {
+        TestResolver resolver = getInstance(TestResolver.class);
+        resolver._batcher = batcher;
+        resolver.init(new Name(username));
+        return resolver;
+    }
+
+    /**
+     * Runs the dobjmgr, and with it any intervals, for the specified number of milliseconds.
+     */
+    protected void runFor (long millis)
+    {
+        _omgr.newInterval(new Runnable() {
+            public void run () {
+                _omgr.harshShutdown();
+            }
+        }).schedule(millis);
+        _omgr.run();
+    }
+
+    /** Records the failures reported to it. */
+    protected static class Listener implements ClientResolutionListener
+    {
+        public List<Object> failures = Lists.newArrayList();
+
+        public void clientResolved (Name username, ClientObject clobj)
+        {
+            // nothing doing
+        }
+
+        public void resolutionFailed (Name username, Exception reason)
+        {
+            failures.add(reason);
+        }
+    }
+
+    /** The units posted to our batcher's invoker. */
+    protected List<Invoker.Unit> _units = Lists.newArrayList();
+
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+
+    /** Delivers results on the thread that invoked the unit. */
+    protected static final Executor DIRECT = new Executor() {
+        public void execute (Runnable command) {
+            command.run();
+        }
+    };
+}
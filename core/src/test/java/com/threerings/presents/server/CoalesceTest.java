@@ -0,0 +1,163 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import com.threerings.presents.annotation.Coalesce;
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+import com.threerings.presents.dobj.DEvent;
+import com.threerings.presents.dobj.ElementUpdateListener;
+import com.threerings.presents.dobj.ElementUpdatedEvent;
+import com.threerings.presents.dobj.EventListener;
+import com.threerings.presents.dobj.ObjectAccessException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the coalescing of changes to fields marked with {@link Coalesce}.
+ */
+public class CoalesceTest extends PresentsTestBase
+    implements AttributeChangeListener, ElementUpdateListener
+{
+    /** A test object all of whose changes are coalesced. */
+    @Coalesce public static class CoalescedObject extends TestObject
+    {
+    }
+
+    @Test public void runTest ()
+    {
+        final CoalescedObject test = _omgr.registerObject(new CoalescedObject());
+        test.addListener(this);
+
+        // changes made off of the dispatch thread are never coalesced
+        test.setFoo(20);
+        test.setFoo(21);
+
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                // repeated changes to one field are collapsed; elements are coalesced individually
+                test.setFoo(1);
+                test.setFoo(2);
+                test.setBar("hoopie");
+                test.setFoo(3);
+                test.setIntsAt(1, 0);
+                test.setIntsAt(2, 0);
+                test.setIntsAt(5, 1);
+
+                // changes within a transaction are coalesced with one another, but not with
+                // changes posted before the transaction
+                test.startTransaction();
+                test.setFoo(10);
+                test.setFoo(11);
+                test.commitTransaction();
+
+                // once a change has been dispatched, subsequent changes start afresh
+                _omgr.postRunnable(new Runnable() {
+                    public void run () {
+                        test.setBar("howdy");
+                        test.setBar("doody");
+                        _omgr.postRunnable(new Runnable() {
+                            public void run () {
+                                _omgr.harshShutdown();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        _omgr.run();
+
+        assertEquals(Lists.newArrayList(
+                         "foo:0->20", "foo:20->21", "bar:null->hoopie", "foo:21->3",
+                         "ints[0]:0->2", "ints[1]:0->5", "foo:3->11", "bar:hoopie->doody"),
+                     _changes);
+        assertEquals(5, _omgr.getStats(false).supersededCount);
+    }
+
+    @Test public void testInterleavedChanges ()
+    {
+        final CoalescedObject test = _omgr.registerObject(new CoalescedObject());
+        final TestObject client = new TestObject();
+        final List<ObjectAccessException> errors = Lists.newArrayList();
+        test.addListener(new EventListener() {
+            public void eventReceived (DEvent event) {
+                // apply each dispatched change to a copy of the object, as a client would
+                try {
+                    event.applyToObject(client);
+                } catch (ObjectAccessException oae) {
+                    errors.add(oae);
+                }
+            }
+        });
+
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                test.setInts(new int[0]);
+                _omgr.postRunnable(new Runnable() {
+                    public void run () {
+                        // the element update is made against the first replacement array, so the
+                        // second replacement must not supersede the first
+                        test.setInts(new int[] { 1, 2, 3 });
+                        test.setIntsAt(7, 2);
+                        test.setInts(new int[] { 4, 5, 6, 7 });
+                        test.setIntsAt(8, 3);
+                        _omgr.postRunnable(new Runnable() {
+                            public void run () {
+                                _omgr.harshShutdown();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+        _omgr.run();
+
+        assertEquals(Lists.newArrayList(), errors);
+        assertArrayEquals(new int[] { 4, 5, 6, 8 }, client.ints);
+        assertEquals(0, _omgr.getStats(false).supersededCount);
+    }
+
+    // from interface AttributeChangeListener
+    public void attributeChanged (AttributeChangedEvent event)
+    {
+        _changes.add(event.getName() + ":" + event.getOldValue() + "->" + event.getValue());
+    }
+
+    // from interface ElementUpdateListener
+    public void elementUpdated (ElementUpdatedEvent event)
+    {
+        _changes.add(event.getName() + "[" + event.getIndex() + "]:" + event.getOldValue() +
+                     "->" + event.getValue());
+    }
+
+    protected List<String> _changes = Lists.newArrayList();
+
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+}
@@ -0,0 +1,85 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link EventQueue} class.
+ */
+public class EventQueueTest
+{
+    @Test public void testOrdering ()
+    {
+        EventQueue<Integer> queue = new EventQueue<Integer>();
+        assertFalse(queue.hasElements());
+        assertNull(queue.getNonBlocking());
+        for (int ii = 0; ii < 10; ii++) {
+            queue.append(ii);
+        }
+        assertEquals(10, queue.size());
+        for (int ii = 0; ii < 10; ii++) {
+            assertEquals(Integer.valueOf(ii), queue.get());
+        }
+        assertFalse(queue.hasElements());
+        assertNull(queue.getNonBlocking());
+    }
+
+    @Test public void testProducers ()
+        throws InterruptedException
+    {
+        final EventQueue<int[]> queue = new EventQueue<int[]>();
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int ii = 0; ii < producers.length; ii++) {
+            final int producer = ii;
+            producers[ii] = new Thread() {
+                @Override public void run () {
+                    for (int vv = 0; vv < ITEMS; vv++) {
+                        queue.append(new int[] { producer, vv });
+                    }
+                }
+            };
+            producers[ii].start();
+        }
+
+        // every item must arrive, and those of each producer must arrive in order
+        int[] next = new int[PRODUCERS];
+        for (int ii = 0; ii < PRODUCERS * ITEMS; ii++) {
+            int[] item = queue.get();
+            assertEquals(next[item[0]]++, item[1]);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        for (int count : next) {
+            assertEquals(ITEMS, count);
+        }
+        assertTrue(queue.size() == 0 && queue.getNonBlocking() == null);
+    }
+
+    protected static final int PRODUCERS = 4, ITEMS = 100000;
+}
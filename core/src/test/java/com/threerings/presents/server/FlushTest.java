@@ -0,0 +1,80 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the running of flush actions posted via {@link PresentsDObjectMgr#postFlush}.
+ */
+public class FlushTest extends PresentsTestBase
+{
+    @Test public void runTest ()
+    {
+        // flush actions may only be posted by code running on an event thread
+        assertFalse(_omgr.postFlush(record("never")));
+
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                _trace.add("unit1");
+                assertTrue(_omgr.postFlush(record("flush1")));
+                assertTrue(_omgr.postFlush(record("flush2")));
+            }
+        });
+        _omgr.postRunnable(new Runnable() {
+            public void run () {
+                _trace.add("unit2");
+                _omgr.postFlush(record("flush3"));
+                _omgr.postRunnable(new Runnable() {
+                    public void run () {
+                        _omgr.harshShutdown();
+                    }
+                });
+            }
+        });
+        _omgr.run();
+
+        // with no flush window, actions run as soon as the unit that posted them completes
+        assertEquals(Lists.newArrayList("unit1", "flush1", "flush2", "unit2", "flush3"), _trace);
+    }
+
+    protected Runnable record (final String what)
+    {
+        return new Runnable() {
+            public void run () {
+                _trace.add(what);
+            }
+        };
+    }
+
+    protected List<String> _trace = Lists.newArrayList();
+
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+}
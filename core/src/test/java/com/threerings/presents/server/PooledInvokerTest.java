@@ -0,0 +1,216 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import com.samskivert.util.Invoker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the spreading of units over the workers of a {@link PooledInvoker}.
+ */
+public class PooledInvokerTest extends PresentsTestBase
+{
+    @Test public void testAffinity ()
+        throws Exception
+    {
+        PooledInvoker invoker = new PooledInvoker("test", DIRECT, _repmgr, 3);
+        invoker.start();
+        assertEquals(3, invoker.getWorkers().size());
+
+        CountDownLatch done = new CountDownLatch(3 * UNITS);
+        List<RecordingUnit> units = Lists.newArrayList();
+        for (int ii = 0; ii < UNITS; ii++) {
+            for (String key : new String[] { "a", "b", null }) {
+                RecordingUnit unit = new RecordingUnit(key, done);
+                units.add(unit);
+                invoker.postUnit(unit);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // units with the same key run in order on a single worker, unkeyed units on the main
+        // thread, in order
+        for (String key : new String[] { "a", "b", null }) {
+            List<Integer> order = Lists.newArrayList();
+            Thread thread = null;
+            for (RecordingUnit unit : units) {
+                if (unit.key == key) {
+                    thread = (thread == null) ? unit.thread : thread;
+                    assertSame(thread, unit.thread);
+                    order.add(unit.ran);
+                }
+            }
+            List<Integer> sorted = Lists.newArrayList(order);
+            Collections.sort(sorted);
+            assertEquals(sorted, order);
+            if (key == null) {
+                assertSame(invoker, thread);
+            } else {
+                assertNotSame(invoker, thread);
+                assertTrue(invoker.getWorkers().contains(thread));
+            }
+        }
+
+        invoker.shutdown();
+        awaitExit(invoker);
+    }
+
+    @Test public void testShutdown ()
+        throws Exception
+    {
+        // workers are created when we start, rather than when a keyed unit is first posted
+        PooledInvoker invoker = new PooledInvoker("test", DIRECT, _repmgr, 2);
+        invoker.start();
+        List<Invoker> workers = invoker.getWorkers();
+        assertEquals(2, workers.size());
+        invoker.shutdown();
+        awaitExit(invoker);
+
+        // keyed units posted once we're shut down neither revive nor create workers
+        CountDownLatch done = new CountDownLatch(1);
+        invoker.postUnit(new RecordingUnit("a", done));
+        assertEquals(workers, invoker.getWorkers());
+        for (Invoker worker : invoker.getWorkers()) {
+            assertFalse(worker.isAlive());
+        }
+
+        // nor do they create workers for an invoker that is shut down before it is started
+        invoker = new PooledInvoker("test", DIRECT, _repmgr, 2);
+        invoker.shutdown();
+        invoker.postUnit(new RecordingUnit("a", done));
+        assertTrue(invoker.getWorkers().isEmpty());
+    }
+
+    @Test public void testEmptying ()
+        throws Exception
+    {
+        PresentsInvoker invoker = getInstance(PresentsInvoker.class);
+        invoker._invokerWorkers = 2;
+        invoker.start();
+
+        // occupy a worker until we're released
+        final List<String> trace = Collections.synchronizedList(Lists.<String>newArrayList());
+        final CountDownLatch release = new CountDownLatch(1);
+        invoker.postUnit(new PooledInvoker.KeyedUnit("busy", "a") {
+            @Override public boolean invoke () {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    // fall through
+                }
+                trace.add("busy");
+                return false;
+            }
+        });
+
+        // the emptying unit must wait for the worker as well as the main thread and the dobjmgr
+        invoker.postRunnableWhenEmpty(new Runnable() {
+            public void run () {
+                trace.add("empty");
+            }
+        });
+        new Thread() {
+            @Override public void run () {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    // fall through
+                }
+                release.countDown();
+            }
+        }.start();
+
+        // shutting down also waits for everything to empty, then stops the dobjmgr and invoker
+        invoker.shutdown();
+        _omgr.run();
+        awaitExit(invoker);
+        assertEquals(Lists.newArrayList("busy", "empty"), trace);
+    }
+
+    protected static void awaitExit (PooledInvoker invoker)
+        throws InterruptedException
+    {
+        invoker.join(10 * 1000L);
+        assertFalse(invoker.isAlive());
+        for (Invoker worker : invoker.getWorkers()) {
+            worker.join(10 * 1000L);
+            assertFalse(worker.isAlive());
+        }
+    }
+
+    /** Records the thread on which it ran and its place in the order of runs. */
+    protected static class RecordingUnit extends PooledInvoker.KeyedUnit
+    {
+        public final String key;
+        public volatile Thread thread;
+        public volatile int ran = -1;
+
+        public RecordingUnit (String key, CountDownLatch done)
+        {
+            super("record", key);
+            this.key = key;
+            _done = done;
+        }
+
+        @Override public boolean invoke ()
+        {
+            thread = Thread.currentThread();
+            synchronized (RecordingUnit.class) {
+                ran = _runs++;
+            }
+            _done.countDown();
+            return false;
+        }
+
+        protected CountDownLatch _done;
+
+        protected static int _runs;
+    }
+
+    protected ReportManager _repmgr = getInstance(ReportManager.class);
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+
+    /** The number of units of each key that we post. */
+    protected static final int UNITS = 100;
+
+    /** Delivers results on the thread that invoked the unit. */
+    protected static final Executor DIRECT = new Executor() {
+        public void execute (Runnable command) {
+            command.run();
+        }
+    };
+}
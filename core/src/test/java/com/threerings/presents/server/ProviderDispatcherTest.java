@@ -0,0 +1,147 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.presents.client.InvocationService;
+import com.threerings.presents.client.TestService;
+import com.threerings.presents.data.TestClientObject;
+import com.threerings.presents.data.TestMarshaller;
+
+/**
+ * Tests that generated {@link ProviderDispatcher}s call the right provider methods.
+ */
+public class ProviderDispatcherTest
+{
+    @Test
+    public void testDispatch ()
+        throws Exception
+    {
+        ProviderDispatcher disp = createDispatcher();
+        assertNotNull(disp);
+
+        RecordingProvider provider = new RecordingProvider();
+        TestClientObject caller = new TestClientObject();
+        List<Integer> list = Lists.newArrayList(1, 2, 3);
+        assertTrue(disp.dispatch(provider, caller, TestMarshaller.TEST,
+                                 new Object[] { "hello", 42, list, null }));
+        assertSame(caller, provider.caller);
+        assertEquals("hello", provider.one);
+        assertEquals(42, provider.two);
+        assertSame(list, provider.three);
+
+        // unknown methods are left to the caller
+        assertFalse(disp.dispatch(provider, caller, 99, new Object[0]));
+    }
+
+    @Test
+    public void testFailure ()
+        throws Exception
+    {
+        // exceptions thrown by the provider are passed through unwrapped
+        try {
+            createDispatcher().dispatch(new RecordingProvider(), new TestClientObject(),
+                                        TestMarshaller.GIVE_ME_THE_POWER, new Object[] { null });
+            fail("Expected InvocationException");
+        } catch (InvocationException ie) {
+            assertEquals("no", ie.getMessage());
+        }
+    }
+
+    @Test
+    public void testMethodTables ()
+        throws Exception
+    {
+        // a provider class registered with a different marshaller gets its own dispatcher
+        Method test = TestProvider.class.getMethod(
+            "test", TestClientObject.class, String.class, Integer.TYPE, List.class,
+            TestService.TestFuncListener.class);
+        Map<Integer, Method> methods = Maps.newHashMap();
+        methods.put(TestMarshaller.GET_TEST_OID, test);
+        ProviderDispatcher disp = DispatcherGenerator.generate(TestProvider.class, methods);
+        assertNotSame(createDispatcher().getClass(), disp.getClass());
+
+        RecordingProvider provider = new RecordingProvider();
+        assertTrue(disp.dispatch(provider, new TestClientObject(), TestMarshaller.GET_TEST_OID,
+                                 new Object[] { "hello", 42, null, null }));
+        assertEquals("hello", provider.one);
+        assertFalse(disp.dispatch(provider, new TestClientObject(), TestMarshaller.TEST,
+                                  new Object[] { "hello", 42, null, null }));
+
+        // but the same methods share one
+        assertSame(createDispatcher().getClass(), createDispatcher().getClass());
+    }
+
+    protected ProviderDispatcher createDispatcher ()
+        throws Exception
+    {
+        Map<Integer, Method> methods = Maps.newHashMap();
+        methods.put(TestMarshaller.GET_TEST_OID,
+                    TestProvider.class.getMethod("getTestOid", TestClientObject.class,
+                                                 TestService.TestOidListener.class));
+        methods.put(TestMarshaller.GIVE_ME_THE_POWER,
+                    TestProvider.class.getMethod("giveMeThePower", TestClientObject.class,
+                                                 InvocationService.ConfirmListener.class));
+        methods.put(TestMarshaller.TEST,
+                    TestProvider.class.getMethod("test", TestClientObject.class, String.class,
+                                                 Integer.TYPE, List.class,
+                                                 TestService.TestFuncListener.class));
+        return DispatcherGenerator.generate(TestProvider.class, methods);
+    }
+
+    protected static class RecordingProvider implements TestProvider
+    {
+        public TestClientObject caller;
+        public String one;
+        public int two;
+        public List<Integer> three;
+
+        public void getTestOid (TestClientObject caller, TestService.TestOidListener listener)
+        {
+        }
+
+        public void giveMeThePower (
+            TestClientObject caller, InvocationService.ConfirmListener listener)
+            throws InvocationException
+        {
+            throw new InvocationException("no");
+        }
+
+        public void test (TestClientObject caller, String one, int two, List<Integer> three,
+                          TestService.TestFuncListener listener)
+        {
+            this.caller = caller;
+            this.one = one;
+            this.two = two;
+            this.three = three;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server;
+
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+import org.junit.Test;
+
+import com.threerings.presents.data.TestObject;
+import com.threerings.presents.dobj.AttributeChangeListener;
+import com.threerings.presents.dobj.AttributeChangedEvent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the dobjmgr's sharded mode.
+ */
+public class ShardedDOMTest extends PresentsTestBase
+    implements AttributeChangeListener
+{
+    @Test public void runTest ()
+    {
+        _omgr._shardCount = 2;
+
+        // create one object for each of our shards and one that stays on the main thread
+        for (int ii = 0; ii < _objs.length; ii++) {
+            _objs[ii] = _omgr.registerObject(new TestObject());
+            if (ii < _omgr._shardCount) {
+                _omgr.assignShard(_objs[ii]);
+            }
+            _objs[ii].addListener(this);
+        }
+
+        // post a bunch of events to each, and then run the object manager
+        for (int vv = 1; vv <= EVENTS; vv++) {
+            for (TestObject obj : _objs) {
+                obj.setFoo(vv);
+            }
+        }
+        _omgr.run();
+
+        for (int ii = 0; ii < _objs.length; ii++) {
+            assertEquals(EVENTS, _counts[ii]);
+            assertTrue("Events dispatched in order", _ordered[ii]);
+            assertTrue("Dispatched on the object's thread", _confined[ii]);
+        }
+        assertSame(Thread.currentThread(), _threads[_objs.length-1]);
+        assertNotSame(_threads[0], _threads[1]);
+        assertNotSame(Thread.currentThread(), _threads[0]);
+        assertNotSame(Thread.currentThread(), _threads[1]);
+    }
+
+    @Test public void testTransfer ()
+    {
+        _omgr._shardCount = 2;
+
+        final TestObject from = _omgr.registerObject(new TestObject());
+        final TestObject to = _omgr.registerObject(new TestObject());
+        final TestObject mover = _omgr.registerObject(new TestObject());
+        _omgr.assignShard(from);
+        _omgr.assignShard(to);
+        _omgr.assignShard(mover, from);
+        mover.addListener(new AttributeChangeListener() {
+            public void attributeChanged (AttributeChangedEvent event) {
+                _confined[0] &= _omgr.isDispatchThread(mover);
+                _ordered[0] &= (((Integer)event.getValue()) == ++_counts[0]);
+            }
+        });
+
+        // hand the object over to the other shard before any of its events are dispatched
+        _omgr.postRunnable(mover, new Runnable() {
+            public void run () {
+                _omgr.transferShard(mover, to, new Runnable() {
+                    public void run () {
+                        _counts[1] = _counts[0];
+                        _confined[1] = _omgr.isDispatchThread(to);
+                        _threads[0] = Thread.currentThread();
+                        postResult();
+                    }
+                });
+            }
+        });
+        for (int vv = 1; vv <= EVENTS; vv++) {
+            mover.setFoo(vv);
+        }
+        _omgr.run();
+
+        assertEquals(EVENTS, _counts[0]);
+        assertTrue("Events dispatched in order", _ordered[0]);
+        assertTrue("Dispatched on the object's thread", _confined[0]);
+        assertEquals("Transfer followed pending events", EVENTS, _counts[1]);
+        assertTrue("Transfer completed on the new thread", _confined[1]);
+        assertSame("Result delivered to posting shard", _threads[0], _threads[1]);
+    }
+
+    // from interface AttributeChangeListener
+    public void attributeChanged (AttributeChangedEvent event)
+    {
+        // note what we see rather than asserting here, as the dobjmgr would swallow the failure
+        int idx = indexOf(event.getTargetOid());
+        Thread thread = Thread.currentThread();
+        if (_threads[idx] == null) {
+            _threads[idx] = thread;
+        }
+        _confined[idx] &= (_threads[idx] == thread) && _omgr.isDispatchThread(_objs[idx]);
+        _ordered[idx] &= (((Integer)event.getValue()) == ++_counts[idx]);
+
+        synchronized (_done) {
+            if (_counts[idx] == EVENTS && _done.add(idx) && _done.size() == _objs.length) {
+                _omgr.harshShutdown();
+            }
+        }
+    }
+
+    /**
+     * Passes a result back to the calling shard the way an invoker would, from another thread.
+     */
+    protected void postResult ()
+    {
+        final Runnable result = new Runnable() {
+            public void run () {
+                _threads[1] = Thread.currentThread();
+                _omgr.harshShutdown();
+            }
+        };
+        _omgr.noteOrigin(result);
+        new Thread() {
+            @Override public void run () {
+                _omgr.execute(result);
+            }
+        }.start();
+    }
+
+    protected int indexOf (int oid)
+    {
+        for (int ii = 0; ii < _objs.length; ii++) {
+            if (_objs[ii].getOid() == oid) {
+                return ii;
+            }
+        }
+        throw new IllegalArgumentException("Unknown oid " + oid);
+    }
+
+    protected TestObject[] _objs = new TestObject[3];
+    protected Thread[] _threads = new Thread[_objs.length];
+    protected int[] _counts = new int[_objs.length];
+    protected boolean[] _ordered = { true, true, true }, _confined = { true, true, true };
+    protected Set<Integer> _done = Sets.newHashSet();
+
+    protected PresentsDObjectMgr _omgr = getInstance(PresentsDObjectMgr.class);
+
+    protected static final int EVENTS = 1000;
+}
@@ -0,0 +1,223 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import java.io.IOException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import com.samskivert.util.Invoker;
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.util.Name;
+
+import com.threerings.presents.data.AuthCodes;
+import com.threerings.presents.net.AuthRequest;
+import com.threerings.presents.net.AuthResponse;
+import com.threerings.presents.net.UsernamePasswordCreds;
+import com.threerings.presents.server.Authenticator;
+import com.threerings.presents.server.PresentsAuthInvoker;
+import com.threerings.presents.server.PresentsDObjectMgr;
+import com.threerings.presents.server.PresentsTestBase;
+import com.threerings.presents.server.ReportManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the limiting and serializing of authentications by the connection manager.
+ */
+public class AuthLimitTest extends PresentsTestBase
+{
+    public static class TestConnectionManager extends PresentsConnectionManager
+    {
+        @Inject public TestConnectionManager (Lifecycle cycle, ReportManager repmgr)
+            throws IOException
+        {
+            super(cycle, repmgr);
+        }
+
+        public void init (Invoker authInvoker, Authenticator author, int maxPending)
+        {
+            _authInvoker = authInvoker;
+            _author = author;
+            _maxPendingAuths = maxPending;
+        }
+
+        public int getRejected ()
+        {
+            return ((PresentsConMgrStats)_stats).authsRejected;
+        }
+    }
+
+    @Test public void testMaxPending ()
+        throws Exception
+    {
+        // the auth invoker is not running, so every authentication it is given stays pending
+        PresentsAuthInvoker invoker = getInstance(PresentsAuthInvoker.class);
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+        RecordingAuthenticator author = new RecordingAuthenticator(null);
+        cmgr.init(invoker, author, 2);
+
+        AuthingConnection c1 = connect(cmgr, "one"), c2 = connect(cmgr, "two");
+        cmgr.authenticateConnection(c1);
+        cmgr.authenticateConnection(c2);
+        assertEquals(2, cmgr.getPendingAuths());
+        assertEquals(0, cmgr.getRejected());
+        assertNull(c2.getAuthResponse());
+
+        // once the limit is reached, further clients are turned away without waiting
+        AuthingConnection c3 = connect(cmgr, "three");
+        cmgr.authenticateConnection(c3);
+        assertEquals(2, cmgr.getPendingAuths());
+        assertEquals(1, cmgr.getRejected());
+        AuthResponse rsp = c3.getAuthResponse();
+        assertEquals(AuthCodes.SERVER_BUSY, rsp.getData().code);
+
+        // and without a limit, nobody is
+        cmgr.init(invoker, author, 0);
+        cmgr.authenticateConnection(c3);
+        assertEquals(3, cmgr.getPendingAuths());
+        assertEquals(1, cmgr.getRejected());
+    }
+
+    @Test public void testAffinity ()
+        throws Exception
+    {
+        PresentsAuthInvoker invoker = new PresentsAuthInvoker(
+            getInstance(PresentsDObjectMgr.class), getInstance(ReportManager.class)) {
+            @Override protected int getWorkerCount () {
+                return 2;
+            }
+        };
+        invoker.start();
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+        String[] users = { "alice", "bob", "carol" };
+        CountDownLatch done = new CountDownLatch(users.length * ATTEMPTS);
+        RecordingAuthenticator author = new RecordingAuthenticator(done);
+        cmgr.init(invoker, author, 0);
+
+        // attempts by the same user are made one at a time, in order, on a single worker
+        List<AuthingConnection> conns = Lists.newArrayList();
+        for (int ii = 0; ii < ATTEMPTS; ii++) {
+            for (String user : users) {
+                AuthingConnection conn = connect(cmgr, user);
+                conns.add(conn);
+                cmgr.authenticateConnection(conn);
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(author.overlapped);
+        assertFalse(author.moved);
+        for (String user : users) {
+            List<AuthingConnection> expected = Lists.newArrayList();
+            for (AuthingConnection conn : conns) {
+                if (conn.getAuthName().toString().equals(user)) {
+                    expected.add(conn);
+                }
+            }
+            assertEquals(expected, author.order.get(user));
+            Thread thread = author.threads.get(user);
+            assertTrue(invoker.getWorkers().contains(thread));
+        }
+
+        invoker.shutdown();
+    }
+
+    protected static AuthingConnection connect (PresentsConnectionManager cmgr, String username)
+        throws IOException
+    {
+        AuthingConnection conn = new TestAuthingConnection(username);
+        conn.init(cmgr, null, System.currentTimeMillis());
+        return conn;
+    }
+
+    /** An authing connection that has received an auth request. */
+    protected static class TestAuthingConnection extends AuthingConnection
+    {
+        public TestAuthingConnection (String username)
+        {
+            _authreq = new AuthRequest(
+                new UsernamePasswordCreds(new Name(username), "test"), "", new String[0]);
+            _authname = new Name(username);
+        }
+    }
+
+    /** Records the order of the authentications of each user, and whether any overlapped. */
+    protected static class RecordingAuthenticator extends Authenticator
+    {
+        public Map<String, List<AuthingConnection>> order = Maps.newHashMap();
+        public Map<String, Thread> threads = Maps.newHashMap();
+        public boolean overlapped, moved;
+
+        public RecordingAuthenticator (CountDownLatch done)
+        {
+            _done = done;
+        }
+
+        @Override protected void processAuthentication (AuthingConnection conn, AuthResponse rsp)
+            throws Exception
+        {
+            String user = conn.getAuthName().toString();
+            synchronized (this) {
+                overlapped |= !_active.add(user);
+                List<AuthingConnection> conns = order.get(user);
+                if (conns == null) {
+                    order.put(user, conns = Lists.newArrayList());
+                }
+                conns.add(conn);
+                Thread thread = threads.get(user);
+                if (thread == null) {
+                    threads.put(user, Thread.currentThread());
+                } else {
+                    moved |= (thread != Thread.currentThread());
+                }
+            }
+            // give any other attempt by this user a chance to sneak in
+            Thread.sleep(5);
+            synchronized (this) {
+                _active.remove(user);
+            }
+            rsp.getData().code = "denied";
+            _done.countDown();
+        }
+
+        protected Set<String> _active = Sets.newHashSet();
+        protected CountDownLatch _done;
+    }
+
+    /** The number of attempts made by each user. */
+    protected static final int ATTEMPTS = 10;
+}
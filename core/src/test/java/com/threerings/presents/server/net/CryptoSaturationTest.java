@@ -0,0 +1,139 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import java.io.IOException;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.presents.data.AuthCodes;
+import com.threerings.presents.net.DownstreamMessage;
+import com.threerings.presents.net.SecureResponse;
+import com.threerings.presents.server.PresentsTestBase;
+import com.threerings.presents.server.ReportManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that secure authentication steps are turned away, rather than performed on the conmgr
+ * thread, when the crypto threads are saturated.
+ */
+public class CryptoSaturationTest extends PresentsTestBase
+{
+    public static class TestConnectionManager extends PresentsConnectionManager
+    {
+        @Inject public TestConnectionManager (Lifecycle cycle, ReportManager repmgr)
+            throws IOException
+        {
+            super(cycle, repmgr);
+        }
+
+        @Override
+        protected void cryptoRejected (CryptoTask task)
+        {
+            rejected.add(task);
+            super.cryptoRejected(task);
+        }
+
+        public List<CryptoTask> rejected = Lists.newArrayList();
+    }
+
+    @Test public void testSaturation ()
+        throws Exception
+    {
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+        cmgr._cryptoThreads = 1;
+        cmgr._cryptoQueueLimit = 1;
+
+        // occupy our lone crypto thread, then fill its queue
+        CountDownLatch release = new CountDownLatch(1);
+        TestTask busy = new TestTask(release), queued = new TestTask(null);
+        cmgr.performCrypto(busy);
+        busy.started.await();
+        cmgr.performCrypto(queued);
+
+        // the next step is rejected without its work being done
+        TestTask rejected = new TestTask(null);
+        cmgr.performCrypto(rejected);
+        assertEquals(Lists.<CryptoTask>newArrayList(rejected), cmgr.rejected);
+        assertFalse(rejected.crypted);
+        assertEquals(1, rejected.rejections);
+        assertEquals(1, cmgr.getStats().cryptoSaturated);
+
+        // the accepted steps are still performed by the crypto thread
+        release.countDown();
+        cmgr._cryptoExec.shutdown();
+        assertTrue(cmgr._cryptoExec.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(busy.crypted);
+        assertTrue(queued.crypted);
+        assertEquals(0, busy.rejections + queued.rejections);
+    }
+
+    protected static class TestTask extends PresentsConnectionManager.CryptoTask
+    {
+        public final CountDownLatch started = new CountDownLatch(1);
+        public volatile boolean crypted;
+        public int rejections;
+
+        public TestTask (CountDownLatch release)
+        {
+            super(new AuthingConnection());
+            _release = release;
+        }
+
+        @Override public void crypt ()
+        {
+            started.countDown();
+            try {
+                if (_release != null) {
+                    _release.await();
+                }
+            } catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+            crypted = true;
+        }
+
+        @Override public void completed ()
+        {
+        }
+
+        @Override public DownstreamMessage rejection ()
+        {
+            rejections++;
+            return new SecureResponse(AuthCodes.FAILED_TO_SECURE);
+        }
+
+        protected final CountDownLatch _release;
+    }
+}
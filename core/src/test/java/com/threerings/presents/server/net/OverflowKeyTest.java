@@ -0,0 +1,130 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.util.Collections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.inject.Inject;
+
+import org.junit.Test;
+
+import com.samskivert.util.Lifecycle;
+
+import com.threerings.io.ObjectOutputStream;
+import com.threerings.io.PreparedObject;
+
+import com.threerings.presents.dobj.DObject;
+import com.threerings.presents.dobj.DSet;
+import com.threerings.presents.dobj.EntryDeltaTest;
+import com.threerings.presents.dobj.EntryUpdatedEvent;
+import com.threerings.presents.net.CompoundDownstreamMessage;
+import com.threerings.presents.net.EventNotification;
+import com.threerings.presents.net.ObjectResponse;
+import com.threerings.presents.net.Transport;
+import com.threerings.presents.server.PresentsTestBase;
+import com.threerings.presents.server.ReportManager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that messages on lanes are never allowed to overtake the messages on which they depend.
+ */
+public class OverflowKeyTest extends PresentsTestBase
+{
+    public static class TestConnectionManager extends PresentsConnectionManager
+    {
+        @Inject public TestConnectionManager (Lifecycle cycle, ReportManager repmgr)
+            throws IOException
+        {
+            super(cycle, repmgr);
+            _overflowLanes = true;
+        }
+    }
+
+    @Test public void testLanes ()
+        throws Exception
+    {
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+
+        // an event on a channel goes on that channel's lane, unless it was written as a delta
+        EventNotification notification = new EventNotification(createUpdate());
+        assertSame(cmgr.getLaneKey(1), cmgr.getOverflowKey(notification, cmgr, false));
+        assertNull(cmgr.getOverflowKey(notification, cmgr, true));
+    }
+
+    @Test public void testSubscriptions ()
+        throws Exception
+    {
+        TestConnectionManager cmgr = getInstance(TestConnectionManager.class);
+
+        // subscription responses must be delivered in order, so that no lane can overtake them,
+        // whether or not they are batched with other messages
+        ObjectResponse<DObject> response = new ObjectResponse<DObject>(new DObject());
+        assertNull(cmgr.getOverflowKey(response, cmgr, false));
+
+        CompoundDownstreamMessage compound = new CompoundDownstreamMessage();
+        compound.msgs.add(new EventNotification(createUpdate()));
+        compound.msgs.add(response);
+        assertNull(cmgr.getOverflowKey(compound, cmgr, false));
+    }
+
+    @Test public void testDeltaCount ()
+        throws Exception
+    {
+        // writing an event as a delta is noted by the stream, whether it is streamed anew or
+        // written in its prepared form
+        EventNotification notification = new EventNotification(createUpdate());
+        ObjectOutputStream oout = new ObjectOutputStream(new ByteArrayOutputStream());
+        oout.setDeltas(true);
+        oout.writeObject(notification);
+        assertEquals(1, oout.getDeltaCount());
+        PreparedObject.prepare(notification, false, true).writeTo(oout);
+        assertEquals(2, oout.getDeltaCount());
+
+        // but not if deltas have not been negotiated
+        oout = new ObjectOutputStream(new ByteArrayOutputStream());
+        oout.writeObject(notification);
+        assertEquals(0, oout.getDeltaCount());
+    }
+
+    /**
+     * Creates an applied entry update on a lane channel, which may be written as a delta.
+     */
+    protected static EntryUpdatedEvent<EntryDeltaTest.DeltaEntry> createUpdate ()
+        throws Exception
+    {
+        EntryDeltaTest.DeltaObject target = new EntryDeltaTest.DeltaObject();
+        target.entries = DSet.newDSet(Collections.singleton(
+            new EntryDeltaTest.DeltaEntry("bob", 1, null, null)));
+        EntryUpdatedEvent<EntryDeltaTest.DeltaEntry> event =
+            new EntryUpdatedEvent<EntryDeltaTest.DeltaEntry>(
+                1, "entries", new EntryDeltaTest.DeltaEntry("bob", 2, null, null));
+        event.applyToObject(target);
+        event.setTransport(Transport.getInstance(Transport.Type.RELIABLE_ORDERED, 1));
+        return event;
+    }
+}
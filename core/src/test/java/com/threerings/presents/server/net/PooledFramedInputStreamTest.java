@@ -0,0 +1,118 @@
+//
+// $Id$
+//
+// Narya library - tools for developing networked games
+// Copyright (C) 2002-2012 Three Rings Design, Inc., All Rights Reserved
+// http://code.google.com/p/narya/
+//
+// This library is free software; you can redistribute it and/or modify it
+// under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation; either version 2.1 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package com.threerings.presents.server.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.spi.SelectorProvider;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.threerings.io.FramingOutputStream;
+
+import com.threerings.nio.conman.BufferPool;
+
+/**
+ * Tests the {@link PooledFramedInputStream} class.
+ */
+public class PooledFramedInputStreamTest
+{
+    @Test
+    public void testReadFrames ()
+        throws IOException
+    {
+        BufferPool pool = new BufferPool(128, 4096, 64*1024);
+        PooledFramedInputStream fin = new PooledFramedInputStream(pool);
+        DataInputStream din = new DataInputStream(fin);
+        Pipe pipe = SelectorProvider.provider().openPipe();
+        pipe.source().configureBlocking(false);
+
+        // we borrow a buffer to discover that there's nothing to read, then give it right back
+        assertFalse(fin.readFrame(pipe.source()));
+        assertFalse(fin.readFrame(pipe.source()));
+        assertEquals(1, pool.getAllocations());
+
+        // write two frames in one go, plus half of a third
+        ByteBuffer third = frame(createString(100));
+        pipe.sink().write(frame("one"));
+        pipe.sink().write(frame("two"));
+        third.limit(50);
+        pipe.sink().write(third);
+
+        assertTrue(fin.readFrame(pipe.source()));
+        assertEquals("one", din.readUTF());
+        assertTrue(fin.readFrame(pipe.source()));
+        assertEquals("two", din.readUTF());
+        assertFalse(fin.readFrame(pipe.source()));
+
+        // finish the third frame, which should be read into the buffer we're still holding
+        third.limit(third.capacity());
+        pipe.sink().write(third);
+        assertTrue(fin.readFrame(pipe.source()));
+        assertEquals(createString(100), din.readUTF());
+        assertFalse(fin.readFrame(pipe.source()));
+        assertEquals(-1, fin.read());
+        assertEquals(1, pool.getAllocations());
+
+        // now read a frame too large for the pool, then a small one, which should reuse the
+        // buffer we returned to the pool
+        String big = createString(10000);
+        pipe.sink().write(frame(big));
+        while (!fin.readFrame(pipe.source())) {
+            // keep reading until the frame is complete
+        }
+        assertEquals(big, din.readUTF());
+        assertFalse(fin.readFrame(pipe.source()));
+        long allocs = pool.getAllocations();
+
+        pipe.sink().write(frame("four"));
+        assertTrue(fin.readFrame(pipe.source()));
+        assertEquals("four", din.readUTF());
+        assertFalse(fin.readFrame(pipe.source()));
+        assertEquals(allocs, pool.getAllocations());
+    }
+
+    protected static ByteBuffer frame (String value)
+        throws IOException
+    {
+        FramingOutputStream fout = new FramingOutputStream();
+        new DataOutputStream(fout).writeUTF(value);
+        ByteBuffer buffer = fout.frameAndReturnBuffer();
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        return copy;
+    }
+
+    protected static String createString (int length)
+    {
+        StringBuilder buf = new StringBuilder();
+        for (int ii = 0; ii < length; ii++) {
+            buf.append((char)('a' + ii % 26));
+        }
+        return buf.toString();
+    }
+}